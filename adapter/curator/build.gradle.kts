@@ -5,4 +5,6 @@ plugins {
 dependencies {
     implementation("org.apache.curator:curator-framework:5.9.0")
     implementation("org.apache.curator:curator-recipes:5.9.0")
-}
\ No newline at end of file
+
+    testImplementation(testFixtures(project(":adapter:zookeeper")))
+}
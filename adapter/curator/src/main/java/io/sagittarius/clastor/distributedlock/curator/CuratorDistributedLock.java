@@ -1,39 +1,392 @@
 package io.sagittarius.clastor.distributedlock.curator;
 
 import io.sagittarius.clastor.distributedlock.domain.DistributedLock;
+import io.sagittarius.clastor.distributedlock.domain.DistributedLockMetrics;
+import io.sagittarius.clastor.distributedlock.domain.LockMode;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.curator.framework.api.CuratorWatcher;
 import org.apache.curator.framework.recipes.locks.InterProcessMutex;
+import org.apache.curator.framework.recipes.locks.LockInternals;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
 
 import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 @Slf4j
 public class CuratorDistributedLock implements DistributedLock {
 
+    private final CuratorFramework client;
+    private final String path;
+    private final LockMode mode;
+    private final ScheduledExecutorService scheduler;
+    private final String resourceKind;
+    private final DistributedLockMetrics metrics;
+
+    /**
+     * Where the blocking recipe comes from: the registry shared by the handles of the manager, or
+     * a recipe of this handle's own.
+     */
+    private final CuratorMutexRegistry mutexes;
     private final InterProcessMutex mutex;
 
-    public CuratorDistributedLock(CuratorFramework client, String path) {
-        this.mutex = new InterProcessMutex(client, path);
+    private volatile String asyncNodePath;
+
+    /**
+     * Holds taken through the blocking recipe by this handle, and the registry entry they were
+     * taken with; guarded by this.
+     */
+    private int blockingHolds;
+    private CuratorMutexRegistry.Entry heldEntry;
+
+    public CuratorDistributedLock(CuratorFramework client, String path, ScheduledExecutorService scheduler) {
+        this(client, path, LockMode.EXCLUSIVE, scheduler);
+    }
+
+    public CuratorDistributedLock(CuratorFramework client, String path, LockMode mode, ScheduledExecutorService scheduler) {
+        this(client, path, mode, scheduler, null, DistributedLockMetrics.NOOP);
+    }
+
+    /**
+     * @param resourceKind the kind of the resource, for the metrics
+     * @param metrics      receives the queue position and request count of asynchronous
+     *                     acquisitions; the blocking recipe sends its requests out of sight
+     */
+    public CuratorDistributedLock(CuratorFramework client, String path, LockMode mode, ScheduledExecutorService scheduler,
+                                  String resourceKind, DistributedLockMetrics metrics) {
+        this.client = client;
+        this.path = path;
+        this.mode = mode;
+        this.scheduler = scheduler;
+        this.resourceKind = resourceKind;
+        this.metrics = metrics;
+        this.mutexes = null;
+
+        this.mutex = new CuratorReadWriteLock(client, path).mutex(mode);
+    }
+
+    /**
+     * A handle whose blocking acquisitions go through the recipe the registry holds for the path,
+     * so that they are reentrant across the handles of a thread.
+     */
+    CuratorDistributedLock(CuratorFramework client, String path, LockMode mode, ScheduledExecutorService scheduler,
+                           String resourceKind, DistributedLockMetrics metrics, CuratorMutexRegistry mutexes) {
+        this.client = client;
+        this.path = path;
+        this.mode = mode;
+        this.scheduler = scheduler;
+        this.resourceKind = resourceKind;
+        this.metrics = metrics;
+        this.mutexes = mutexes;
+        this.mutex = null;
+    }
+
+    /**
+     * The blocking recipe of this handle's own, for composing it with others.
+     */
+    InterProcessMutex mutex() {
+        return mutex;
     }
 
     @Override
     public boolean tryLock(Duration timeout) throws InterruptedException {
+        CuratorMutexRegistry.Entry entry = mutexes != null ? mutexes.enter(path) : null;
+        InterProcessMutex recipe = entry != null ? entry.mutex(mode) : mutex;
+        boolean acquired = false;
         try {
-            return mutex.acquire(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            acquired = recipe.acquire(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            if (acquired) {
+                synchronized (this) {
+                    blockingHolds++;
+                    heldEntry = entry;
+                }
+            }
+            return acquired;
+        } catch (InterruptedException e) {
+            throw e;
         } catch (Exception e) {
             throw new RuntimeException("Failed to acquire Curator lock", e);
+        } finally {
+            if (!acquired && entry != null) {
+                mutexes.exit(path, entry);
+            }
         }
     }
 
+    @Override
+    public CompletableFuture<Boolean> tryLockAsync(Duration timeout) {
+        Acquisition acquisition = new Acquisition(System.nanoTime() + timeout.toNanos());
+        acquisition.start();
+        return acquisition.result;
+    }
+
     @Override
     public void unlock() {
-        try {
-            if (mutex.isAcquiredInThisProcess()) {
-                mutex.release();
+        String nodePath = asyncNodePath;
+        if (nodePath != null) {
+            asyncNodePath = null;
+            try {
+                client.delete().guaranteed().forPath(nodePath);
+            } catch (KeeperException.NoNodeException ignored) {
+            } catch (Exception e) {
+                log.error("Failed to release Curator lock", e);
             }
+            return;
+        }
+
+        CuratorMutexRegistry.Entry entry;
+        synchronized (this) {
+            if (blockingHolds == 0) {
+                return;
+            }
+            entry = heldEntry;
+            try {
+                (entry != null ? entry.mutex(mode) : mutex).release();
+            } catch (IllegalMonitorStateException e) {
+                // held by another thread, which has to release it
+                log.error("Failed to release Curator lock", e);
+                return;
+            } catch (Exception e) {
+                // the recipe has let go of the hold all the same
+                log.error("Failed to release Curator lock", e);
+            }
+            if (--blockingHolds == 0) {
+                heldEntry = null;
+            }
+        }
+        if (entry != null) {
+            mutexes.exit(path, entry);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> unlockAsync() {
+        String nodePath = asyncNodePath;
+        if (nodePath == null) {
+            // held through the blocking recipe, whose release is bound to the owning thread
+            unlock();
+            return CompletableFuture.completedFuture(null);
+        }
+
+        asyncNodePath = null;
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        try {
+            client.delete().guaranteed().inBackground((c, event) -> {
+                KeeperException.Code code = KeeperException.Code.get(event.getResultCode());
+                if (code == KeeperException.Code.OK || code == KeeperException.Code.NONODE) {
+                    result.complete(null);
+                } else {
+                    log.error("Failed to release Curator lock {}: {}", event.getPath(), code);
+                    result.completeExceptionally(KeeperException.create(code, event.getPath()));
+                }
+            }).forPath(nodePath);
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    private void deleteQuietly(String nodePath) {
+        try {
+            client.delete().guaranteed().inBackground().forPath(nodePath);
         } catch (Exception e) {
-            log.error("Failed to release Curator lock", e);
+            log.warn("Failed to clean up abandoned lock node {}", nodePath, e);
+        }
+    }
+
+    /**
+     * A single pending acquisition built on Curator's background API. It follows the
+     * {@link CuratorReadWriteLock} protocol (protected ephemeral sequential node, watch on
+     * the node to wait for) but continues from callbacks instead of parking the caller.
+     * Writers wait for the nearest preceding node, readers for the nearest preceding writer.
+     */
+    private final class Acquisition implements BackgroundCallback, CuratorWatcher {
+
+        private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+        private final long deadlineNanos;
+
+        private volatile String nodePath;
+        private volatile ScheduledFuture<?> timeoutTask;
+        private volatile int roundTrips;
+        private boolean enqueued;
+
+        private Acquisition(long deadlineNanos) {
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        private void start() {
+            result.whenComplete(this::finish);
+            try {
+                roundTrips++;
+                client.create()
+                        .creatingParentContainersIfNeeded()
+                        .withProtection()
+                        .withMode(CreateMode.EPHEMERAL_SEQUENTIAL)
+                        .inBackground(this)
+                        .forPath(path + "/" + (mode == LockMode.SHARED
+                                ? CuratorReadWriteLock.READ_LOCK_NAME : CuratorReadWriteLock.WRITE_LOCK_NAME));
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        }
+
+        private void checkPosition() {
+            if (result.isDone()) {
+                return;
+            }
+            try {
+                roundTrips++;
+                client.getChildren().inBackground(this).forPath(path);
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        }
+
+        @Override
+        public void processResult(CuratorFramework c, CuratorEvent event) {
+            KeeperException.Code code = KeeperException.Code.get(event.getResultCode());
+            switch (event.getType()) {
+                case CREATE -> onCreated(code, event);
+                case CHILDREN -> onChildren(code, event);
+                case EXISTS -> onPredecessorWatched(code, event);
+                default -> log.warn("Unexpected background event {} for lock {}", event.getType(), path);
+            }
+        }
+
+        private void onCreated(KeeperException.Code code, CuratorEvent event) {
+            if (code != KeeperException.Code.OK) {
+                result.completeExceptionally(KeeperException.create(code, event.getPath()));
+                return;
+            }
+
+            nodePath = event.getName();
+            if (result.isDone()) {
+                // timed out or cancelled while the create was in flight
+                deleteQuietly(nodePath);
+                return;
+            }
+            checkPosition();
+        }
+
+        private void onChildren(KeeperException.Code code, CuratorEvent event) {
+            if (result.isDone()) {
+                return;
+            }
+            if (code != KeeperException.Code.OK) {
+                result.completeExceptionally(KeeperException.create(code, event.getPath()));
+                return;
+            }
+
+            List<String> children = LockInternals.getSortedChildren(
+                    CuratorReadWriteLock.WRITE_LOCK_NAME, CuratorReadWriteLock.SORTER, event.getChildren());
+            String nodeName = nodePath.substring(path.length() + 1);
+            int index = children.indexOf(nodeName);
+            if (index < 0) {
+                result.completeExceptionally(new KeeperException.NoNodeException(nodePath));
+                return;
+            }
+
+            int waitFor = index - 1;
+            if (mode == LockMode.SHARED) {
+                while (waitFor >= 0 && CuratorReadWriteLock.isReader(children.get(waitFor))) {
+                    waitFor--;
+                }
+            }
+            if (!enqueued) {
+                enqueued = true;
+                metrics.enqueued(resourceKind, position(children, index));
+            }
+            if (waitFor < 0) {
+                acquired();
+                return;
+            }
+
+            String prevPath = path + "/" + children.get(waitFor);
+            try {
+                roundTrips++;
+                client.checkExists().usingWatcher(this).inBackground(this).forPath(prevPath);
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        }
+
+        private void onPredecessorWatched(KeeperException.Code code, CuratorEvent event) {
+            if (result.isDone()) {
+                return;
+            }
+            if (code == KeeperException.Code.NONODE) {
+                checkPosition();
+                return;
+            }
+            if (code != KeeperException.Code.OK) {
+                result.completeExceptionally(KeeperException.create(code, event.getPath()));
+                return;
+            }
+
+            long remaining = deadlineNanos - System.nanoTime();
+            if (remaining <= 0) {
+                result.complete(false);
+            } else if (timeoutTask == null) {
+                timeoutTask = scheduler.schedule(() -> result.complete(false), remaining, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        /**
+         * Number of nodes ahead of ours that have to go before the lock can be held.
+         */
+        private int position(List<String> children, int index) {
+            if (mode == LockMode.EXCLUSIVE) {
+                return index;
+            }
+            int writers = 0;
+            for (int i = 0; i < index; i++) {
+                if (!CuratorReadWriteLock.isReader(children.get(i))) {
+                    writers++;
+                }
+            }
+            return writers;
+        }
+
+        @Override
+        public void process(WatchedEvent event) {
+            if (event.getType() == Watcher.Event.EventType.NodeDeleted) {
+                checkPosition();
+            }
+        }
+
+        private void acquired() {
+            asyncNodePath = nodePath;
+            if (!result.complete(true) && (result.isCompletedExceptionally() || !result.join())) {
+                asyncNodePath = null;
+            }
+        }
+
+        private void finish(Boolean acquired, Throwable error) {
+            if (timeoutTask != null) {
+                timeoutTask.cancel(false);
+            }
+            metrics.roundTrips(resourceKind, roundTrips);
+            if (Boolean.TRUE.equals(acquired)) {
+                return;
+            }
+
+            String abandoned = nodePath;
+            if (abandoned != null) {
+                deleteQuietly(abandoned);
+            }
+            if (error instanceof CancellationException) {
+                log.debug("Acquisition of {} cancelled", path);
+            }
         }
     }
 }
@@ -0,0 +1,116 @@
+package io.sagittarius.clastor.distributedlock.curator;
+
+import io.sagittarius.clastor.distributedlock.domain.DistributedSemaphore;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.locks.InterProcessSemaphoreV2;
+import org.apache.curator.framework.recipes.locks.Lease;
+import org.apache.curator.framework.recipes.shared.SharedCountReader;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Semaphore built on {@link InterProcessSemaphoreV2}, counting against the shared permits
+ * node of its resource kind.
+ * <p>
+ * The recipe only offers a blocking acquire; {@link #tryAcquireAsync(Duration)} runs it on
+ * the given executor, and fails with {@link RejectedExecutionException} when the executor takes
+ * no more. A lease is not bound to a thread, so it may be released from anywhere.
+ */
+@Slf4j
+public class CuratorDistributedSemaphore implements DistributedSemaphore {
+
+    private final InterProcessSemaphoreV2 semaphore;
+    private final Executor executor;
+
+    private volatile Lease lease;
+
+    public CuratorDistributedSemaphore(CuratorFramework client, String path, SharedCountReader permits, Executor executor) {
+        this.semaphore = new InterProcessSemaphoreV2(client, path, permits);
+        this.executor = executor;
+    }
+
+    @Override
+    public boolean tryAcquire(Duration timeout) throws InterruptedException {
+        try {
+            Lease acquired = semaphore.acquire(Math.max(0, timeout.toNanos()), TimeUnit.NANOSECONDS);
+            lease = acquired;
+            return acquired != null;
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to acquire Curator semaphore", e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Boolean> tryAcquireAsync(Duration timeout) {
+        long deadlineNanos = System.nanoTime() + timeout.toNanos();
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> acquire(result, deadlineNanos));
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    private void acquire(CompletableFuture<Boolean> result, long deadlineNanos) {
+        if (result.isDone()) {
+            return;
+        }
+        try {
+            Lease acquired = semaphore.acquire(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+            if (acquired == null) {
+                result.complete(false);
+                return;
+            }
+            lease = acquired;
+            if (!result.complete(true)) {
+                // cancelled while waiting
+                lease = null;
+                returnQuietly(acquired);
+            }
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    @Override
+    public void release() {
+        Lease held = lease;
+        if (held != null) {
+            lease = null;
+            returnQuietly(held);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> releaseAsync() {
+        Lease held = lease;
+        if (held == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        lease = null;
+        try {
+            return CompletableFuture.runAsync(() -> returnQuietly(held), executor);
+        } catch (RejectedExecutionException e) {
+            // every thread is waiting for a permit, which this release may well hand out
+            returnQuietly(held);
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    private static void returnQuietly(Lease held) {
+        try {
+            held.close();
+        } catch (IOException e) {
+            log.error("Failed to release Curator semaphore lease", e);
+        }
+    }
+}
@@ -2,10 +2,36 @@ package io.sagittarius.clastor.distributedlock.curator;
 
 import java.time.Duration;
 
+/**
+ * @param mutexCacheCapacity the most lock recipes kept for reuse while unused; zero or less for the default
+ * @param mutexIdleTimeout   how long an unused lock recipe is kept; {@code null} for the default
+ * @param maxSemaphoreWaits  the most asynchronous semaphore acquisitions waiting at once, each on a
+ *                           thread of its own; zero or less for the default
+ */
 public record CuratorLockConfig(
         String connectString,
         Duration connectionTimeout,
         Duration sessionTimeout,
-        String rootPath
+        String rootPath,
+        int mutexCacheCapacity,
+        Duration mutexIdleTimeout,
+        int maxSemaphoreWaits
 ) {
+    public static final int DEFAULT_MUTEX_CACHE_CAPACITY = 10_000;
+    public static final Duration DEFAULT_MUTEX_IDLE_TIMEOUT = Duration.ofMinutes(1);
+    public static final int DEFAULT_MAX_SEMAPHORE_WAITS = 256;
+
+    public CuratorLockConfig {
+        mutexCacheCapacity = mutexCacheCapacity > 0
+                ? mutexCacheCapacity
+                : DEFAULT_MUTEX_CACHE_CAPACITY;
+
+        mutexIdleTimeout = mutexIdleTimeout != null
+                ? mutexIdleTimeout
+                : DEFAULT_MUTEX_IDLE_TIMEOUT;
+
+        maxSemaphoreWaits = maxSemaphoreWaits > 0
+                ? maxSemaphoreWaits
+                : DEFAULT_MAX_SEMAPHORE_WAITS;
+    }
 }
@@ -2,22 +2,71 @@ package io.sagittarius.clastor.distributedlock.curator;
 
 import io.sagittarius.clastor.distributedlock.domain.DistributedLock;
 import io.sagittarius.clastor.distributedlock.domain.DistributedLockManager;
+import io.sagittarius.clastor.distributedlock.domain.DistributedLockMetrics;
 import io.sagittarius.clastor.distributedlock.domain.DistributedLockVersionAccessor;
+import io.sagittarius.clastor.distributedlock.domain.DistributedSemaphore;
+import io.sagittarius.clastor.distributedlock.domain.DistributedSemaphorePermitsAccessor;
+import io.sagittarius.clastor.distributedlock.domain.InstrumentedDistributedLock;
+import io.sagittarius.clastor.distributedlock.domain.LockKey;
+import io.sagittarius.clastor.distributedlock.domain.LockMode;
+import io.sagittarius.clastor.distributedlock.domain.LockSchemaManager;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.curator.RetryPolicy;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.state.ConnectionState;
 import org.apache.curator.retry.ExponentialBackoffRetry;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
 @Slf4j
 public class CuratorLockManager implements DistributedLockManager, AutoCloseable {
 
     private final CuratorLockConfig config;
+    private final DistributedLockMetrics metrics;
     private final CuratorFramework client;
-    private final DistributedLockVersionAccessor versionAccessor;
+    private final CuratorLockVersionAccessor versionAccessor;
+    private final CuratorSemaphorePermitsAccessor permitsAccessor;
+    private final CuratorLockSchemaManager schemaManager;
+    private final CuratorMutexRegistry mutexes;
+
+    /**
+     * Drives the timers of asynchronous acquisitions. Lock waits never park a thread of their own.
+     */
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "curator-lock-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Runs the blocking semaphore recipe for asynchronous acquisitions, one thread for each that
+     * waits. Past {@link CuratorLockConfig#maxSemaphoreWaits()} of them, acquisitions are rejected
+     * rather than queued behind waits that may each last their whole timeout.
+     */
+    private final ExecutorService semaphoreExecutor;
 
     public CuratorLockManager(CuratorLockConfig config) {
+        this(config, DistributedLockMetrics.NOOP);
+    }
+
+    public CuratorLockManager(CuratorLockConfig config, DistributedLockMetrics metrics) {
         this.config = config;
+        this.metrics = metrics;
+        this.semaphoreExecutor = new ThreadPoolExecutor(0, config.maxSemaphoreWaits(), 1, TimeUnit.MINUTES,
+                new SynchronousQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "curator-semaphore");
+                    thread.setDaemon(true);
+                    return thread;
+                });
         RetryPolicy retryPolicy = new ExponentialBackoffRetry(1000, 3);
 
         this.client = CuratorFrameworkFactory.builder()
@@ -27,6 +76,9 @@ public class CuratorLockManager implements DistributedLockManager, AutoCloseable
                 .retryPolicy(retryPolicy)
                 .build();
 
+        if (metrics != DistributedLockMetrics.NOOP) {
+            this.client.getConnectionStateListenable().addListener((c, state) -> metrics.sessionStateChanged(sessionStateOf(state)));
+        }
         this.client.start();
 
         this.versionAccessor = new CuratorLockVersionAccessor(
@@ -35,17 +87,68 @@ public class CuratorLockManager implements DistributedLockManager, AutoCloseable
                 "version",
                 "v1"
         );
+
+        this.permitsAccessor = new CuratorSemaphorePermitsAccessor(
+                client,
+                config.rootPath(),
+                "permits",
+                1
+        );
+
+        this.schemaManager = new CuratorLockSchemaManager(
+                client,
+                config.rootPath(),
+                "mode",
+                versionAccessor,
+                scheduler
+        );
+
+        metrics.versionCache(versionAccessor::cacheHits, versionAccessor::cacheMisses);
+
+        this.mutexes = new CuratorMutexRegistry(client, config.mutexCacheCapacity(), config.mutexIdleTimeout());
+        long evictionPeriodMs = Math.max(1, config.mutexIdleTimeout().toMillis());
+        scheduler.scheduleWithFixedDelay(mutexes::evictIdle, evictionPeriodMs, evictionPeriodMs, TimeUnit.MILLISECONDS);
     }
 
     @Override
-    public DistributedLock lock(String resourceKind, String resourceId) {
+    public DistributedLock lock(String resourceKind, String resourceId, LockMode mode) {
+        schemaManager.checkOpen(resourceKind);
+        DistributedLock lock = new CuratorDistributedLock(client, lockPath(resourceKind, resourceId), mode, scheduler,
+                resourceKind, metrics, mutexes);
+        return InstrumentedDistributedLock.instrument(lock, resourceKind, metrics);
+    }
+
+    @Override
+    public DistributedLock lockAll(Collection<LockKey> keys) {
+        List<String> paths = new ArrayList<>(keys.size());
+        for (LockKey key : LockKey.canonical(keys)) {
+            schemaManager.checkOpen(key.resourceKind());
+            paths.add(lockPath(key.resourceKind(), key.resourceId()));
+        }
+        return new CuratorMultiLock(client, paths, scheduler);
+    }
+
+    @Override
+    public DistributedSemaphore semaphore(String resourceKind, String resourceId) {
+        schemaManager.checkOpen(resourceKind);
+        String path = lockPath(resourceKind, resourceId) + ".semaphore";
+        return new CuratorDistributedSemaphore(client, path, permitsAccessor.sharedCount(resourceKind), semaphoreExecutor);
+    }
+
+    private String lockPath(String resourceKind, String resourceId) {
         String version = versionAccessor.currentVersion(resourceKind);
-        String path = config.rootPath()
+        return config.rootPath()
                 + "/" + resourceKind
                 + "/" + version
                 + "/" + resourceId;
+    }
 
-        return new CuratorDistributedLock(client, path);
+    private static DistributedLockMetrics.SessionState sessionStateOf(ConnectionState state) {
+        return switch (state) {
+            case CONNECTED, RECONNECTED, READ_ONLY -> DistributedLockMetrics.SessionState.CONNECTED;
+            case SUSPENDED -> DistributedLockMetrics.SessionState.DISCONNECTED;
+            case LOST -> DistributedLockMetrics.SessionState.EXPIRED;
+        };
     }
 
     @Override
@@ -53,8 +156,22 @@ public class CuratorLockManager implements DistributedLockManager, AutoCloseable
         return versionAccessor;
     }
 
+    @Override
+    public DistributedSemaphorePermitsAccessor permitsAccessor() {
+        return permitsAccessor;
+    }
+
+    @Override
+    public LockSchemaManager schemaManager() {
+        return schemaManager;
+    }
+
     @Override
     public void close() throws Exception {
+        scheduler.shutdownNow();
+        semaphoreExecutor.shutdownNow();
+        permitsAccessor.close();
         client.close();
+        metrics.sessionStateChanged(DistributedLockMetrics.SessionState.CLOSED);
     }
 }
@@ -0,0 +1,377 @@
+package io.sagittarius.clastor.distributedlock.curator;
+
+import io.sagittarius.clastor.distributedlock.domain.LockSchemaManager;
+import io.sagittarius.clastor.distributedlock.domain.ResourceDrainingException;
+import io.sagittarius.clastor.distributedlock.domain.ResourceMode;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.curator.framework.api.CuratorWatcher;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.Stat;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Resource modes stored next to the version node, and rotations run from this process.
+ * <p>
+ * Modes are cached per resourceKind like {@link CuratorLockVersionAccessor} caches versions, and
+ * stored as their name. A drain is detected with children watches on the namespace of the version
+ * and on each of its resources; the contenders of a semaphore sit one level deeper, in the
+ * {@code leases} and {@code locks} nodes of {@link org.apache.curator.framework.recipes.locks.InterProcessSemaphoreV2},
+ * which are watched instead. The version switch and the reopening of the kind are written in one
+ * transaction, version first.
+ */
+@Slf4j
+public class CuratorLockSchemaManager implements LockSchemaManager {
+
+    private static final String SEMAPHORE_SUFFIX = ".semaphore";
+
+    private final CuratorFramework client;
+    private final String rootPath;
+    private final String modeNodeName;
+    private final CuratorLockVersionAccessor versionAccessor;
+    private final ScheduledExecutorService scheduler;
+
+    private final ConcurrentMap<String, CachedMode> modes = new ConcurrentHashMap<>();
+
+    /**
+     * Runs the blocking steps of rotations, off the ZooKeeper event thread.
+     */
+    private final ExecutorService rotationExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "curator-lock-rotation");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public CuratorLockSchemaManager(CuratorFramework client, String rootPath, String modeNodeName,
+                                    CuratorLockVersionAccessor versionAccessor, ScheduledExecutorService scheduler) {
+        this.client = client;
+        this.rootPath = rootPath;
+        this.modeNodeName = modeNodeName;
+        this.versionAccessor = versionAccessor;
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public ResourceMode mode(String resourceKind) {
+        CachedMode cached = modes.get(resourceKind);
+        if (cached != null) {
+            return cached.mode;
+        }
+        return loadMode(resourceKind);
+    }
+
+    /**
+     * Refuses new locks of a draining resource kind.
+     *
+     * @throws ResourceDrainingException if the kind is draining
+     */
+    void checkOpen(String resourceKind) {
+        if (mode(resourceKind) == ResourceMode.DRAINING) {
+            throw new ResourceDrainingException(resourceKind);
+        }
+    }
+
+    @Override
+    public void setMode(String resourceKind, ResourceMode mode) {
+        try {
+            writeMode(resourceKind, mode);
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to set the mode at " + modePath(resourceKind), e);
+        }
+        log.info("Mode of {} set to {}", resourceKind, mode);
+    }
+
+    @Override
+    public CompletableFuture<Void> awaitDrained(String resourceKind, String version) {
+        Drain drain = new Drain(rootPath + "/" + resourceKind + "/" + version);
+        drain.start();
+        return drain.drained;
+    }
+
+    @Override
+    public CompletableFuture<String> rotate(String resourceKind, String newVersion, Duration drainTimeout) {
+        if (newVersion == null || newVersion.isBlank() || newVersion.contains("/")) {
+            throw new IllegalArgumentException("Invalid version '" + newVersion + "'");
+        }
+        String previousVersion = versionAccessor.currentVersion(resourceKind);
+        if (previousVersion.equals(newVersion)) {
+            throw new IllegalArgumentException(resourceKind + " is already on version " + newVersion);
+        }
+
+        ResourceMode previousMode = mode(resourceKind);
+        Stat draining;
+        try {
+            client.createContainers(rootPath + "/" + resourceKind + "/" + newVersion);
+            draining = writeMode(resourceKind, ResourceMode.DRAINING);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        log.info("Rotating {} from {} to {}, draining {}", resourceKind, previousVersion, newVersion, previousVersion);
+
+        long startNanos = System.nanoTime();
+        CompletableFuture<Void> drained = awaitDrained(resourceKind, previousVersion);
+        ScheduledFuture<?> timeout = scheduler.schedule(() -> drained.completeExceptionally(
+                        new TimeoutException(resourceKind + "/" + previousVersion + " did not drain within " + drainTimeout)),
+                drainTimeout.toNanos(), TimeUnit.NANOSECONDS);
+
+        return drained.handleAsync((ignored, error) -> {
+            timeout.cancel(false);
+            if (error != null) {
+                log.warn("Rotation of {} to {} abandoned, {} is {} again on {}",
+                        resourceKind, newVersion, resourceKind, previousMode, previousVersion, error);
+                try {
+                    setMode(resourceKind, previousMode);
+                } catch (RuntimeException e) {
+                    error.addSuppressed(e);
+                }
+                throw new CompletionException(error);
+            }
+            switchVersion(resourceKind, previousVersion, newVersion, draining);
+            log.info("{} rotated from {} to {}, drained in {} ms", resourceKind, previousVersion, newVersion,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+            deleteNamespace(rootPath + "/" + resourceKind + "/" + previousVersion);
+            return previousVersion;
+        }, rotationExecutor);
+    }
+
+    private void switchVersion(String resourceKind, String previousVersion, String newVersion, Stat draining) {
+        String vp = versionAccessor.versionPath(resourceKind);
+        try {
+            Stat versionStat = new Stat();
+            String current = new String(client.getData().storingStatIn(versionStat).forPath(vp), StandardCharsets.UTF_8);
+            if (!current.equals(previousVersion)) {
+                throw new IllegalStateException(resourceKind + " was rotated to " + current + " concurrently");
+            }
+            client.transaction().forOperations(
+                    client.transactionOp().setData().withVersion(versionStat.getVersion())
+                            .forPath(vp, newVersion.getBytes(StandardCharsets.UTF_8)),
+                    client.transactionOp().setData().withVersion(draining.getVersion())
+                            .forPath(modePath(resourceKind), encode(ResourceMode.NORMAL)));
+        } catch (KeeperException.BadVersionException e) {
+            throw new IllegalStateException("The version or mode of " + resourceKind
+                    + " changed during the rotation, nothing was switched", e);
+        } catch (IllegalStateException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to switch " + vp + " to " + newVersion, e);
+        }
+    }
+
+    /**
+     * Deletes a drained namespace. A contender of a handle obtained before the rotation can still
+     * show up in it, in which case the namespace is left for the next rotation to delete.
+     */
+    private void deleteNamespace(String path) {
+        try {
+            client.delete().deletingChildrenIfNeeded().forPath(path);
+        } catch (KeeperException.NoNodeException ignored) {
+            // nothing was ever locked under it
+        } catch (Exception e) {
+            log.warn("Failed to delete the old namespace {}", path, e);
+        }
+    }
+
+    private Stat writeMode(String resourceKind, ResourceMode mode) throws Exception {
+        String mp = modePath(resourceKind);
+        try {
+            return client.setData().forPath(mp, encode(mode));
+        } catch (KeeperException.NoNodeException e) {
+            Stat stat = new Stat();
+            client.create().creatingParentsIfNeeded().storingStatIn(stat).forPath(mp, encode(mode));
+            return stat;
+        }
+    }
+
+    private String modePath(String resourceKind) {
+        return rootPath + "/" + resourceKind + "/" + modeNodeName;
+    }
+
+    private static byte[] encode(ResourceMode mode) {
+        return mode.name().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parses the content of a mode node.
+     *
+     * @return the mode, or {@code null} if the content is not a mode
+     */
+    static ResourceMode decode(byte[] data) {
+        if (data == null || data.length == 0) {
+            return null;
+        }
+        try {
+            return ResourceMode.valueOf(new String(data, StandardCharsets.UTF_8).trim());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private ResourceMode loadMode(String resourceKind) {
+        String mp = modePath(resourceKind);
+        try {
+            CachedMode entry = new CachedMode(resourceKind);
+
+            byte[] data;
+            try {
+                data = client.getData().usingWatcher(entry).forPath(mp);
+            } catch (KeeperException.NoNodeException e) {
+                log.info("Mode node {} not found. Initializing with mode={}", mp, ResourceMode.NORMAL);
+                try {
+                    client.create()
+                            .creatingParentsIfNeeded()
+                            .forPath(mp, encode(ResourceMode.NORMAL));
+                } catch (KeeperException.NodeExistsException ignored) {
+                    // created concurrently by another instance, the next read will pick it up
+                }
+                return ResourceMode.NORMAL;
+            }
+
+            ResourceMode value = decode(data);
+            if (value == null) {
+                log.warn("Mode node {} has invalid data. Falling back to mode={}", mp, ResourceMode.NORMAL);
+                value = ResourceMode.NORMAL;
+            }
+
+            entry.mode = value;
+            modes.put(resourceKind, entry);
+            if (entry.invalidated) {
+                modes.remove(resourceKind, entry);
+            }
+            return value;
+        } catch (Exception e) {
+            log.warn("Failed to read the mode from {}. Falling back to mode={}", mp, ResourceMode.NORMAL, e);
+            return ResourceMode.NORMAL;
+        }
+    }
+
+    private final class CachedMode implements CuratorWatcher {
+
+        private final String resourceKind;
+        private volatile ResourceMode mode;
+        private volatile boolean invalidated;
+
+        private CachedMode(String resourceKind) {
+            this.resourceKind = resourceKind;
+        }
+
+        @Override
+        public void process(WatchedEvent event) {
+            if (event.getType() == Watcher.Event.EventType.None
+                    && event.getState() == Watcher.Event.KeeperState.SyncConnected) {
+                // reconnected within the same session, the data watch is still registered
+                return;
+            }
+
+            invalidated = true;
+            if (modes.remove(resourceKind, this)) {
+                log.debug("Mode cache entry for {} invalidated by {} ({})",
+                        resourceKind, event.getType(), event.getState());
+            }
+        }
+    }
+
+    /**
+     * Watches the namespace of a version until no contender is left in it.
+     * <p>
+     * Every watched node is listed with a children watch, and each event re-lists the node it is
+     * about. Curator retries the listings across connection loss, so the drain survives a
+     * reconnection; it fails when the session is lost. The watches left when the drain completes
+     * fire once more at most, and are ignored.
+     */
+    private final class Drain implements CuratorWatcher {
+
+        private final String versionRoot;
+        private final CompletableFuture<Void> drained = new CompletableFuture<>();
+
+        // guarded by this
+        private final Set<String> known = new HashSet<>();
+        private final Set<String> busy = new HashSet<>();
+        private int pendingReads;
+
+        private Drain(String versionRoot) {
+            this.versionRoot = versionRoot;
+        }
+
+        private synchronized void start() {
+            read(versionRoot);
+        }
+
+        /**
+         * Lists a watched node: the version root, a resource or the recipe node of a semaphore.
+         */
+        private void read(String path) {
+            pendingReads++;
+            try {
+                client.getChildren().usingWatcher(this).inBackground((c, event) -> listed(path, event)).forPath(path);
+            } catch (Exception e) {
+                drained.completeExceptionally(e);
+            }
+        }
+
+        private synchronized void listed(String path, CuratorEvent event) {
+            pendingReads--;
+            if (drained.isDone()) {
+                return;
+            }
+            KeeperException.Code code = KeeperException.Code.get(event.getResultCode());
+            if (code == KeeperException.Code.NONODE) {
+                known.remove(path);
+                busy.remove(path);
+            } else if (code != KeeperException.Code.OK) {
+                drained.completeExceptionally(KeeperException.create(code, path));
+                return;
+            } else if (path.equals(versionRoot) || path.endsWith(SEMAPHORE_SUFFIX)) {
+                // namespaces: their children are watched in turn
+                for (String child : event.getChildren()) {
+                    String childPath = path + "/" + child;
+                    if (known.add(childPath)) {
+                        read(childPath);
+                    }
+                }
+            } else if (event.getChildren().isEmpty()) {
+                busy.remove(path);
+            } else {
+                busy.add(path);
+            }
+
+            if (pendingReads == 0 && busy.isEmpty()) {
+                drained.complete(null);
+            }
+        }
+
+        @Override
+        public synchronized void process(WatchedEvent event) {
+            if (drained.isDone()) {
+                return;
+            }
+            if (event.getType() == Watcher.Event.EventType.None) {
+                if (event.getState() == Watcher.Event.KeeperState.Expired
+                        || event.getState() == Watcher.Event.KeeperState.Closed) {
+                    drained.completeExceptionally(new KeeperException.SessionExpiredException());
+                }
+                return;
+            }
+            String path = event.getPath();
+            if (path.equals(versionRoot) || path.startsWith(versionRoot + "/")) {
+                read(path);
+            }
+        }
+    }
+}
@@ -4,10 +4,23 @@ import io.sagittarius.clastor.distributedlock.domain.DistributedLockVersionAcces
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.CuratorWatcher;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
 
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Version accessor backed by a per-resourceKind in-memory cache.
+ * <p>
+ * Each cached version holds a one-shot data watch on its version node. Any change,
+ * deletion or session event invalidates the entry, so the next {@link #currentVersion(String)}
+ * re-reads the node. In the steady state version resolution costs no ZooKeeper round trips.
+ */
 @Slf4j
 @RequiredArgsConstructor
 public class CuratorLockVersionAccessor implements DistributedLockVersionAccessor {
@@ -17,6 +30,10 @@ public class CuratorLockVersionAccessor implements DistributedLockVersionAccesso
     private final String versionNodeName;
     private final String defaultVersion;
 
+    private final ConcurrentMap<String, CachedVersion> versions = new ConcurrentHashMap<>();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+
     @Override
     public String versionPath(String resourceKind) {
         return rootPath + "/" + resourceKind + "/" + versionNodeName;
@@ -24,20 +41,47 @@ public class CuratorLockVersionAccessor implements DistributedLockVersionAccesso
 
     @Override
     public String currentVersion(String resourceKind) {
-        try {
-            String resourceRoot = rootPath + "/" + resourceKind;
-            client.create().creatingParentsIfNeeded().forPath(resourceRoot);
+        CachedVersion cached = versions.get(resourceKind);
+        if (cached != null) {
+            cacheHits.increment();
+            return cached.version;
+        }
+
+        cacheMisses.increment();
+        return loadVersion(resourceKind);
+    }
+
+    /**
+     * Returns the number of {@link #currentVersion(String)} calls served from the cache.
+     */
+    public long cacheHits() {
+        return cacheHits.sum();
+    }
+
+    /**
+     * Returns the number of {@link #currentVersion(String)} calls that had to read ZooKeeper.
+     */
+    public long cacheMisses() {
+        return cacheMisses.sum();
+    }
 
-            String vp = versionPath(resourceKind);
+    private String loadVersion(String resourceKind) {
+        String vp = versionPath(resourceKind);
+        try {
+            CachedVersion entry = new CachedVersion(resourceKind);
 
             byte[] data;
             try {
-                data = client.getData().forPath(vp);
+                data = client.getData().usingWatcher(entry).forPath(vp);
             } catch (KeeperException.NoNodeException e) {
                 log.info("Version node {} not found. Initializing with default version={}", vp, defaultVersion);
-                client.create()
-                        .creatingParentsIfNeeded()
-                        .forPath(vp, defaultVersion.getBytes(StandardCharsets.UTF_8));
+                try {
+                    client.create()
+                            .creatingParentsIfNeeded()
+                            .forPath(vp, defaultVersion.getBytes(StandardCharsets.UTF_8));
+                } catch (KeeperException.NodeExistsException ignored) {
+                    // created concurrently by another instance, the next read will pick it up
+                }
                 return defaultVersion;
             }
 
@@ -47,10 +91,48 @@ public class CuratorLockVersionAccessor implements DistributedLockVersionAccesso
                 return defaultVersion;
             }
 
-            return new String(data, StandardCharsets.UTF_8);
+            entry.version = new String(data, StandardCharsets.UTF_8);
+            publish(entry);
+            return entry.version;
         } catch (Exception e) {
-            log.warn("Failed to read version from {}. Falling back to default version={}", versionPath(resourceKind), defaultVersion, e);
+            log.warn("Failed to read version from {}. Falling back to default version={}", vp, defaultVersion, e);
             return defaultVersion;
         }
     }
+
+    /**
+     * Publishes a freshly read entry unless its watch already fired while it was being read.
+     */
+    private void publish(CachedVersion entry) {
+        versions.put(entry.resourceKind, entry);
+        if (entry.invalidated) {
+            versions.remove(entry.resourceKind, entry);
+        }
+    }
+
+    private final class CachedVersion implements CuratorWatcher {
+
+        private final String resourceKind;
+        private volatile String version;
+        private volatile boolean invalidated;
+
+        private CachedVersion(String resourceKind) {
+            this.resourceKind = resourceKind;
+        }
+
+        @Override
+        public void process(WatchedEvent event) {
+            if (event.getType() == Watcher.Event.EventType.None
+                    && event.getState() == Watcher.Event.KeeperState.SyncConnected) {
+                // reconnected within the same session, the data watch is still registered
+                return;
+            }
+
+            invalidated = true;
+            if (versions.remove(resourceKind, this)) {
+                log.debug("Version cache entry for {} invalidated by {} ({})",
+                        resourceKind, event.getType(), event.getState());
+            }
+        }
+    }
 }
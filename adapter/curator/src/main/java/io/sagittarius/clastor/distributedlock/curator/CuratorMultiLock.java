@@ -0,0 +1,152 @@
+package io.sagittarius.clastor.distributedlock.curator;
+
+import io.sagittarius.clastor.distributedlock.domain.DistributedLock;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.locks.InterProcessLock;
+import org.apache.curator.framework.recipes.locks.InterProcessMultiLock;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A lock over several resources at once.
+ * <p>
+ * Curator has no atomic way to create protected lock nodes on several paths, so, like
+ * {@link InterProcessMultiLock}, the resources are taken one by one in canonical order and
+ * everything taken so far is given back if one of them cannot be acquired in time.
+ */
+@Slf4j
+public class CuratorMultiLock implements DistributedLock {
+
+    private final List<CuratorDistributedLock> locks;
+    private final InterProcessMultiLock mutex;
+
+    private volatile boolean mutexHeld;
+    private volatile List<CuratorDistributedLock> asyncHeld;
+
+    /**
+     * @param client    the Curator client
+     * @param paths     the lock paths of the resources, in canonical order
+     * @param scheduler the scheduler driving the timers of asynchronous acquisitions
+     */
+    public CuratorMultiLock(CuratorFramework client, List<String> paths, ScheduledExecutorService scheduler) {
+        if (paths.isEmpty()) {
+            throw new IllegalArgumentException("At least one resource is required");
+        }
+        this.locks = paths.stream()
+                .map(path -> new CuratorDistributedLock(client, path, scheduler))
+                .toList();
+        this.mutex = new InterProcessMultiLock(locks.stream()
+                .<InterProcessLock>map(CuratorDistributedLock::mutex)
+                .toList());
+    }
+
+    @Override
+    public boolean tryLock(Duration timeout) throws InterruptedException {
+        try {
+            mutexHeld = mutex.acquire(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            return mutexHeld;
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to acquire Curator multi-lock", e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Boolean> tryLockAsync(Duration timeout) {
+        long deadlineNanos = System.nanoTime() + timeout.toNanos();
+        List<CuratorDistributedLock> acquired = new ArrayList<>(locks.size());
+        AtomicReference<CompletableFuture<Boolean>> step = new AtomicReference<>();
+
+        CompletableFuture<Boolean> chain = CompletableFuture.completedFuture(true);
+        for (CuratorDistributedLock lock : locks) {
+            chain = chain.thenCompose(ok -> {
+                if (!ok) {
+                    return CompletableFuture.completedFuture(false);
+                }
+                Duration remaining = Duration.ofNanos(Math.max(0, deadlineNanos - System.nanoTime()));
+                CompletableFuture<Boolean> attempt = lock.tryLockAsync(remaining);
+                step.set(attempt);
+                return attempt.thenApply(locked -> {
+                    if (locked) {
+                        acquired.add(lock);
+                    }
+                    return locked;
+                });
+            });
+        }
+
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        chain.whenComplete((ok, error) -> {
+            if (Boolean.TRUE.equals(ok)) {
+                asyncHeld = acquired;
+                if (result.complete(true)) {
+                    return;
+                }
+                asyncHeld = null;
+            }
+            releaseAll(acquired);
+            if (error != null) {
+                result.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+            } else {
+                result.complete(false);
+            }
+        });
+        result.whenComplete((ok, error) -> {
+            CompletableFuture<Boolean> attempt = step.get();
+            if (error instanceof CancellationException && attempt != null) {
+                attempt.cancel(false);
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public void unlock() {
+        List<CuratorDistributedLock> held = asyncHeld;
+        if (held != null) {
+            asyncHeld = null;
+            held.forEach(CuratorDistributedLock::unlock);
+            return;
+        }
+
+        if (mutexHeld) {
+            mutexHeld = false;
+            try {
+                mutex.release();
+            } catch (Exception e) {
+                log.error("Failed to release Curator multi-lock", e);
+            }
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> unlockAsync() {
+        List<CuratorDistributedLock> held = asyncHeld;
+        if (held == null) {
+            // held through the blocking recipe, whose release is bound to the owning thread
+            unlock();
+            return CompletableFuture.completedFuture(null);
+        }
+
+        asyncHeld = null;
+        return releaseAll(held);
+    }
+
+    private static CompletableFuture<Void> releaseAll(List<CuratorDistributedLock> held) {
+        CompletableFuture<?>[] released = new CompletableFuture<?>[held.size()];
+        for (int i = 0; i < released.length; i++) {
+            released[i] = held.get(i).unlockAsync();
+        }
+        return CompletableFuture.allOf(released);
+    }
+}
@@ -0,0 +1,104 @@
+package io.sagittarius.clastor.distributedlock.curator;
+
+import io.sagittarius.clastor.distributedlock.domain.LockMode;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.locks.InterProcessMutex;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The read/write recipes of the lock paths in use, shared by every handle of a path.
+ * <p>
+ * A recipe counts the holds of each thread, so a thread taking a lock it already holds, through
+ * any handle, gets it again without a round trip; with a recipe per handle it would queue
+ * behind itself. Sharing them also spares building the recipe and its paths on every call.
+ * <p>
+ * Each entry counts the acquisitions under way or held through it, and only an entry that
+ * none is using is evicted: once there are more than {@code capacity} entries, and once it
+ * has not been used for {@code idleTimeout}. A thread holding a lock thus always finds the
+ * recipe it holds it with.
+ */
+final class CuratorMutexRegistry {
+
+    private final CuratorFramework client;
+    private final int capacity;
+    private final long idleTimeoutNanos;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    CuratorMutexRegistry(CuratorFramework client, int capacity, Duration idleTimeout) {
+        this.client = client;
+        this.capacity = capacity;
+        this.idleTimeoutNanos = idleTimeout.toNanos();
+    }
+
+    /**
+     * The recipes of a path, counted as used until {@link #exit(String, Entry)}.
+     */
+    Entry enter(String path) {
+        Entry entry = entries.compute(path, (ignored, existing) -> {
+            Entry current = existing != null ? existing : new Entry(new CuratorReadWriteLock(client, path));
+            current.users++;
+            return current;
+        });
+        if (entries.size() > capacity) {
+            evict(false);
+        }
+        return entry;
+    }
+
+    /**
+     * Ends a use of the recipes begun with {@link #enter(String)}: an acquisition that failed or
+     * a hold that was released.
+     */
+    void exit(String path, Entry entry) {
+        long now = System.nanoTime();
+        entries.computeIfPresent(path, (ignored, current) -> {
+            if (current == entry) {
+                current.users--;
+                current.lastUsedNanos = now;
+            }
+            return current;
+        });
+    }
+
+    /**
+     * Drops the entries nobody has used for the idle timeout.
+     */
+    void evictIdle() {
+        evict(true);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private void evict(boolean idleOnly) {
+        long now = System.nanoTime();
+        Iterator<String> paths = entries.keySet().iterator();
+        while (paths.hasNext() && (idleOnly || entries.size() > capacity)) {
+            entries.computeIfPresent(paths.next(), (ignored, entry) -> {
+                boolean evictable = entry.users == 0 && (!idleOnly || now - entry.lastUsedNanos >= idleTimeoutNanos);
+                return evictable ? null : entry;
+            });
+        }
+    }
+
+    static final class Entry {
+
+        private final CuratorReadWriteLock readWriteLock;
+        // only touched within the compute functions of the map, which serialize them per path
+        private int users;
+        private long lastUsedNanos;
+
+        private Entry(CuratorReadWriteLock readWriteLock) {
+            this.readWriteLock = readWriteLock;
+        }
+
+        InterProcessMutex mutex(LockMode mode) {
+            return readWriteLock.mutex(mode);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package io.sagittarius.clastor.distributedlock.curator;
+
+import io.sagittarius.clastor.distributedlock.domain.LockMode;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.locks.InterProcessMutex;
+import org.apache.curator.framework.recipes.locks.LockInternalsSorter;
+import org.apache.curator.framework.recipes.locks.PredicateResults;
+import org.apache.curator.framework.recipes.locks.StandardLockInternalsDriver;
+import org.apache.zookeeper.KeeperException;
+
+import java.util.List;
+
+/**
+ * The read and write recipes of a lock path, both built on {@link InterProcessMutex}.
+ * <p>
+ * Writers create the {@code lock-} nodes of a plain mutex, so they exclude, and are excluded by,
+ * instances that only know the mutex, as the ones before shared locks did. Readers create
+ * {@code read-lock-} nodes: a plain mutex sorts them by their sequence like its own nodes and
+ * waits for them as for a writer, while readers only wait for the nearest preceding writer.
+ * As with {@link org.apache.curator.framework.recipes.locks.InterProcessReadWriteLock}, a thread
+ * holding the write lock gets the read lock as well.
+ */
+final class CuratorReadWriteLock {
+
+    static final String WRITE_LOCK_NAME = "lock-";
+    static final String READ_LOCK_NAME = "read-lock-";
+
+    /**
+     * Orders readers and writers together by their sequence number, which follows the last
+     * {@code lock-} in either name.
+     */
+    static final LockInternalsSorter SORTER = new StandardLockInternalsDriver();
+
+    private final InterProcessMutex writeLock;
+    private final InterProcessMutex readLock;
+
+    CuratorReadWriteLock(CuratorFramework client, String path) {
+        this.writeLock = new InterProcessMutex(client, path);
+        this.readLock = new InterProcessMutex(client, path, new ReadDriver());
+    }
+
+    InterProcessMutex mutex(LockMode mode) {
+        return mode == LockMode.SHARED ? readLock : writeLock;
+    }
+
+    static boolean isReader(String nodeName) {
+        return nodeName.contains(READ_LOCK_NAME);
+    }
+
+    private final class ReadDriver extends StandardLockInternalsDriver {
+
+        @Override
+        public String createsTheLock(CuratorFramework client, String path, byte[] lockNodeBytes) throws Exception {
+            // the mutex hands over its own node path, ending in lock-
+            String readerPath = path.substring(0, path.length() - WRITE_LOCK_NAME.length()) + READ_LOCK_NAME;
+            return super.createsTheLock(client, readerPath, lockNodeBytes);
+        }
+
+        @Override
+        public PredicateResults getsTheLock(CuratorFramework client, List<String> children, String sequenceNodeName,
+                                            int maxLeases) throws Exception {
+            if (writeLock.isOwnedByCurrentThread()) {
+                return new PredicateResults(null, true);
+            }
+            int index = children.indexOf(sequenceNodeName);
+            if (index < 0) {
+                throw new KeeperException.NoNodeException("Sequential path not found: " + sequenceNodeName);
+            }
+            for (int i = index - 1; i >= 0; i--) {
+                if (!isReader(children.get(i))) {
+                    return new PredicateResults(children.get(i), false);
+                }
+            }
+            return new PredicateResults(null, true);
+        }
+    }
+}
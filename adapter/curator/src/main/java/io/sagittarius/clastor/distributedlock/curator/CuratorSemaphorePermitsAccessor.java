@@ -0,0 +1,79 @@
+package io.sagittarius.clastor.distributedlock.curator;
+
+import io.sagittarius.clastor.distributedlock.domain.DistributedSemaphorePermitsAccessor;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.shared.SharedCount;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Permits accessor backed by one {@link SharedCount} per resourceKind, which keeps its value
+ * current through its own watch and is what {@link CuratorDistributedSemaphore} counts against.
+ * <p>
+ * The count is stored in the {@link SharedCount} encoding (a 4-byte integer).
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class CuratorSemaphorePermitsAccessor implements DistributedSemaphorePermitsAccessor, AutoCloseable {
+
+    private final CuratorFramework client;
+    private final String rootPath;
+    private final String permitsNodeName;
+    private final int defaultPermits;
+
+    private final ConcurrentMap<String, SharedCount> counts = new ConcurrentHashMap<>();
+
+    @Override
+    public String permitsPath(String resourceKind) {
+        return rootPath + "/" + resourceKind + "/" + permitsNodeName;
+    }
+
+    @Override
+    public int currentPermits(String resourceKind) {
+        return sharedCount(resourceKind).getCount();
+    }
+
+    @Override
+    public void setPermits(String resourceKind, int permits) {
+        if (permits < 1) {
+            throw new IllegalArgumentException("permits must be at least 1, got " + permits);
+        }
+        try {
+            sharedCount(resourceKind).setCount(permits);
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to set permits at " + permitsPath(resourceKind), e);
+        }
+        log.info("Permits of {} set to {}", resourceKind, permits);
+    }
+
+    /**
+     * Returns the started shared count of a resource kind, the node is created with the default on first use.
+     */
+    SharedCount sharedCount(String resourceKind) {
+        return counts.computeIfAbsent(resourceKind, kind -> {
+            SharedCount count = new SharedCount(client, permitsPath(kind), defaultPermits);
+            try {
+                count.start();
+            } catch (Exception e) {
+                throw new IllegalStateException("Failed to read permits from " + permitsPath(kind), e);
+            }
+            return count;
+        });
+    }
+
+    @Override
+    public void close() {
+        counts.values().forEach(count -> {
+            try {
+                count.close();
+            } catch (IOException e) {
+                log.warn("Failed to close shared count", e);
+            }
+        });
+        counts.clear();
+    }
+}
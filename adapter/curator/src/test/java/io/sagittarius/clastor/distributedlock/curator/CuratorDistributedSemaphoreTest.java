@@ -0,0 +1,72 @@
+package io.sagittarius.clastor.distributedlock.curator;
+
+import io.sagittarius.clastor.distributedlock.domain.DistributedSemaphore;
+import io.sagittarius.clastor.distributedlock.zookeeper.EmbeddedZooKeeper;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CuratorDistributedSemaphoreTest {
+
+    private static EmbeddedZooKeeper server;
+
+    private CuratorLockManager manager;
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        server = new EmbeddedZooKeeper();
+    }
+
+    @AfterAll
+    static void stopServer() throws Exception {
+        server.close();
+    }
+
+    @BeforeEach
+    void connect() {
+        manager = new CuratorLockManager(new CuratorLockConfig(server.connectionString(), Duration.ofSeconds(5),
+                Duration.ofSeconds(10), "/semaphores-" + System.nanoTime(), 0, null, 2));
+    }
+
+    @AfterEach
+    void disconnect() throws Exception {
+        manager.close();
+    }
+
+    @Test
+    void acquisitionsPastTheWaitingLimitAreRejected() throws Exception {
+        DistributedSemaphore holder = manager.semaphore("orders", "1");
+        assertTrue(holder.tryAcquire(Duration.ofSeconds(5)));
+
+        DistributedSemaphore first = manager.semaphore("orders", "1");
+        DistributedSemaphore second = manager.semaphore("orders", "1");
+        CompletableFuture<Boolean> firstWait = first.tryAcquireAsync(Duration.ofSeconds(10));
+        CompletableFuture<Boolean> secondWait = second.tryAcquireAsync(Duration.ofSeconds(10));
+
+        CompletableFuture<Boolean> rejected = manager.semaphore("orders", "1").tryAcquireAsync(Duration.ofSeconds(10));
+        ExecutionException error = assertThrows(ExecutionException.class, () -> rejected.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(RejectedExecutionException.class, error.getCause());
+        assertFalse(firstWait.isDone());
+
+        // with every thread waiting, a release is not rejected and lets a waiter in
+        holder.releaseAsync().get(5, TimeUnit.SECONDS);
+        CompletableFuture.anyOf(firstWait, secondWait).get(5, TimeUnit.SECONDS);
+        DistributedSemaphore admitted = firstWait.isDone() ? first : second;
+        CompletableFuture<Boolean> remaining = firstWait.isDone() ? secondWait : firstWait;
+        admitted.releaseAsync().get(5, TimeUnit.SECONDS);
+        assertTrue(remaining.get(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,137 @@
+package io.sagittarius.clastor.distributedlock.curator;
+
+import io.sagittarius.clastor.distributedlock.domain.LockMode;
+import io.sagittarius.clastor.distributedlock.zookeeper.EmbeddedZooKeeper;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.recipes.locks.InterProcessMutex;
+import org.apache.curator.retry.RetryOneTime;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Readers and writers against a plain {@link InterProcessMutex}, as run by instances that
+ * predate shared locks.
+ */
+class CuratorReadWriteLockTest {
+
+    private static EmbeddedZooKeeper server;
+
+    private CuratorFramework client;
+    private ScheduledExecutorService scheduler;
+    private String path;
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        server = new EmbeddedZooKeeper();
+    }
+
+    @AfterAll
+    static void stopServer() throws Exception {
+        server.close();
+    }
+
+    @BeforeEach
+    void connect() {
+        client = CuratorFrameworkFactory.newClient(server.connectionString(), new RetryOneTime(100));
+        client.start();
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        path = "/read-write-" + System.nanoTime() + "/orders/v1/1";
+    }
+
+    @AfterEach
+    void disconnect() {
+        scheduler.shutdownNow();
+        client.close();
+    }
+
+    private static boolean acquire(InterProcessMutex mutex) throws Exception {
+        return mutex.acquire(100, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    void writersKeepTheMutexNodeName() throws Exception {
+        InterProcessMutex writer = new CuratorReadWriteLock(client, path).mutex(LockMode.EXCLUSIVE);
+        assertTrue(acquire(writer));
+
+        List<String> children = client.getChildren().forPath(path);
+        assertEquals(1, children.size());
+        assertTrue(children.get(0).endsWith("-lock-0000000000"), children.toString());
+        writer.release();
+    }
+
+    @Test
+    void writersAndPlainMutexesExcludeEachOther() throws Exception {
+        InterProcessMutex legacy = new InterProcessMutex(client, path);
+        InterProcessMutex writer = new CuratorReadWriteLock(client, path).mutex(LockMode.EXCLUSIVE);
+
+        assertTrue(acquire(legacy));
+        assertFalse(acquire(writer));
+        legacy.release();
+
+        assertTrue(acquire(writer));
+        assertFalse(acquire(new InterProcessMutex(client, path)));
+        writer.release();
+    }
+
+    @Test
+    void readersShareAndExcludePlainMutexes() throws Exception {
+        InterProcessMutex reader = new CuratorReadWriteLock(client, path).mutex(LockMode.SHARED);
+        InterProcessMutex otherReader = new CuratorReadWriteLock(client, path).mutex(LockMode.SHARED);
+        InterProcessMutex legacy = new InterProcessMutex(client, path);
+
+        assertTrue(acquire(reader));
+        assertTrue(acquire(otherReader));
+        assertFalse(acquire(legacy));
+        assertFalse(acquire(new CuratorReadWriteLock(client, path).mutex(LockMode.EXCLUSIVE)));
+
+        reader.release();
+        otherReader.release();
+        assertTrue(acquire(legacy));
+        assertFalse(acquire(new CuratorReadWriteLock(client, path).mutex(LockMode.SHARED)));
+        legacy.release();
+    }
+
+    @Test
+    void writeHolderTakesTheReadLock() throws Exception {
+        CuratorReadWriteLock lock = new CuratorReadWriteLock(client, path);
+        assertTrue(acquire(lock.mutex(LockMode.EXCLUSIVE)));
+        assertTrue(acquire(lock.mutex(LockMode.SHARED)));
+
+        lock.mutex(LockMode.SHARED).release();
+        lock.mutex(LockMode.EXCLUSIVE).release();
+    }
+
+    @Test
+    void asyncAcquisitionsQueueWithPlainMutexes() throws Exception {
+        InterProcessMutex legacy = new InterProcessMutex(client, path);
+        CuratorDistributedLock writer = new CuratorDistributedLock(client, path, LockMode.EXCLUSIVE, scheduler);
+        CuratorDistributedLock reader = new CuratorDistributedLock(client, path, LockMode.SHARED, scheduler);
+
+        assertTrue(acquire(legacy));
+        assertFalse(writer.tryLockAsync(Duration.ofMillis(100)).get(5, TimeUnit.SECONDS));
+        assertFalse(reader.tryLockAsync(Duration.ofMillis(100)).get(5, TimeUnit.SECONDS));
+        legacy.release();
+
+        assertTrue(writer.tryLockAsync(Duration.ofSeconds(1)).get(5, TimeUnit.SECONDS));
+        assertFalse(acquire(legacy));
+        writer.unlockAsync().get(5, TimeUnit.SECONDS);
+
+        assertTrue(reader.tryLockAsync(Duration.ofSeconds(1)).get(5, TimeUnit.SECONDS));
+        assertFalse(acquire(legacy));
+        reader.unlockAsync().get(5, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,8 @@
+plugins {
+    `java-library`
+}
+
+// no dependencies beyond the domain: the backend is meant to be embedded anywhere
+dependencies {
+    implementation("org.slf4j:slf4j-api:2.0.17")
+}
@@ -0,0 +1,46 @@
+package io.sagittarius.clastor.distributedlock.inmemory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The tokens of the holds of one manager, each mapped to the release of its hold.
+ * <p>
+ * A token is only issued when it is first asked for, and revoked when its handle releases the
+ * hold, so locks taken and released without one cost nothing here. Tokens carry a random prefix
+ * per manager, so that one issued before a restart never matches a hold taken after it.
+ */
+final class HolderTokens {
+
+    private final String prefix = "mem-" + Long.toHexString(ThreadLocalRandom.current().nextLong()) + "-";
+    private final AtomicLong sequence = new AtomicLong();
+    private final ConcurrentMap<String, Runnable> releases = new ConcurrentHashMap<>();
+
+    String issue(Runnable release) {
+        String token = prefix + Long.toHexString(sequence.incrementAndGet());
+        releases.put(token, release);
+        return token;
+    }
+
+    void revoke(String token) {
+        releases.remove(token);
+    }
+
+    /**
+     * @return whether the hold of the token was released, {@code false} if it was already
+     * @throws IllegalArgumentException if the token was not issued by an in-memory manager
+     */
+    boolean release(String token) {
+        if (!token.startsWith("mem-")) {
+            throw new IllegalArgumentException("Not an in-memory lock token");
+        }
+        Runnable release = releases.remove(token);
+        if (release == null) {
+            return false;
+        }
+        release.run();
+        return true;
+    }
+}
@@ -0,0 +1,46 @@
+package io.sagittarius.clastor.distributedlock.inmemory;
+
+import io.sagittarius.clastor.distributedlock.domain.DistributedLock;
+import io.sagittarius.clastor.distributedlock.domain.DistributedLockMetrics;
+import io.sagittarius.clastor.distributedlock.domain.LockMode;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * A lock of one resource, excluding the other handles of the same {@link InMemoryLockManager}.
+ */
+final class InMemoryDistributedLock extends LockHandle implements DistributedLock {
+
+    InMemoryDistributedLock(LockTable table, String key, String resourceKind, LockMode mode,
+                            ScheduledExecutorService timer, DistributedLockMetrics metrics, HolderTokens tokens) {
+        super(table, key, resourceKind, mode, timer, metrics, tokens);
+    }
+
+    @Override
+    public boolean tryLock(Duration timeout) throws InterruptedException {
+        return acquire(timeout);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> tryLockAsync(Duration timeout) {
+        return acquireAsync(timeout);
+    }
+
+    @Override
+    public void unlock() {
+        releaseHeld();
+    }
+
+    @Override
+    public CompletableFuture<Void> unlockAsync() {
+        releaseHeld();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public String token() {
+        return holderToken();
+    }
+}
@@ -0,0 +1,47 @@
+package io.sagittarius.clastor.distributedlock.inmemory;
+
+import io.sagittarius.clastor.distributedlock.domain.DistributedLockMetrics;
+import io.sagittarius.clastor.distributedlock.domain.DistributedSemaphore;
+import io.sagittarius.clastor.distributedlock.domain.LockMode;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * A permit of one resource: a shared hold of an entry of the semaphore table, whose shared limit
+ * is the current number of permits of the resource kind.
+ */
+final class InMemoryDistributedSemaphore extends LockHandle implements DistributedSemaphore {
+
+    InMemoryDistributedSemaphore(LockTable table, String key, String resourceKind, ScheduledExecutorService timer,
+                                 HolderTokens tokens) {
+        super(table, key, resourceKind, LockMode.SHARED, timer, DistributedLockMetrics.NOOP, tokens);
+    }
+
+    @Override
+    public boolean tryAcquire(Duration timeout) throws InterruptedException {
+        return acquire(timeout);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> tryAcquireAsync(Duration timeout) {
+        return acquireAsync(timeout);
+    }
+
+    @Override
+    public void release() {
+        releaseHeld();
+    }
+
+    @Override
+    public CompletableFuture<Void> releaseAsync() {
+        releaseHeld();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public String token() {
+        return holderToken();
+    }
+}
@@ -0,0 +1,12 @@
+package io.sagittarius.clastor.distributedlock.inmemory;
+
+/**
+ * Configuration of {@link InMemoryLockManager}.
+ *
+ * @param rootPath the prefix of the version and permits paths reported by the accessors, so that
+ *                 they read the same as with the ZooKeeper backends
+ */
+public record InMemoryLockConfig(
+        String rootPath
+) {
+}
@@ -0,0 +1,129 @@
+package io.sagittarius.clastor.distributedlock.inmemory;
+
+import io.sagittarius.clastor.distributedlock.domain.DistributedLock;
+import io.sagittarius.clastor.distributedlock.domain.DistributedLockManager;
+import io.sagittarius.clastor.distributedlock.domain.DistributedLockMetrics;
+import io.sagittarius.clastor.distributedlock.domain.DistributedSemaphore;
+import io.sagittarius.clastor.distributedlock.domain.DistributedSemaphorePermitsAccessor;
+import io.sagittarius.clastor.distributedlock.domain.InstrumentedDistributedLock;
+import io.sagittarius.clastor.distributedlock.domain.LockKey;
+import io.sagittarius.clastor.distributedlock.domain.LockMode;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+/**
+ * Locks that live in the memory of this process, with the semantics of the ZooKeeper backends:
+ * fair FIFO queues, shared and exclusive modes, multi-resource locks, semaphores, versions and
+ * permits changed at runtime, draining and rotations.
+ * <p>
+ * They only exclude the handles of the same manager, so this backend is for a single node that
+ * needs nothing more than in-process exclusion, and for running the application and the
+ * benchmarks without a ZooKeeper ensemble. Nothing survives the process.
+ */
+@Slf4j
+public class InMemoryLockManager implements DistributedLockManager, AutoCloseable {
+
+    private final DistributedLockMetrics metrics;
+    private final InMemoryLockVersionAccessor versionAccessor;
+    private final InMemorySemaphorePermitsAccessor permitsAccessor;
+    private final LockTable locks = new LockTable(LockTable.UNLIMITED);
+    private final LockTable semaphores;
+    private final HolderTokens tokens = new HolderTokens();
+    private final ScheduledThreadPoolExecutor timer;
+    private final InMemoryLockSchemaManager schemaManager;
+
+    public InMemoryLockManager(InMemoryLockConfig config) {
+        this(config, DistributedLockMetrics.NOOP);
+    }
+
+    public InMemoryLockManager(InMemoryLockConfig config, DistributedLockMetrics metrics) {
+        this.metrics = metrics;
+        this.versionAccessor = new InMemoryLockVersionAccessor(config.rootPath(), "version", "v1");
+        this.permitsAccessor = new InMemorySemaphorePermitsAccessor(config.rootPath(), "permits", 1,
+                this::permitsChanged);
+        this.semaphores = new LockTable(permitsAccessor::currentPermits);
+
+        // only timeouts run here, acquisitions and releases happen on the caller's thread
+        this.timer = new ScheduledThreadPoolExecutor(1,
+                Thread.ofPlatform().name("inmemory-lock-timer").daemon().factory());
+        this.timer.setRemoveOnCancelPolicy(true);
+
+        this.schemaManager = new InMemoryLockSchemaManager(versionAccessor, List.of(locks, semaphores), timer);
+    }
+
+    @Override
+    public DistributedLock lock(String resourceKind, String resourceId, LockMode mode) {
+        schemaManager.checkOpen(resourceKind);
+        DistributedLock lock = new InMemoryDistributedLock(locks, lockKey(resourceKind, resourceId), resourceKind,
+                mode, timer, metrics, tokens);
+        return InstrumentedDistributedLock.instrument(lock, resourceKind, metrics);
+    }
+
+    @Override
+    public DistributedLock lockAll(Collection<LockKey> keys) {
+        List<InMemoryDistributedLock> resources = new ArrayList<>(keys.size());
+        for (LockKey key : LockKey.canonical(keys)) {
+            schemaManager.checkOpen(key.resourceKind());
+            resources.add(new InMemoryDistributedLock(locks, lockKey(key.resourceKind(), key.resourceId()),
+                    key.resourceKind(), LockMode.EXCLUSIVE, timer, DistributedLockMetrics.NOOP, tokens));
+        }
+        return new InMemoryMultiLock(resources, tokens);
+    }
+
+    @Override
+    public DistributedSemaphore semaphore(String resourceKind, String resourceId) {
+        schemaManager.checkOpen(resourceKind);
+        return new InMemoryDistributedSemaphore(semaphores, lockKey(resourceKind, resourceId), resourceKind, timer, tokens);
+    }
+
+    /**
+     * Releases a hold of this manager by its token. Tokens only mean something to the manager
+     * that issued them, like the locks themselves.
+     */
+    @Override
+    public CompletableFuture<Boolean> releaseAsync(String token) {
+        return CompletableFuture.completedFuture(tokens.release(token));
+    }
+
+    private String lockKey(String resourceKind, String resourceId) {
+        String version = versionAccessor.currentVersion(resourceKind);
+        return resourceKind + "/" + version + "/" + resourceId;
+    }
+
+    private void permitsChanged(String resourceKind) {
+        semaphores.limitChanged(resourceKind);
+    }
+
+    @Override
+    public InMemoryLockVersionAccessor versionAccessor() {
+        return versionAccessor;
+    }
+
+    @Override
+    public DistributedSemaphorePermitsAccessor permitsAccessor() {
+        return permitsAccessor;
+    }
+
+    @Override
+    public InMemoryLockSchemaManager schemaManager() {
+        return schemaManager;
+    }
+
+    /**
+     * Fails the acquisitions still waiting. Locks already held stay held, nobody can take them any more.
+     */
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        IllegalStateException closed = new IllegalStateException("In-memory lock manager is closed");
+        locks.failWaiters(closed);
+        semaphores.failWaiters(closed);
+        log.debug("In-memory lock manager closed with {} locks and {} semaphores in use",
+                locks.size(), semaphores.size());
+    }
+}
@@ -0,0 +1,114 @@
+package io.sagittarius.clastor.distributedlock.inmemory;
+
+import io.sagittarius.clastor.distributedlock.domain.LockSchemaManager;
+import io.sagittarius.clastor.distributedlock.domain.ResourceDrainingException;
+import io.sagittarius.clastor.distributedlock.domain.ResourceMode;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Modes kept in a map, and drains told by the lock tables whenever they retire an entry: a
+ * version is drained once no entry of its keys is left.
+ * <p>
+ * There is no namespace to delete, the entries of the old version are gone once it drained.
+ * The version is switched before the kind is reopened, so a lock that sees the kind open
+ * already gets the new version.
+ */
+@Slf4j
+public class InMemoryLockSchemaManager implements LockSchemaManager {
+
+    private final InMemoryLockVersionAccessor versionAccessor;
+    private final List<LockTable> tables;
+    private final ScheduledExecutorService timer;
+
+    private final ConcurrentMap<String, ResourceMode> modes = new ConcurrentHashMap<>();
+
+    InMemoryLockSchemaManager(InMemoryLockVersionAccessor versionAccessor, List<LockTable> tables,
+                              ScheduledExecutorService timer) {
+        this.versionAccessor = versionAccessor;
+        this.tables = tables;
+        this.timer = timer;
+    }
+
+    @Override
+    public ResourceMode mode(String resourceKind) {
+        return modes.getOrDefault(resourceKind, ResourceMode.NORMAL);
+    }
+
+    /**
+     * Refuses new locks of a draining resource kind.
+     *
+     * @throws ResourceDrainingException if the kind is draining
+     */
+    void checkOpen(String resourceKind) {
+        if (mode(resourceKind) == ResourceMode.DRAINING) {
+            throw new ResourceDrainingException(resourceKind);
+        }
+    }
+
+    @Override
+    public void setMode(String resourceKind, ResourceMode mode) {
+        modes.put(resourceKind, mode);
+        log.info("Mode of {} set to {}", resourceKind, mode);
+    }
+
+    @Override
+    public CompletableFuture<Void> awaitDrained(String resourceKind, String version) {
+        String prefix = resourceKind + "/" + version + "/";
+        CompletableFuture<Void> drained = new CompletableFuture<>();
+        Runnable check = () -> {
+            if (!drained.isDone() && tables.stream().noneMatch(table -> table.containsPrefix(prefix))) {
+                drained.complete(null);
+            }
+        };
+        tables.forEach(table -> table.addRemovalListener(check));
+        drained.whenComplete((ignored, error) -> tables.forEach(table -> table.removeRemovalListener(check)));
+        check.run();
+        return drained;
+    }
+
+    @Override
+    public CompletableFuture<String> rotate(String resourceKind, String newVersion, Duration drainTimeout) {
+        if (newVersion == null || newVersion.isBlank() || newVersion.contains("/")) {
+            throw new IllegalArgumentException("Invalid version '" + newVersion + "'");
+        }
+        String previousVersion = versionAccessor.currentVersion(resourceKind);
+        if (previousVersion.equals(newVersion)) {
+            throw new IllegalArgumentException(resourceKind + " is already on version " + newVersion);
+        }
+
+        ResourceMode previousMode = mode(resourceKind);
+        setMode(resourceKind, ResourceMode.DRAINING);
+        log.info("Rotating {} from {} to {}, draining {}", resourceKind, previousVersion, newVersion, previousVersion);
+
+        CompletableFuture<Void> drained = awaitDrained(resourceKind, previousVersion);
+        ScheduledFuture<?> timeout = timer.schedule(() -> drained.completeExceptionally(
+                        new TimeoutException(resourceKind + "/" + previousVersion + " did not drain within " + drainTimeout)),
+                drainTimeout.toNanos(), TimeUnit.NANOSECONDS);
+
+        // runs on the thread that retired the last entry, nothing in it blocks
+        return drained.handle((ignored, error) -> {
+            timeout.cancel(false);
+            if (error != null) {
+                log.warn("Rotation of {} to {} abandoned, {} is {} again on {}",
+                        resourceKind, newVersion, resourceKind, previousMode, previousVersion, error);
+                setMode(resourceKind, previousMode);
+                throw new CompletionException(error);
+            }
+            versionAccessor.setVersion(resourceKind, newVersion);
+            setMode(resourceKind, ResourceMode.NORMAL);
+            log.info("{} rotated from {} to {}", resourceKind, previousVersion, newVersion);
+            return previousVersion;
+        });
+    }
+}
@@ -0,0 +1,42 @@
+package io.sagittarius.clastor.distributedlock.inmemory;
+
+import io.sagittarius.clastor.distributedlock.domain.DistributedLockVersionAccessor;
+import lombok.RequiredArgsConstructor;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Versions kept in a map, to be rotated with {@link #setVersion(String, String)} where the
+ * ZooKeeper backends would have the version node rewritten.
+ */
+@RequiredArgsConstructor
+public class InMemoryLockVersionAccessor implements DistributedLockVersionAccessor {
+
+    private final String rootPath;
+    private final String versionNodeName;
+    private final String defaultVersion;
+
+    private final ConcurrentMap<String, String> versions = new ConcurrentHashMap<>();
+
+    @Override
+    public String versionPath(String resourceKind) {
+        return rootPath + "/" + resourceKind + "/" + versionNodeName;
+    }
+
+    @Override
+    public String currentVersion(String resourceKind) {
+        return versions.getOrDefault(resourceKind, defaultVersion);
+    }
+
+    /**
+     * Moves the resource kind to a new version. Locks already handed out keep the version they
+     * were created with, new ones use the new version and do not exclude the old ones.
+     */
+    public void setVersion(String resourceKind, String version) {
+        if (version == null || version.isBlank()) {
+            throw new IllegalArgumentException("version must not be blank");
+        }
+        versions.put(resourceKind, version);
+    }
+}
@@ -0,0 +1,152 @@
+package io.sagittarius.clastor.distributedlock.inmemory;
+
+import io.sagittarius.clastor.distributedlock.domain.DistributedLock;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A lock over several resources at once.
+ * <p>
+ * The resources are taken one after the other in canonical order, keeping the ones already
+ * taken while waiting for the next: two multi-locks sharing resources always meet on the first
+ * of them, so they cannot deadlock. Giving up releases whatever was taken.
+ */
+final class InMemoryMultiLock implements DistributedLock {
+
+    private final List<InMemoryDistributedLock> locks;
+    private final HolderTokens tokens;
+
+    private volatile boolean held;
+    private volatile String token;
+
+    /**
+     * @param locks  exclusive locks of the resources, in canonical order
+     * @param tokens the tokens of the manager
+     */
+    InMemoryMultiLock(List<InMemoryDistributedLock> locks, HolderTokens tokens) {
+        if (locks.isEmpty()) {
+            throw new IllegalArgumentException("At least one resource is required");
+        }
+        this.locks = List.copyOf(locks);
+        this.tokens = tokens;
+    }
+
+    @Override
+    public boolean tryLock(Duration timeout) throws InterruptedException {
+        CompletableFuture<Boolean> acquisition = tryLockAsync(timeout);
+        try {
+            return acquisition.get();
+        } catch (InterruptedException e) {
+            acquisition.cancel(false);
+            throw e;
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error while acquiring in-memory multi-lock", e.getCause());
+        }
+    }
+
+    @Override
+    public CompletableFuture<Boolean> tryLockAsync(Duration timeout) {
+        Acquisition acquisition = new Acquisition(System.nanoTime() + timeout.toNanos(), timeout.isPositive());
+        acquisition.acquire(0);
+        return acquisition.result;
+    }
+
+    @Override
+    public void unlock() {
+        if (!held) {
+            return;
+        }
+        held = false;
+        String issued = token;
+        if (issued != null) {
+            token = null;
+            tokens.revoke(issued);
+        }
+        releaseFirst(locks.size());
+    }
+
+    @Override
+    public CompletableFuture<Void> unlockAsync() {
+        unlock();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public String token() {
+        String issued = token;
+        if (issued == null && held) {
+            synchronized (this) {
+                if (token == null && held) {
+                    token = tokens.issue(this::unlock);
+                }
+                issued = token;
+            }
+        }
+        return issued;
+    }
+
+    private void releaseFirst(int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            locks.get(i).unlock();
+        }
+    }
+
+    private final class Acquisition {
+
+        private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+        private final long deadlineNanos;
+        private final boolean waits;
+
+        private volatile CompletableFuture<Boolean> turn;
+
+        Acquisition(long deadlineNanos, boolean waits) {
+            this.deadlineNanos = deadlineNanos;
+            this.waits = waits;
+            result.whenComplete((acquired, error) -> {
+                CompletableFuture<Boolean> current = turn;
+                if (!Boolean.TRUE.equals(acquired) && current != null) {
+                    current.cancel(false);
+                }
+            });
+        }
+
+        void acquire(int index) {
+            if (index == locks.size()) {
+                held = true;
+                if (!result.complete(true)) {
+                    held = false;
+                    releaseFirst(index);
+                }
+                return;
+            }
+            if (result.isDone()) {
+                releaseFirst(index);
+                return;
+            }
+
+            // a zero timeout makes a single attempt on every resource
+            Duration remaining = waits ? Duration.ofNanos(Math.max(1, deadlineNanos - System.nanoTime())) : Duration.ZERO;
+            CompletableFuture<Boolean> current = locks.get(index).tryLockAsync(remaining);
+            turn = current;
+            if (result.isDone()) {
+                current.cancel(false);
+            }
+            current.whenComplete((acquired, error) -> {
+                if (Boolean.TRUE.equals(acquired)) {
+                    acquire(index + 1);
+                    return;
+                }
+                releaseFirst(index);
+                if (error == null) {
+                    result.complete(false);
+                } else if (!(error instanceof CancellationException)) {
+                    result.completeExceptionally(error);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package io.sagittarius.clastor.distributedlock.inmemory;
+
+import io.sagittarius.clastor.distributedlock.domain.DistributedSemaphorePermitsAccessor;
+import lombok.RequiredArgsConstructor;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+
+@RequiredArgsConstructor
+public class InMemorySemaphorePermitsAccessor implements DistributedSemaphorePermitsAccessor {
+
+    private final String rootPath;
+    private final String permitsNodeName;
+    private final int defaultPermits;
+    private final Consumer<String> onChange;
+
+    private final ConcurrentMap<String, Integer> permits = new ConcurrentHashMap<>();
+
+    @Override
+    public String permitsPath(String resourceKind) {
+        return rootPath + "/" + resourceKind + "/" + permitsNodeName;
+    }
+
+    @Override
+    public int currentPermits(String resourceKind) {
+        return permits.getOrDefault(resourceKind, defaultPermits);
+    }
+
+    @Override
+    public void setPermits(String resourceKind, int newPermits) {
+        if (newPermits < 1) {
+            throw new IllegalArgumentException("permits must be at least 1, got " + newPermits);
+        }
+        permits.put(resourceKind, newPermits);
+        onChange.accept(resourceKind);
+    }
+}
@@ -0,0 +1,253 @@
+package io.sagittarius.clastor.distributedlock.inmemory;
+
+import io.sagittarius.clastor.distributedlock.domain.LockMode;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The state of one lock: who holds it and who waits for it. A semaphore is the same thing with
+ * its permits as the limit of shared holders.
+ * <p>
+ * Holders are counted in a single state word changed by compare-and-set, so taking a free lock
+ * and releasing one nobody waits for never block. Waiters queue in FIFO order under the monitor
+ * of the entry; while any is queued the {@link #QUEUED} bit keeps newcomers off the fast path,
+ * so they cannot overtake the queue. Only releases and the queue itself then change the holders.
+ * <p>
+ * An entry nobody holds or waits for is retired and removed from its table, and whoever still
+ * has a reference to it looks the key up again.
+ */
+final class LockEntry {
+
+    static final int ACQUIRED = 0;
+    static final int BUSY = 1;
+    static final int STALE = 2;
+
+    private static final int HOLDERS = (1 << 30) - 1;
+    private static final int EXCLUSIVE_HELD = HOLDERS;
+    private static final int QUEUED = 1 << 30;
+    private static final int RETIRED = Integer.MIN_VALUE;
+
+    private static final VarHandle STATE;
+
+    static {
+        try {
+            STATE = MethodHandles.lookup().findVarHandle(LockEntry.class, "state", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    final String key;
+    final String resourceKind;
+    private final LockTable table;
+
+    // holders in the low bits, EXCLUSIVE_HELD for a writer, QUEUED while waiters exist
+    private volatile int state;
+
+    // guarded by this
+    private final ArrayDeque<LockWaiter> waiters = new ArrayDeque<>();
+
+    LockEntry(String key, String resourceKind, LockTable table) {
+        this.key = key;
+        this.resourceKind = resourceKind;
+        this.table = table;
+    }
+
+    /**
+     * Takes the lock if it is free for the mode and nobody waits for it.
+     *
+     * @param sharedLimit how many shared holders are let in at most
+     * @return {@link #ACQUIRED}, {@link #BUSY}, or {@link #STALE} if the entry has been retired
+     */
+    int tryAcquire(LockMode mode, int sharedLimit) {
+        for (;;) {
+            int s = state;
+            if (s == RETIRED) {
+                return STALE;
+            }
+            if ((s & QUEUED) != 0) {
+                return BUSY;
+            }
+            int next;
+            if (mode == LockMode.EXCLUSIVE) {
+                if (s != 0) {
+                    return BUSY;
+                }
+                next = EXCLUSIVE_HELD;
+            } else {
+                if (s == EXCLUSIVE_HELD || s >= sharedLimit) {
+                    return BUSY;
+                }
+                next = s + 1;
+            }
+            if (STATE.compareAndSet(this, s, next)) {
+                return ACQUIRED;
+            }
+        }
+    }
+
+    /**
+     * Queues a waiter behind the current ones, granting it at once if nothing is in its way.
+     *
+     * @return {@link #BUSY} once queued, {@link #STALE} if the entry has been retired
+     */
+    int enqueue(LockWaiter waiter) {
+        List<LockWaiter> granted;
+        int ahead;
+        synchronized (this) {
+            for (;;) {
+                int s = state;
+                if (s == RETIRED) {
+                    return STALE;
+                }
+                if ((s & QUEUED) != 0 || STATE.compareAndSet(this, s, s | QUEUED)) {
+                    break;
+                }
+            }
+            ahead = waiters.size();
+            waiters.addLast(waiter);
+            int holders = state & HOLDERS;
+            if (holders != 0 && (waiter.mode == LockMode.EXCLUSIVE || holders == EXCLUSIVE_HELD
+                    || holders >= table.sharedLimit(resourceKind))) {
+                ahead++;
+            }
+            granted = grantLocked();
+        }
+        waiter.enqueued(ahead);
+        complete(granted);
+        return BUSY;
+    }
+
+    /**
+     * Gives a waiter up after its timeout or cancellation, which may let the ones behind it in.
+     */
+    void abandon(LockWaiter waiter) {
+        List<LockWaiter> granted;
+        synchronized (this) {
+            if (!waiters.remove(waiter)) {
+                return;
+            }
+            granted = grantLocked();
+        }
+        complete(granted);
+        retireIfIdle();
+    }
+
+    void release(LockMode mode) {
+        int next;
+        for (;;) {
+            int s = state;
+            int holders = s & HOLDERS;
+            if (holders == 0) {
+                throw new IllegalStateException("Lock " + key + " is not held");
+            }
+            next = (s & QUEUED) | (mode == LockMode.EXCLUSIVE ? 0 : holders - 1);
+            if (STATE.compareAndSet(this, s, next)) {
+                break;
+            }
+        }
+        if ((next & QUEUED) != 0) {
+            List<LockWaiter> granted;
+            synchronized (this) {
+                granted = grantLocked();
+            }
+            complete(granted);
+        }
+        retireIfIdle();
+    }
+
+    /**
+     * Lets waiters in after the shared limit has been raised.
+     */
+    void limitChanged() {
+        List<LockWaiter> granted;
+        synchronized (this) {
+            granted = grantLocked();
+        }
+        complete(granted);
+    }
+
+    /**
+     * Fails every waiter, the table is closing.
+     */
+    void failWaiters(RuntimeException cause) {
+        List<LockWaiter> failed;
+        synchronized (this) {
+            failed = new ArrayList<>(waiters);
+            waiters.clear();
+        }
+        failed.forEach(waiter -> waiter.fail(cause));
+    }
+
+    /**
+     * Lets waiters in from the head of the queue for as long as they fit.
+     * Called with the monitor held, the waiters are completed by the caller once it is released.
+     */
+    private List<LockWaiter> grantLocked() {
+        List<LockWaiter> granted = null;
+        int sharedLimit = table.sharedLimit(resourceKind);
+        for (;;) {
+            LockWaiter head = waiters.peekFirst();
+            if (head == null) {
+                break;
+            }
+            if (head.isDone()) {
+                waiters.pollFirst();
+                continue;
+            }
+            int s = state;
+            int holders = s & HOLDERS;
+            int next;
+            if (head.mode == LockMode.EXCLUSIVE) {
+                if (holders != 0) {
+                    break;
+                }
+                next = EXCLUSIVE_HELD | QUEUED;
+            } else {
+                if (holders == EXCLUSIVE_HELD || holders >= sharedLimit) {
+                    break;
+                }
+                next = (holders + 1) | QUEUED;
+            }
+            // only releases race with us here, read again if one got in between
+            if (STATE.compareAndSet(this, s, next)) {
+                waiters.pollFirst();
+                if (granted == null) {
+                    granted = new ArrayList<>();
+                }
+                granted.add(head);
+            }
+        }
+        if (waiters.isEmpty()) {
+            for (;;) {
+                int s = state;
+                if (STATE.compareAndSet(this, s, s & ~QUEUED)) {
+                    break;
+                }
+            }
+        }
+        return granted;
+    }
+
+    private void complete(List<LockWaiter> granted) {
+        if (granted == null) {
+            return;
+        }
+        for (LockWaiter waiter : granted) {
+            if (!waiter.granted(this)) {
+                // timed out or cancelled while being let in
+                release(waiter.mode);
+            }
+        }
+    }
+
+    private void retireIfIdle() {
+        if (state == 0 && STATE.compareAndSet(this, 0, RETIRED)) {
+            table.remove(this);
+        }
+    }
+}
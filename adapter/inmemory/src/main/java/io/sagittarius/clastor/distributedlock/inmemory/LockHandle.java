@@ -0,0 +1,127 @@
+package io.sagittarius.clastor.distributedlock.inmemory;
+
+import io.sagittarius.clastor.distributedlock.domain.DistributedLockMetrics;
+import io.sagittarius.clastor.distributedlock.domain.LockMode;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * What a lock and a semaphore have in common: one key of a table, held at most once.
+ * <p>
+ * Taking a free entry completes synchronously, without a future or a queue node; the caller only
+ * queues when it has to wait.
+ */
+abstract class LockHandle {
+
+    private final LockTable table;
+    private final String key;
+    private final String resourceKind;
+    private final LockMode mode;
+    private final ScheduledExecutorService timer;
+    private final DistributedLockMetrics metrics;
+    private final HolderTokens tokens;
+
+    volatile LockEntry held;
+    private volatile String token;
+
+    LockHandle(LockTable table, String key, String resourceKind, LockMode mode,
+               ScheduledExecutorService timer, DistributedLockMetrics metrics, HolderTokens tokens) {
+        this.table = table;
+        this.key = key;
+        this.resourceKind = resourceKind;
+        this.mode = mode;
+        this.timer = timer;
+        this.metrics = metrics;
+        this.tokens = tokens;
+    }
+
+    final boolean acquire(Duration timeout) throws InterruptedException {
+        if (tryAcquireNow()) {
+            return true;
+        }
+        if (!timeout.isPositive()) {
+            return false;
+        }
+
+        CompletableFuture<Boolean> acquisition = acquireAsync(timeout);
+        try {
+            return acquisition.get();
+        } catch (InterruptedException e) {
+            acquisition.cancel(false);
+            throw e;
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error while acquiring in-memory lock " + key, e.getCause());
+        }
+    }
+
+    final CompletableFuture<Boolean> acquireAsync(Duration timeout) {
+        if (tryAcquireNow()) {
+            return CompletableFuture.completedFuture(true);
+        }
+        if (!timeout.isPositive()) {
+            return CompletableFuture.completedFuture(false);
+        }
+
+        LockWaiter waiter = new LockWaiter(this, mode);
+        for (;;) {
+            // the entry lets the waiter in at once if it was released in the meantime
+            LockEntry entry = table.entry(key, resourceKind);
+            if (entry.enqueue(waiter) != LockEntry.STALE) {
+                waiter.await(entry, timeout.toNanos(), timer);
+                return waiter.result;
+            }
+        }
+    }
+
+    final void releaseHeld() {
+        LockEntry entry = held;
+        if (entry == null) {
+            return;
+        }
+        held = null;
+        String issued = token;
+        if (issued != null) {
+            token = null;
+            tokens.revoke(issued);
+        }
+        entry.release(mode);
+    }
+
+    /**
+     * Returns the token of the current hold, issuing it on the first call.
+     */
+    final String holderToken() {
+        String issued = token;
+        if (issued == null && held != null) {
+            synchronized (this) {
+                if (token == null && held != null) {
+                    token = tokens.issue(this::releaseHeld);
+                }
+                issued = token;
+            }
+        }
+        return issued;
+    }
+
+    void enqueued(int ahead) {
+        metrics.enqueued(resourceKind, ahead);
+    }
+
+    private boolean tryAcquireNow() {
+        for (;;) {
+            LockEntry entry = table.entry(key, resourceKind);
+            int outcome = entry.tryAcquire(mode, table.sharedLimit(resourceKind));
+            if (outcome == LockEntry.ACQUIRED) {
+                held = entry;
+                metrics.enqueued(resourceKind, 0);
+                return true;
+            }
+            if (outcome == LockEntry.BUSY) {
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package io.sagittarius.clastor.distributedlock.inmemory;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.ToIntFunction;
+
+/**
+ * The live entries of a family of locks, by key. Only entries someone holds or waits for are
+ * kept, so the table stays as small as the current contention however many keys are used.
+ */
+final class LockTable {
+
+    /**
+     * The shared limit of plain locks: any number of readers.
+     */
+    static final ToIntFunction<String> UNLIMITED = resourceKind -> Integer.MAX_VALUE;
+
+    private final ConcurrentMap<String, LockEntry> entries = new ConcurrentHashMap<>();
+    private final ToIntFunction<String> sharedLimit;
+    // told of every retired entry, only while a drain is awaited
+    private final List<Runnable> removalListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param sharedLimit how many shared holders an entry of a resource kind lets in at most
+     */
+    LockTable(ToIntFunction<String> sharedLimit) {
+        this.sharedLimit = sharedLimit;
+    }
+
+    LockEntry entry(String key, String resourceKind) {
+        LockEntry entry = entries.get(key);
+        if (entry != null) {
+            return entry;
+        }
+        return entries.computeIfAbsent(key, k -> new LockEntry(k, resourceKind, this));
+    }
+
+    int sharedLimit(String resourceKind) {
+        return sharedLimit.applyAsInt(resourceKind);
+    }
+
+    /**
+     * Re-reads the shared limit of the entries of the resource kind, letting waiters in if it grew.
+     */
+    void limitChanged(String resourceKind) {
+        for (LockEntry entry : entries.values()) {
+            if (entry.resourceKind.equals(resourceKind)) {
+                entry.limitChanged();
+            }
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Whether any entry of a key starting with the prefix is held or waited for.
+     */
+    boolean containsPrefix(String prefix) {
+        for (String key : entries.keySet()) {
+            if (key.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void addRemovalListener(Runnable listener) {
+        removalListeners.add(listener);
+    }
+
+    void removeRemovalListener(Runnable listener) {
+        removalListeners.remove(listener);
+    }
+
+    void remove(LockEntry entry) {
+        if (entries.remove(entry.key, entry)) {
+            for (Runnable listener : removalListeners) {
+                listener.run();
+            }
+        }
+    }
+
+    void failWaiters(RuntimeException cause) {
+        entries.values().forEach(entry -> entry.failWaiters(cause));
+    }
+}
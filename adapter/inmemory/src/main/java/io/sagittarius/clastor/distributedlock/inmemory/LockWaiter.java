@@ -0,0 +1,81 @@
+package io.sagittarius.clastor.distributedlock.inmemory;
+
+import io.sagittarius.clastor.distributedlock.domain.LockMode;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A handle waiting in the queue of an entry. Nothing polls: the entry completes the result when
+ * it lets the waiter in, and a timer task when the timeout passes first.
+ */
+final class LockWaiter {
+
+    final LockMode mode;
+    final CompletableFuture<Boolean> result = new CompletableFuture<>();
+    private final LockHandle owner;
+
+    private volatile ScheduledFuture<?> timeoutTask;
+
+    LockWaiter(LockHandle owner, LockMode mode) {
+        this.owner = owner;
+        this.mode = mode;
+    }
+
+    /**
+     * Arms the timeout once the waiter is queued on the entry.
+     */
+    void await(LockEntry entry, long timeoutNanos, ScheduledExecutorService timer) {
+        result.whenComplete((acquired, error) -> {
+            ScheduledFuture<?> task = timeoutTask;
+            if (task != null) {
+                task.cancel(false);
+            }
+            if (!Boolean.TRUE.equals(acquired)) {
+                entry.abandon(this);
+            }
+        });
+        if (result.isDone()) {
+            return;
+        }
+        try {
+            timeoutTask = timer.schedule(() -> result.complete(false), timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(new IllegalStateException("In-memory lock manager is closed"));
+            return;
+        }
+        if (result.isDone()) {
+            // completed before the task was published, which the callback above could not cancel
+            timeoutTask.cancel(false);
+        }
+    }
+
+    boolean isDone() {
+        return result.isDone();
+    }
+
+    void enqueued(int ahead) {
+        owner.enqueued(ahead);
+    }
+
+    /**
+     * Hands the entry over to the owner.
+     *
+     * @return {@code false} if the waiter gave up in the meantime and the entry must be released
+     */
+    boolean granted(LockEntry entry) {
+        owner.held = entry;
+        if (result.complete(true)) {
+            return true;
+        }
+        owner.held = null;
+        return false;
+    }
+
+    void fail(RuntimeException cause) {
+        result.completeExceptionally(cause);
+    }
+}
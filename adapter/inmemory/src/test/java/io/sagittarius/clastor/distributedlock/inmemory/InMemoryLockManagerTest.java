@@ -0,0 +1,225 @@
+package io.sagittarius.clastor.distributedlock.inmemory;
+
+import io.sagittarius.clastor.distributedlock.domain.DistributedLock;
+import io.sagittarius.clastor.distributedlock.domain.DistributedSemaphore;
+import io.sagittarius.clastor.distributedlock.domain.LockMode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InMemoryLockManagerTest {
+
+    private static final Duration WAIT = Duration.ofSeconds(5);
+
+    private final InMemoryLockManager manager = new InMemoryLockManager(new InMemoryLockConfig("/locks"));
+
+    @AfterEach
+    void close() {
+        manager.close();
+    }
+
+    private DistributedLock lock(LockMode mode) {
+        return manager.lock("orders", "1", mode);
+    }
+
+    private DistributedLock lock() {
+        return lock(LockMode.EXCLUSIVE);
+    }
+
+    @Test
+    void exclusiveLocksExcludeEachOtherAcrossThreads() throws Exception {
+        int threads = 8;
+        int rounds = 500;
+        AtomicInteger inside = new AtomicInteger();
+        AtomicInteger overlaps = new AtomicInteger();
+        int[] counter = new int[1];
+        CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                workers.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < rounds; i++) {
+                        DistributedLock lock = lock();
+                        assertTrue(lock.tryLock(WAIT));
+                        if (inside.incrementAndGet() != 1) {
+                            overlaps.incrementAndGet();
+                        }
+                        counter[0]++;
+                        inside.decrementAndGet();
+                        lock.unlock();
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> worker : workers) {
+                worker.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(0, overlaps.get());
+        assertEquals(threads * rounds, counter[0]);
+        assertTrue(lock().tryLock(Duration.ZERO));
+    }
+
+    @Test
+    void waitersAreLetInInArrivalOrder() throws Exception {
+        DistributedLock holder = lock();
+        assertTrue(holder.tryLock(Duration.ZERO));
+
+        List<Integer> order = new CopyOnWriteArrayList<>();
+        List<CompletableFuture<Boolean>> waiters = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            int index = i;
+            DistributedLock waiter = lock();
+            waiters.add(waiter.tryLockAsync(WAIT).whenComplete((acquired, error) -> {
+                order.add(index);
+                waiter.unlock();
+            }));
+        }
+        // a newcomer does not overtake the queue
+        assertFalse(lock().tryLock(Duration.ZERO));
+
+        holder.unlock();
+        for (CompletableFuture<Boolean> waiter : waiters) {
+            assertTrue(waiter.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(List.of(0, 1, 2, 3, 4), order);
+    }
+
+    @Test
+    void sharedHoldersAreLetInTogetherAndExcludeWriters() throws Exception {
+        DistributedLock firstReader = lock(LockMode.SHARED);
+        DistributedLock secondReader = lock(LockMode.SHARED);
+        assertTrue(firstReader.tryLock(Duration.ZERO));
+        assertTrue(secondReader.tryLock(Duration.ZERO));
+        assertFalse(lock().tryLock(Duration.ZERO));
+
+        DistributedLock writer = lock();
+        CompletableFuture<Boolean> writing = writer.tryLockAsync(WAIT);
+        // a queued writer keeps new readers out
+        assertFalse(lock(LockMode.SHARED).tryLock(Duration.ZERO));
+
+        firstReader.unlock();
+        assertFalse(writing.isDone());
+        secondReader.unlock();
+        assertTrue(writing.get(5, TimeUnit.SECONDS));
+        assertFalse(lock(LockMode.SHARED).tryLock(Duration.ZERO));
+
+        // readers queued behind a writer are let in together
+        CompletableFuture<Boolean> third = lock(LockMode.SHARED).tryLockAsync(WAIT);
+        CompletableFuture<Boolean> fourth = lock(LockMode.SHARED).tryLockAsync(WAIT);
+        writer.unlock();
+        assertTrue(third.get(5, TimeUnit.SECONDS));
+        assertTrue(fourth.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void timedOutWaitersLeaveTheQueue() throws Exception {
+        DistributedLock holder = lock();
+        assertTrue(holder.tryLock(Duration.ZERO));
+
+        DistributedLock late = lock();
+        assertFalse(late.tryLock(Duration.ofMillis(50)));
+        CompletableFuture<Boolean> next = lock().tryLockAsync(WAIT);
+
+        holder.unlock();
+        assertTrue(next.get(5, TimeUnit.SECONDS));
+        assertNull(late.token());
+    }
+
+    @Test
+    void cancelledAcquisitionsLeaveTheQueue() throws Exception {
+        DistributedLock holder = lock();
+        assertTrue(holder.tryLock(Duration.ZERO));
+
+        DistributedLock cancelled = lock();
+        CompletableFuture<Boolean> acquisition = cancelled.tryLockAsync(WAIT);
+        assertTrue(acquisition.cancel(false));
+
+        holder.unlock();
+        assertTrue(lock().tryLock(Duration.ZERO));
+        assertNull(cancelled.token());
+    }
+
+    @Test
+    void raisingThePermitsLetsWaitersIn() throws Exception {
+        DistributedSemaphore first = manager.semaphore("orders", "1");
+        DistributedSemaphore second = manager.semaphore("orders", "1");
+        assertEquals(1, manager.permitsAccessor().currentPermits("orders"));
+        assertEquals("/locks/orders/permits", manager.permitsAccessor().permitsPath("orders"));
+
+        assertTrue(first.tryAcquire(Duration.ZERO));
+        CompletableFuture<Boolean> waiting = second.tryAcquireAsync(WAIT);
+        assertFalse(waiting.isDone());
+
+        manager.permitsAccessor().setPermits("orders", 2);
+        assertTrue(waiting.get(5, TimeUnit.SECONDS));
+        assertFalse(manager.semaphore("orders", "1").tryAcquire(Duration.ZERO));
+        // other kinds keep their own permits
+        assertTrue(manager.semaphore("invoices", "1").tryAcquire(Duration.ZERO));
+        assertFalse(manager.semaphore("invoices", "1").tryAcquire(Duration.ZERO));
+    }
+
+    @Test
+    void loweringThePermitsWaitsForTheHoldersToLeave() throws Exception {
+        manager.permitsAccessor().setPermits("orders", 2);
+        DistributedSemaphore first = manager.semaphore("orders", "1");
+        DistributedSemaphore second = manager.semaphore("orders", "1");
+        assertTrue(first.tryAcquire(Duration.ZERO));
+        assertTrue(second.tryAcquire(Duration.ZERO));
+
+        manager.permitsAccessor().setPermits("orders", 1);
+        first.release();
+        assertFalse(manager.semaphore("orders", "1").tryAcquire(Duration.ZERO));
+        second.release();
+        assertTrue(manager.semaphore("orders", "1").tryAcquire(Duration.ZERO));
+
+        assertThrows(IllegalArgumentException.class, () -> manager.permitsAccessor().setPermits("orders", 0));
+        assertEquals(1, manager.permitsAccessor().currentPermits("orders"));
+    }
+
+    @Test
+    void tokensReleaseTheirHoldOnce() throws Exception {
+        DistributedLock lock = lock();
+        assertTrue(lock.tryLock(Duration.ZERO));
+        String token = lock.token();
+        assertTrue(token.startsWith("mem-"));
+
+        assertTrue(manager.releaseAsync(token).get());
+        assertFalse(manager.releaseAsync(token).get());
+        assertTrue(lock().tryLock(Duration.ZERO));
+        assertThrows(IllegalArgumentException.class, () -> manager.releaseAsync("zk-1"));
+    }
+
+    @Test
+    void closingFailsTheWaiters() throws Exception {
+        assertTrue(lock().tryLock(Duration.ZERO));
+        CompletableFuture<Boolean> waiting = lock().tryLockAsync(WAIT);
+
+        manager.close();
+        assertTrue(waiting.isCompletedExceptionally());
+    }
+}
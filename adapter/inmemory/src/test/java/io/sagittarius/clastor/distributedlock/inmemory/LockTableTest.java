@@ -0,0 +1,155 @@
+package io.sagittarius.clastor.distributedlock.inmemory;
+
+import io.sagittarius.clastor.distributedlock.domain.DistributedLockMetrics;
+import io.sagittarius.clastor.distributedlock.domain.LockMode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LockTableTest {
+
+    private static final String KEY = "orders/v1/1";
+    private static final Duration WAIT = Duration.ofSeconds(5);
+
+    private final LockTable table = new LockTable(LockTable.UNLIMITED);
+    private final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1);
+    private final HolderTokens tokens = new HolderTokens();
+
+    @AfterEach
+    void close() {
+        timer.shutdownNow();
+    }
+
+    private InMemoryDistributedLock lock(LockMode mode) {
+        return new InMemoryDistributedLock(table, KEY, "orders", mode, timer, DistributedLockMetrics.NOOP, tokens);
+    }
+
+    private InMemoryDistributedLock lock() {
+        return lock(LockMode.EXCLUSIVE);
+    }
+
+    @Test
+    void entriesAreOnlyKeptWhileInUse() throws Exception {
+        InMemoryDistributedLock lock = lock();
+        assertEquals(0, table.size());
+
+        assertTrue(lock.tryLock(Duration.ZERO));
+        assertEquals(1, table.size());
+        lock.unlock();
+        assertEquals(0, table.size());
+
+        InMemoryDistributedLock first = lock(LockMode.SHARED);
+        InMemoryDistributedLock second = lock(LockMode.SHARED);
+        assertTrue(first.tryLock(Duration.ZERO));
+        assertTrue(second.tryLock(Duration.ZERO));
+        first.unlock();
+        assertEquals(1, table.size());
+        second.unlock();
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    void timedOutWaitersAreRemovedWithTheirEntry() throws Exception {
+        InMemoryDistributedLock holder = lock();
+        assertTrue(holder.tryLock(Duration.ZERO));
+        LockEntry entry = table.entry(KEY, "orders");
+
+        assertFalse(lock().tryLock(Duration.ofMillis(50)));
+        // nobody waits any more, so newcomers are back on the fast path once it is free
+        holder.unlock();
+        assertEquals(0, table.size());
+        assertEquals(LockEntry.STALE, entry.tryAcquire(LockMode.EXCLUSIVE, Integer.MAX_VALUE));
+        assertTrue(lock().tryLock(Duration.ZERO));
+    }
+
+    @Test
+    void cancelledWaitersAreRemovedFromTheQueue() throws Exception {
+        InMemoryDistributedLock holder = lock();
+        assertTrue(holder.tryLock(Duration.ZERO));
+        CompletableFuture<Boolean> cancelled = lock().tryLockAsync(WAIT);
+        CompletableFuture<Boolean> next = lock().tryLockAsync(WAIT);
+
+        assertTrue(cancelled.cancel(false));
+        holder.unlock();
+        assertTrue(next.get(5, TimeUnit.SECONDS));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    void aRetiredEntryIsLookedUpAgain() throws Exception {
+        InMemoryDistributedLock holder = lock();
+        assertTrue(holder.tryLock(Duration.ZERO));
+        LockEntry retired = table.entry(KEY, "orders");
+        holder.unlock();
+
+        // a late acquirer still holding the retired entry is turned away from it
+        assertEquals(LockEntry.STALE, retired.tryAcquire(LockMode.EXCLUSIVE, Integer.MAX_VALUE));
+        assertEquals(LockEntry.STALE, retired.enqueue(new LockWaiter(lock(), LockMode.EXCLUSIVE)));
+
+        InMemoryDistributedLock late = lock();
+        assertTrue(late.tryLock(Duration.ZERO));
+        LockEntry current = table.entry(KEY, "orders");
+        assertNotSame(retired, current);
+        assertSame(current, late.held);
+        assertFalse(lock().tryLock(Duration.ZERO));
+    }
+
+    @Test
+    void retiringRacesWithLateAcquirers() throws Exception {
+        int threads = 8;
+        int rounds = 2000;
+        AtomicInteger inside = new AtomicInteger();
+        AtomicInteger overlaps = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                // half of them only try, so entries keep being retired under the feet of the others
+                Duration timeout = t % 2 == 0 ? Duration.ZERO : WAIT;
+                workers.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < rounds; i++) {
+                        InMemoryDistributedLock lock = lock();
+                        if (!lock.tryLock(timeout)) {
+                            continue;
+                        }
+                        if (inside.incrementAndGet() != 1) {
+                            overlaps.incrementAndGet();
+                        }
+                        inside.decrementAndGet();
+                        lock.unlock();
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> worker : workers) {
+                worker.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(0, overlaps.get());
+        assertEquals(0, table.size());
+    }
+}
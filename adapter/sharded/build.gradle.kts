@@ -0,0 +1,12 @@
+plugins {
+    `java-library`
+}
+
+// routes between managers built elsewhere, so it depends on nothing but the domain
+dependencies {
+    implementation("org.slf4j:slf4j-api:2.0.17")
+
+    // the tests route between real ensembles
+    testImplementation(project(":adapter:zookeeper"))
+    testImplementation(testFixtures(project(":adapter:zookeeper")))
+}
@@ -0,0 +1,81 @@
+package io.sagittarius.clastor.distributedlock.sharded;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A consistent hash ring: each shard is placed at several points, and a key belongs to the
+ * shard of the first point at or after its hash. Adding a shard only moves keys onto it.
+ */
+final class HashRing {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final long[] points;
+    private final int[] owners;
+
+    /**
+     * @param names         the names of the shards placed on the ring, by shard index
+     * @param indexes       the shard index of each name
+     * @param virtualNodes  the number of points per shard
+     */
+    HashRing(List<String> names, List<Integer> indexes, int virtualNodes) {
+        int size = names.size() * virtualNodes;
+        long[] unsortedPoints = new long[size];
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < names.size(); i++) {
+            for (int v = 0; v < virtualNodes; v++) {
+                int slot = i * virtualNodes + v;
+                unsortedPoints[slot] = hash(names.get(i), Integer.toString(v));
+                order[slot] = slot;
+            }
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(unsortedPoints[a], unsortedPoints[b]));
+
+        this.points = new long[size];
+        this.owners = new int[size];
+        for (int i = 0; i < size; i++) {
+            points[i] = unsortedPoints[order[i]];
+            owners[i] = indexes.get(order[i] / virtualNodes);
+        }
+    }
+
+    /**
+     * @return the index of the shard owning the hash
+     */
+    int owner(long hash) {
+        int position = Arrays.binarySearch(points, hash);
+        if (position < 0) {
+            position = -position - 1;
+        }
+        return owners[position == points.length ? 0 : position];
+    }
+
+    /**
+     * Hashes {@code first + "/" + second} (or {@code first} alone when {@code second} is
+     * {@code null}) without building the string: 64-bit FNV-1a, finished with the MurmurHash3
+     * mixer so that similar keys land far apart.
+     */
+    static long hash(String first, String second) {
+        long hash = FNV_OFFSET;
+        hash = update(hash, first);
+        if (second != null) {
+            hash = (hash ^ '/') * FNV_PRIME;
+            hash = update(hash, second);
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static long update(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        }
+        return hash;
+    }
+}
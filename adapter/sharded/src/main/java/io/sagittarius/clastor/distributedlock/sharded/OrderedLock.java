@@ -0,0 +1,195 @@
+package io.sagittarius.clastor.distributedlock.sharded;
+
+import io.sagittarius.clastor.distributedlock.domain.DistributedLock;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Locks on several shards, taken one after the other in shard order and released in reverse.
+ * <p>
+ * Every composite takes its shards in the same order, so two of them sharing shards meet on the
+ * first shared one and cannot deadlock. Giving up releases whatever was taken.
+ * <p>
+ * The composite is lost as soon as the lock of any shard is; the others stay held until unlocked.
+ */
+final class OrderedLock implements DistributedLock {
+
+    private final List<DistributedLock> locks;
+
+    private volatile boolean held;
+    private volatile boolean lossReported;
+    private List<Runnable> lossListeners; // guarded by this
+
+    /**
+     * @param locks the locks on each shard, in shard order
+     */
+    OrderedLock(List<DistributedLock> locks) {
+        this.locks = List.copyOf(locks);
+    }
+
+    @Override
+    public boolean tryLock(Duration timeout) throws InterruptedException {
+        CompletableFuture<Boolean> acquisition = tryLockAsync(timeout);
+        try {
+            return acquisition.get();
+        } catch (InterruptedException e) {
+            acquisition.cancel(false);
+            throw e;
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error while acquiring sharded lock", e.getCause());
+        }
+    }
+
+    @Override
+    public CompletableFuture<Boolean> tryLockAsync(Duration timeout) {
+        Acquisition acquisition = new Acquisition(System.nanoTime() + timeout.toNanos(), timeout.isPositive());
+        acquisition.acquire(0);
+        return acquisition.result;
+    }
+
+    @Override
+    public void unlock() {
+        if (!held) {
+            return;
+        }
+        held = false;
+        for (int i = locks.size() - 1; i >= 0; i--) {
+            locks.get(i).unlock();
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> unlockAsync() {
+        if (!held) {
+            return CompletableFuture.completedFuture(null);
+        }
+        held = false;
+        return releaseFirstAsync(locks.size());
+    }
+
+    /**
+     * Joins the tokens of the shards, if each of them has one.
+     */
+    @Override
+    public String token() {
+        if (!held) {
+            return null;
+        }
+        StringJoiner joined = new StringJoiner(",");
+        for (DistributedLock lock : locks) {
+            String token = lock.token();
+            if (token == null) {
+                return null;
+            }
+            joined.add(token);
+        }
+        return joined.toString();
+    }
+
+    @Override
+    public void onLost(Runnable listener) {
+        boolean first;
+        synchronized (this) {
+            first = lossListeners == null;
+            if (first) {
+                lossListeners = new CopyOnWriteArrayList<>();
+            }
+            lossListeners.add(listener);
+        }
+        if (first) {
+            for (DistributedLock lock : locks) {
+                lock.onLost(this::shardLost);
+            }
+        }
+    }
+
+    private void shardLost() {
+        List<Runnable> listeners;
+        synchronized (this) {
+            if (!held || lossReported) {
+                return;
+            }
+            lossReported = true;
+            listeners = lossListeners;
+        }
+        listeners.forEach(Runnable::run);
+    }
+
+    private CompletableFuture<Void> releaseFirstAsync(int count) {
+        CompletableFuture<?>[] releases = new CompletableFuture<?>[count];
+        for (int i = count - 1; i >= 0; i--) {
+            releases[i] = locks.get(i).unlockAsync();
+        }
+        return CompletableFuture.allOf(releases);
+    }
+
+    private final class Acquisition {
+
+        private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+        private final long deadlineNanos;
+        private final boolean waits;
+
+        private volatile CompletableFuture<Boolean> turn;
+
+        Acquisition(long deadlineNanos, boolean waits) {
+            this.deadlineNanos = deadlineNanos;
+            this.waits = waits;
+            result.whenComplete((acquired, error) -> {
+                CompletableFuture<Boolean> current = turn;
+                if (!Boolean.TRUE.equals(acquired) && current != null) {
+                    current.cancel(false);
+                }
+            });
+        }
+
+        void acquire(int index) {
+            if (index == locks.size()) {
+                lossReported = false;
+                held = true;
+                if (!result.complete(true)) {
+                    held = false;
+                    releaseFirstAsync(index);
+                }
+                return;
+            }
+            if (result.isDone()) {
+                releaseFirstAsync(index);
+                return;
+            }
+
+            // a zero timeout makes a single attempt on every shard
+            Duration remaining = waits ? Duration.ofNanos(Math.max(1, deadlineNanos - System.nanoTime())) : Duration.ZERO;
+            CompletableFuture<Boolean> current;
+            try {
+                current = locks.get(index).tryLockAsync(remaining);
+            } catch (RuntimeException e) {
+                releaseFirstAsync(index);
+                result.completeExceptionally(e);
+                return;
+            }
+            turn = current;
+            if (result.isDone()) {
+                current.cancel(false);
+            }
+            current.whenComplete((acquired, error) -> {
+                if (Boolean.TRUE.equals(acquired)) {
+                    acquire(index + 1);
+                    return;
+                }
+                releaseFirstAsync(index);
+                if (error == null) {
+                    result.complete(false);
+                } else if (!(error instanceof CancellationException)) {
+                    result.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+                }
+            });
+        }
+    }
+}
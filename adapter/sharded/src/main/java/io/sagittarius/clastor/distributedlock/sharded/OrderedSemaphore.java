@@ -0,0 +1,81 @@
+package io.sagittarius.clastor.distributedlock.sharded;
+
+import io.sagittarius.clastor.distributedlock.domain.DistributedLock;
+import io.sagittarius.clastor.distributedlock.domain.DistributedSemaphore;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A permit taken on several shards, with the ordering of {@link OrderedLock}.
+ */
+final class OrderedSemaphore implements DistributedSemaphore {
+
+    private final OrderedLock permits;
+
+    /**
+     * @param semaphores the semaphores on each shard, in shard order
+     */
+    OrderedSemaphore(List<DistributedSemaphore> semaphores) {
+        List<DistributedLock> locks = new ArrayList<>(semaphores.size());
+        for (DistributedSemaphore semaphore : semaphores) {
+            locks.add(new PermitLock(semaphore));
+        }
+        this.permits = new OrderedLock(locks);
+    }
+
+    @Override
+    public boolean tryAcquire(Duration timeout) throws InterruptedException {
+        return permits.tryLock(timeout);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> tryAcquireAsync(Duration timeout) {
+        return permits.tryLockAsync(timeout);
+    }
+
+    @Override
+    public void release() {
+        permits.unlock();
+    }
+
+    @Override
+    public CompletableFuture<Void> releaseAsync() {
+        return permits.unlockAsync();
+    }
+
+    @Override
+    public String token() {
+        return permits.token();
+    }
+
+    private record PermitLock(DistributedSemaphore semaphore) implements DistributedLock {
+
+        @Override
+        public boolean tryLock(Duration timeout) throws InterruptedException {
+            return semaphore.tryAcquire(timeout);
+        }
+
+        @Override
+        public CompletableFuture<Boolean> tryLockAsync(Duration timeout) {
+            return semaphore.tryAcquireAsync(timeout);
+        }
+
+        @Override
+        public void unlock() {
+            semaphore.release();
+        }
+
+        @Override
+        public CompletableFuture<Void> unlockAsync() {
+            return semaphore.releaseAsync();
+        }
+
+        @Override
+        public String token() {
+            return semaphore.token();
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package io.sagittarius.clastor.distributedlock.sharded;
+
+import io.sagittarius.clastor.distributedlock.domain.DistributedLockManager;
+
+/**
+ * @param name    identifies the shard on the hash ring, so it must stay the same across restarts
+ *                and be the same on every instance
+ * @param manager the manager of the shard's own ensemble or session
+ * @param state   whether the shard is being added
+ */
+public record Shard(
+        String name,
+        DistributedLockManager manager,
+        ShardState state
+) {
+}
@@ -0,0 +1,51 @@
+package io.sagittarius.clastor.distributedlock.sharded;
+
+import io.sagittarius.clastor.distributedlock.domain.DistributedLock;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The lock of one shard, whose token names the shard so that any instance releases it there.
+ * A token of the sharded manager is a comma-separated list of {@code shard:token} parts, the shard
+ * being its index in the list of shards.
+ *
+ * @param shard the index of the shard
+ * @param lock  the lock of the shard's manager
+ */
+record ShardLock(int shard, DistributedLock lock) implements DistributedLock {
+
+    @Override
+    public boolean tryLock(Duration timeout) throws InterruptedException {
+        return lock.tryLock(timeout);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> tryLockAsync(Duration timeout) {
+        return lock.tryLockAsync(timeout);
+    }
+
+    @Override
+    public void unlock() {
+        lock.unlock();
+    }
+
+    @Override
+    public CompletableFuture<Void> unlockAsync() {
+        return lock.unlockAsync();
+    }
+
+    @Override
+    public String token() {
+        return token(shard, lock.token());
+    }
+
+    @Override
+    public void onLost(Runnable listener) {
+        lock.onLost(listener);
+    }
+
+    static String token(int shard, String token) {
+        return token == null ? null : shard + ":" + token;
+    }
+}
@@ -0,0 +1,16 @@
+package io.sagittarius.clastor.distributedlock.sharded;
+
+/**
+ * What the position of a lock on the hash ring is computed from.
+ */
+public enum ShardRouting {
+    /**
+     * The resource kind: every lock of a kind lives on one shard, and multi-locks within a kind
+     * stay on a single ensemble.
+     */
+    PER_KIND,
+    /**
+     * The resource kind and id: the locks of a kind are spread over all shards.
+     */
+    PER_ID
+}
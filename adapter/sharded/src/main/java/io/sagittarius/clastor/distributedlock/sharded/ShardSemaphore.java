@@ -0,0 +1,40 @@
+package io.sagittarius.clastor.distributedlock.sharded;
+
+import io.sagittarius.clastor.distributedlock.domain.DistributedSemaphore;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The semaphore of one shard, with a token naming the shard like {@link ShardLock}'s.
+ *
+ * @param shard     the index of the shard
+ * @param semaphore the semaphore of the shard's manager
+ */
+record ShardSemaphore(int shard, DistributedSemaphore semaphore) implements DistributedSemaphore {
+
+    @Override
+    public boolean tryAcquire(Duration timeout) throws InterruptedException {
+        return semaphore.tryAcquire(timeout);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> tryAcquireAsync(Duration timeout) {
+        return semaphore.tryAcquireAsync(timeout);
+    }
+
+    @Override
+    public void release() {
+        semaphore.release();
+    }
+
+    @Override
+    public CompletableFuture<Void> releaseAsync() {
+        return semaphore.releaseAsync();
+    }
+
+    @Override
+    public String token() {
+        return ShardLock.token(shard, semaphore.token());
+    }
+}
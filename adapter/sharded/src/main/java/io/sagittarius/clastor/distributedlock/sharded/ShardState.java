@@ -0,0 +1,16 @@
+package io.sagittarius.clastor.distributedlock.sharded;
+
+/**
+ * Where a shard stands in the routing.
+ */
+public enum ShardState {
+    /**
+     * Owns its part of the ring.
+     */
+    ACTIVE,
+    /**
+     * Being added: the keys it is going to own are locked both on it and on the shard that owned
+     * them before, so that holders routed either way still exclude each other.
+     */
+    JOINING
+}
@@ -0,0 +1,267 @@
+package io.sagittarius.clastor.distributedlock.sharded;
+
+import io.sagittarius.clastor.distributedlock.domain.DistributedLock;
+import io.sagittarius.clastor.distributedlock.domain.DistributedLockManager;
+import io.sagittarius.clastor.distributedlock.domain.DistributedLockVersionAccessor;
+import io.sagittarius.clastor.distributedlock.domain.DistributedSemaphore;
+import io.sagittarius.clastor.distributedlock.domain.DistributedSemaphorePermitsAccessor;
+import io.sagittarius.clastor.distributedlock.domain.LockKey;
+import io.sagittarius.clastor.distributedlock.domain.LockMode;
+import io.sagittarius.clastor.distributedlock.domain.LockSchemaManager;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Spreads the locks over several managers, each with its own ensemble or session, so that the
+ * write throughput of a single ensemble is no longer the ceiling.
+ * <p>
+ * A lock is routed by consistent hashing of its resource kind, or of its kind and id, depending
+ * on the {@link ShardRouting}. Only the shard owning a key ever sees its locks; locks of the same
+ * key exclude each other only because every instance routes them the same way, so all instances
+ * must be configured with the same shards, names and routing.
+ * <p>
+ * Adding a shard is done in three steps:
+ * <ol>
+ *     <li>Add it as {@link ShardState#JOINING} on every instance. The keys it will own are then
+ *     locked on it and on their current owner, so these instances exclude both the ones that
+ *     still route the old way and each other.</li>
+ *     <li>Rotate the version of every resource kind, through the {@link #schemaManager()}, which
+ *     rotates every ensemble. Its drain step waits out the locks taken under the old version, the
+ *     last of which can have been taken before the shard joined.</li>
+ *     <li>Mark the shard {@link ShardState#ACTIVE} on every instance. Keys moved onto it are now
+ *     only locked there, which the joining instances still holding both exclude.</li>
+ * </ol>
+ * Multi-resource locks and locks taken on two shards acquire the shards in their order in the
+ * list, so new shards must be appended.
+ * <p>
+ * Versions, modes and permits live on every shard: they are read from the first one, modes and
+ * permits are changed on all of them, and versions are rotated on each ensemble.
+ * <p>
+ * Locks and semaphores are wrapped to prefix their tokens with the index of their shard, so
+ * {@link #releaseAsync(String)} takes each part of a token back to the shard that issued it.
+ */
+@Slf4j
+public class ShardedLockManager implements DistributedLockManager, AutoCloseable {
+
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    private final List<Shard> shards;
+    private final ShardRouting routing;
+    private final HashRing ring;
+    // the ring without the joining shards, null when none is joining
+    private final HashRing previousRing;
+    private final ShardedPermitsAccessor permitsAccessor;
+    private final ShardedSchemaManager schemaManager;
+
+    public ShardedLockManager(List<Shard> shards, ShardRouting routing) {
+        this(shards, routing, DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * @param shards       the shards, in a fixed order: new ones are appended
+     * @param routing      what locks are placed on the ring by
+     * @param virtualNodes the number of points of each shard on the ring, more spread the keys more evenly
+     */
+    public ShardedLockManager(List<Shard> shards, ShardRouting routing, int virtualNodes) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        if (shards.getFirst().state() != ShardState.ACTIVE) {
+            throw new IllegalArgumentException("The first shard must be active, it holds the versions");
+        }
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("virtualNodes must be at least 1, got " + virtualNodes);
+        }
+        Set<String> names = new HashSet<>();
+        for (Shard shard : shards) {
+            if (!names.add(shard.name())) {
+                throw new IllegalArgumentException("Duplicate shard name " + shard.name());
+            }
+        }
+
+        this.shards = List.copyOf(shards);
+        this.routing = routing;
+
+        List<String> allNames = new ArrayList<>();
+        List<Integer> allIndexes = new ArrayList<>();
+        List<String> activeNames = new ArrayList<>();
+        List<Integer> activeIndexes = new ArrayList<>();
+        for (int i = 0; i < this.shards.size(); i++) {
+            Shard shard = this.shards.get(i);
+            allNames.add(shard.name());
+            allIndexes.add(i);
+            if (shard.state() == ShardState.ACTIVE) {
+                activeNames.add(shard.name());
+                activeIndexes.add(i);
+            }
+        }
+        this.ring = new HashRing(allNames, allIndexes, virtualNodes);
+        this.previousRing = activeNames.size() < allNames.size()
+                ? new HashRing(activeNames, activeIndexes, virtualNodes)
+                : null;
+        this.permitsAccessor = new ShardedPermitsAccessor(this.shards);
+        this.schemaManager = new ShardedSchemaManager(this.shards);
+
+        log.info("Sharding locks {} over {} shards ({} joining)", routing, allNames.size(),
+                allNames.size() - activeNames.size());
+    }
+
+    @Override
+    public DistributedLock lock(String resourceKind, String resourceId, LockMode mode) {
+        long hash = hash(resourceKind, resourceId);
+        int owner = ring.owner(hash);
+        int previousOwner = previousOwner(hash, owner);
+        if (previousOwner == owner) {
+            return lockOn(owner, resourceKind, resourceId, mode);
+        }
+        return new OrderedLock(List.of(
+                lockOn(Math.min(owner, previousOwner), resourceKind, resourceId, mode),
+                lockOn(Math.max(owner, previousOwner), resourceKind, resourceId, mode)));
+    }
+
+    @Override
+    public DistributedLock lockAll(Collection<LockKey> keys) {
+        Map<Integer, List<LockKey>> byShard = new TreeMap<>();
+        for (LockKey key : LockKey.canonical(keys)) {
+            long hash = hash(key.resourceKind(), key.resourceId());
+            int owner = ring.owner(hash);
+            byShard.computeIfAbsent(owner, ignored -> new ArrayList<>()).add(key);
+            int previousOwner = previousOwner(hash, owner);
+            if (previousOwner != owner) {
+                byShard.computeIfAbsent(previousOwner, ignored -> new ArrayList<>()).add(key);
+            }
+        }
+
+        if (byShard.size() == 1) {
+            Map.Entry<Integer, List<LockKey>> only = byShard.entrySet().iterator().next();
+            return new ShardLock(only.getKey(), shards.get(only.getKey()).manager().lockAll(only.getValue()));
+        }
+        List<DistributedLock> locks = new ArrayList<>(byShard.size());
+        byShard.forEach((shard, shardKeys) ->
+                locks.add(new ShardLock(shard, shards.get(shard).manager().lockAll(shardKeys))));
+        return new OrderedLock(locks);
+    }
+
+    @Override
+    public DistributedSemaphore semaphore(String resourceKind, String resourceId) {
+        long hash = hash(resourceKind, resourceId);
+        int owner = ring.owner(hash);
+        int previousOwner = previousOwner(hash, owner);
+        if (previousOwner == owner) {
+            return semaphoreOn(owner, resourceKind, resourceId);
+        }
+        return new OrderedSemaphore(List.of(
+                semaphoreOn(Math.min(owner, previousOwner), resourceKind, resourceId),
+                semaphoreOn(Math.max(owner, previousOwner), resourceKind, resourceId)));
+    }
+
+    /**
+     * Releases each part of the token on its shard.
+     *
+     * @return a future of whether any part was released
+     */
+    @Override
+    public CompletableFuture<Boolean> releaseAsync(String token) {
+        String[] parts = token.split(",");
+        List<CompletableFuture<Boolean>> releases = new ArrayList<>(parts.length);
+        for (String part : parts) {
+            int separator = part.indexOf(':');
+            int shard;
+            try {
+                shard = separator < 1 ? -1 : Integer.parseInt(part, 0, separator, 10);
+            } catch (NumberFormatException e) {
+                shard = -1;
+            }
+            if (shard < 0 || shard >= shards.size()) {
+                throw new IllegalArgumentException("Malformed sharded lock token");
+            }
+            releases.add(shards.get(shard).manager().releaseAsync(part.substring(separator + 1)));
+        }
+        return CompletableFuture.allOf(releases.toArray(CompletableFuture<?>[]::new))
+                .thenApply(ignored -> releases.stream().anyMatch(CompletableFuture::join));
+    }
+
+    private DistributedLock lockOn(int shard, String resourceKind, String resourceId, LockMode mode) {
+        return new ShardLock(shard, shards.get(shard).manager().lock(resourceKind, resourceId, mode));
+    }
+
+    private DistributedSemaphore semaphoreOn(int shard, String resourceKind, String resourceId) {
+        return new ShardSemaphore(shard, shards.get(shard).manager().semaphore(resourceKind, resourceId));
+    }
+
+    /**
+     * Returns the names of the shards the locks of a resource are taken on: one, or two while the
+     * resource moves to a joining shard.
+     */
+    public List<String> route(String resourceKind, String resourceId) {
+        long hash = hash(resourceKind, resourceId);
+        int owner = ring.owner(hash);
+        int previousOwner = previousOwner(hash, owner);
+        if (previousOwner == owner) {
+            return List.of(shards.get(owner).name());
+        }
+        return List.of(shards.get(Math.min(owner, previousOwner)).name(),
+                shards.get(Math.max(owner, previousOwner)).name());
+    }
+
+    public List<Shard> shards() {
+        return shards;
+    }
+
+    private long hash(String resourceKind, String resourceId) {
+        return routing == ShardRouting.PER_KIND
+                ? HashRing.hash(resourceKind, null)
+                : HashRing.hash(resourceKind, resourceId);
+    }
+
+    private int previousOwner(long hash, int owner) {
+        if (previousRing == null || shards.get(owner).state() == ShardState.ACTIVE) {
+            // keys only ever move onto the joining shards
+            return owner;
+        }
+        return previousRing.owner(hash);
+    }
+
+    @Override
+    public DistributedLockVersionAccessor versionAccessor() {
+        return shards.getFirst().manager().versionAccessor();
+    }
+
+    @Override
+    public DistributedSemaphorePermitsAccessor permitsAccessor() {
+        return permitsAccessor;
+    }
+
+    @Override
+    public LockSchemaManager schemaManager() {
+        return schemaManager;
+    }
+
+    @Override
+    public void close() throws Exception {
+        Exception failure = null;
+        for (Shard shard : shards) {
+            try {
+                shard.manager().close();
+            } catch (Exception e) {
+                log.warn("Failed to close lock shard {}", shard.name(), e);
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
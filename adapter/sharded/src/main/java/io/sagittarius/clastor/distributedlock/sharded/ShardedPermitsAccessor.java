@@ -0,0 +1,34 @@
+package io.sagittarius.clastor.distributedlock.sharded;
+
+import io.sagittarius.clastor.distributedlock.domain.DistributedSemaphorePermitsAccessor;
+
+import java.util.List;
+
+/**
+ * Every shard keeps its own permits node: they are read from the first shard and changed on all.
+ */
+final class ShardedPermitsAccessor implements DistributedSemaphorePermitsAccessor {
+
+    private final List<Shard> shards;
+
+    ShardedPermitsAccessor(List<Shard> shards) {
+        this.shards = shards;
+    }
+
+    @Override
+    public String permitsPath(String resourceKind) {
+        return shards.getFirst().manager().permitsAccessor().permitsPath(resourceKind);
+    }
+
+    @Override
+    public int currentPermits(String resourceKind) {
+        return shards.getFirst().manager().permitsAccessor().currentPermits(resourceKind);
+    }
+
+    @Override
+    public void setPermits(String resourceKind, int permits) {
+        for (Shard shard : shards) {
+            shard.manager().permitsAccessor().setPermits(resourceKind, permits);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package io.sagittarius.clastor.distributedlock.sharded;
+
+import io.sagittarius.clastor.distributedlock.domain.LockSchemaManager;
+import io.sagittarius.clastor.distributedlock.domain.ResourceMode;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Every shard keeps its own modes and versions: modes are read from the first shard and set on
+ * all, drains and rotations run on all shards at once.
+ * <p>
+ * Each shard rotates on its own, reopening the kind as soon as its part is drained. A key locked
+ * on two shards while one of them joins is refused until both are open again, since each shard
+ * refuses the locks of a kind it drains.
+ */
+final class ShardedSchemaManager implements LockSchemaManager {
+
+    private final List<Shard> shards;
+
+    ShardedSchemaManager(List<Shard> shards) {
+        this.shards = shards;
+    }
+
+    @Override
+    public ResourceMode mode(String resourceKind) {
+        return shards.getFirst().manager().schemaManager().mode(resourceKind);
+    }
+
+    @Override
+    public void setMode(String resourceKind, ResourceMode mode) {
+        for (Shard shard : shards) {
+            shard.manager().schemaManager().setMode(resourceKind, mode);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> awaitDrained(String resourceKind, String version) {
+        return CompletableFuture.allOf(shards.stream()
+                .map(shard -> shard.manager().schemaManager().awaitDrained(resourceKind, version))
+                .toArray(CompletableFuture<?>[]::new));
+    }
+
+    /**
+     * Rotates the kind on every shard.
+     *
+     * @return a future of the version the first shard rotated away from
+     */
+    @Override
+    public CompletableFuture<String> rotate(String resourceKind, String newVersion, Duration drainTimeout) {
+        List<CompletableFuture<String>> rotations = shards.stream()
+                .map(shard -> shard.manager().schemaManager().rotate(resourceKind, newVersion, drainTimeout))
+                .toList();
+        return CompletableFuture.allOf(rotations.toArray(CompletableFuture<?>[]::new))
+                .thenApply(ignored -> rotations.getFirst().join());
+    }
+}
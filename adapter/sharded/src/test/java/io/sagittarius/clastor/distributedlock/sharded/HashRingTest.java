@@ -0,0 +1,56 @@
+package io.sagittarius.clastor.distributedlock.sharded;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HashRingTest {
+
+    private static final int KEYS = 10_000;
+
+    @Test
+    void hashingDoesNotBuildTheKey() {
+        assertEquals(HashRing.hash("orders/1", null), HashRing.hash("orders", "1"));
+        assertNotEquals(HashRing.hash("orders", "1"), HashRing.hash("orders", "2"));
+    }
+
+    @Test
+    void keysAreSpreadOverTheShards() {
+        HashRing ring = new HashRing(List.of("a", "b", "c"), List.of(0, 1, 2), ShardedLockManager.DEFAULT_VIRTUAL_NODES);
+        int[] owned = new int[3];
+        for (int i = 0; i < KEYS; i++) {
+            owned[ring.owner(HashRing.hash("orders", Integer.toString(i)))]++;
+        }
+        for (int count : owned) {
+            assertTrue(count > KEYS / 5, "keys per shard: " + count);
+        }
+    }
+
+    @Test
+    void addingAShardOnlyMovesKeysOntoIt() {
+        HashRing before = new HashRing(List.of("a", "b"), List.of(0, 1), ShardedLockManager.DEFAULT_VIRTUAL_NODES);
+        HashRing after = new HashRing(List.of("a", "b", "c"), List.of(0, 1, 2), ShardedLockManager.DEFAULT_VIRTUAL_NODES);
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            long hash = HashRing.hash("orders", Integer.toString(i));
+            int owner = after.owner(hash);
+            if (owner != before.owner(hash)) {
+                assertEquals(2, owner);
+                moved++;
+            }
+        }
+        assertTrue(moved > KEYS / 5 && moved < KEYS / 2, "moved keys: " + moved);
+    }
+
+    @Test
+    void theOwnerIsTheIndexGivenWithTheName() {
+        HashRing ring = new HashRing(List.of("c"), List.of(2), 4);
+
+        assertEquals(2, ring.owner(Long.MIN_VALUE));
+        assertEquals(2, ring.owner(Long.MAX_VALUE));
+    }
+}
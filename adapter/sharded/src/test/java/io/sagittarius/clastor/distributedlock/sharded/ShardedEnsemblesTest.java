@@ -0,0 +1,164 @@
+package io.sagittarius.clastor.distributedlock.sharded;
+
+import io.sagittarius.clastor.distributedlock.domain.DistributedLock;
+import io.sagittarius.clastor.distributedlock.domain.LockMode;
+import io.sagittarius.clastor.distributedlock.zookeeper.EmbeddedZooKeeper;
+import io.sagittarius.clastor.distributedlock.zookeeper.ZookeeperLockConfig;
+import io.sagittarius.clastor.distributedlock.zookeeper.ZookeeperLockManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Two instances sharding over three embedded ensembles, each instance with its own sessions.
+ */
+class ShardedEnsemblesTest {
+
+    private static final List<String> NAMES = List.of("zk-a", "zk-b", "zk-c");
+
+    private final List<EmbeddedZooKeeper> servers = new ArrayList<>();
+    private final List<ZookeeperLockManager> direct = new ArrayList<>();
+    private String rootPath;
+    private ShardedLockManager first;
+    private ShardedLockManager second;
+
+    @BeforeEach
+    void start() throws Exception {
+        rootPath = "/sharded-" + System.nanoTime();
+        for (int i = 0; i < NAMES.size(); i++) {
+            servers.add(new EmbeddedZooKeeper());
+            direct.add(manager(i));
+        }
+        first = sharded();
+        second = sharded();
+    }
+
+    @AfterEach
+    void stop() throws Exception {
+        first.close();
+        second.close();
+        for (ZookeeperLockManager manager : direct) {
+            manager.close();
+        }
+        for (EmbeddedZooKeeper server : servers) {
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    private ZookeeperLockManager manager(int shard) throws Exception {
+        return new ZookeeperLockManager(new ZookeeperLockConfig(servers.get(shard).connectionString(),
+                Duration.ofSeconds(5), Duration.ofSeconds(30), rootPath, false, 0, null, null, Duration.ZERO, 0));
+    }
+
+    private ShardedLockManager sharded() throws Exception {
+        List<Shard> shards = new ArrayList<>();
+        for (int i = 0; i < NAMES.size(); i++) {
+            shards.add(new Shard(NAMES.get(i), manager(i), ShardState.ACTIVE));
+        }
+        return new ShardedLockManager(shards, ShardRouting.PER_ID);
+    }
+
+    /**
+     * @return a resource id of the kind {@code orders} owned by the shard
+     */
+    private String idOn(int shard) {
+        for (int id = 0; ; id++) {
+            if (first.route("orders", Integer.toString(id)).equals(List.of(NAMES.get(shard)))) {
+                return Integer.toString(id);
+            }
+        }
+    }
+
+    /**
+     * Whether the lock of the resource is free on the ensemble of the shard, looked at without sharding.
+     */
+    private boolean freeOn(int shard, String id) throws InterruptedException {
+        DistributedLock probe = direct.get(shard).lock("orders", id, LockMode.EXCLUSIVE);
+        boolean free = probe.tryLock(Duration.ZERO);
+        probe.unlock();
+        return free;
+    }
+
+    @Test
+    void everyInstanceRoutesAKeyToTheSameEnsemble() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            String id = Integer.toString(i);
+            assertEquals(first.route("orders", id), second.route("orders", id));
+        }
+
+        for (int shard = 0; shard < NAMES.size(); shard++) {
+            String id = idOn(shard);
+            DistributedLock held = first.lock("orders", id, LockMode.EXCLUSIVE);
+            assertTrue(held.tryLock(Duration.ofSeconds(5)));
+
+            assertFalse(second.lock("orders", id, LockMode.EXCLUSIVE).tryLock(Duration.ZERO));
+            for (int other = 0; other < NAMES.size(); other++) {
+                assertEquals(other != shard, freeOn(other, id), "lock of " + id + " on shard " + other);
+            }
+            held.unlock();
+            assertTrue(freeOn(shard, id));
+        }
+    }
+
+    @Test
+    void locksOnDifferentEnsemblesDoNotInterfere() throws Exception {
+        String onA = idOn(0);
+        String onB = idOn(1);
+        DistributedLock heldOnA = first.lock("orders", onA, LockMode.EXCLUSIVE);
+        assertTrue(heldOnA.tryLock(Duration.ofSeconds(5)));
+
+        long packetsOnA = servers.get(0).packetsReceived();
+        DistributedLock heldOnB = second.lock("orders", onB, LockMode.EXCLUSIVE);
+        assertTrue(heldOnB.tryLock(Duration.ZERO));
+        heldOnB.unlock();
+        // a few pings of the idle sessions at most, the lock and its release cost a dozen
+        assertTrue(servers.get(0).packetsReceived() - packetsOnA <= 4);
+
+        // a waiter on A is not let in by the release on B
+        CompletableFuture<Boolean> waiter = second.lock("orders", onA, LockMode.EXCLUSIVE).tryLockAsync(Duration.ofSeconds(10));
+        assertTrue(heldOnB.tryLock(Duration.ofSeconds(5)));
+        heldOnB.unlock();
+        assertFalse(waiter.isDone());
+        heldOnA.unlock();
+        assertTrue(waiter.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void losingAnEnsembleOnlyAffectsItsOwnKeys() throws Exception {
+        String onC = idOn(2);
+        servers.set(2, null).close();
+
+        DistributedLock lost = first.lock("orders", onC, LockMode.EXCLUSIVE);
+        CompletableFuture<Boolean> attempt = lost.tryLockAsync(Duration.ofSeconds(1));
+        boolean acquired;
+        try {
+            acquired = attempt.get(15, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            acquired = false;
+        }
+        assertFalse(acquired);
+
+        for (int i = 0; i < 50; i++) {
+            String id = Integer.toString(i);
+            if (first.route("orders", id).equals(List.of(NAMES.get(2)))) {
+                continue;
+            }
+            DistributedLock lock = first.lock("orders", id, LockMode.EXCLUSIVE);
+            assertTrue(lock.tryLock(Duration.ofSeconds(5)), "lock of " + id);
+            assertFalse(second.lock("orders", id, LockMode.EXCLUSIVE).tryLock(Duration.ZERO));
+            lock.unlock();
+        }
+    }
+}
@@ -1,7 +1,19 @@
 plugins {
     `java-library`
+    `java-test-fixtures`
 }
 
 dependencies {
     implementation("org.apache.zookeeper:zookeeper:3.9.4")
-}
\ No newline at end of file
+
+    // the embedded server lives in the client jar, its runtime dependencies are optional there
+    testFixturesImplementation("org.apache.zookeeper:zookeeper:3.9.4")
+    testFixturesRuntimeOnly("io.dropwizard.metrics:metrics-core:4.1.12.1")
+    testFixturesRuntimeOnly("org.xerial.snappy:snappy-java:1.1.10.5")
+}
+
+// the test fixtures are shared with the other modules' tests and the benchmarks, never published
+(components["java"] as AdhocComponentWithVariants).apply {
+    withVariantsFromConfiguration(configurations["testFixturesApiElements"]) { skip() }
+    withVariantsFromConfiguration(configurations["testFixturesRuntimeElements"]) { skip() }
+}
@@ -0,0 +1,97 @@
+package io.sagittarius.clastor.distributedlock.zookeeper;
+
+import io.sagittarius.clastor.distributedlock.domain.DistributedLock;
+import io.sagittarius.clastor.distributedlock.domain.DistributedLockMetrics;
+import io.sagittarius.clastor.distributedlock.domain.EstimatedTimeoutException;
+import lombok.RequiredArgsConstructor;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A lock handle that joins the in-JVM {@link LocalLockQueue} of its path instead of creating
+ * its own ZooKeeper contender. Used by {@link ZookeeperLockManager} in hierarchical mode.
+ * <p>
+ * A hold is lost when the queue loses its ZooKeeper lock while this handle owns it.
+ */
+@RequiredArgsConstructor
+public class CoalescingZookeeperLock implements DistributedLock {
+
+    private final ZkClient client;
+    private final String locksRootPath;
+    private final int handoffBudget;
+    private final ConcurrentMap<String, LocalLockQueue> queues;
+    private final String resourceKind;
+    private final DistributedLockMetrics metrics;
+
+    private volatile LocalLockQueue.Waiter waiter;
+    private volatile LossListeners lossListeners;
+
+    @Override
+    public boolean tryLock(Duration timeout) throws InterruptedException {
+        CompletableFuture<Boolean> acquisition = tryLockAsync(timeout);
+        try {
+            return acquisition.get();
+        } catch (InterruptedException e) {
+            acquisition.cancel(false);
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof EstimatedTimeoutException) {
+                return false;
+            }
+            throw new RuntimeException("Error while acquiring ZooKeeper lock", e.getCause());
+        }
+    }
+
+    @Override
+    public CompletableFuture<Boolean> tryLockAsync(Duration timeout) {
+        while (true) {
+            LocalLockQueue queue = queues.computeIfAbsent(locksRootPath,
+                    path -> new LocalLockQueue(client, path, handoffBudget, queues, resourceKind, metrics));
+            LocalLockQueue.Waiter enqueued = queue.enqueue(timeout, this::lost);
+            if (enqueued != null) {
+                waiter = enqueued;
+                return enqueued.result;
+            }
+            // the queue retired between lookup and enqueue
+            queues.remove(locksRootPath, queue);
+        }
+    }
+
+    @Override
+    public void unlock() {
+        LocalLockQueue.Waiter current = waiter;
+        if (current != null) {
+            waiter = null;
+            current.release();
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> unlockAsync() {
+        unlock();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public void onLost(Runnable listener) {
+        LossListeners listeners;
+        synchronized (this) {
+            if (lossListeners == null) {
+                lossListeners = new LossListeners();
+            }
+            listeners = lossListeners;
+        }
+        listeners.add(listener);
+    }
+
+    private void lost() {
+        waiter = null;
+        LossListeners listeners = lossListeners;
+        if (listeners != null) {
+            listeners.fire();
+        }
+    }
+}
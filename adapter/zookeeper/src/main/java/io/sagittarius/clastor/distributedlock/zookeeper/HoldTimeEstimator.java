@@ -0,0 +1,113 @@
+package io.sagittarius.clastor.distributedlock.zookeeper;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Predicts how long a contender will wait for a lock from its queue position, with an
+ * exponentially weighted moving average of the time each position ahead takes, per lock path.
+ * <p>
+ * Samples come from the holds released through this client and from the waits of its own
+ * contenders, a wait behind {@code n} nodes counting as {@code n} turns; the latter also reflect
+ * holders on other instances. No prediction is made before {@link #MIN_SAMPLES} samples, nor
+ * once the last sample is {@link #STALE_TURNS} turns old: rejected contenders bring no samples,
+ * so a path that got faster would otherwise keep being predicted slow. The paths tracked are
+ * bounded, the least recently used ones being dropped first.
+ */
+final class HoldTimeEstimator {
+
+    static final int MIN_SAMPLES = 5;
+    static final int STALE_TURNS = 10;
+    private static final double ALPHA = 0.2;
+
+    /**
+     * How much longer than the time left the predicted wait has to be before giving up on it,
+     * so that a noisy average only rejects acquisitions that are well beyond hope.
+     */
+    static final int MARGIN = 2;
+
+    private final int capacity;
+
+    // guarded by this, in access order for eviction; the stats themselves have their own lock
+    private final LinkedHashMap<String, Stats> stats;
+
+    HoldTimeEstimator(int capacity) {
+        this.capacity = capacity;
+        this.stats = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Stats> eldest) {
+                return size() > HoldTimeEstimator.this.capacity;
+            }
+        };
+    }
+
+    void recordHold(String path, long nanos) {
+        record(path, nanos);
+    }
+
+    /**
+     * @param position the number of nodes that were ahead when the wait started, at least one
+     */
+    void recordWait(String path, long nanos, int position) {
+        record(path, nanos / position);
+    }
+
+    /**
+     * @return the predicted wait behind the given number of nodes, or {@code -1} if unknown
+     */
+    long estimateWaitNanos(String path, int position) {
+        Stats pathStats;
+        synchronized (this) {
+            pathStats = stats.get(path);
+        }
+        if (pathStats == null) {
+            return -1;
+        }
+        long turnNanos = pathStats.turnNanos();
+        return turnNanos < 0 ? -1 : turnNanos * position;
+    }
+
+    /**
+     * Whether a wait behind the given number of nodes is predicted to take well over the time left.
+     *
+     * @return the predicted wait if so, {@code -1} otherwise
+     */
+    long hopeless(String path, int position, long remainingNanos) {
+        long estimate = estimateWaitNanos(path, position);
+        return estimate > MARGIN * Math.max(0, remainingNanos) ? estimate : -1;
+    }
+
+    private void record(String path, long nanos) {
+        if (nanos < 0) {
+            return;
+        }
+        Stats pathStats;
+        synchronized (this) {
+            pathStats = stats.computeIfAbsent(path, ignored -> new Stats());
+        }
+        pathStats.add(nanos);
+    }
+
+    private static final class Stats {
+
+        // guarded by this
+        private double averageNanos;
+        private int samples;
+        private long lastSampleNanos;
+
+        synchronized void add(long nanos) {
+            lastSampleNanos = System.nanoTime();
+            averageNanos = samples == 0 ? nanos : averageNanos + ALPHA * (nanos - averageNanos);
+            if (samples < MIN_SAMPLES) {
+                samples++;
+            }
+        }
+
+        synchronized long turnNanos() {
+            if (samples < MIN_SAMPLES || System.nanoTime() - lastSampleNanos > STALE_TURNS * averageNanos) {
+                return -1;
+            }
+            return (long) averageNanos;
+        }
+    }
+}
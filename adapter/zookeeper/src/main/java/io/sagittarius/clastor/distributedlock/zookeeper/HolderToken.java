@@ -0,0 +1,124 @@
+package io.sagittarius.clastor.distributedlock.zookeeper;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The token of a hold: the session that owns it and its lock nodes, each named by its path and by
+ * the zxid that created it.
+ * <p>
+ * The path alone does not name a hold. The fixed {@code owner} node comes back under the same name
+ * every time the lock is taken on the fast path, and so do sequential nodes once their directory
+ * has been recreated. A node is only released if it still has the session and creation zxid of the
+ * token, and then by a delete conditioned on the version just read.
+ */
+@Slf4j
+record HolderToken(long session, List<Node> nodes) {
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    record Node(String path, long czxid) {
+    }
+
+    static HolderToken of(String nodePath, Stat stat) {
+        return new HolderToken(stat.getEphemeralOwner(), List.of(new Node(nodePath, stat.getCzxid())));
+    }
+
+    /**
+     * Joins the tokens of nodes created together, by the same session.
+     */
+    static HolderToken merge(List<HolderToken> tokens) {
+        List<Node> nodes = new ArrayList<>();
+        for (HolderToken token : tokens) {
+            nodes.addAll(token.nodes());
+        }
+        return new HolderToken(tokens.getFirst().session(), nodes);
+    }
+
+    String encode() {
+        StringBuilder text = new StringBuilder(Long.toHexString(session));
+        for (Node node : nodes) {
+            text.append('\n').append(Long.toHexString(node.czxid())).append(' ').append(node.path());
+        }
+        return ENCODER.encodeToString(text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the token was not made by {@link #encode()}
+     */
+    static HolderToken decode(String token) {
+        try {
+            String[] lines = new String(DECODER.decode(token), StandardCharsets.UTF_8).split("\n");
+            if (lines.length < 2) {
+                throw new IllegalArgumentException("Malformed lock token");
+            }
+            List<Node> nodes = new ArrayList<>(lines.length - 1);
+            for (int i = 1; i < lines.length; i++) {
+                String line = lines[i];
+                int space = line.indexOf(' ');
+                if (space < 1 || !line.startsWith("/", space + 1)) {
+                    throw new IllegalArgumentException("Malformed lock token");
+                }
+                nodes.add(new Node(line.substring(space + 1), Long.parseUnsignedLong(line, 0, space, 16)));
+            }
+            return new HolderToken(Long.parseUnsignedLong(lines[0], 16), nodes);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed lock token", e);
+        }
+    }
+
+    /**
+     * Deletes the nodes that still belong to this hold. They are released one by one: nodes of
+     * the same session only go away together when the session expires.
+     *
+     * @return a future of whether any node was released
+     */
+    CompletableFuture<Boolean> release(ZooKeeper zooKeeper) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(nodes.size());
+        AtomicBoolean released = new AtomicBoolean();
+
+        for (Node node : nodes) {
+            zooKeeper.exists(node.path(), false, (rc, path, ctx, stat) -> {
+                KeeperException.Code code = KeeperException.Code.get(rc);
+                if (code == KeeperException.Code.OK && stat.getEphemeralOwner() == session
+                        && stat.getCzxid() == node.czxid()) {
+                    zooKeeper.delete(path, stat.getVersion(), (deleteRc, deletedPath, deleteCtx) -> {
+                        KeeperException.Code deleteCode = KeeperException.Code.get(deleteRc);
+                        if (deleteCode == KeeperException.Code.OK) {
+                            released.set(true);
+                        } else if (deleteCode != KeeperException.Code.NONODE && deleteCode != KeeperException.Code.BADVERSION) {
+                            result.completeExceptionally(KeeperException.create(deleteCode, deletedPath));
+                        }
+                        nodeDone(result, pending, released);
+                    }, null);
+                    return;
+                }
+                if (code == KeeperException.Code.OK || code == KeeperException.Code.NONODE) {
+                    log.debug("Lock node {} of token is not held any more", path);
+                } else {
+                    result.completeExceptionally(KeeperException.create(code, path));
+                }
+                nodeDone(result, pending, released);
+            }, null);
+        }
+        return result;
+    }
+
+    private static void nodeDone(CompletableFuture<Boolean> result, AtomicInteger pending, AtomicBoolean released) {
+        if (pending.decrementAndGet() == 0) {
+            result.complete(released.get());
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package io.sagittarius.clastor.distributedlock.zookeeper;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * The directories known to exist, bounded, the least recently used ones being dropped first.
+ * <p>
+ * Entries are kept in access order for eviction, and sorted as well, so that a subtree is
+ * forgotten with a range removal rather than a pass over every entry.
+ */
+final class KnownPaths {
+
+    private final int capacity;
+
+    // guarded by this
+    private final NavigableSet<String> sorted = new TreeSet<>();
+    private final LinkedHashMap<String, Boolean> recency;
+
+    KnownPaths(int capacity) {
+        this.capacity = capacity;
+        this.recency = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                if (size() <= KnownPaths.this.capacity) {
+                    return false;
+                }
+                sorted.remove(eldest.getKey());
+                return true;
+            }
+        };
+    }
+
+    synchronized boolean contains(String path) {
+        return recency.get(path) != null;
+    }
+
+    /**
+     * Marks the path and its ancestors as existing.
+     */
+    synchronized void add(String path) {
+        for (String current = path; !current.isEmpty(); current = ZkClient.parentOf(current)) {
+            if (recency.put(current, Boolean.TRUE) != null) {
+                // the ancestors were added with it
+                break;
+            }
+            sorted.add(current);
+        }
+    }
+
+    /**
+     * Forgets the path and everything below it.
+     */
+    synchronized void invalidate(String path) {
+        if (recency.remove(path) != null) {
+            sorted.remove(path);
+        }
+        // the paths below it, '0' being the character after '/'
+        NavigableSet<String> subtree = sorted.subSet(path + "/", true, path + "0", false);
+        for (String child : subtree) {
+            recency.remove(child);
+        }
+        subtree.clear();
+    }
+
+    synchronized int size() {
+        return recency.size();
+    }
+}
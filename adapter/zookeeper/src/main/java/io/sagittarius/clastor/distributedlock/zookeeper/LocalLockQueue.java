@@ -0,0 +1,339 @@
+package io.sagittarius.clastor.distributedlock.zookeeper;
+
+import io.sagittarius.clastor.distributedlock.domain.DistributedLockMetrics;
+import io.sagittarius.clastor.distributedlock.domain.EstimatedTimeoutException;
+import io.sagittarius.clastor.distributedlock.domain.LockMode;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-JVM FIFO queue in front of a single ZooKeeper contender for one lock path.
+ * <p>
+ * Only the queue enters the ZooKeeper queue, on behalf of all local waiters. Once it holds
+ * the ZooKeeper lock, ownership is handed from one local waiter to the next without touching
+ * ZooKeeper, up to {@code handoffBudget} times in a row. After that the ZooKeeper node is
+ * released and the queue re-enters at the tail, so that other nodes are not starved.
+ * <p>
+ * The contender waits for as long as the local waiter with the latest deadline, its deadline
+ * being pushed out whenever a waiter with a later one arrives, so that nobody loses the place in
+ * the ZooKeeper queue they were counting on when an earlier waiter gives up.
+ * <p>
+ * The queue retires itself from the registry once it is idle; a retired queue rejects new
+ * waiters and the caller simply creates a fresh one.
+ * <p>
+ * If the session of the ZooKeeper lock is lost, the local owner is told and nothing more is
+ * handed out; queued waiters go on with a fresh contender, which fails fast until the session
+ * is renewed.
+ */
+@Slf4j
+final class LocalLockQueue {
+
+    private final ZkClient client;
+    private final String locksRootPath;
+    private final int handoffBudget;
+    private final ConcurrentMap<String, LocalLockQueue> registry;
+    private final String resourceKind;
+    private final DistributedLockMetrics metrics;
+
+    // all guarded by this
+    private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+    private Waiter owner;
+    private ZookeeperDistributedLock remote;
+    private CompletableFuture<Boolean> remoteAcquisition;
+    private long remoteDeadlineNanos;
+    private boolean remoteHeld;
+    private int handoffs;
+    private boolean retired;
+
+    LocalLockQueue(ZkClient client, String locksRootPath, int handoffBudget, ConcurrentMap<String, LocalLockQueue> registry,
+                   String resourceKind, DistributedLockMetrics metrics) {
+        this.client = client;
+        this.locksRootPath = locksRootPath;
+        this.handoffBudget = handoffBudget;
+        this.registry = registry;
+        this.resourceKind = resourceKind;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Enqueues a local waiter.
+     *
+     * @return the waiter, or {@code null} if this queue has already retired
+     */
+    Waiter enqueue(Duration timeout, Runnable onLost) {
+        Waiter waiter = new Waiter(System.nanoTime() + timeout.toNanos(), onLost);
+        Waiter granted = null;
+        synchronized (this) {
+            if (retired) {
+                return null;
+            }
+
+            if (timeout.isZero() || timeout.isNegative()) {
+                // a single attempt: give up at once if the key is busy in this JVM, otherwise
+                // let the one ZooKeeper attempt decide instead of arming a timer
+                if (owner != null || remoteHeld || remoteAcquisition != null || !waiters.isEmpty()) {
+                    // never queued, there is nothing to abandon
+                    waiter.result.complete(false);
+                    return waiter;
+                }
+                waiters.add(waiter);
+                acquireRemote();
+            } else {
+                waiters.add(waiter);
+                if (remoteHeld && owner == null) {
+                    granted = grantNext();
+                } else if (!remoteHeld && remoteAcquisition == null) {
+                    acquireRemote();
+                } else if (remoteAcquisition != null && waiter.deadlineNanos - remoteDeadlineNanos > 0
+                        && remote.extendDeadline(waiter.deadlineNanos)) {
+                    remoteDeadlineNanos = waiter.deadlineNanos;
+                }
+                if (owner != waiter) {
+                    waiter.timeoutTask = client.scheduler().schedule(waiter, timeout.toNanos(), TimeUnit.NANOSECONDS);
+                }
+            }
+        }
+        hand(granted);
+        waiter.result.whenComplete((acquired, error) -> {
+            if (error instanceof CancellationException) {
+                abandon(waiter);
+            }
+        });
+        return waiter;
+    }
+
+    /**
+     * Releases the lock held by the given waiter: hands it to the next local waiter while the
+     * budget allows, otherwise gives the ZooKeeper lock back.
+     */
+    void release(Waiter waiter) {
+        Waiter granted = null;
+        synchronized (this) {
+            if (owner != waiter) {
+                return;
+            }
+            owner = null;
+
+            if (!waiters.isEmpty() && handoffs < handoffBudget) {
+                handoffs++;
+                granted = grantNext();
+            } else {
+                releaseRemote();
+                if (!waiters.isEmpty()) {
+                    acquireRemote();
+                }
+                retireIfIdle();
+            }
+        }
+        hand(granted);
+    }
+
+    private void abandon(Waiter waiter) {
+        synchronized (this) {
+            if (waiters.remove(waiter)) {
+                cancelRemoteIfUnwanted();
+                retireIfIdle();
+                return;
+            }
+        }
+        release(waiter);
+    }
+
+    private void onTimeout(Waiter waiter) {
+        synchronized (this) {
+            if (!waiters.remove(waiter)) {
+                return;
+            }
+            cancelRemoteIfUnwanted();
+            retireIfIdle();
+        }
+        waiter.result.complete(false);
+    }
+
+    // guarded by this
+    private void acquireRemote() {
+        long deadline = Long.MIN_VALUE;
+        for (Waiter waiter : waiters) {
+            deadline = Math.max(deadline, waiter.deadlineNanos);
+        }
+
+        // a fresh contender per cycle: its node always joins at the tail of the ZooKeeper queue
+        ZookeeperDistributedLock contender = new ZookeeperDistributedLock(client, locksRootPath, LockMode.EXCLUSIVE, resourceKind, metrics);
+        CompletableFuture<Boolean> acquisition = contender.tryLockAsync(Duration.ofNanos(Math.max(0, deadline - System.nanoTime())));
+        remote = contender;
+        remoteAcquisition = acquisition;
+        remoteDeadlineNanos = deadline;
+        contender.onLost(() -> onRemoteLost(contender));
+        acquisition.whenComplete((acquired, error) -> onRemoteResult(contender, acquisition, acquired, error));
+    }
+
+    private void onRemoteLost(ZookeeperDistributedLock contender) {
+        Waiter lost;
+        synchronized (this) {
+            if (remote != contender || !remoteHeld) {
+                return;
+            }
+            remoteHeld = false;
+            remote = null;
+            lost = owner;
+            owner = null;
+            if (!waiters.isEmpty()) {
+                acquireRemote();
+            }
+            retireIfIdle();
+        }
+        if (lost != null) {
+            lost.onLost.run();
+        }
+    }
+
+    private void onRemoteResult(ZookeeperDistributedLock contender, CompletableFuture<Boolean> acquisition,
+                                Boolean acquired, Throwable error) {
+        List<Waiter> failed = List.of();
+        Waiter granted = null;
+        synchronized (this) {
+            if (remoteAcquisition != acquisition) {
+                if (Boolean.TRUE.equals(acquired)) {
+                    // acquired just as the last waiter gave up
+                    contender.unlockAsync();
+                }
+                return;
+            }
+            remoteAcquisition = null;
+
+            if (error instanceof EstimatedTimeoutException estimated && estimated.estimatedWait() != null) {
+                // given up for the latest deadline known to the contender: the waiters whose own
+                // deadline leaves room for the predicted wait contend again
+                failed = new ArrayList<>();
+                long now = System.nanoTime();
+                long estimateNanos = estimated.estimatedWait().toNanos();
+                for (Waiter waiter : waiters) {
+                    if (waiter.deadlineNanos - now < estimateNanos) {
+                        failed.add(waiter);
+                    }
+                }
+                waiters.removeAll(failed);
+                if (!waiters.isEmpty()) {
+                    acquireRemote();
+                }
+            } else if (error != null) {
+                if (!(error instanceof CancellationException)) {
+                    failed = new ArrayList<>(waiters);
+                    waiters.clear();
+                }
+            } else if (acquired) {
+                remoteHeld = true;
+                handoffs = 0;
+                granted = grantNext();
+            } else {
+                // the contender's deadline passed: drop the waiters it was queued for
+                failed = new ArrayList<>();
+                long now = System.nanoTime();
+                for (Waiter waiter : waiters) {
+                    if (waiter.deadlineNanos - now <= 0) {
+                        failed.add(waiter);
+                    }
+                }
+                waiters.removeAll(failed);
+                if (!waiters.isEmpty()) {
+                    acquireRemote();
+                }
+            }
+            retireIfIdle();
+        }
+
+        hand(granted);
+        for (Waiter waiter : failed) {
+            if (error == null) {
+                waiter.result.complete(false);
+            } else {
+                waiter.result.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+            }
+        }
+    }
+
+    /**
+     * Makes the first queued waiter the owner, or gives the ZooKeeper lock back when nobody
+     * is left. The new owner is told via {@link #hand(Waiter)} once the monitor is released,
+     * so that no continuation runs under it.
+     */
+    private Waiter grantNext() {
+        Waiter next = waiters.poll();
+        if (next == null) {
+            releaseRemote();
+            return null;
+        }
+        owner = next;
+        next.cancelTimeout();
+        return next;
+    }
+
+    private void hand(Waiter granted) {
+        if (granted != null && !granted.result.complete(true)) {
+            // cancelled in the meantime, pass it on
+            release(granted);
+        }
+    }
+
+    private void releaseRemote() {
+        if (remoteHeld) {
+            remoteHeld = false;
+            remote.unlockAsync();
+        }
+        remote = null;
+    }
+
+    private void cancelRemoteIfUnwanted() {
+        if (waiters.isEmpty() && remoteAcquisition != null) {
+            CompletableFuture<Boolean> acquisition = remoteAcquisition;
+            remoteAcquisition = null;
+            remote = null;
+            acquisition.cancel(false);
+        }
+    }
+
+    private void retireIfIdle() {
+        if (!retired && owner == null && waiters.isEmpty() && remoteAcquisition == null && !remoteHeld) {
+            retired = true;
+            registry.remove(locksRootPath, this);
+        }
+    }
+
+    final class Waiter implements Runnable {
+
+        final CompletableFuture<Boolean> result = new CompletableFuture<>();
+        private final long deadlineNanos;
+        private final Runnable onLost;
+        private ScheduledFuture<?> timeoutTask;
+
+        private Waiter(long deadlineNanos, Runnable onLost) {
+            this.deadlineNanos = deadlineNanos;
+            this.onLost = onLost;
+        }
+
+        @Override
+        public void run() {
+            onTimeout(this);
+        }
+
+        private void cancelTimeout() {
+            if (timeoutTask != null) {
+                timeoutTask.cancel(false);
+            }
+        }
+
+        void release() {
+            LocalLockQueue.this.release(this);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package io.sagittarius.clastor.distributedlock.zookeeper;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.zookeeper.ZooKeeper;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The {@link io.sagittarius.clastor.distributedlock.domain.DistributedLock#onLost(Runnable) loss
+ * listeners} of a lock handle, and the watch of its current hold on the session.
+ * <p>
+ * Only handles that were given a listener have one, so that locks nobody listens to are never
+ * registered with the session.
+ */
+@Slf4j
+final class LossListeners {
+
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    // guarded by this
+    private Object watchedHold;
+    private Runnable unwatch;
+
+    void add(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Watches the session of a hold, dropping the watch of any earlier one.
+     *
+     * @param hold what tells the holds of the handle apart
+     * @param lost called when the session is lost, possibly right away
+     */
+    synchronized void watch(ZkClient client, ZooKeeper handle, Object hold, Runnable lost) {
+        if (watchedHold == hold) {
+            return;
+        }
+        unwatch(watchedHold);
+        watchedHold = hold;
+        Runnable registration = client.onSessionLost(handle, lost);
+        if (watchedHold == hold) {
+            unwatch = registration;
+        }
+    }
+
+    /**
+     * Stops watching the session of a hold that is over.
+     */
+    synchronized void unwatch(Object hold) {
+        if (hold == null || watchedHold != hold) {
+            return;
+        }
+        watchedHold = null;
+        Runnable registration = unwatch;
+        unwatch = null;
+        if (registration != null) {
+            registration.run();
+        }
+    }
+
+    /**
+     * Tells the listeners that a hold is lost.
+     */
+    void fire() {
+        for (Runnable listener : listeners) {
+            try {
+                listener.run();
+            } catch (RuntimeException e) {
+                log.warn("Lock loss listener failed", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package io.sagittarius.clastor.distributedlock.zookeeper;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.zookeeper.AddWatchMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One persistent recursive watch per lock namespace ({@code root/kind/version}) and session,
+ * shared by every local waiter in it, instead of a watch on each predecessor.
+ * <p>
+ * The server keeps one watch per namespace and client whatever the number of waiters, and a
+ * waiter needs no {@code exists} round trip to start waiting: the deletion of a node listed
+ * by {@code getChildren} is reported after the listing, on the same event thread, so a waiter
+ * registered from the listing callback cannot miss it. This only holds once the watch is
+ * known to be in place before the listing was sent, which {@link #watching(ZooKeeper, String)}
+ * tells; until then, and on servers without persistent watches, waiters set their own.
+ * <p>
+ * The watch reports every change in the namespace, which costs one event per lock node
+ * created or deleted by any instance, against one request and one event per waiter.
+ * Session events reach it as well and are handed to every waiter.
+ */
+@Slf4j
+final class SubtreeWatches {
+
+    private final Map<String, Subtree> subtrees = new ConcurrentHashMap<>();
+    private volatile boolean unsupported;
+
+    /**
+     * Whether deletions under the namespace are seen by the shared watch of the given session,
+     * setting it up if need be. Answers {@code true} only once the server confirmed the watch,
+     * i.e. for any request sent after the one that set it.
+     */
+    boolean watching(ZooKeeper handle, String namespace) {
+        if (unsupported) {
+            return false;
+        }
+        Subtree subtree = subtrees.get(namespace);
+        if (subtree != null && subtree.handle == handle) {
+            return subtree.active;
+        }
+        Subtree fresh = new Subtree(handle, namespace);
+        if (subtree == null ? subtrees.putIfAbsent(namespace, fresh) != null : !subtrees.replace(namespace, subtree, fresh)) {
+            // somebody else is setting it up
+            return false;
+        }
+        fresh.install();
+        return false;
+    }
+
+    /**
+     * Hands the deletion of the given node to the waiter. Must be called from the event thread,
+     * from the callback of a listing that found the node, after {@link #watching} said so.
+     */
+    void await(String namespace, String path, Watcher waiter) {
+        Subtree subtree = subtrees.get(namespace);
+        if (subtree != null) {
+            subtree.waiters.compute(path, (ignored, waiting) -> {
+                Set<Watcher> set = waiting != null ? waiting : ConcurrentHashMap.newKeySet();
+                set.add(waiter);
+                return set;
+            });
+        }
+    }
+
+    /**
+     * Forgets a waiter that is done before its node was deleted.
+     */
+    void cancel(String namespace, String path, Watcher waiter) {
+        Subtree subtree = subtrees.get(namespace);
+        if (subtree != null) {
+            subtree.waiters.computeIfPresent(path, (ignored, waiting) -> {
+                waiting.remove(waiter);
+                return waiting.isEmpty() ? null : waiting;
+            });
+        }
+    }
+
+    /**
+     * Removes the watch of a namespace that is gone, such as a drained version.
+     */
+    void forget(String namespace) {
+        Subtree subtree = subtrees.remove(namespace);
+        if (subtree != null) {
+            subtree.handle.removeWatches(namespace, subtree, Watcher.WatcherType.Any, true, (rc, path, ctx) -> {
+                KeeperException.Code code = KeeperException.Code.get(rc);
+                if (code != KeeperException.Code.OK && code != KeeperException.Code.NOWATCHER) {
+                    log.debug("Could not remove the watch of {}: {}", path, code);
+                }
+            }, null);
+        }
+    }
+
+    private final class Subtree implements Watcher {
+
+        private final ZooKeeper handle;
+        private final String namespace;
+        private final Map<String, Set<Watcher>> waiters = new ConcurrentHashMap<>();
+        private volatile boolean active;
+
+        private Subtree(ZooKeeper handle, String namespace) {
+            this.handle = handle;
+            this.namespace = namespace;
+        }
+
+        private void install() {
+            handle.addWatch(namespace, this, AddWatchMode.PERSISTENT_RECURSIVE, (rc, path, ctx) -> {
+                KeeperException.Code code = KeeperException.Code.get(rc);
+                if (code == KeeperException.Code.OK) {
+                    active = true;
+                } else if (code == KeeperException.Code.UNIMPLEMENTED) {
+                    log.info("The ensemble has no persistent watches, lock waiters watch their predecessors");
+                    unsupported = true;
+                    subtrees.remove(namespace, this);
+                } else {
+                    // the next waiter tries again
+                    subtrees.remove(namespace, this);
+                }
+            }, null);
+        }
+
+        @Override
+        public void process(WatchedEvent event) {
+            switch (event.getType()) {
+                case NodeDeleted -> {
+                    Set<Watcher> waiting = waiters.remove(event.getPath());
+                    if (waiting != null) {
+                        waiting.forEach(waiter -> waiter.process(event));
+                    }
+                }
+                case None -> waiters.values().forEach(waiting -> waiting.forEach(waiter -> waiter.process(event)));
+                default -> {
+                }
+            }
+        }
+    }
+}
@@ -1,38 +1,252 @@
 package io.sagittarius.clastor.distributedlock.zookeeper;
 
+import io.sagittarius.clastor.distributedlock.domain.DistributedLockMetrics;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.zookeeper.*;
-import org.apache.zookeeper.data.Stat;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * The ZooKeeper session of a lock manager, and the lock directories known to exist.
+ * <p>
+ * The session goes through {@link DistributedLockMetrics.SessionState}: a disconnected session
+ * may come back within its timeout, an expired one never does. On expiry a new session is
+ * established with the same settings, right away and then with a growing, jittered backoff
+ * while sessions keep failing, so the client outlives any ensemble outage.
+ * <p>
+ * Each session has a handle of its own. Locks keep the handle their nodes were created with and
+ * release them through it, so that nothing taken by a lost session is ever deleted on behalf of
+ * the next one, and ask to be told through {@link #onSessionLost(ZooKeeper, Runnable)} when
+ * it is lost.
+ */
+@Slf4j
 public class ZkClient implements AutoCloseable {
 
-    private final ZooKeeper zooKeeper;
+    public static final int DEFAULT_KNOWN_PATHS_CAPACITY = 10_000;
+    public static final Duration DEFAULT_RECONNECT_BACKOFF = Duration.ofMillis(100);
+    public static final Duration DEFAULT_MAX_RECONNECT_BACKOFF = Duration.ofSeconds(10);
+
+    /**
+     * The mode of the directories created on the way to lock nodes. A container is deleted by
+     * ZooKeeper itself once its last child is gone, so ids that are never locked again leave
+     * nothing behind; whoever finds one gone recreates it.
+     */
+    static final CreateMode DIRECTORY_MODE = CreateMode.CONTAINER;
+
+    private static final byte[] EMPTY_DATA = new byte[0];
+    private static final Runnable NOTHING = () -> {
+    };
+
+    private final String connectionString;
+    private final int sessionTimeoutMs;
+    private final long reconnectBackoffNanos;
+    private final long maxReconnectBackoffNanos;
+    private final DistributedLockMetrics metrics;
+
+    /**
+     * The handle of the current session, replaced once it expired.
+     */
+    private volatile ZooKeeper zooKeeper;
+    private volatile int generation;
+    private volatile DistributedLockMetrics.SessionState state = DistributedLockMetrics.SessionState.DISCONNECTED;
+    private volatile boolean closed;
+    // attempts to renew since the last session that lasted, and when the current one connected;
+    // only touched from the scheduler thread once constructed
+    private int renewals;
+    private long sessionStartNanos;
+
+    /**
+     * Listeners of the loss of the current session, swapped for a fresh set when it is lost.
+     */
+    private volatile Set<Runnable> lossListeners = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Requests that failed with the connection, sent again once the session is connected or lost.
+     */
+    private final Queue<Runnable> awaitingReconnect = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The data of the lock nodes created by this client: the process and the session holding them,
+     * for whoever looks at a stuck lock. Releases check the owner recorded by ZooKeeper itself.
+     */
+    private volatile byte[] holderData;
+
+    /**
+     * Directories confirmed to exist. Entries are trusted without a round trip and dropped via
+     * {@link #invalidatePath(String)} once a create under them fails with NoNode, which is how a
+     * container reaped by the server is noticed.
+     */
+    private final KnownPaths knownPaths;
+
+    /**
+     * Hold and wait times per lock path, from which acquisitions that cannot be served in time
+     * are given up at once.
+     */
+    private final HoldTimeEstimator holdTimes;
+
+    /**
+     * The watches of the lock namespaces, shared by the waiters in them.
+     */
+    private final SubtreeWatches subtreeWatches = new SubtreeWatches();
+
+    /**
+     * Drives the timers of asynchronous acquisitions and the renewal of the session.
+     * Lock waits never park a thread of their own.
+     */
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "zk-lock-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     public ZkClient(String connectionString, Duration connectionTimeout, Duration sessionTimeout) throws IOException, InterruptedException {
+        this(connectionString, connectionTimeout, sessionTimeout, DEFAULT_KNOWN_PATHS_CAPACITY);
+    }
+
+    public ZkClient(String connectionString, Duration connectionTimeout, Duration sessionTimeout, int knownPathsCapacity) throws IOException, InterruptedException {
+        this(connectionString, connectionTimeout, sessionTimeout, knownPathsCapacity, DistributedLockMetrics.NOOP);
+    }
+
+    public ZkClient(String connectionString, Duration connectionTimeout, Duration sessionTimeout, int knownPathsCapacity,
+                    DistributedLockMetrics metrics) throws IOException, InterruptedException {
+        this(connectionString, connectionTimeout, sessionTimeout, knownPathsCapacity,
+                DEFAULT_RECONNECT_BACKOFF, DEFAULT_MAX_RECONNECT_BACKOFF, metrics);
+    }
+
+    /**
+     * @param reconnectBackoff    the delay before the second attempt to replace an expired session,
+     *                            doubled on every further attempt
+     * @param maxReconnectBackoff the longest delay between two attempts
+     */
+    public ZkClient(String connectionString, Duration connectionTimeout, Duration sessionTimeout, int knownPathsCapacity,
+                    Duration reconnectBackoff, Duration maxReconnectBackoff,
+                    DistributedLockMetrics metrics) throws IOException, InterruptedException {
+        this.connectionString = connectionString;
+        this.sessionTimeoutMs = Math.toIntExact(sessionTimeout.toMillis());
+        this.reconnectBackoffNanos = reconnectBackoff.toNanos();
+        this.maxReconnectBackoffNanos = Math.max(reconnectBackoffNanos, maxReconnectBackoff.toNanos());
+        this.knownPaths = new KnownPaths(knownPathsCapacity);
+        this.holdTimes = new HoldTimeEstimator(knownPathsCapacity);
+        this.metrics = metrics;
+
         CountDownLatch connectedLatch = new CountDownLatch(1);
-        int sessionTimeoutMs = Math.toIntExact(sessionTimeout.toMillis());
-        this.zooKeeper = new ZooKeeper(connectionString, sessionTimeoutMs, watchedEvent -> {
-            if (watchedEvent.getState() == Watcher.Event.KeeperState.SyncConnected) {
-                connectedLatch.countDown();
-            }
-        });
+        this.zooKeeper = connect(connectedLatch);
 
         int connectionTimeoutMs = Math.toIntExact(connectionTimeout.toMillis());
         if (!connectedLatch.await(connectionTimeoutMs, TimeUnit.MILLISECONDS)) {
+            scheduler.shutdownNow();
+            zooKeeper.close();
             throw new IllegalStateException("Failed to connect to ZooKeeper. Timeout exceed " + connectionTimeoutMs + " ms.");
         }
+        this.holderData = holderDataOf(zooKeeper);
+        this.sessionStartNanos = System.nanoTime();
     }
 
+    /**
+     * The handle of the current session. Requests sent through it while the session is
+     * disconnected wait for the reconnection, those sent once it is lost fail at once.
+     */
     public ZooKeeper getRaw() {
         return zooKeeper;
     }
 
+    public DistributedLockMetrics.SessionState state() {
+        return state;
+    }
+
+    /**
+     * Why nothing should be started on the session right now.
+     *
+     * @return the error to fail a new acquisition with, or {@code null} if the session is connected
+     */
+    KeeperException unavailable() {
+        return switch (state) {
+            case CONNECTED -> null;
+            case DISCONNECTED -> new KeeperException.ConnectionLossException();
+            case EXPIRED, CLOSED -> new KeeperException.SessionExpiredException();
+        };
+    }
+
+    /**
+     * Calls the listener once the session of the given handle is lost, or at once if it already
+     * is. Listeners run on the ZooKeeper event thread and must not block.
+     *
+     * @return what removes the listener, once the caller no longer holds anything on the session
+     */
+    Runnable onSessionLost(ZooKeeper handle, Runnable listener) {
+        Set<Runnable> listeners = lossListeners;
+        listeners.add(listener);
+        if (handle != zooKeeper || isLost(state)) {
+            // lost before or while registering: whoever removes the listener runs it
+            if (listeners.remove(listener)) {
+                listener.run();
+            }
+            return NOTHING;
+        }
+        return () -> listeners.remove(listener);
+    }
+
+    /**
+     * Deletes a node created through the given session handle. A lost connection does not leave
+     * the node behind for the rest of the session: the delete is retried once the session is
+     * back, until the node is gone or the session is lost and has taken it along.
+     *
+     * @return a future completed once the node is gone, failed on any other error
+     */
+    CompletableFuture<Void> deleteNode(ZooKeeper handle, String path) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        deleteNode(handle, path, result);
+        return result;
+    }
+
+    private void deleteNode(ZooKeeper handle, String path, CompletableFuture<Void> result) {
+        handle.delete(path, -1, (rc, deletedPath, ctx) -> {
+            KeeperException.Code code = KeeperException.Code.get(rc);
+            switch (code) {
+                case OK, NONODE, SESSIONEXPIRED -> result.complete(null);
+                case CONNECTIONLOSS, OPERATIONTIMEOUT -> {
+                    awaitingReconnect.add(() -> deleteNode(handle, path, result));
+                    if (state == DistributedLockMetrics.SessionState.CONNECTED || closed) {
+                        // back already, or gone for good
+                        retryAwaitingReconnect();
+                    }
+                }
+                default -> result.completeExceptionally(KeeperException.create(code, deletedPath));
+            }
+        }, null);
+    }
+
+    private void retryAwaitingReconnect() {
+        Runnable retry;
+        while ((retry = awaitingReconnect.poll()) != null) {
+            retry.run();
+        }
+    }
+
+    public byte[] holderData() {
+        return holderData;
+    }
+
+    public ScheduledExecutorService scheduler() {
+        return scheduler;
+    }
+
     public List<String> getSortedChildren(String path) throws InterruptedException, KeeperException {
         List<String> children = zooKeeper.getChildren(path, false);
         if (children.isEmpty()) {
@@ -42,34 +256,281 @@ public class ZkClient implements AutoCloseable {
         return children;
     }
 
+    /**
+     * Creates an ephemeral sequential node. If the parent disappeared since it was cached
+     * (e.g. the subtree was removed by a version rotation), the parent is recreated once.
+     */
     public String createEphemeralSequential(String path) throws KeeperException, InterruptedException {
-        return zooKeeper.create(path, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL);
+        try {
+            return zooKeeper.create(path, EMPTY_DATA, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL);
+        } catch (KeeperException.NoNodeException e) {
+            String parent = parentOf(path);
+            log.debug("Parent {} of {} is gone, recreating it", parent, path);
+            invalidatePath(parent);
+            ensurePath(parent);
+            return zooKeeper.create(path, EMPTY_DATA, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL);
+        }
     }
 
+    /**
+     * Makes sure the path exists, creating the missing directories as containers.
+     * <p>
+     * Known paths cost nothing. An unknown path costs a single create when its parent exists;
+     * otherwise the missing ancestors are looked up and created together in one {@code multi()}.
+     */
     public void ensurePath(String path) throws InterruptedException, KeeperException {
-        String[] parts = path.split("/");
-        StringBuilder current = new StringBuilder();
-        for (String part : parts) {
-            if (part.isBlank()) continue;
+        if (knownPaths.contains(path)) {
+            return;
+        }
+
+        try {
+            zooKeeper.create(path, EMPTY_DATA, ZooDefs.Ids.OPEN_ACL_UNSAFE, DIRECTORY_MODE);
+        } catch (KeeperException.NodeExistsException ignored) {
+        } catch (KeeperException.NoNodeException e) {
+            createWithAncestors(path);
+        }
 
-            current.append('/').append(part);
-            String currentPath = current.toString();
-            Stat stat = zooKeeper.exists(currentPath, false);
+        markKnown(path);
+    }
+
+    /**
+     * Asynchronous counterpart of {@link #ensurePath(String)}. Missing ancestors are created
+     * top-down from the ZooKeeper event thread, without blocking any caller.
+     */
+    public CompletableFuture<Void> ensurePathAsync(String path) {
+        if (knownPaths.contains(path)) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        zooKeeper.create(path, EMPTY_DATA, ZooDefs.Ids.OPEN_ACL_UNSAFE, DIRECTORY_MODE, (rc, p, ctx, name) -> {
+            KeeperException.Code code = KeeperException.Code.get(rc);
+            if (code == KeeperException.Code.OK || code == KeeperException.Code.NODEEXISTS) {
+                markKnown(path);
+                result.complete(null);
+                return;
+            }
+
+            String parent = parentOf(path);
+            if (code != KeeperException.Code.NONODE || parent.isEmpty()) {
+                result.completeExceptionally(KeeperException.create(code, path));
+                return;
+            }
+
+            invalidatePath(parent);
+            ensurePathAsync(parent)
+                    .thenCompose(ignored -> ensurePathAsync(path))
+                    .whenComplete((ignored, error) -> {
+                        if (error != null) {
+                            result.completeExceptionally(error);
+                        } else {
+                            result.complete(null);
+                        }
+                    });
+        }, null);
+        return result;
+    }
 
-            if (stat == null) {
+    HoldTimeEstimator holdTimes() {
+        return holdTimes;
+    }
+
+    SubtreeWatches subtreeWatches() {
+        return subtreeWatches;
+    }
+
+    /**
+     * Whether the path is known to exist, i.e. {@link #ensurePath(String)} would cost nothing.
+     */
+    boolean isKnownPath(String path) {
+        return knownPaths.contains(path);
+    }
+
+    /**
+     * Forgets the given path and everything below it, so that the next
+     * {@link #ensurePath(String)} goes back to ZooKeeper.
+     */
+    public void invalidatePath(String path) {
+        knownPaths.invalidate(path);
+    }
+
+    private void createWithAncestors(String path) throws InterruptedException, KeeperException {
+        List<String> missing = new ArrayList<>();
+        missing.add(path);
+        // the cache is not consulted here: a missing parent means some cached ancestors may be stale
+        for (String parent = parentOf(path);
+             !parent.isEmpty() && zooKeeper.exists(parent, false) == null;
+             parent = parentOf(parent)) {
+            invalidatePath(parent);
+            missing.add(parent);
+        }
+
+        List<Op> ops = new ArrayList<>(missing.size());
+        for (int i = missing.size() - 1; i >= 0; i--) {
+            ops.add(Op.create(missing.get(i), EMPTY_DATA, ZooDefs.Ids.OPEN_ACL_UNSAFE, DIRECTORY_MODE));
+        }
+
+        try {
+            zooKeeper.multi(ops);
+        } catch (KeeperException.NodeExistsException e) {
+            // a concurrent creator got part of the chain first, finish it segment by segment
+            for (int i = missing.size() - 1; i >= 0; i--) {
                 try {
-                    zooKeeper.create(currentPath,
-                            new byte[0],
-                            ZooDefs.Ids.OPEN_ACL_UNSAFE,
-                            CreateMode.PERSISTENT
-                    );
+                    zooKeeper.create(missing.get(i), EMPTY_DATA, ZooDefs.Ids.OPEN_ACL_UNSAFE, DIRECTORY_MODE);
                 } catch (KeeperException.NodeExistsException ignored) {}
             }
         }
     }
 
+    private void markKnown(String path) {
+        knownPaths.add(path);
+    }
+
+    private ZooKeeper connect(CountDownLatch connectedLatch) throws IOException {
+        int current = ++generation;
+        return new ZooKeeper(connectionString, sessionTimeoutMs, event -> {
+            if (event.getType() == Watcher.Event.EventType.None && current == generation) {
+                sessionEvent(event.getState(), connectedLatch);
+            }
+        });
+    }
+
+    /**
+     * Follows the state of the current session, from the ZooKeeper event thread.
+     */
+    private void sessionEvent(Watcher.Event.KeeperState keeperState, CountDownLatch connectedLatch) {
+        DistributedLockMetrics.SessionState next = sessionStateOf(keeperState);
+        // closing is reported by close() itself, the handles of expired sessions are closed quietly
+        if (next == null || next == DistributedLockMetrics.SessionState.CLOSED || closed) {
+            return;
+        }
+        DistributedLockMetrics.SessionState previous = state;
+        state = next;
+        metrics.sessionStateChanged(next);
+
+        switch (next) {
+            case CONNECTED -> {
+                connectedLatch.countDown();
+                retryAwaitingReconnect();
+                if (previous == DistributedLockMetrics.SessionState.EXPIRED) {
+                    // the handle is assigned by the renewal, which ran on the scheduler before
+                    scheduler.execute(this::sessionRenewed);
+                }
+            }
+            case DISCONNECTED -> log.warn("ZooKeeper session disconnected, waiting for it to reconnect");
+            case EXPIRED -> {
+                log.warn("ZooKeeper session expired, every lock it held is lost");
+                sessionLost();
+                retryAwaitingReconnect();
+                scheduler.execute(this::sessionExpired);
+            }
+            default -> {
+            }
+        }
+    }
+
+    private void sessionExpired() {
+        // expiring takes a session timeout without the server; one that had hardly been up longer
+        // was lost right away, and only then do renewals back off
+        if (System.nanoTime() - sessionStartNanos > 2 * TimeUnit.MILLISECONDS.toNanos(sessionTimeoutMs)) {
+            renewals = 0;
+        }
+        try {
+            zooKeeper.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        renewSession();
+    }
+
+    /**
+     * Replaces the expired session by a new one, again later if even creating its handle fails.
+     * The new handle connects, or keeps trying the servers, on its own.
+     */
+    private void renewSession() {
+        if (closed) {
+            return;
+        }
+        long delayNanos = renewals == 0 ? 0 : renewalBackoff();
+        renewals++;
+        scheduler.schedule(() -> {
+            if (closed) {
+                return;
+            }
+            try {
+                zooKeeper = connect(new CountDownLatch(1));
+                log.info("Establishing a new ZooKeeper session, attempt {}", renewals);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Failed to establish a new ZooKeeper session, attempt {}", renewals, e);
+                renewSession();
+            }
+        }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private long renewalBackoff() {
+        int doublings = Math.min(renewals - 1, Long.numberOfLeadingZeros(reconnectBackoffNanos) - 1);
+        long backoff = Math.min(maxReconnectBackoffNanos, reconnectBackoffNanos << doublings);
+        // jittered, so that the clients of a recovering ensemble do not all come back at once
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    private void sessionRenewed() {
+        ZooKeeper renewed = zooKeeper;
+        sessionStartNanos = System.nanoTime();
+        holderData = holderDataOf(renewed);
+        log.info("ZooKeeper session renewed as 0x{}", Long.toHexString(renewed.getSessionId()));
+    }
+
+    /**
+     * Tells the listeners of the current session, and starts afresh for the next one.
+     */
+    private void sessionLost() {
+        Set<Runnable> lost = lossListeners;
+        lossListeners = ConcurrentHashMap.newKeySet();
+        for (Runnable listener : lost) {
+            if (!lost.remove(listener)) {
+                continue;
+            }
+            try {
+                listener.run();
+            } catch (RuntimeException e) {
+                log.warn("Session loss listener failed", e);
+            }
+        }
+    }
+
+    private static boolean isLost(DistributedLockMetrics.SessionState state) {
+        return state == DistributedLockMetrics.SessionState.EXPIRED || state == DistributedLockMetrics.SessionState.CLOSED;
+    }
+
+    private static byte[] holderDataOf(ZooKeeper zooKeeper) {
+        return (ManagementFactory.getRuntimeMXBean().getName()
+                + " 0x" + Long.toHexString(zooKeeper.getSessionId())).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static DistributedLockMetrics.SessionState sessionStateOf(Watcher.Event.KeeperState state) {
+        return switch (state) {
+            case SyncConnected, ConnectedReadOnly -> DistributedLockMetrics.SessionState.CONNECTED;
+            case Disconnected -> DistributedLockMetrics.SessionState.DISCONNECTED;
+            case Expired -> DistributedLockMetrics.SessionState.EXPIRED;
+            case Closed -> DistributedLockMetrics.SessionState.CLOSED;
+            default -> null;
+        };
+    }
+
+    static String parentOf(String path) {
+        int lastSlash = path.lastIndexOf('/');
+        return lastSlash <= 0 ? "" : path.substring(0, lastSlash);
+    }
+
     @Override
     public void close() throws Exception {
+        closed = true;
+        scheduler.shutdownNow();
         zooKeeper.close();
+        state = DistributedLockMetrics.SessionState.CLOSED;
+        metrics.sessionStateChanged(DistributedLockMetrics.SessionState.CLOSED);
+        sessionLost();
+        retryAwaitingReconnect();
     }
 }
@@ -1,144 +1,882 @@
 package io.sagittarius.clastor.distributedlock.zookeeper;
 
 import io.sagittarius.clastor.distributedlock.domain.DistributedLock;
-import lombok.RequiredArgsConstructor;
+import io.sagittarius.clastor.distributedlock.domain.DistributedLockMetrics;
+import io.sagittarius.clastor.distributedlock.domain.EstimatedTimeoutException;
+import io.sagittarius.clastor.distributedlock.domain.LockMode;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.zookeeper.AsyncCallback;
+import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
 
 import java.time.Duration;
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
 /**
  * The algorithm:
- * 1. A directory is created for the resource: /locks/<name>
+ * 1. A directory is created for the resource: /locks/{name}
  * 2. The client creates an ephemeral sequential node .../lock-0000001.
- * 3. Look at all children and sort.
- * 4. If we are first → we took a lock.
+ * 3. List the children once and find, in a single pass over the parsed sequence numbers,
+ *    the nearest node with a lower sequence number (the predecessor).
+ * 4. If there is none → we took a lock.
  * 5. Otherwise:
- *      - find the previous neighbor
- *      - set a watch on it
- *      - wait for it to be deleted
- *      - then check again to see if we are first.
+ *      - wait for the predecessor to be deleted
+ *      - go back to step 3.
+ * <p>
+ * Sequence numbers only grow, so the set of lower nodes can only shrink: when the deleted
+ * predecessor was the last of them, the lock is taken without listing the children again.
+ * Deletions are seen through the watch the client shares among all local waiters of the
+ * namespace ({@link SubtreeWatches}), so waiting costs no request of its own; until that watch is
+ * in place, a waiter sets a watch on its predecessor with {@code exists}.
+ * Waiting is purely watch-driven. A waiter fails as soon as its session is disconnected or lost,
+ * instead of sleeping through an outage until its deadline, and no acquisition starts while the
+ * session is not connected.
+ * <p>
+ * Shared (read) locks follow the standard read/write recipe: readers create .../read-0000002
+ * nodes and only wait for the nearest preceding writer, so readers never wait for each other.
+ * Writers wait for the nearest preceding node of either kind.
+ * <p>
+ * A zero timeout on an exclusive lock does not queue at all. It creates a fixed ephemeral
+ * {@code owner} node in the lock directory, which fails with NodeExists while another attempt of
+ * the kind holds the lock, and lists the directory right behind the create: both requests are
+ * answered in order, so the attempt takes one round trip. A sequential node in the listing was
+ * there first and may hold the lock, in which case {@code owner} is deleted again and the attempt
+ * fails. Queued waiters treat {@code owner} as preceding every sequential node, and readers treat
+ * it as a writer. The directory itself is left alone, its sequence counter included. Shared locks
+ * have no such fast path and make their single attempt through the queue.
+ * <p>
+ * Every step is issued through the ZooKeeper async API and continued from its callback,
+ * so a pending acquisition holds no thread. The blocking {@link #tryLock(Duration)} simply
+ * waits on the future returned by {@link #tryLockAsync(Duration)}.
+ * <p>
+ * Each attempt reports its queue position and the number of requests it sent to
+ * {@link DistributedLockMetrics}; latency and hold time are measured around the handle.
+ * <p>
+ * Once its queue position is known, an acquisition whose predicted wait is well beyond its
+ * timeout is given up at once with an {@link EstimatedTimeoutException}, its node deleted, instead
+ * of holding a place in the queue until the timeout. The prediction comes from the hold and wait
+ * times the client has seen on the same path (see {@link HoldTimeEstimator}).
+ * <p>
+ * Nothing on the uncontended path is built per attempt that can be built once. The lock node
+ * prefix and the owner node path belong to the handle. An acquisition serves as its own
+ * callback for every step, including the completion of its result. Whatever else an attempt
+ * allocates is the ZooKeeper client's own.
+ * <p>
+ * Nodes are created so that ZooKeeper returns their stat with the path, in the same round trip:
+ * the session and creation zxid of the held node make up its {@link #token() token}, with which
+ * any instance can release it.
+ * <p>
+ * A hold belongs to the session handle its node was created with, and is released through that
+ * handle only: once the session is lost, the node is gone and its path may already be taken by
+ * another session. Listeners given to {@link #onLost(Runnable)} are told when that happens.
  */
 @Slf4j
-@RequiredArgsConstructor
 public class ZookeeperDistributedLock implements DistributedLock {
 
+    private static final String NODE_PREFIX = "lock-";
+    private static final String READ_NODE_PREFIX = "read-";
+    private static final String OWNER_NODE = "owner";
+    private static final int SEQUENCE_DIGITS = 10;
+
     private final ZkClient client;
     private final String locksRootPath;
-    private final Duration retryDelay;
+    // the root/kind/version namespace the lock directory lives in
+    private final String namespace;
+    private final LockMode mode;
+    private final String resourceKind;
+    private final DistributedLockMetrics metrics;
+    // the node of the zero-timeout attempt, built on its first use
+    private volatile String ownerPath;
+    // the path of the lock nodes minus their sequence number, built on the first acquisition
+    private volatile String nodePrefix;
+    // the acquisition under way, if it queues
+    private volatile Acquisition pending;
 
+    private volatile ZooKeeper currentZooKeeper;
     private volatile String currentNodePath;
+    private volatile Stat currentNodeStat;
+    private volatile long lockedAtNanos;
     private volatile boolean locked = false;
+    private volatile LossListeners lossListeners;
+
+    public ZookeeperDistributedLock(ZkClient client, String locksRootPath) {
+        this(client, locksRootPath, LockMode.EXCLUSIVE);
+    }
+
+    public ZookeeperDistributedLock(ZkClient client, String locksRootPath, LockMode mode) {
+        this(client, locksRootPath, mode, null, DistributedLockMetrics.NOOP);
+    }
+
+    public ZookeeperDistributedLock(ZkClient client, String locksRootPath, LockMode mode,
+                                    String resourceKind, DistributedLockMetrics metrics) {
+        this(client, locksRootPath, ZkClient.parentOf(locksRootPath), mode, resourceKind, metrics);
+    }
+
+    /**
+     * @param namespace the parent of {@code locksRootPath}, for callers that already have it
+     */
+    ZookeeperDistributedLock(ZkClient client, String locksRootPath, String namespace, LockMode mode,
+                             String resourceKind, DistributedLockMetrics metrics) {
+        this.client = client;
+        this.locksRootPath = locksRootPath;
+        this.namespace = namespace;
+        this.mode = mode;
+        this.resourceKind = resourceKind;
+        this.metrics = metrics;
+    }
 
     @Override
     public boolean tryLock(Duration timeout) throws InterruptedException {
-        long deadline = System.currentTimeMillis() + timeout.toMillis();
-
+        CompletableFuture<Boolean> acquisition = tryLockAsync(timeout);
         try {
-            ensureLockRoot();
+            return acquisition.get();
+        } catch (InterruptedException e) {
+            acquisition.cancel(false);
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof EstimatedTimeoutException) {
+                return false;
+            }
+            throw new RuntimeException("Error while acquiring ZooKeeper lock", e.getCause());
+        }
+    }
 
-            String nodePrefix = locksRootPath + "/lock-";
-            currentNodePath = client.createEphemeralSequential(nodePrefix);
+    @Override
+    public CompletableFuture<Boolean> tryLockAsync(Duration timeout) {
+        KeeperException unavailable = client.unavailable();
+        if (unavailable != null) {
+            return CompletableFuture.failedFuture(unavailable);
+        }
+        ZooKeeper zooKeeper = client.getRaw();
+        if (mode == LockMode.EXCLUSIVE && (timeout.isZero() || timeout.isNegative())) {
+            CompletableFuture<Boolean> result = new CompletableFuture<>();
+            tryOnce(zooKeeper, result, false);
+            return result;
+        }
 
-            while (true) {
-                if (System.currentTimeMillis() > deadline) {
-                    cleanupNodeQuietly();
-                    return false;
-                }
+        Acquisition acquisition = new Acquisition(zooKeeper, System.nanoTime() + timeout.toNanos());
+        pending = acquisition;
+        acquisition.start();
+        return acquisition.result;
+    }
 
-                List<String> children = client.getSortedChildren(locksRootPath);
-                if (children.isEmpty()) {
-                    // it shouldn't be like this, but just in case
-                    log.error("Expected at least one child under path {}, but got empty list", locksRootPath);
-                    throw new IllegalStateException("Empty children under " + locksRootPath);
-                }
+    /**
+     * Pushes out the deadline of the acquisition under way, keeping its place in the queue.
+     *
+     * @param deadlineNanos the {@link System#nanoTime()} by which the lock must now be held
+     * @return {@code false} if no acquisition is queued any longer, e.g. a zero-timeout attempt
+     */
+    boolean extendDeadline(long deadlineNanos) {
+        Acquisition acquisition = pending;
+        return acquisition != null && acquisition.extend(deadlineNanos);
+    }
 
-                String nodeName = currentNodePath.substring(locksRootPath.length() + 1);
-                int index = children.indexOf(nodeName);
-                if (index == -1) {
-                    cleanupNodeQuietly();
-                    currentNodePath = client.createEphemeralSequential(nodePrefix);
-                    continue;
-                }
+    /**
+     * The non-queuing attempt: takes the lock only if nobody holds or waits for it.
+     */
+    private void tryOnce(ZooKeeper zooKeeper, CompletableFuture<Boolean> result, boolean retried) {
+        String path = ownerPath;
+        if (path == null) {
+            path = locksRootPath + "/" + OWNER_NODE;
+            ownerPath = path;
+        }
+        OwnerAttempt attempt = new OwnerAttempt(zooKeeper, path, result, retried);
+        zooKeeper.create(path, client.holderData(), ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL, attempt, null);
+        zooKeeper.getChildren(locksRootPath, false, attempt, null);
+    }
 
-                if (index == 0) {
-                    locked = true;
-                    return true;
-                }
+    /**
+     * A non-queuing attempt, decided once both its create and the listing sent behind it are
+     * answered.
+     */
+    private final class OwnerAttempt implements AsyncCallback.Create2Callback, AsyncCallback.ChildrenCallback {
 
-                String prevNode = children.get(index - 1);
-                String prevPath = locksRootPath + "/" + prevNode;
+        private final ZooKeeper zooKeeper;
+        private final String ownerPath;
+        private final CompletableFuture<Boolean> result;
+        private final boolean retried;
 
-                CountDownLatch latch = new CountDownLatch(1);
-                Watcher watcher = event -> {
-                    if (event.getType() == Watcher.Event.EventType.NodeDeleted) {
-                        latch.countDown();
-                    }
-                };
+        // only touched from the ZooKeeper event thread
+        private KeeperException.Code created;
+        private Stat ownerStat;
 
-                if (client.getRaw().exists(prevPath, watcher) == null) {
-                    log.debug("Predecessor node {} already gone, rechecking children", prevPath);
-                    continue;
-                }
+        private OwnerAttempt(ZooKeeper zooKeeper, String ownerPath, CompletableFuture<Boolean> result,
+                             boolean retried) {
+            this.zooKeeper = zooKeeper;
+            this.ownerPath = ownerPath;
+            this.result = result;
+            this.retried = retried;
+        }
 
-                long remaining = deadline - System.currentTimeMillis();
-                if (remaining <= 0) {
-                    cleanupNodeQuietly();
-                    log.warn("Timeout while waiting for predecessor {} to be deleted at {}", prevPath, locksRootPath);
-                    return false;
-                }
+        /**
+         * Result of the owner node creation, always answered before the listing.
+         */
+        @Override
+        public void processResult(int rc, String path, Object ctx, String name, Stat stat) {
+            created = KeeperException.Code.get(rc);
+            ownerStat = stat;
+        }
 
-                long waitTime = Math.min(remaining, retryDelay.toMillis());
-                boolean signaled = latch.await(waitTime, TimeUnit.MILLISECONDS);
+        /**
+         * Result of the listing.
+         */
+        @Override
+        public void processResult(int rc, String path, Object ctx, List<String> children) {
+            if (created != KeeperException.Code.NONODE || retried) {
+                // the create and the listing, plus the directory and both again after a NoNode
+                metrics.roundTrips(resourceKind, retried ? 5 : 2);
+            }
+            switch (created) {
+                case OK -> {
+                    KeeperException.Code listed = KeeperException.Code.get(rc);
+                    if (listed != KeeperException.Code.OK) {
+                        deleteQuietly(ownerPath, zooKeeper);
+                        result.completeExceptionally(KeeperException.create(listed, path));
+                        return;
+                    }
+                    if (hasContenders(children)) {
+                        // queued before the owner node, possibly holding the lock
+                        deleteQuietly(ownerPath, zooKeeper);
+                        result.complete(false);
+                        return;
+                    }
+                    currentZooKeeper = zooKeeper;
+                    currentNodeStat = ownerStat;
+                    currentNodePath = ownerPath;
+                    lockedAtNanos = System.nanoTime();
+                    locked = true;
+                    if (result.complete(true)) {
+                        watchLoss();
+                    } else {
+                        // cancelled while the attempt was in flight
+                        clearHold();
+                        deleteQuietly(ownerPath, zooKeeper);
+                    }
+                }
+                case NODEEXISTS -> result.complete(false);
+                case NONODE -> {
+                    if (retried) {
+                        result.completeExceptionally(KeeperException.create(created, locksRootPath));
+                        return;
+                    }
+                    // first use of the resource, or its container was reaped
+                    client.invalidatePath(locksRootPath);
+                    client.ensurePathAsync(locksRootPath).whenComplete((ignored, error) -> {
+                        if (error != null) {
+                            result.completeExceptionally(error);
+                        } else {
+                            tryOnce(zooKeeper, result, true);
+                        }
+                    });
+                }
+                default -> result.completeExceptionally(KeeperException.create(created, ownerPath));
+            }
+        }
 
-                if (signaled) {
-                    log.trace("Predecessor node {} deleted, rechecking lock ownership", prevPath);
-                } else {
-                    log.trace("Timed out ({}) while waiting for predecessor {} at {}, rechecking state",
-                            waitTime, prevPath, locksRootPath);
+        private static boolean hasContenders(List<String> children) {
+            for (String child : children) {
+                if (sequenceOf(child) >= 0) {
+                    return true;
                 }
             }
-        } catch (KeeperException e) {
-            cleanupNodeQuietly();
-            throw new RuntimeException("Error while acquiring ZooKeeper lock", e);
+            return false;
         }
     }
 
+    /**
+     * Waits for the turn of a lock node that has already been created by the caller,
+     * e.g. as part of a {@code multi()} together with nodes on other paths.
+     *
+     * @param zooKeeper     the session handle the node was created with
+     * @param nodePath      the full path of the created ephemeral sequential node
+     * @param nodeStat      the stat of the node returned by its creation
+     * @param deadlineNanos the {@link System#nanoTime()} by which the lock must be held
+     */
+    CompletableFuture<Boolean> awaitNode(ZooKeeper zooKeeper, String nodePath, Stat nodeStat, long deadlineNanos) {
+        Acquisition acquisition = new Acquisition(zooKeeper, deadlineNanos);
+        acquisition.resume(nodePath, nodeStat);
+        return acquisition.result;
+    }
+
+    /**
+     * Forgets the held node without deleting it, for callers that delete it themselves.
+     *
+     * @return the path of the held node, or {@code null} if the lock is not held
+     */
+    String detach() {
+        String nodePath = currentNodePath;
+        clearHold();
+        return nodePath;
+    }
+
+    /**
+     * The token of the held node, for callers that make up a token of several.
+     *
+     * @return the token, or {@code null} if the lock is not held
+     */
+    HolderToken holderToken() {
+        Stat nodeStat = currentNodeStat;
+        String nodePath = currentNodePath;
+        if (!locked || nodePath == null || nodeStat == null) {
+            return null;
+        }
+        return HolderToken.of(nodePath, nodeStat);
+    }
+
+    @Override
+    public String token() {
+        HolderToken holderToken = holderToken();
+        return holderToken == null ? null : holderToken.encode();
+    }
+
+    /**
+     * Whether a lower node has to be gone before this lock can be held: any node for a writer,
+     * only writers for a reader. The sequence numbers of both kinds come from the same counter.
+     */
+    private boolean conflictsWith(String nodeName) {
+        return mode == LockMode.EXCLUSIVE || nodeName.startsWith(NODE_PREFIX);
+    }
+
+    static String nodePrefix(String locksRootPath) {
+        return locksRootPath + "/" + NODE_PREFIX;
+    }
+
     @Override
     public void unlock() {
         if (!locked) {
             return;
         }
 
+        ZooKeeper zooKeeper = currentZooKeeper;
+        String nodePath = currentNodePath;
+        recordHold();
         try {
-            if (currentNodePath != null) {
-                client.getRaw().delete(currentNodePath, -1);
+            if (nodePath != null && zooKeeper != null) {
+                zooKeeper.delete(nodePath, -1);
             }
-        }  catch (KeeperException | InterruptedException e){
+        } catch (KeeperException.SessionExpiredException e) {
+            log.debug("Lock {} was already lost with its session", nodePath);
+        } catch (KeeperException.ConnectionLossException e) {
+            log.warn("Connection lost while releasing ZooKeeper lock {}, releasing it once back", nodePath);
+            deleteQuietly(nodePath, zooKeeper);
+        } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
+            log.error("Interrupted while releasing ZooKeeper lock", e);
+        } catch (KeeperException e) {
             log.error("Failed to release ZooKeeper lock", e);
         } finally {
-            locked = false;
-            currentNodePath = null;
+            clearHold();
         }
     }
 
-    private void ensureLockRoot() throws KeeperException, InterruptedException {
-        client.ensurePath(locksRootPath);
+    @Override
+    public CompletableFuture<Void> unlockAsync() {
+        if (!locked) {
+            return CompletableFuture.completedFuture(null);
+        }
+        ZooKeeper zooKeeper = currentZooKeeper;
+        String nodePath = currentNodePath;
+        if (nodePath == null || zooKeeper == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        recordHold();
+        clearHold();
+
+        CompletableFuture<Void> result = client.deleteNode(zooKeeper, nodePath);
+        result.whenComplete((ignored, error) -> {
+            if (error != null) {
+                log.error("Failed to release ZooKeeper lock {}", nodePath, error);
+            }
+        });
+        return result;
     }
 
-    private void cleanupNodeQuietly() {
-        try {
-            if (currentNodePath != null) {
-                client.getRaw().delete(currentNodePath, -1);
+    @Override
+    public void onLost(Runnable listener) {
+        LossListeners listeners;
+        synchronized (this) {
+            if (lossListeners == null) {
+                lossListeners = new LossListeners();
+            }
+            listeners = lossListeners;
+        }
+        listeners.add(listener);
+        watchLoss();
+    }
+
+    /**
+     * Watches the session of the current hold, if anybody listens for its loss.
+     */
+    private void watchLoss() {
+        LossListeners listeners = lossListeners;
+        ZooKeeper zooKeeper = currentZooKeeper;
+        // the stat is fresh for each hold, and tells them apart
+        Stat hold = currentNodeStat;
+        if (listeners == null || !locked || zooKeeper == null || hold == null) {
+            return;
+        }
+        listeners.watch(client, zooKeeper, hold, () -> lost(hold));
+        if (currentNodeStat != hold) {
+            // released meanwhile
+            listeners.unwatch(hold);
+        }
+    }
+
+    private void lost(Stat hold) {
+        String nodePath = currentNodePath;
+        if (!locked || currentNodeStat != hold) {
+            return;
+        }
+        clearHold();
+        log.warn("Lock {} lost with its session", nodePath);
+        lossListeners.fire();
+    }
+
+    private void recordHold() {
+        client.holdTimes().recordHold(locksRootPath, System.nanoTime() - lockedAtNanos);
+    }
+
+    private void clearHold() {
+        Stat hold = currentNodeStat;
+        locked = false;
+        currentZooKeeper = null;
+        currentNodePath = null;
+        currentNodeStat = null;
+        LossListeners listeners = lossListeners;
+        if (listeners != null) {
+            listeners.unwatch(hold);
+        }
+    }
+
+    private void deleteQuietly(String nodePath, ZooKeeper zooKeeper) {
+        client.deleteNode(zooKeeper, nodePath).whenComplete((ignored, error) -> {
+            if (error != null) {
+                log.warn("Failed to clean up lock node {}", nodePath, error);
+            }
+        });
+    }
+
+    /**
+     * Parses the sequence number of a lock node name, of either a writer or a reader.
+     *
+     * @return the sequence number, or {@code -1} if the name is not a lock node
+     */
+    static long sequenceOf(String nodeName) {
+        return sequenceOf(nodeName, 0);
+    }
+
+    /**
+     * Parses the sequence number of the lock node name that ends a string at the given offset,
+     * e.g. the name in a node path, without cutting it out.
+     */
+    static long sequenceOf(String path, int nameOffset) {
+        int length = path.length();
+        if (length - nameOffset != NODE_PREFIX.length() + SEQUENCE_DIGITS
+                || !(path.startsWith(NODE_PREFIX, nameOffset) || path.startsWith(READ_NODE_PREFIX, nameOffset))) {
+            return -1;
+        }
+
+        long sequence = 0;
+        for (int i = nameOffset + NODE_PREFIX.length(); i < length; i++) {
+            char c = path.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            sequence = sequence * 10 + (c - '0');
+        }
+        return sequence;
+    }
+
+    /**
+     * A single pending acquisition. It is its own ZooKeeper callback and watcher, as well as the
+     * timeout task and the completion action of its result, so waiting costs one small object
+     * plus the timer, and never a parked thread.
+     */
+    private final class Acquisition implements AsyncCallback.Create2Callback,
+            AsyncCallback.ChildrenCallback, AsyncCallback.StatCallback, Watcher,
+            Runnable, BiConsumer<Boolean, Throwable> {
+
+        private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+        private final ZooKeeper zooKeeper;
+        private volatile long deadlineNanos;
+
+        private volatile String nodePath;
+        private volatile Stat nodeStat;
+        private volatile ScheduledFuture<?> timeoutTask;
+
+        /**
+         * Requests sent so far and whether the queue position was reported; only written from
+         * the ZooKeeper event thread once the first request is out.
+         */
+        private volatile int roundTrips;
+        private boolean enqueued;
+
+        /**
+         * Current predecessor and whether it was the only lower node at listing time;
+         * only touched from the ZooKeeper event thread.
+         */
+        private String predecessorPath;
+        private boolean lastPredecessor;
+
+        /**
+         * The predecessor waited for through the shared watch, to be forgotten if the
+         * acquisition ends first.
+         */
+        private volatile String awaitedPath;
+
+        /**
+         * Whether the acquisition may be given up on its predicted wait, and the queue position
+         * and time of the first listing; only touched from the ZooKeeper event thread.
+         */
+        private boolean predicted;
+        private int firstPosition;
+        private long firstListedNanos;
+
+        private Acquisition(ZooKeeper zooKeeper, long deadlineNanos) {
+            this.zooKeeper = zooKeeper;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        private void start() {
+            result.whenComplete(this);
+            // a node created by the caller among others is left to the caller to give up
+            predicted = true;
+            // set up before the first listing is sent, if need be
+            client.subtreeWatches().watching(zooKeeper, namespace);
+
+            if (client.isKnownPath(locksRootPath)) {
+                createNode();
+                return;
+            }
+            roundTrips++;
+            client.ensurePathAsync(locksRootPath).whenComplete((ignored, error) -> {
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    createNode();
+                }
+            });
+        }
+
+        private void resume(String createdNodePath, Stat createdNodeStat) {
+            result.whenComplete(this);
+            client.subtreeWatches().watching(zooKeeper, namespace);
+            nodeStat = createdNodeStat;
+            nodePath = createdNodePath;
+            listContenders();
+        }
+
+        private void createNode() {
+            if (result.isDone()) {
+                return;
+            }
+            String prefix = nodePrefix;
+            if (prefix == null) {
+                prefix = mode == LockMode.SHARED
+                        ? locksRootPath + "/" + READ_NODE_PREFIX
+                        : nodePrefix(locksRootPath);
+                nodePrefix = prefix;
+            }
+            roundTrips++;
+            zooKeeper.create(prefix, client.holderData(),
+                    ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL, this, null);
+        }
+
+        private void listContenders() {
+            if (result.isDone() || nodePath == null) {
+                return;
+            }
+            roundTrips++;
+            zooKeeper.getChildren(locksRootPath, false, this, null);
+        }
+
+        /**
+         * Moves on once the given predecessor is known to be gone. Only the current one counts,
+         * a late report about an earlier predecessor is ignored.
+         */
+        private void predecessorGone(String path) {
+            if (!path.equals(predecessorPath)) {
+                return;
+            }
+            predecessorPath = null;
+            awaitedPath = null;
+            if (lastPredecessor) {
+                acquired();
+            } else {
+                listContenders();
+            }
+        }
+
+        /**
+         * Result of the lock node creation.
+         */
+        @Override
+        public void processResult(int rc, String path, Object ctx, String name, Stat stat) {
+            KeeperException.Code code = KeeperException.Code.get(rc);
+            if (code == KeeperException.Code.NONODE) {
+                log.debug("Lock root {} is gone, recreating it", locksRootPath);
+                roundTrips++;
+                client.invalidatePath(locksRootPath);
+                client.ensurePathAsync(locksRootPath).whenComplete((ignored, error) -> {
+                    if (error != null) {
+                        result.completeExceptionally(error);
+                    } else {
+                        createNode();
+                    }
+                });
+                return;
+            }
+            if (code != KeeperException.Code.OK) {
+                result.completeExceptionally(KeeperException.create(code, path));
+                return;
+            }
+
+            nodeStat = stat;
+            nodePath = name;
+            if (result.isDone()) {
+                // timed out or cancelled while the create was in flight
+                deleteQuietly(name, zooKeeper);
+                return;
+            }
+            listContenders();
+        }
+
+        /**
+         * Result of listing the contenders.
+         */
+        @Override
+        public void processResult(int rc, String path, Object ctx, List<String> children) {
+            if (result.isDone()) {
+                return;
+            }
+            KeeperException.Code code = KeeperException.Code.get(rc);
+            if (code != KeeperException.Code.OK) {
+                result.completeExceptionally(KeeperException.create(code, path));
+                return;
+            }
+
+            String ownPath = nodePath;
+            int nameOffset = locksRootPath.length() + 1;
+            long ownSequence = sequenceOf(ownPath, nameOffset);
+            boolean present = false;
+            String predecessor = null;
+            long predecessorSequence = -1;
+            int lower = 0;
+            for (String child : children) {
+                if (child.equals(OWNER_NODE)) {
+                    lower++;
+                    if (predecessor == null) {
+                        predecessor = child;
+                    }
+                    continue;
+                }
+                long sequence = sequenceOf(child);
+                if (sequence == ownSequence) {
+                    present = ownPath.length() - nameOffset == child.length()
+                            && ownPath.startsWith(child, nameOffset);
+                } else if (sequence >= 0 && sequence < ownSequence && conflictsWith(child)) {
+                    lower++;
+                    if (sequence > predecessorSequence) {
+                        predecessorSequence = sequence;
+                        predecessor = child;
+                    }
+                }
+            }
+
+            if (!present) {
+                log.debug("Lock node {} disappeared, re-entering the queue", nodePath);
+                nodePath = null;
+                createNode();
+                return;
+            }
+            if (!enqueued) {
+                enqueued = true;
+                firstPosition = lower;
+                firstListedNanos = System.nanoTime();
+                metrics.enqueued(resourceKind, lower);
+                if (predicted && lower > 0 && rejectHopeless(lower)) {
+                    return;
+                }
+            }
+            if (predecessor == null) {
+                acquired();
+                return;
+            }
+
+            predecessorPath = locksRootPath + "/" + predecessor;
+            lastPredecessor = lower == 1;
+            if (client.subtreeWatches().watching(zooKeeper, namespace)) {
+                awaitedPath = predecessorPath;
+                client.subtreeWatches().await(namespace, predecessorPath, this);
+                awaitTimeout();
+                return;
+            }
+            roundTrips++;
+            zooKeeper.exists(predecessorPath, this, this, null);
+        }
+
+        /**
+         * Result of setting the watch on the predecessor.
+         */
+        @Override
+        public void processResult(int rc, String path, Object ctx, Stat stat) {
+            if (result.isDone()) {
+                return;
+            }
+            KeeperException.Code code = KeeperException.Code.get(rc);
+            if (code == KeeperException.Code.NONODE) {
+                log.trace("Predecessor node {} already gone, moving on", path);
+                predecessorGone(path);
+                return;
+            }
+            if (code != KeeperException.Code.OK) {
+                result.completeExceptionally(KeeperException.create(code, path));
+                return;
+            }
+            awaitTimeout();
+        }
+
+        private void awaitTimeout() {
+            long remaining = deadlineNanos - System.nanoTime();
+            if (remaining <= 0) {
+                result.complete(false);
+            } else if (timeoutTask == null) {
+                // armed on the first wait, so that even a zero timeout gets one attempt
+                timeoutTask = client.scheduler().schedule(this, remaining, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        /**
+         * Timeout. A deadline pushed out since the task was armed arms it again.
+         */
+        @Override
+        public void run() {
+            long remaining = deadlineNanos - System.nanoTime();
+            if (remaining > 0 && !result.isDone()) {
+                timeoutTask = client.scheduler().schedule(this, remaining, TimeUnit.NANOSECONDS);
+            } else {
+                result.complete(false);
+            }
+        }
+
+        private synchronized boolean extend(long extendedDeadlineNanos) {
+            if (result.isDone()) {
+                return false;
+            }
+            if (extendedDeadlineNanos - deadlineNanos > 0) {
+                deadlineNanos = extendedDeadlineNanos;
+            }
+            return true;
+        }
+
+        /**
+         * Predecessor watch, its own or the shared one. The session events reach it too: nothing
+         * moves while the session is disconnected, and it may never come back, so the acquisition
+         * fails at once.
+         */
+        @Override
+        public void process(WatchedEvent event) {
+            switch (event.getType()) {
+                case NodeDeleted -> {
+                    log.trace("Predecessor node {} deleted, moving on", event.getPath());
+                    predecessorGone(event.getPath());
+                }
+                case None -> {
+                    if (predecessorPath == null || result.isDone()) {
+                        return;
+                    }
+                    switch (event.getState()) {
+                        case Disconnected -> {
+                            result.completeExceptionally(new KeeperException.ConnectionLossException());
+                        }
+                        case Expired, Closed -> {
+                            result.completeExceptionally(new KeeperException.SessionExpiredException());
+                        }
+                        default -> {
+                        }
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+
+        /**
+         * Gives up at once if the wait behind the given number of nodes is predicted to outlast
+         * the timeout by far; the node is deleted once the result is complete.
+         */
+        private boolean rejectHopeless(int position) {
+            long remaining = deadlineNanos - System.nanoTime();
+            long estimate = client.holdTimes().hopeless(locksRootPath, position, remaining);
+            if (estimate < 0) {
+                return false;
+            }
+            return result.completeExceptionally(new EstimatedTimeoutException(locksRootPath, position,
+                    Duration.ofNanos(estimate), Duration.ofNanos(Math.max(0, remaining))));
+        }
+
+        private void acquired() {
+            long now = System.nanoTime();
+            if (firstPosition > 0) {
+                client.holdTimes().recordWait(locksRootPath, now - firstListedNanos, firstPosition);
+            }
+            currentZooKeeper = zooKeeper;
+            currentNodeStat = nodeStat;
+            currentNodePath = nodePath;
+            lockedAtNanos = now;
+            locked = true;
+            if (result.complete(true)) {
+                watchLoss();
+            } else if (result.state() != Future.State.SUCCESS || !result.resultNow()) {
+                // timed out, cancelled or failed in the meantime, nobody will release the node
+                clearHold();
+            }
+        }
+
+        /**
+         * Clean-up once the result is complete, however it was.
+         */
+        @Override
+        public void accept(Boolean acquired, Throwable error) {
+            if (pending == this) {
+                pending = null;
+            }
+            if (timeoutTask != null) {
+                timeoutTask.cancel(false);
+            }
+            String awaited = awaitedPath;
+            if (awaited != null) {
+                client.subtreeWatches().cancel(namespace, awaited, this);
+            }
+            metrics.roundTrips(resourceKind, roundTrips);
+            if (Boolean.TRUE.equals(acquired)) {
+                return;
+            }
+
+            String abandoned = nodePath;
+            if (abandoned != null) {
+                deleteQuietly(abandoned, zooKeeper);
+            }
+            if (error instanceof CancellationException) {
+                log.debug("Acquisition of {} cancelled", locksRootPath);
+            } else if (error instanceof EstimatedTimeoutException) {
+                log.debug("Acquisition of {} given up: {}", locksRootPath, error.getMessage());
+            } else if (error == null) {
+                log.warn("Timeout while waiting for lock at {}", locksRootPath);
             }
-        } catch (Exception ignored) {
-        } finally {
-            currentNodePath = null;
         }
     }
 }
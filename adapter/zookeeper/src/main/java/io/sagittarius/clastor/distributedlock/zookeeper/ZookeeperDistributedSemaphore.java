@@ -0,0 +1,478 @@
+package io.sagittarius.clastor.distributedlock.zookeeper;
+
+import io.sagittarius.clastor.distributedlock.domain.DistributedSemaphore;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.zookeeper.AsyncCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The algorithm:
+ * 1. A directory is created for the semaphore: /locks/{kind}/semaphores/{name}
+ * 2. The client creates an ephemeral sequential node .../permit-0000001.
+ * 3. List the children and count the nodes with a lower sequence number.
+ * 4. If there are fewer of them than permits → we took a permit.
+ * 5. If there are exactly as many, we are the first waiter: wait for the children to change.
+ * 6. Otherwise wait for the nearest lower node (the predecessor) to be deleted or to take a
+ *    permit, and go back to step 3.
+ * <p>
+ * Any release may let the first waiter in, whichever holder it comes from, so the first waiter
+ * watches the children; the others each watch their predecessor, and a release wakes one waiter
+ * rather than all of them. A waiter that takes a permit with nodes behind it rewrites the data
+ * of its node, which tells its successor it may now be first. The number of permits is read
+ * from the cached {@link ZookeeperSemaphorePermitsAccessor} and, while waiting, followed
+ * through a data watch on the permits node, so raising it admits waiters at once.
+ * <p>
+ * Semaphores have a subtree of their own next to the versions of the kind, so that no resource
+ * id can collide with them and the lock directories hold nothing but locks. They are not
+ * versioned: a rotation neither drains nor moves them.
+ * <p>
+ * A held permit has a {@link #token() token} like a lock, made of its node's path, session and
+ * creation zxid. Like a lock, it is released through the session handle it was acquired with,
+ * and waiters fail as soon as the session is disconnected or lost.
+ */
+@Slf4j
+public class ZookeeperDistributedSemaphore implements DistributedSemaphore {
+
+    /**
+     * The node under a resource kind that holds its semaphores.
+     */
+    static final String SEMAPHORES_NODE_NAME = "semaphores";
+
+    private static final String NODE_PREFIX = "permit-";
+    private static final int SEQUENCE_DIGITS = 10;
+
+    private final ZkClient client;
+    private final String semaphorePath;
+    private final String resourceKind;
+    private final ZookeeperSemaphorePermitsAccessor permitsAccessor;
+
+    private volatile ZooKeeper currentZooKeeper;
+    private volatile String currentNodePath;
+    private volatile Stat currentNodeStat;
+
+    public ZookeeperDistributedSemaphore(ZkClient client, String semaphorePath, String resourceKind,
+                                         ZookeeperSemaphorePermitsAccessor permitsAccessor) {
+        this.client = client;
+        this.semaphorePath = semaphorePath;
+        this.resourceKind = resourceKind;
+        this.permitsAccessor = permitsAccessor;
+    }
+
+    @Override
+    public boolean tryAcquire(Duration timeout) throws InterruptedException {
+        CompletableFuture<Boolean> acquisition = tryAcquireAsync(timeout);
+        try {
+            return acquisition.get();
+        } catch (InterruptedException e) {
+            acquisition.cancel(false);
+            throw e;
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error while acquiring ZooKeeper semaphore", e.getCause());
+        }
+    }
+
+    @Override
+    public CompletableFuture<Boolean> tryAcquireAsync(Duration timeout) {
+        KeeperException unavailable = client.unavailable();
+        if (unavailable != null) {
+            return CompletableFuture.failedFuture(unavailable);
+        }
+        int permits = permitsAccessor.currentPermits(resourceKind);
+        Acquisition acquisition = new Acquisition(client.getRaw(), System.nanoTime() + timeout.toNanos(), permits);
+        acquisition.start();
+        return acquisition.result;
+    }
+
+    @Override
+    public void release() {
+        String nodePath = currentNodePath;
+        ZooKeeper zooKeeper = currentZooKeeper;
+        if (nodePath == null || zooKeeper == null) {
+            return;
+        }
+        clearHold();
+
+        try {
+            zooKeeper.delete(nodePath, -1);
+        } catch (KeeperException.NoNodeException | KeeperException.SessionExpiredException ignored) {
+        } catch (KeeperException.ConnectionLossException e) {
+            log.warn("Connection lost while releasing ZooKeeper semaphore {}, releasing it once back", nodePath);
+            deleteQuietly(nodePath, zooKeeper);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Interrupted while releasing ZooKeeper semaphore", e);
+        } catch (KeeperException e) {
+            log.error("Failed to release ZooKeeper semaphore", e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> releaseAsync() {
+        String nodePath = currentNodePath;
+        ZooKeeper zooKeeper = currentZooKeeper;
+        if (nodePath == null || zooKeeper == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        clearHold();
+
+        CompletableFuture<Void> result = client.deleteNode(zooKeeper, nodePath);
+        result.whenComplete((ignored, error) -> {
+            if (error != null) {
+                log.error("Failed to release ZooKeeper semaphore {}", nodePath, error);
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public String token() {
+        Stat nodeStat = currentNodeStat;
+        String nodePath = currentNodePath;
+        if (nodePath == null || nodeStat == null) {
+            return null;
+        }
+        return HolderToken.of(nodePath, nodeStat).encode();
+    }
+
+    private void clearHold() {
+        currentNodePath = null;
+        currentNodeStat = null;
+        currentZooKeeper = null;
+    }
+
+    private void deleteQuietly(String nodePath, ZooKeeper zooKeeper) {
+        client.deleteNode(zooKeeper, nodePath).whenComplete((ignored, error) -> {
+            if (error != null) {
+                log.warn("Failed to clean up permit node {}", nodePath, error);
+            }
+        });
+    }
+
+    /**
+     * Parses the sequence number of a permit node name.
+     *
+     * @return the sequence number, or {@code -1} if the name is not a permit node
+     */
+    static long sequenceOf(String nodeName) {
+        int length = nodeName.length();
+        if (length != NODE_PREFIX.length() + SEQUENCE_DIGITS || !nodeName.startsWith(NODE_PREFIX)) {
+            return -1;
+        }
+
+        long sequence = 0;
+        for (int i = NODE_PREFIX.length(); i < length; i++) {
+            char c = nodeName.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            sequence = sequence * 10 + (c - '0');
+        }
+        return sequence;
+    }
+
+    /**
+     * A single pending acquisition, continued from ZooKeeper callbacks like the lock's.
+     */
+    private final class Acquisition implements AsyncCallback.Create2Callback,
+            AsyncCallback.ChildrenCallback, AsyncCallback.DataCallback, AsyncCallback.StatCallback, Watcher {
+
+        private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+        private final ZooKeeper zooKeeper;
+        private final long deadlineNanos;
+
+        private volatile int permits;
+        private volatile String nodePath;
+        private volatile Stat nodeStat;
+        private volatile ScheduledFuture<?> timeoutTask;
+        private volatile boolean permitsWatched;
+
+        /**
+         * Whether this node was first in line at the last listing, in which case the children
+         * are listed with a watch, and otherwise the node it waits for.
+         */
+        private volatile boolean first;
+        private volatile String predecessorPath;
+
+        private Acquisition(ZooKeeper zooKeeper, long deadlineNanos, int permits) {
+            this.zooKeeper = zooKeeper;
+            this.deadlineNanos = deadlineNanos;
+            this.permits = permits;
+        }
+
+        private void start() {
+            result.whenComplete((acquired, error) -> finish(acquired, error));
+
+            client.ensurePathAsync(semaphorePath).whenComplete((ignored, error) -> {
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    createNode();
+                }
+            });
+        }
+
+        private void createNode() {
+            if (result.isDone()) {
+                return;
+            }
+            zooKeeper.create(semaphorePath + "/" + NODE_PREFIX, client.holderData(),
+                    ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL, this, null);
+        }
+
+        private void listHolders() {
+            if (result.isDone() || nodePath == null) {
+                return;
+            }
+            if (first) {
+                zooKeeper.getChildren(semaphorePath, this, this, null);
+            } else {
+                zooKeeper.getChildren(semaphorePath, false, this, null);
+            }
+        }
+
+        /**
+         * Result of the permit node creation.
+         */
+        @Override
+        public void processResult(int rc, String path, Object ctx, String name, Stat stat) {
+            KeeperException.Code code = KeeperException.Code.get(rc);
+            if (code == KeeperException.Code.NONODE) {
+                log.debug("Semaphore root {} is gone, recreating it", semaphorePath);
+                client.invalidatePath(semaphorePath);
+                client.ensurePathAsync(semaphorePath).whenComplete((ignored, error) -> {
+                    if (error != null) {
+                        result.completeExceptionally(error);
+                    } else {
+                        createNode();
+                    }
+                });
+                return;
+            }
+            if (code != KeeperException.Code.OK) {
+                result.completeExceptionally(KeeperException.create(code, path));
+                return;
+            }
+
+            nodeStat = stat;
+            nodePath = name;
+            if (result.isDone()) {
+                // timed out or cancelled while the create was in flight
+                deleteQuietly(name, zooKeeper);
+                return;
+            }
+            listHolders();
+        }
+
+        /**
+         * Result of listing the holders and waiters.
+         */
+        @Override
+        public void processResult(int rc, String path, Object ctx, List<String> children) {
+            if (result.isDone()) {
+                return;
+            }
+            KeeperException.Code code = KeeperException.Code.get(rc);
+            if (code != KeeperException.Code.OK) {
+                result.completeExceptionally(KeeperException.create(code, path));
+                return;
+            }
+
+            String nodeName = nodePath.substring(semaphorePath.length() + 1);
+            long ownSequence = sequenceOf(nodeName);
+            boolean present = false;
+            boolean followed = false;
+            int lower = 0;
+            String predecessor = null;
+            long predecessorSequence = -1;
+            for (String child : children) {
+                long sequence = sequenceOf(child);
+                if (sequence == ownSequence) {
+                    present = child.equals(nodeName);
+                } else if (sequence > ownSequence) {
+                    followed = true;
+                } else if (sequence >= 0) {
+                    lower++;
+                    if (sequence > predecessorSequence) {
+                        predecessorSequence = sequence;
+                        predecessor = child;
+                    }
+                }
+            }
+
+            if (!present) {
+                log.debug("Permit node {} disappeared, re-entering the queue", nodePath);
+                nodePath = null;
+                first = false;
+                createNode();
+                return;
+            }
+            if (lower < permits) {
+                acquired(followed);
+                return;
+            }
+
+            long remaining = deadlineNanos - System.nanoTime();
+            if (remaining <= 0) {
+                result.complete(false);
+                return;
+            }
+            if (timeoutTask == null) {
+                timeoutTask = client.scheduler().schedule(() -> result.complete(false), remaining,
+                        TimeUnit.NANOSECONDS);
+            }
+            if (!permitsWatched) {
+                permitsWatched = true;
+                zooKeeper.getData(permitsAccessor.permitsPath(resourceKind), this, this, null);
+            }
+
+            if (lower == permits) {
+                predecessorPath = null;
+                if (!first) {
+                    // first in line since this unwatched listing, list again with a watch
+                    first = true;
+                    listHolders();
+                }
+                return;
+            }
+            first = false;
+            predecessorPath = semaphorePath + "/" + predecessor;
+            zooKeeper.exists(predecessorPath, this, this, null);
+        }
+
+        /**
+         * Result of setting the watch on the predecessor.
+         */
+        @Override
+        public void processResult(int rc, String path, Object ctx, Stat stat) {
+            if (result.isDone() || !path.equals(predecessorPath)) {
+                return;
+            }
+            KeeperException.Code code = KeeperException.Code.get(rc);
+            if (code == KeeperException.Code.NONODE) {
+                listHolders();
+            } else if (code != KeeperException.Code.OK) {
+                result.completeExceptionally(KeeperException.create(code, path));
+            }
+        }
+
+        /**
+         * Result of reading the permits node while waiting.
+         */
+        @Override
+        public void processResult(int rc, String path, Object ctx, byte[] data, Stat stat) {
+            if (result.isDone() || KeeperException.Code.get(rc) != KeeperException.Code.OK) {
+                return;
+            }
+            int value = ZookeeperSemaphorePermitsAccessor.decode(data);
+            if (value > 0 && value != permits) {
+                log.debug("Permits of {} changed to {} while waiting", resourceKind, value);
+                permits = value;
+                listHolders();
+            }
+        }
+
+        /**
+         * Children watch of the first waiter, predecessor watch of the others and data watch on
+         * the permits node.
+         */
+        @Override
+        public void process(WatchedEvent event) {
+            if (result.isDone()) {
+                return;
+            }
+            String path = event.getPath();
+            switch (event.getType()) {
+                case NodeChildrenChanged -> listHolders();
+                case NodeDataChanged, NodeCreated -> {
+                    if (path.equals(permitsAccessor.permitsPath(resourceKind))) {
+                        permitsWatched = true;
+                        zooKeeper.getData(path, this, this, null);
+                    } else if (path.equals(predecessorPath)) {
+                        // the predecessor took a permit, this node may be first in line now
+                        listHolders();
+                    }
+                }
+                case NodeDeleted -> {
+                    if (path.equals(permitsAccessor.permitsPath(resourceKind))) {
+                        permitsWatched = false;
+                    } else if (path.equals(semaphorePath) || path.equals(predecessorPath)) {
+                        listHolders();
+                    }
+                }
+                // nothing moves while the session is disconnected, and it may never come back
+                case None -> {
+                    switch (event.getState()) {
+                        case Disconnected -> {
+                            result.completeExceptionally(new KeeperException.ConnectionLossException());
+                        }
+                        case Expired, Closed -> {
+                            result.completeExceptionally(new KeeperException.SessionExpiredException());
+                        }
+                        default -> {
+                        }
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+
+        /**
+         * @param followed whether the listing had nodes after this one, whose first may be
+         *                 watching this node
+         */
+        private void acquired(boolean followed) {
+            currentZooKeeper = zooKeeper;
+            currentNodeStat = nodeStat;
+            currentNodePath = nodePath;
+            if (!result.complete(true) && (result.state() != Future.State.SUCCESS || !result.resultNow())) {
+                // timed out, cancelled or failed in the meantime, nobody will release the node
+                clearHold();
+                return;
+            }
+            if (followed) {
+                String heldPath = nodePath;
+                zooKeeper.setData(heldPath, client.holderData(), -1, (rc, path, ctx, stat) -> {
+                    if (rc != KeeperException.Code.OK.intValue() && rc != KeeperException.Code.NONODE.intValue()) {
+                        log.warn("Could not tell the successor of {} it is first in line: {}",
+                                path, KeeperException.Code.get(rc));
+                    }
+                }, null);
+            }
+        }
+
+        private void finish(Boolean acquired, Throwable error) {
+            if (timeoutTask != null) {
+                timeoutTask.cancel(false);
+            }
+            if (Boolean.TRUE.equals(acquired)) {
+                return;
+            }
+
+            String abandoned = nodePath;
+            if (abandoned != null) {
+                deleteQuietly(abandoned, zooKeeper);
+            }
+            if (error instanceof CancellationException) {
+                log.debug("Acquisition of {} cancelled", semaphorePath);
+            } else if (error == null) {
+                log.warn("Timeout while waiting for a permit of {}", semaphorePath);
+            }
+        }
+    }
+}
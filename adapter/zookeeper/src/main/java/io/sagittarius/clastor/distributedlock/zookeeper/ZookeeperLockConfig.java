@@ -2,10 +2,47 @@ package io.sagittarius.clastor.distributedlock.zookeeper;
 
 import java.time.Duration;
 
+/**
+ * @param localCoalescing     whether local waiters for the same key share a single ZooKeeper contender
+ * @param localHandoffBudget  how many times in a row a coalesced lock may be handed to a local waiter
+ *                            before it is given back to ZooKeeper
+ * @param reconnectBackoff    the delay before the second attempt to replace an expired session,
+ *                            doubled on every further one; {@code null} for the default
+ * @param maxReconnectBackoff the longest delay between two such attempts; {@code null} for the default
+ * @param reaperInterval      the delay between two sweeps for empty lock directories; {@code null} for
+ *                            the default, zero to never sweep
+ * @param reaperRate          the most empty lock directories deleted per second; zero or less for the default
+ */
 public record ZookeeperLockConfig(
         String connectionString,
         Duration connectionTimeout,
         Duration sessionTimeout,
         String rootPath,
-        Duration acquireRetryDelay
-) {}
+        boolean localCoalescing,
+        int localHandoffBudget,
+        Duration reconnectBackoff,
+        Duration maxReconnectBackoff,
+        Duration reaperInterval,
+        int reaperRate
+) {
+    public static final Duration DEFAULT_REAPER_INTERVAL = Duration.ofMinutes(10);
+    public static final int DEFAULT_REAPER_RATE = 200;
+
+    public ZookeeperLockConfig {
+        reconnectBackoff = reconnectBackoff != null
+                ? reconnectBackoff
+                : ZkClient.DEFAULT_RECONNECT_BACKOFF;
+
+        maxReconnectBackoff = maxReconnectBackoff != null
+                ? maxReconnectBackoff
+                : ZkClient.DEFAULT_MAX_RECONNECT_BACKOFF;
+
+        reaperInterval = reaperInterval != null
+                ? reaperInterval
+                : DEFAULT_REAPER_INTERVAL;
+
+        reaperRate = reaperRate > 0
+                ? reaperRate
+                : DEFAULT_REAPER_RATE;
+    }
+}
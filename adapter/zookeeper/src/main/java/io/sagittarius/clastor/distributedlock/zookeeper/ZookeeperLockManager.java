@@ -2,22 +2,46 @@ package io.sagittarius.clastor.distributedlock.zookeeper;
 
 import io.sagittarius.clastor.distributedlock.domain.DistributedLock;
 import io.sagittarius.clastor.distributedlock.domain.DistributedLockManager;
+import io.sagittarius.clastor.distributedlock.domain.DistributedLockMetrics;
 import io.sagittarius.clastor.distributedlock.domain.DistributedLockVersionAccessor;
+import io.sagittarius.clastor.distributedlock.domain.DistributedSemaphore;
+import io.sagittarius.clastor.distributedlock.domain.DistributedSemaphorePermitsAccessor;
+import io.sagittarius.clastor.distributedlock.domain.InstrumentedDistributedLock;
+import io.sagittarius.clastor.distributedlock.domain.LockKey;
+import io.sagittarius.clastor.distributedlock.domain.LockMode;
+import io.sagittarius.clastor.distributedlock.domain.LockSchemaManager;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
-import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 @Slf4j
 public class ZookeeperLockManager implements DistributedLockManager, AutoCloseable {
 
     private final ZookeeperLockConfig config;
+    private final DistributedLockMetrics metrics;
     private final ZkClient client;
-    private final DistributedLockVersionAccessor versionAccessor;
+    private final ZookeeperLockVersionAccessor versionAccessor;
+    private final ZookeeperSemaphorePermitsAccessor permitsAccessor;
+    private final ZookeeperLockSchemaManager schemaManager;
+    private final ZookeeperLockReaper reaper;
+    private final ConcurrentMap<String, LocalLockQueue> localQueues = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Namespace> namespaces = new ConcurrentHashMap<>();
 
     public ZookeeperLockManager(ZookeeperLockConfig config) throws IOException, InterruptedException {
+        this(config, DistributedLockMetrics.NOOP);
+    }
+
+    public ZookeeperLockManager(ZookeeperLockConfig config, DistributedLockMetrics metrics) throws IOException, InterruptedException {
         this.config = config;
-        this.client = new ZkClient(config.connectionString(), config.connectionTimeout(), config.sessionTimeout());
+        this.metrics = metrics;
+        this.client = new ZkClient(config.connectionString(), config.connectionTimeout(), config.sessionTimeout(),
+                ZkClient.DEFAULT_KNOWN_PATHS_CAPACITY, config.reconnectBackoff(), config.maxReconnectBackoff(), metrics);
 
         this.versionAccessor = new ZookeeperLockVersionAccessor(
                 client,
@@ -25,18 +49,90 @@ public class ZookeeperLockManager implements DistributedLockManager, AutoCloseab
                 "version",
                 "v1"
         );
+
+        this.permitsAccessor = new ZookeeperSemaphorePermitsAccessor(
+                client,
+                config.rootPath(),
+                "permits",
+                1
+        );
+
+        this.schemaManager = new ZookeeperLockSchemaManager(
+                client,
+                config.rootPath(),
+                "mode",
+                versionAccessor
+        );
+
+        this.reaper = new ZookeeperLockReaper(client, config.rootPath(), config.reaperInterval(), config.reaperRate());
+        reaper.start();
+
+        metrics.versionCache(versionAccessor::cacheHits, versionAccessor::cacheMisses);
     }
 
     @Override
-    public DistributedLock lock(String resourceKind, String resourceId) {
-        String version = versionAccessor.currentVersion(resourceKind);
-        String path = config.rootPath()
-                + "/" + resourceKind
-                + "/" + version
+    public DistributedLock lock(String resourceKind, String resourceId, LockMode mode) {
+        schemaManager.checkOpen(resourceKind);
+        Namespace namespace = namespace(resourceKind);
+        String path = namespace.childPrefix() + resourceId;
+        // readers do not exclude each other, there is nothing to coalesce for them
+        DistributedLock lock;
+        if (config.localCoalescing() && mode == LockMode.EXCLUSIVE) {
+            lock = new CoalescingZookeeperLock(client, path, config.localHandoffBudget(), localQueues, resourceKind, metrics);
+        } else {
+            lock = new ZookeeperDistributedLock(client, path, namespace.path(), mode, resourceKind, metrics);
+        }
+        return InstrumentedDistributedLock.instrumentAsync(lock, resourceKind, metrics);
+    }
+
+    @Override
+    public DistributedLock lockAll(Collection<LockKey> keys) {
+        List<String> paths = new ArrayList<>(keys.size());
+        for (LockKey key : LockKey.canonical(keys)) {
+            schemaManager.checkOpen(key.resourceKind());
+            paths.add(lockPath(key.resourceKind(), key.resourceId()));
+        }
+        return new ZookeeperMultiLock(client, paths);
+    }
+
+    @Override
+    public DistributedSemaphore semaphore(String resourceKind, String resourceId) {
+        schemaManager.checkOpen(resourceKind);
+        String path = config.rootPath() + "/" + resourceKind + "/" + ZookeeperDistributedSemaphore.SEMAPHORES_NODE_NAME
                 + "/" + resourceId;
+        return new ZookeeperDistributedSemaphore(client, path, resourceKind, permitsAccessor);
+    }
 
-        Duration retryDelay = config.acquireRetryDelay();
-        return new ZookeeperDistributedLock(client, path, retryDelay);
+    /**
+     * Deletes the nodes of the token that still have its session and creation zxid. Locks held
+     * through local coalescing have no token: their node is handed between local waiters, so only
+     * their handle can release them.
+     */
+    @Override
+    public CompletableFuture<Boolean> releaseAsync(String token) {
+        return HolderToken.decode(token).release(client.getRaw());
+    }
+
+    private String lockPath(String resourceKind, String resourceId) {
+        return namespace(resourceKind).childPrefix() + resourceId;
+    }
+
+    /**
+     * The {@code root/kind/version} namespace of the current version of a kind, built once per
+     * version rather than for every lock.
+     */
+    private Namespace namespace(String resourceKind) {
+        String version = versionAccessor.currentVersion(resourceKind);
+        Namespace namespace = namespaces.get(resourceKind);
+        if (namespace == null || !namespace.version().equals(version)) {
+            String path = config.rootPath() + "/" + resourceKind + "/" + version;
+            namespace = new Namespace(version, path, path + "/");
+            namespaces.put(resourceKind, namespace);
+        }
+        return namespace;
+    }
+
+    private record Namespace(String version, String path, String childPrefix) {
     }
 
     @Override
@@ -44,8 +140,20 @@ public class ZookeeperLockManager implements DistributedLockManager, AutoCloseab
         return versionAccessor;
     }
 
+    @Override
+    public DistributedSemaphorePermitsAccessor permitsAccessor() {
+        return permitsAccessor;
+    }
+
+    @Override
+    public LockSchemaManager schemaManager() {
+        return schemaManager;
+    }
+
     @Override
     public void close() throws Exception {
+        reaper.close();
+        schemaManager.close();
         client.close();
     }
 }
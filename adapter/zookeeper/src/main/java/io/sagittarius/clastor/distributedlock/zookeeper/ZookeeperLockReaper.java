@@ -0,0 +1,190 @@
+package io.sagittarius.clastor.distributedlock.zookeeper;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Deletes the empty lock directories of resource ids nobody locks anymore, at a bounded rate.
+ * <p>
+ * Directories are created as containers, which the server removes once their last child is gone,
+ * but trees written before that hold a persistent node for every id ever locked, and the server
+ * only removes so many containers a minute. Every {@code interval}, a sweep walks
+ * {@code root/kind/version/*} and {@code root/kind/semaphores/*} and deletes in batches the
+ * directories that have had children and have none left. The stats of a batch are read in one
+ * {@code multi()}, and the batches are paced so that deletes never exceed the given rate.
+ * <p>
+ * A contender creating its node under a directory that is being deleted gets NoNode and
+ * recreates the directory, as it does for a container reaped by the server.
+ */
+@Slf4j
+final class ZookeeperLockReaper implements AutoCloseable {
+
+    static final int BATCH_SIZE = 100;
+
+    private final ZkClient client;
+    private final String rootPath;
+    private final Duration interval;
+    private final int deletesPerSecond;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "zookeeper-lock-reaper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param interval         the delay between the end of a sweep and the start of the next one;
+     *                         zero or negative to never sweep
+     * @param deletesPerSecond the most directories deleted per second
+     */
+    ZookeeperLockReaper(ZkClient client, String rootPath, Duration interval, int deletesPerSecond) {
+        this.client = client;
+        this.rootPath = rootPath;
+        this.interval = interval;
+        this.deletesPerSecond = deletesPerSecond;
+    }
+
+    void start() {
+        if (interval.isZero() || interval.isNegative()) {
+            return;
+        }
+        long intervalMs = interval.toMillis();
+        // instances started together do not all walk the tree at the same time
+        long firstDelayMs = ThreadLocalRandom.current().nextLong(intervalMs + 1);
+        executor.scheduleWithFixedDelay(this::sweepQuietly, firstDelayMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void sweepQuietly() {
+        try {
+            int deleted = sweep();
+            if (deleted > 0) {
+                log.info("Reaped {} empty lock directories under {}", deleted, rootPath);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (KeeperException e) {
+            log.warn("Lock directory sweep under {} failed, retrying in {}", rootPath, interval, e);
+        } catch (RuntimeException e) {
+            log.error("Lock directory sweep under {} failed", rootPath, e);
+        }
+    }
+
+    /**
+     * Walks the tree once.
+     *
+     * @return the number of directories deleted
+     */
+    int sweep() throws InterruptedException, KeeperException {
+        if (client.unavailable() != null) {
+            return 0;
+        }
+        ZooKeeper zooKeeper = client.getRaw();
+        int deleted = 0;
+        for (String kind : childrenOf(zooKeeper, rootPath)) {
+            String kindPath = rootPath + "/" + kind;
+            // the version roots and the semaphores node, next to the version, mode and permits nodes
+            // that have no children
+            for (String version : childrenOf(zooKeeper, kindPath)) {
+                String versionRoot = kindPath + "/" + version;
+                List<String> directories = childrenOf(zooKeeper, versionRoot);
+                for (int from = 0; from < directories.size(); from += BATCH_SIZE) {
+                    List<String> batch = directories.subList(from, Math.min(from + BATCH_SIZE, directories.size()));
+                    long startNanos = System.nanoTime();
+                    int batchDeleted = reap(zooKeeper, versionRoot, batch);
+                    deleted += batchDeleted;
+                    pace(startNanos, batchDeleted);
+                }
+            }
+        }
+        return deleted;
+    }
+
+    private int reap(ZooKeeper zooKeeper, String versionRoot, List<String> names) throws InterruptedException, KeeperException {
+        List<Op> reads = new ArrayList<>(names.size());
+        for (String name : names) {
+            reads.add(Op.getData(versionRoot + "/" + name));
+        }
+        List<OpResult> results = zooKeeper.multi(reads);
+
+        List<String> empty = new ArrayList<>();
+        List<Integer> versions = new ArrayList<>();
+        for (int i = 0; i < results.size(); i++) {
+            // a directory deleted since the listing reads as an error
+            if (results.get(i) instanceof OpResult.GetDataResult read && isReapable(read.getStat())) {
+                empty.add(versionRoot + "/" + names.get(i));
+                versions.add(read.getStat().getVersion());
+            }
+        }
+        if (empty.isEmpty()) {
+            return 0;
+        }
+
+        // deleted one by one: a multi would be aborted by a single directory taken meanwhile
+        AtomicInteger deleted = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(empty.size());
+        for (int i = 0; i < empty.size(); i++) {
+            zooKeeper.delete(empty.get(i), versions.get(i), (rc, path, ctx) -> {
+                KeeperException.Code code = KeeperException.Code.get(rc);
+                if (code == KeeperException.Code.OK) {
+                    deleted.incrementAndGet();
+                    client.invalidatePath(path);
+                } else if (code != KeeperException.Code.NOTEMPTY
+                        && code != KeeperException.Code.NONODE
+                        && code != KeeperException.Code.BADVERSION) {
+                    log.debug("Could not reap lock directory {}: {}", path, code);
+                }
+                done.countDown();
+            }, null);
+        }
+        // a request is answered, or failed with a connection loss, within a session timeout
+        int timeoutMs = zooKeeper.getSessionTimeout();
+        if (!done.await(timeoutMs, TimeUnit.MILLISECONDS)) {
+            log.warn("{} deletes under {} still unanswered after {} ms, going on with the sweep",
+                    done.getCount(), versionRoot, timeoutMs);
+        }
+        return deleted.get();
+    }
+
+    /**
+     * Whether a directory is empty and done with. Clients are not told containers and persistent
+     * nodes apart; either way, one that has never had a child is one a contender is about to use.
+     */
+    private static boolean isReapable(Stat stat) {
+        return stat.getNumChildren() == 0 && stat.getCversion() > 0;
+    }
+
+    private void pace(long startNanos, int deleted) throws InterruptedException {
+        long budgetNanos = TimeUnit.SECONDS.toNanos(deleted) / deletesPerSecond;
+        long remainingNanos = budgetNanos - (System.nanoTime() - startNanos);
+        if (remainingNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(remainingNanos);
+        }
+    }
+
+    private static List<String> childrenOf(ZooKeeper zooKeeper, String path) throws InterruptedException, KeeperException {
+        try {
+            return zooKeeper.getChildren(path, false);
+        } catch (KeeperException.NoNodeException e) {
+            return List.of();
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
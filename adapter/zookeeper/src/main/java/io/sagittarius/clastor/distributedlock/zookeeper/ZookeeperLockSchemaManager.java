@@ -0,0 +1,478 @@
+package io.sagittarius.clastor.distributedlock.zookeeper;
+
+import io.sagittarius.clastor.distributedlock.domain.LockSchemaManager;
+import io.sagittarius.clastor.distributedlock.domain.ResourceDrainingException;
+import io.sagittarius.clastor.distributedlock.domain.ResourceMode;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.zookeeper.AddWatchMode;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZKUtil;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Resource modes stored next to the version node, and rotations run from this process.
+ * <p>
+ * Modes are cached per resourceKind like {@link ZookeeperLockVersionAccessor} caches versions:
+ * each cached mode holds a data watch on its mode node and is dropped on any change, so checking
+ * the mode costs no round trip in the steady state. The mode is stored as its name, so that it can
+ * be changed with any ZooKeeper tool.
+ * <p>
+ * A drain is detected with a single recursive watch on the namespace of the version, which reports
+ * every lock node created or deleted under it, so a rotation proceeds as soon as the last contender
+ * is gone whatever the number of resources in the namespace. The version switch and
+ * the reopening of the kind are written in one {@code multi()}, version first: every instance sees
+ * the new version before it sees the kind open again.
+ */
+@Slf4j
+public class ZookeeperLockSchemaManager implements LockSchemaManager, AutoCloseable {
+
+    private static final int DELETE_BATCH_SIZE = 1000;
+
+    private final ZkClient client;
+    private final String rootPath;
+    private final String modeNodeName;
+    private final ZookeeperLockVersionAccessor versionAccessor;
+
+    private final ConcurrentMap<String, CachedMode> modes = new ConcurrentHashMap<>();
+
+    /**
+     * Runs the blocking steps of rotations, off the ZooKeeper event thread, one rotation at a time.
+     */
+    private final ExecutorService rotationExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "zookeeper-lock-rotation");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ZookeeperLockSchemaManager(ZkClient client, String rootPath, String modeNodeName,
+                                      ZookeeperLockVersionAccessor versionAccessor) {
+        this.client = client;
+        this.rootPath = rootPath;
+        this.modeNodeName = modeNodeName;
+        this.versionAccessor = versionAccessor;
+    }
+
+    @Override
+    public ResourceMode mode(String resourceKind) {
+        CachedMode cached = modes.get(resourceKind);
+        if (cached != null) {
+            return cached.mode;
+        }
+        return loadMode(resourceKind);
+    }
+
+    /**
+     * Refuses new locks of a draining resource kind.
+     *
+     * @throws ResourceDrainingException if the kind is draining
+     */
+    void checkOpen(String resourceKind) {
+        if (mode(resourceKind) == ResourceMode.DRAINING) {
+            throw new ResourceDrainingException(resourceKind);
+        }
+    }
+
+    @Override
+    public void setMode(String resourceKind, ResourceMode mode) {
+        String mp = modePath(resourceKind);
+        try {
+            writeMode(resourceKind, mode);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while setting the mode at " + mp, e);
+        } catch (KeeperException e) {
+            throw new IllegalStateException("Failed to set the mode at " + mp, e);
+        }
+        log.info("Mode of {} set to {}", resourceKind, mode);
+    }
+
+    @Override
+    public CompletableFuture<Void> awaitDrained(String resourceKind, String version) {
+        KeeperException unavailable = client.unavailable();
+        if (unavailable != null) {
+            return CompletableFuture.failedFuture(unavailable);
+        }
+        Drain drain = new Drain(client.getRaw(), versionRoot(resourceKind, version));
+        drain.start();
+        return drain.drained;
+    }
+
+    @Override
+    public CompletableFuture<String> rotate(String resourceKind, String newVersion, Duration drainTimeout) {
+        if (newVersion == null || newVersion.isBlank() || newVersion.contains("/")
+                || newVersion.equals(ZookeeperDistributedSemaphore.SEMAPHORES_NODE_NAME)) {
+            throw new IllegalArgumentException("Invalid version '" + newVersion + "'");
+        }
+        String previousVersion = versionAccessor.currentVersion(resourceKind);
+        if (previousVersion.equals(newVersion)) {
+            throw new IllegalArgumentException(resourceKind + " is already on version " + newVersion);
+        }
+
+        ResourceMode previousMode = mode(resourceKind);
+        Stat draining;
+        try {
+            client.ensurePath(versionRoot(resourceKind, newVersion));
+            draining = writeMode(resourceKind, ResourceMode.DRAINING);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        } catch (KeeperException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        log.info("Rotating {} from {} to {}, draining {}", resourceKind, previousVersion, newVersion, previousVersion);
+
+        long startNanos = System.nanoTime();
+        CompletableFuture<Void> drained = awaitDrained(resourceKind, previousVersion);
+        ScheduledFuture<?> timeout = client.scheduler().schedule(() -> drained.completeExceptionally(
+                        new TimeoutException(resourceKind + "/" + previousVersion + " did not drain within " + drainTimeout)),
+                drainTimeout.toNanos(), TimeUnit.NANOSECONDS);
+
+        return drained.handleAsync((ignored, error) -> {
+            timeout.cancel(false);
+            if (error != null) {
+                log.warn("Rotation of {} to {} abandoned, {} is {} again on {}",
+                        resourceKind, newVersion, resourceKind, previousMode, previousVersion, error);
+                try {
+                    setMode(resourceKind, previousMode);
+                } catch (RuntimeException e) {
+                    error.addSuppressed(e);
+                }
+                throw new CompletionException(error);
+            }
+            switchVersion(resourceKind, previousVersion, newVersion, draining);
+            log.info("{} rotated from {} to {}, drained in {} ms", resourceKind, previousVersion, newVersion,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+            deleteNamespace(versionRoot(resourceKind, previousVersion));
+            return previousVersion;
+        }, rotationExecutor);
+    }
+
+    private void switchVersion(String resourceKind, String previousVersion, String newVersion, Stat draining) {
+        String vp = versionAccessor.versionPath(resourceKind);
+        try {
+            ZooKeeper zk = client.getRaw();
+            Stat versionStat = new Stat();
+            String current = new String(zk.getData(vp, false, versionStat), StandardCharsets.UTF_8);
+            if (!current.equals(previousVersion)) {
+                throw new IllegalStateException(resourceKind + " was rotated to " + current + " concurrently");
+            }
+            zk.multi(List.of(
+                    Op.setData(vp, newVersion.getBytes(StandardCharsets.UTF_8), versionStat.getVersion()),
+                    Op.setData(modePath(resourceKind), encode(ResourceMode.NORMAL), draining.getVersion())));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while switching " + vp + " to " + newVersion, e);
+        } catch (KeeperException.BadVersionException e) {
+            throw new IllegalStateException("The version or mode of " + resourceKind
+                    + " changed during the rotation, nothing was switched", e);
+        } catch (KeeperException e) {
+            throw new IllegalStateException("Failed to switch " + vp + " to " + newVersion, e);
+        }
+    }
+
+    /**
+     * Deletes a drained namespace. A contender of a handle obtained before the rotation can still
+     * show up in it, in which case the namespace is left for the next rotation to delete.
+     */
+    private void deleteNamespace(String path) {
+        try {
+            ZKUtil.deleteRecursive(client.getRaw(), path, DELETE_BATCH_SIZE);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while deleting {}", path, e);
+        } catch (KeeperException e) {
+            log.warn("Failed to delete the old namespace {}", path, e);
+        } finally {
+            client.invalidatePath(path);
+            client.subtreeWatches().forget(path);
+        }
+    }
+
+    /**
+     * Stops the rotations still running: those that have not switched their version yet fail.
+     */
+    @Override
+    public void close() {
+        rotationExecutor.shutdownNow();
+    }
+
+    private Stat writeMode(String resourceKind, ResourceMode mode) throws KeeperException, InterruptedException {
+        String mp = modePath(resourceKind);
+        client.ensurePath(rootPath + "/" + resourceKind);
+        try {
+            return client.getRaw().setData(mp, encode(mode), -1);
+        } catch (KeeperException.NoNodeException e) {
+            Stat stat = new Stat();
+            client.getRaw().create(mp, encode(mode), ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT, stat);
+            return stat;
+        }
+    }
+
+    private String modePath(String resourceKind) {
+        return rootPath + "/" + resourceKind + "/" + modeNodeName;
+    }
+
+    private String versionRoot(String resourceKind, String version) {
+        return rootPath + "/" + resourceKind + "/" + version;
+    }
+
+    private static byte[] encode(ResourceMode mode) {
+        return mode.name().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parses the content of a mode node.
+     *
+     * @return the mode, or {@code null} if the content is not a mode
+     */
+    static ResourceMode decode(byte[] data) {
+        if (data == null || data.length == 0) {
+            return null;
+        }
+        try {
+            return ResourceMode.valueOf(new String(data, StandardCharsets.UTF_8).trim());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private ResourceMode loadMode(String resourceKind) {
+        String mp = modePath(resourceKind);
+        try {
+            client.ensurePath(rootPath + "/" + resourceKind);
+
+            CachedMode entry = new CachedMode(resourceKind);
+            byte[] data;
+            try {
+                data = client.getRaw().getData(mp, entry, null);
+            } catch (KeeperException.NoNodeException e) {
+                log.info("Mode node {} not found. Initializing with mode={}", mp, ResourceMode.NORMAL);
+                try {
+                    client.getRaw().create(mp, encode(ResourceMode.NORMAL), ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+                } catch (KeeperException.NodeExistsException ignored) {
+                    // created concurrently by another instance, the next read will pick it up
+                }
+                return ResourceMode.NORMAL;
+            }
+
+            ResourceMode value = decode(data);
+            if (value == null) {
+                log.warn("Mode node {} has invalid data. Falling back to mode={}", mp, ResourceMode.NORMAL);
+                value = ResourceMode.NORMAL;
+            }
+
+            entry.mode = value;
+            modes.put(resourceKind, entry);
+            if (entry.invalidated) {
+                modes.remove(resourceKind, entry);
+            }
+            return value;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while reading the mode from {}. Falling back to mode={}", mp, ResourceMode.NORMAL, e);
+            return ResourceMode.NORMAL;
+        } catch (KeeperException e) {
+            log.warn("Failed to read the mode from {}. Falling back to mode={}", mp, ResourceMode.NORMAL, e);
+            return ResourceMode.NORMAL;
+        }
+    }
+
+    private final class CachedMode implements Watcher {
+
+        private final String resourceKind;
+        private volatile ResourceMode mode;
+        private volatile boolean invalidated;
+
+        private CachedMode(String resourceKind) {
+            this.resourceKind = resourceKind;
+        }
+
+        @Override
+        public void process(WatchedEvent event) {
+            if (event.getType() == Event.EventType.None
+                    && event.getState() == Event.KeeperState.SyncConnected) {
+                // reconnected within the same session, the data watch is still registered
+                return;
+            }
+
+            invalidated = true;
+            if (modes.remove(resourceKind, this)) {
+                log.debug("Mode cache entry for {} invalidated by {} ({})",
+                        resourceKind, event.getType(), event.getState());
+            }
+        }
+    }
+
+    /**
+     * Watches the namespace of a version until no resource in it has a child left.
+     * <p>
+     * A persistent recursive watch is set on the namespace, then the namespace and each of its
+     * resources are listed once, without a watch. From there on, the lock nodes are tracked from
+     * the creations and deletions the watch reports, at no further read. Reads and events are all
+     * handled on the event thread of the session, in order, and a listing reflects every event
+     * delivered before it, so once no read is in flight the state reflects every change so far.
+     * <p>
+     * On ensembles without persistent watches, the namespace and each resource are listed with a
+     * children watch instead, and every event re-reads the node it is about.
+     */
+    private static final class Drain implements Watcher {
+
+        private final ZooKeeper zooKeeper;
+        private final String versionRoot;
+        private final CompletableFuture<Void> drained = new CompletableFuture<>();
+
+        // event thread only
+        private final Set<String> known = new HashSet<>();
+        // the lock nodes of each resource that has any
+        private final Map<String, Set<String>> busy = new HashMap<>();
+        private int pendingReads;
+        private boolean recursive;
+
+        private Drain(ZooKeeper zooKeeper, String versionRoot) {
+            this.zooKeeper = zooKeeper;
+            this.versionRoot = versionRoot;
+        }
+
+        private void start() {
+            // nothing touches the state before the first callback
+            pendingReads++;
+            zooKeeper.addWatch(versionRoot, this, AddWatchMode.PERSISTENT_RECURSIVE, (rc, path, ctx) -> {
+                pendingReads--;
+                KeeperException.Code code = KeeperException.Code.get(rc);
+                if (code == KeeperException.Code.OK) {
+                    recursive = true;
+                    drained.whenComplete((ignored, error) -> unwatch());
+                } else if (code != KeeperException.Code.UNIMPLEMENTED) {
+                    drained.completeExceptionally(KeeperException.create(code, path));
+                    return;
+                }
+                list();
+            }, null);
+        }
+
+        private void unwatch() {
+            zooKeeper.removeWatches(versionRoot, this, Watcher.WatcherType.Any, true, (rc, path, ctx) -> {
+                KeeperException.Code code = KeeperException.Code.get(rc);
+                if (code != KeeperException.Code.OK && code != KeeperException.Code.NOWATCHER) {
+                    log.debug("Could not remove the drain watch of {}: {}", path, code);
+                }
+            }, null);
+        }
+
+        private void list() {
+            pendingReads++;
+            zooKeeper.getChildren(versionRoot, recursive ? null : this, (rc, path, ctx, children) -> {
+                pendingReads--;
+                KeeperException.Code code = KeeperException.Code.get(rc);
+                if (code == KeeperException.Code.OK) {
+                    for (String resource : children) {
+                        if (known.add(resource)) {
+                            read(resource);
+                        }
+                    }
+                } else if (code != KeeperException.Code.NONODE) {
+                    drained.completeExceptionally(KeeperException.create(code, path));
+                    return;
+                }
+                settled();
+            }, null);
+        }
+
+        private void read(String resource) {
+            pendingReads++;
+            zooKeeper.getChildren(versionRoot + "/" + resource, recursive ? null : this, (rc, path, ctx, children) -> {
+                pendingReads--;
+                KeeperException.Code code = KeeperException.Code.get(rc);
+                if (code == KeeperException.Code.NONODE) {
+                    known.remove(resource);
+                    busy.remove(resource);
+                } else if (code != KeeperException.Code.OK) {
+                    drained.completeExceptionally(KeeperException.create(code, path));
+                    return;
+                } else if (children.isEmpty()) {
+                    busy.remove(resource);
+                } else {
+                    busy.put(resource, new HashSet<>(children));
+                }
+                settled();
+            }, null);
+        }
+
+        private void settled() {
+            if (pendingReads == 0 && busy.isEmpty()) {
+                drained.complete(null);
+            }
+        }
+
+        @Override
+        public void process(WatchedEvent event) {
+            if (drained.isDone()) {
+                return;
+            }
+            if (event.getType() == Event.EventType.None) {
+                if (event.getState() == Event.KeeperState.Expired || event.getState() == Event.KeeperState.Closed) {
+                    drained.completeExceptionally(new KeeperException.SessionExpiredException());
+                }
+                return;
+            }
+
+            String path = event.getPath();
+            if (!path.startsWith(versionRoot + "/")) {
+                if (!recursive && path.equals(versionRoot)) {
+                    list();
+                }
+                return;
+            }
+            String relative = path.substring(versionRoot.length() + 1);
+            if (!recursive) {
+                read(relative);
+                return;
+            }
+
+            int separator = relative.indexOf('/');
+            if (separator < 0) {
+                if (event.getType() == Event.EventType.NodeDeleted) {
+                    known.remove(relative);
+                    busy.remove(relative);
+                } else {
+                    known.add(relative);
+                }
+            } else {
+                String resource = relative.substring(0, separator);
+                String node = relative.substring(separator + 1);
+                if (event.getType() == Event.EventType.NodeCreated) {
+                    busy.computeIfAbsent(resource, ignored -> new HashSet<>()).add(node);
+                } else if (event.getType() == Event.EventType.NodeDeleted) {
+                    Set<String> nodes = busy.get(resource);
+                    if (nodes != null && nodes.remove(node) && nodes.isEmpty()) {
+                        busy.remove(resource);
+                    }
+                }
+            }
+            settled();
+        }
+    }
+}
@@ -5,12 +5,27 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooDefs;
 import org.apache.zookeeper.ZooKeeper;
 import org.apache.zookeeper.data.Stat;
 
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Version accessor backed by a per-resourceKind in-memory cache.
+ * <p>
+ * Each cached version holds a one-shot data watch on its version node. Any change,
+ * deletion or session event invalidates the entry, so the next {@link #currentVersion(String)}
+ * re-reads the node. In the steady state version resolution costs no ZooKeeper round trips.
+ * <p>
+ * A version node that cannot be read as a version, because it is missing or empty, is served as
+ * the default version, cached behind an exists watch until the node is written.
+ */
 @Slf4j
 @RequiredArgsConstructor
 public class ZookeeperLockVersionAccessor implements DistributedLockVersionAccessor {
@@ -20,6 +35,10 @@ public class ZookeeperLockVersionAccessor implements DistributedLockVersionAcces
     private final String versionNodeName;
     private final String defaultVersion;
 
+    private final ConcurrentMap<String, CachedVersion> versions = new ConcurrentHashMap<>();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+
     @Override
     public String versionPath(String resourceKind) {
         return rootPath + "/" + resourceKind + "/" + versionNodeName;
@@ -27,37 +46,139 @@ public class ZookeeperLockVersionAccessor implements DistributedLockVersionAcces
 
     @Override
     public String currentVersion(String resourceKind) {
+        CachedVersion cached = versions.get(resourceKind);
+        if (cached != null) {
+            cacheHits.increment();
+            return cached.version;
+        }
+
+        cacheMisses.increment();
+        return loadVersion(resourceKind);
+    }
+
+    /**
+     * Returns the number of {@link #currentVersion(String)} calls served from the cache.
+     */
+    public long cacheHits() {
+        return cacheHits.sum();
+    }
+
+    /**
+     * Returns the number of {@link #currentVersion(String)} calls that had to read ZooKeeper.
+     */
+    public long cacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    private String loadVersion(String resourceKind) {
+        String vp = versionPath(resourceKind);
         try {
             String resourceRoot = rootPath + "/" + resourceKind;
             client.ensurePath(resourceRoot);
 
-            String vp = versionPath(resourceKind);
             ZooKeeper zk = client.getRaw();
-            Stat stat = zk.exists(vp, false);
-
-            if (stat == null) {
+            CachedVersion entry = new CachedVersion(resourceKind);
+            Stat stat = new Stat();
+            byte[] data;
+            try {
+                data = zk.getData(vp, entry, stat);
+            } catch (KeeperException.NoNodeException e) {
                 log.info("Version node {} not found. Initializing with default version={}", vp, defaultVersion);
-                zk.create(
-                        vp,
-                        defaultVersion.getBytes(StandardCharsets.UTF_8),
-                        ZooDefs.Ids.OPEN_ACL_UNSAFE,
-                        CreateMode.PERSISTENT
-                );
-                return defaultVersion;
+                try {
+                    createVersionNode(resourceRoot, vp);
+                } catch (KeeperException.NodeExistsException ignored) {
+                    // created concurrently by another instance, read below
+                }
+                data = readWatched(zk, vp, entry, stat);
             }
 
-            byte[] data = zk.getData(vp, false, stat);
-            if (data == null || data.length == 0) {
+            if (data == null) {
+                // deleted again since it was created, watched until it is back
+                entry.version = defaultVersion;
+            } else if (data.length == 0) {
                 log.warn("Version node {} has empty data. Resetting to default version={}", vp, defaultVersion);
+                // the reset fires the watch, so the next call reads the node once more
                 zk.setData(vp, defaultVersion.getBytes(StandardCharsets.UTF_8), stat.getVersion());
-                return defaultVersion;
+                entry.version = defaultVersion;
+            } else {
+                entry.version = new String(data, StandardCharsets.UTF_8);
             }
-
-            return new String(data, StandardCharsets.UTF_8);
-        } catch (KeeperException | InterruptedException e) {
+            publish(entry);
+            return entry.version;
+        } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
-            log.warn("Failed to read version from {}. Falling back to default version={}", versionPath(resourceKind), defaultVersion, e);
+            log.warn("Interrupted while reading version from {}. Falling back to default version={}", vp, defaultVersion, e);
             return defaultVersion;
+        } catch (KeeperException e) {
+            log.warn("Failed to read version from {}. Falling back to default version={}", vp, defaultVersion, e);
+            return defaultVersion;
+        }
+    }
+
+    private void createVersionNode(String resourceRoot, String vp) throws KeeperException, InterruptedException {
+        byte[] data = defaultVersion.getBytes(StandardCharsets.UTF_8);
+        try {
+            client.getRaw().create(vp, data, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        } catch (KeeperException.NoNodeException e) {
+            // the cached resource root was removed behind our back
+            client.invalidatePath(resourceRoot);
+            client.ensurePath(resourceRoot);
+            client.getRaw().create(vp, data, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        }
+    }
+
+    /**
+     * Reads the node with a data watch, or sets an exists watch on it if it is missing.
+     *
+     * @return the data, or {@code null} if the node is missing
+     */
+    private static byte[] readWatched(ZooKeeper zk, String vp, Watcher watcher, Stat stat)
+            throws KeeperException, InterruptedException {
+        while (true) {
+            try {
+                return zk.getData(vp, watcher, stat);
+            } catch (KeeperException.NoNodeException e) {
+                if (zk.exists(vp, watcher) == null) {
+                    return null;
+                }
+                // created between the two calls
+            }
+        }
+    }
+
+    /**
+     * Publishes a freshly read entry unless its watch already fired while it was being read.
+     */
+    private void publish(CachedVersion entry) {
+        versions.put(entry.resourceKind, entry);
+        if (entry.invalidated) {
+            versions.remove(entry.resourceKind, entry);
+        }
+    }
+
+    private final class CachedVersion implements Watcher {
+
+        private final String resourceKind;
+        private volatile String version;
+        private volatile boolean invalidated;
+
+        private CachedVersion(String resourceKind) {
+            this.resourceKind = resourceKind;
+        }
+
+        @Override
+        public void process(WatchedEvent event) {
+            if (event.getType() == Event.EventType.None
+                    && event.getState() == Event.KeeperState.SyncConnected) {
+                // reconnected within the same session, the data watch is still registered
+                return;
+            }
+
+            invalidated = true;
+            if (versions.remove(resourceKind, this)) {
+                log.debug("Version cache entry for {} invalidated by {} ({})",
+                        resourceKind, event.getType(), event.getState());
+            }
         }
     }
-}
\ No newline at end of file
+}
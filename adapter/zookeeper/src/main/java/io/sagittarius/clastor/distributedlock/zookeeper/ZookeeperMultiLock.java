@@ -0,0 +1,338 @@
+package io.sagittarius.clastor.distributedlock.zookeeper;
+
+import io.sagittarius.clastor.distributedlock.domain.DistributedLock;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.CreateOptions;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A lock over several resources at once.
+ * <p>
+ * The contender nodes of all resources are created in a single {@code multi()}, so they enter
+ * every queue at the same point of the global transaction order: two multi-locks sharing
+ * resources are queued in the same relative order on each of them and cannot deadlock.
+ * The nodes then wait for their turn independently, and the lock is held once all of them are.
+ * Releasing deletes all nodes in one more {@code multi()}. The {@link #token() token} of the
+ * lock names all of its nodes.
+ * <p>
+ * All nodes belong to the session handle they were created with, and are lost together with it.
+ */
+@Slf4j
+public class ZookeeperMultiLock implements DistributedLock {
+
+    private static final CreateOptions NODE_OPTIONS =
+            CreateOptions.newBuilder(ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL).build();
+
+    private final ZkClient client;
+    private final List<String> locksRootPaths;
+
+    private volatile ZooKeeper heldZooKeeper;
+    private volatile List<ZookeeperDistributedLock> held;
+    private volatile LossListeners lossListeners;
+
+    /**
+     * @param client         the ZooKeeper client
+     * @param locksRootPaths the lock paths of the resources, in canonical order
+     */
+    public ZookeeperMultiLock(ZkClient client, List<String> locksRootPaths) {
+        if (locksRootPaths.isEmpty()) {
+            throw new IllegalArgumentException("At least one resource is required");
+        }
+        this.client = client;
+        this.locksRootPaths = List.copyOf(locksRootPaths);
+    }
+
+    @Override
+    public boolean tryLock(Duration timeout) throws InterruptedException {
+        CompletableFuture<Boolean> acquisition = tryLockAsync(timeout);
+        try {
+            return acquisition.get();
+        } catch (InterruptedException e) {
+            acquisition.cancel(false);
+            throw e;
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error while acquiring ZooKeeper multi-lock", e.getCause());
+        }
+    }
+
+    @Override
+    public CompletableFuture<Boolean> tryLockAsync(Duration timeout) {
+        KeeperException unavailable = client.unavailable();
+        if (unavailable != null) {
+            return CompletableFuture.failedFuture(unavailable);
+        }
+        ZooKeeper zooKeeper = client.getRaw();
+        long deadlineNanos = System.nanoTime() + timeout.toNanos();
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        ensureRoots().whenComplete((ignored, error) -> {
+            if (error != null) {
+                result.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+            } else {
+                createNodes(zooKeeper, result, deadlineNanos, false);
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public void unlock() {
+        List<ZookeeperDistributedLock> contenders = held;
+        ZooKeeper zooKeeper = heldZooKeeper;
+        if (contenders == null || zooKeeper == null) {
+            return;
+        }
+        clearHold(contenders);
+
+        List<String> nodePaths = detachAll(contenders);
+        try {
+            zooKeeper.multi(deleteOps(nodePaths));
+        } catch (KeeperException.SessionExpiredException e) {
+            log.debug("Multi-lock {} was already lost with its session", locksRootPaths);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Interrupted while releasing ZooKeeper multi-lock", e);
+        } catch (KeeperException e) {
+            // some node is already gone (e.g. its session expired), delete the rest one by one
+            log.debug("Batch release of {} failed with {}, releasing one by one", locksRootPaths, e.code());
+            deleteEachQuietly(zooKeeper, nodePaths);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> unlockAsync() {
+        List<ZookeeperDistributedLock> contenders = held;
+        ZooKeeper zooKeeper = heldZooKeeper;
+        if (contenders == null || zooKeeper == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        clearHold(contenders);
+
+        List<String> nodePaths = detachAll(contenders);
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        zooKeeper.multi(deleteOps(nodePaths), (rc, path, ctx, opResults) -> {
+            KeeperException.Code code = KeeperException.Code.get(rc);
+            if (code != KeeperException.Code.OK && code != KeeperException.Code.SESSIONEXPIRED) {
+                log.debug("Batch release of {} failed with {}, releasing one by one", locksRootPaths, code);
+                deleteEachQuietly(zooKeeper, nodePaths);
+            }
+            result.complete(null);
+        }, null);
+        return result;
+    }
+
+    @Override
+    public String token() {
+        List<ZookeeperDistributedLock> contenders = held;
+        if (contenders == null) {
+            return null;
+        }
+        List<HolderToken> tokens = new ArrayList<>(contenders.size());
+        for (ZookeeperDistributedLock contender : contenders) {
+            HolderToken token = contender.holderToken();
+            if (token == null) {
+                return null;
+            }
+            tokens.add(token);
+        }
+        return HolderToken.merge(tokens).encode();
+    }
+
+    @Override
+    public void onLost(Runnable listener) {
+        LossListeners listeners;
+        synchronized (this) {
+            if (lossListeners == null) {
+                lossListeners = new LossListeners();
+            }
+            listeners = lossListeners;
+        }
+        listeners.add(listener);
+        watchLoss();
+    }
+
+    private void watchLoss() {
+        LossListeners listeners = lossListeners;
+        ZooKeeper zooKeeper = heldZooKeeper;
+        List<ZookeeperDistributedLock> contenders = held;
+        if (listeners == null || zooKeeper == null || contenders == null) {
+            return;
+        }
+        listeners.watch(client, zooKeeper, contenders, () -> lost(contenders));
+        if (held != contenders) {
+            // released meanwhile
+            listeners.unwatch(contenders);
+        }
+    }
+
+    private void lost(List<ZookeeperDistributedLock> contenders) {
+        if (held != contenders) {
+            return;
+        }
+        clearHold(contenders);
+        detachAll(contenders);
+        log.warn("Multi-lock {} lost with its session", locksRootPaths);
+        lossListeners.fire();
+    }
+
+    private void clearHold(List<ZookeeperDistributedLock> contenders) {
+        held = null;
+        heldZooKeeper = null;
+        LossListeners listeners = lossListeners;
+        if (listeners != null) {
+            listeners.unwatch(contenders);
+        }
+    }
+
+    private CompletableFuture<Void> ensureRoots() {
+        CompletableFuture<?>[] ensured = new CompletableFuture<?>[locksRootPaths.size()];
+        for (int i = 0; i < ensured.length; i++) {
+            ensured[i] = client.ensurePathAsync(locksRootPaths.get(i));
+        }
+        return CompletableFuture.allOf(ensured);
+    }
+
+    private void createNodes(ZooKeeper zooKeeper, CompletableFuture<Boolean> result, long deadlineNanos, boolean retried) {
+        if (result.isDone()) {
+            return;
+        }
+
+        List<Op> ops = new ArrayList<>(locksRootPaths.size());
+        for (String locksRootPath : locksRootPaths) {
+            ops.add(Op.create(ZookeeperDistributedLock.nodePrefix(locksRootPath), client.holderData(), NODE_OPTIONS));
+        }
+
+        zooKeeper.multi(ops, (rc, path, ctx, opResults) -> {
+            KeeperException.Code code = KeeperException.Code.get(rc);
+            if (code == KeeperException.Code.NONODE && !retried) {
+                log.debug("Some lock root of {} is gone, recreating them", locksRootPaths);
+                locksRootPaths.forEach(client::invalidatePath);
+                ensureRoots().whenComplete((ignored, error) -> {
+                    if (error != null) {
+                        result.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+                    } else {
+                        createNodes(zooKeeper, result, deadlineNanos, true);
+                    }
+                });
+                return;
+            }
+            if (code != KeeperException.Code.OK) {
+                result.completeExceptionally(KeeperException.create(code, path));
+                return;
+            }
+
+            List<String> nodePaths = new ArrayList<>(opResults.size());
+            List<Stat> nodeStats = new ArrayList<>(opResults.size());
+            for (OpResult opResult : opResults) {
+                OpResult.CreateResult created = (OpResult.CreateResult) opResult;
+                nodePaths.add(created.getPath());
+                nodeStats.add(created.getStat());
+            }
+            if (result.isDone()) {
+                // timed out or cancelled while the create was in flight
+                deleteEachQuietly(zooKeeper, nodePaths);
+                return;
+            }
+            await(zooKeeper, result, nodePaths, nodeStats, deadlineNanos);
+        }, null);
+    }
+
+    private void await(ZooKeeper zooKeeper, CompletableFuture<Boolean> result, List<String> nodePaths,
+                       List<Stat> nodeStats, long deadlineNanos) {
+        int size = locksRootPaths.size();
+        List<ZookeeperDistributedLock> contenders = new ArrayList<>(size);
+        List<CompletableFuture<Boolean>> turns = new ArrayList<>(size);
+        AtomicInteger pending = new AtomicInteger(size);
+
+        for (int i = 0; i < size; i++) {
+            ZookeeperDistributedLock contender = new ZookeeperDistributedLock(client, locksRootPaths.get(i));
+            contenders.add(contender);
+            turns.add(contender.awaitNode(zooKeeper, nodePaths.get(i), nodeStats.get(i), deadlineNanos));
+        }
+
+        result.whenComplete((acquired, error) -> {
+            if (!Boolean.TRUE.equals(acquired)) {
+                abandon(zooKeeper, contenders, turns);
+            }
+        });
+
+        for (CompletableFuture<Boolean> turn : turns) {
+            turn.whenComplete((acquired, error) -> {
+                if (error != null) {
+                    result.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+                } else if (!acquired) {
+                    result.complete(false);
+                } else if (pending.decrementAndGet() == 0) {
+                    heldZooKeeper = zooKeeper;
+                    held = contenders;
+                    if (result.complete(true)) {
+                        watchLoss();
+                    } else {
+                        clearHold(contenders);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Gives up every resource: pending turns are cancelled (which deletes their nodes),
+     * the ones already held are released together.
+     */
+    private void abandon(ZooKeeper zooKeeper, List<ZookeeperDistributedLock> contenders,
+                         List<CompletableFuture<Boolean>> turns) {
+        List<String> acquiredNodes = new ArrayList<>();
+        for (int i = 0; i < turns.size(); i++) {
+            CompletableFuture<Boolean> turn = turns.get(i);
+            if (!turn.cancel(false) && !turn.isCompletedExceptionally() && turn.join()) {
+                String nodePath = contenders.get(i).detach();
+                if (nodePath != null) {
+                    acquiredNodes.add(nodePath);
+                }
+            }
+        }
+        deleteEachQuietly(zooKeeper, acquiredNodes);
+    }
+
+    private static List<String> detachAll(List<ZookeeperDistributedLock> contenders) {
+        List<String> nodePaths = new ArrayList<>(contenders.size());
+        for (ZookeeperDistributedLock contender : contenders) {
+            String nodePath = contender.detach();
+            if (nodePath != null) {
+                nodePaths.add(nodePath);
+            }
+        }
+        return nodePaths;
+    }
+
+    private static List<Op> deleteOps(List<String> nodePaths) {
+        List<Op> ops = new ArrayList<>(nodePaths.size());
+        for (String nodePath : nodePaths) {
+            ops.add(Op.delete(nodePath, -1));
+        }
+        return ops;
+    }
+
+    private void deleteEachQuietly(ZooKeeper zooKeeper, List<String> nodePaths) {
+        for (String nodePath : nodePaths) {
+            client.deleteNode(zooKeeper, nodePath).whenComplete((ignored, error) -> {
+                if (error != null) {
+                    log.warn("Failed to release lock node {}", nodePath, error);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package io.sagittarius.clastor.distributedlock.zookeeper;
+
+import io.sagittarius.clastor.distributedlock.domain.DistributedSemaphorePermitsAccessor;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Permits accessor backed by a per-resourceKind in-memory cache, like
+ * {@link ZookeeperLockVersionAccessor}: each cached value holds a data watch on its permits
+ * node and is dropped on any change, so reads cost no round trip in the steady state.
+ * <p>
+ * The number is stored in the encoding of Curator's {@code SharedCount}, a 4-byte big-endian
+ * integer, like the Curator backend stores it. Nodes written as decimal text by earlier versions
+ * are still read.
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class ZookeeperSemaphorePermitsAccessor implements DistributedSemaphorePermitsAccessor {
+
+    private final ZkClient client;
+    private final String rootPath;
+    private final String permitsNodeName;
+    private final int defaultPermits;
+
+    private final ConcurrentMap<String, CachedPermits> permits = new ConcurrentHashMap<>();
+
+    @Override
+    public String permitsPath(String resourceKind) {
+        return rootPath + "/" + resourceKind + "/" + permitsNodeName;
+    }
+
+    @Override
+    public int currentPermits(String resourceKind) {
+        CachedPermits cached = permits.get(resourceKind);
+        if (cached != null) {
+            return cached.permits;
+        }
+        return loadPermits(resourceKind);
+    }
+
+    @Override
+    public void setPermits(String resourceKind, int newPermits) {
+        if (newPermits < 1) {
+            throw new IllegalArgumentException("permits must be at least 1, got " + newPermits);
+        }
+
+        String pp = permitsPath(resourceKind);
+        byte[] data = encode(newPermits);
+        try {
+            client.ensurePath(rootPath + "/" + resourceKind);
+            try {
+                client.getRaw().setData(pp, data, -1);
+            } catch (KeeperException.NoNodeException e) {
+                client.getRaw().create(pp, data, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while setting permits at " + pp, e);
+        } catch (KeeperException e) {
+            throw new IllegalStateException("Failed to set permits at " + pp, e);
+        }
+        log.info("Permits of {} set to {}", resourceKind, newPermits);
+    }
+
+    /**
+     * Parses the content of a permits node.
+     *
+     * @return the number of permits, or {@code -1} if the content is not a valid number of permits
+     */
+    static int decode(byte[] data) {
+        if (data == null || data.length == 0) {
+            return -1;
+        }
+        // any count below 2^24 starts with a zero byte, which no decimal text does
+        if (data.length == Integer.BYTES && data[0] == 0) {
+            int value = ByteBuffer.wrap(data).getInt();
+            return value >= 1 ? value : -1;
+        }
+        try {
+            int value = Integer.parseInt(new String(data, StandardCharsets.UTF_8).trim());
+            return value >= 1 ? value : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    static byte[] encode(int value) {
+        return ByteBuffer.allocate(Integer.BYTES).putInt(value).array();
+    }
+
+    private int loadPermits(String resourceKind) {
+        String pp = permitsPath(resourceKind);
+        try {
+            String resourceRoot = rootPath + "/" + resourceKind;
+            client.ensurePath(resourceRoot);
+
+            CachedPermits entry = new CachedPermits(resourceKind);
+            byte[] data;
+            try {
+                data = client.getRaw().getData(pp, entry, null);
+            } catch (KeeperException.NoNodeException e) {
+                log.info("Permits node {} not found. Initializing with default permits={}", pp, defaultPermits);
+                try {
+                    client.getRaw().create(pp, encode(defaultPermits), ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+                } catch (KeeperException.NodeExistsException ignored) {
+                    // created concurrently by another instance, the next read will pick it up
+                }
+                return defaultPermits;
+            }
+
+            int value = decode(data);
+            if (value < 0) {
+                log.warn("Permits node {} has invalid data. Falling back to default permits={}", pp, defaultPermits);
+                value = defaultPermits;
+            }
+
+            entry.permits = value;
+            permits.put(resourceKind, entry);
+            if (entry.invalidated) {
+                permits.remove(resourceKind, entry);
+            }
+            return value;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while reading permits from {}. Falling back to default permits={}", pp, defaultPermits, e);
+            return defaultPermits;
+        } catch (KeeperException e) {
+            log.warn("Failed to read permits from {}. Falling back to default permits={}", pp, defaultPermits, e);
+            return defaultPermits;
+        }
+    }
+
+    private final class CachedPermits implements Watcher {
+
+        private final String resourceKind;
+        private volatile int permits;
+        private volatile boolean invalidated;
+
+        private CachedPermits(String resourceKind) {
+            this.resourceKind = resourceKind;
+        }
+
+        @Override
+        public void process(WatchedEvent event) {
+            if (event.getType() == Event.EventType.None
+                    && event.getState() == Event.KeeperState.SyncConnected) {
+                // reconnected within the same session, the data watch is still registered
+                return;
+            }
+
+            invalidated = true;
+            if (ZookeeperSemaphorePermitsAccessor.this.permits.remove(resourceKind, this)) {
+                log.debug("Permits cache entry for {} invalidated by {} ({})",
+                        resourceKind, event.getType(), event.getState());
+            }
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package io.sagittarius.clastor.distributedlock.zookeeper;
+
+import java.time.Duration;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Polls for what a watch or a callback brings about asynchronously.
+ */
+final class Await {
+
+    static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private Await() {
+    }
+
+    static void until(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() - deadline > 0) {
+                fail("Condition not met within " + TIMEOUT);
+            }
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package io.sagittarius.clastor.distributedlock.zookeeper;
+
+import io.sagittarius.clastor.distributedlock.domain.DistributedLock;
+import io.sagittarius.clastor.distributedlock.domain.DistributedLockMetrics;
+import io.sagittarius.clastor.distributedlock.domain.EstimatedTimeoutException;
+import io.sagittarius.clastor.distributedlock.domain.LockMode;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.LockInfo;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CoalescingZookeeperLockTest {
+
+    private static EmbeddedZooKeeper server;
+
+    private String rootPath;
+    private ZookeeperLockManager coalescing;
+    private ZookeeperLockManager plain;
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        server = new EmbeddedZooKeeper();
+    }
+
+    @AfterAll
+    static void stopServer() throws Exception {
+        server.close();
+    }
+
+    @BeforeEach
+    void connect() throws Exception {
+        rootPath = "/coalescing-" + System.nanoTime();
+        coalescing = new ZookeeperLockManager(config(true));
+        plain = new ZookeeperLockManager(config(false));
+    }
+
+    @AfterEach
+    void disconnect() throws Exception {
+        coalescing.close();
+        plain.close();
+    }
+
+    private ZookeeperLockConfig config(boolean localCoalescing) {
+        return new ZookeeperLockConfig(server.connectionString(), Duration.ofSeconds(5), Duration.ofSeconds(10),
+                rootPath, localCoalescing, 10, null, null, Duration.ZERO, 0);
+    }
+
+    @Test
+    void localWaitersTakeTurnsWithoutExtraNodes() throws Exception {
+        DistributedLock first = coalescing.lock("orders", "1", LockMode.EXCLUSIVE);
+        DistributedLock second = coalescing.lock("orders", "1", LockMode.EXCLUSIVE);
+        assertTrue(first.tryLock(Duration.ofSeconds(5)));
+
+        CompletableFuture<Boolean> waiting = second.tryLockAsync(Duration.ofSeconds(5));
+        assertFalse(waiting.isDone());
+        first.unlock();
+
+        assertTrue(waiting.get(5, TimeUnit.SECONDS));
+        second.unlock();
+    }
+
+    @Test
+    void cancelledZeroTimeoutAttemptDoesNotKeepTheKey() throws Exception {
+        DistributedLock attempt = coalescing.lock("orders", "1", LockMode.EXCLUSIVE);
+        attempt.tryLockAsync(Duration.ZERO).cancel(false);
+
+        // whether the attempt got the ZooKeeper lock or not, it must end up with nobody
+        DistributedLock next = coalescing.lock("orders", "1", LockMode.EXCLUSIVE);
+        assertTrue(next.tryLock(Duration.ofSeconds(5)));
+        next.unlock();
+
+        DistributedLock elsewhere = plain.lock("orders", "1", LockMode.EXCLUSIVE);
+        assertTrue(elsewhere.tryLock(Duration.ofSeconds(5)));
+        elsewhere.unlock();
+    }
+
+    @Test
+    void laterWaiterKeepsThePlaceOfAnEarlierOneThatTimedOut() throws Exception {
+        DistributedLock holder = plain.lock("orders", "1", LockMode.EXCLUSIVE);
+        assertTrue(holder.tryLock(Duration.ofSeconds(5)));
+        String directory = rootPath + "/orders/v1/1";
+
+        CompletableFuture<Boolean> impatient = coalescing.lock("orders", "1", LockMode.EXCLUSIVE)
+                .tryLockAsync(Duration.ofMillis(500));
+        DistributedLock patient = coalescing.lock("orders", "1", LockMode.EXCLUSIVE);
+        CompletableFuture<Boolean> patientResult = patient.tryLockAsync(Duration.ofSeconds(10));
+        ZkClient observer = new ZkClient(server.connectionString(), Duration.ofSeconds(5), Duration.ofSeconds(10));
+        try {
+            Await.until(() -> childCount(observer, directory) == 2);
+
+            // queued behind the coalesced contender
+            DistributedLock other = plain.lock("orders", "1", LockMode.EXCLUSIVE);
+            CompletableFuture<Boolean> otherResult = other.tryLockAsync(Duration.ofSeconds(10));
+            Await.until(() -> childCount(observer, directory) == 3);
+
+            assertFalse(impatient.get(5, TimeUnit.SECONDS));
+            holder.unlock();
+
+            assertTrue(patientResult.get(5, TimeUnit.SECONDS));
+            assertFalse(otherResult.isDone());
+            patient.unlock();
+            assertTrue(otherResult.get(5, TimeUnit.SECONDS));
+            other.unlock();
+        } finally {
+            observer.close();
+        }
+    }
+
+    @Test
+    void blockingAttemptPredictedToTimeOutAnswersFalse() throws Exception {
+        DistributedLock holder = plain.lock("orders", "1", LockMode.EXCLUSIVE);
+        assertTrue(holder.tryLock(Duration.ofSeconds(5)));
+        try (ZkClient client = new ZkClient(server.connectionString(), Duration.ofSeconds(5), Duration.ofSeconds(10))) {
+            predictTurns(client, Duration.ofSeconds(2));
+            DistributedLock lock = new CoalescingZookeeperLock(client, lockPath(), 10, new ConcurrentHashMap<>(),
+                    "orders", DistributedLockMetrics.NOOP);
+
+            long startNanos = System.nanoTime();
+            assertFalse(lock.tryLock(Duration.ofSeconds(1)));
+            assertTrue(System.nanoTime() - startNanos < TimeUnit.MILLISECONDS.toNanos(500), "waited out the timeout");
+        } finally {
+            holder.unlock();
+        }
+    }
+
+    @Test
+    void waitersWithRoomForThePredictedWaitContendAgain() throws Exception {
+        DistributedLock holder = plain.lock("orders", "1", LockMode.EXCLUSIVE);
+        assertTrue(holder.tryLock(Duration.ofSeconds(5)));
+        try (ZkClient client = new ZkClient(server.connectionString(), Duration.ofSeconds(5), Duration.ofSeconds(10))) {
+            predictTurns(client, Duration.ofSeconds(2));
+            ConcurrentMap<String, LocalLockQueue> queues = new ConcurrentHashMap<>();
+            CompletableFuture<Boolean> hurried = new CoalescingZookeeperLock(client, lockPath(), 10, queues,
+                    "orders", DistributedLockMetrics.NOOP).tryLockAsync(Duration.ofMillis(100));
+            LocalLockQueue queue = queues.get(lockPath());
+            DistributedLock patient = new CoalescingZookeeperLock(client, lockPath(), 10, queues,
+                    "orders", DistributedLockMetrics.NOOP);
+            CompletableFuture<Boolean> patientResult;
+
+            // a waiter with a later deadline arriving as the contender is given up on
+            synchronized (queue) {
+                Await.until(() -> blockedOn(queue));
+                patientResult = patient.tryLockAsync(Duration.ofSeconds(10));
+            }
+
+            ExecutionException error = assertThrows(ExecutionException.class, () -> hurried.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(EstimatedTimeoutException.class, error.getCause());
+            Thread.sleep(200);
+            assertFalse(patientResult.isDone());
+
+            holder.unlock();
+            assertTrue(patientResult.get(5, TimeUnit.SECONDS));
+            patient.unlock();
+        } finally {
+            holder.unlock();
+        }
+    }
+
+    private String lockPath() {
+        return rootPath + "/orders/v1/1";
+    }
+
+    /**
+     * Makes the estimator of the client predict every turn of the lock to take the given time.
+     */
+    private void predictTurns(ZkClient client, Duration turn) {
+        for (int i = 0; i < HoldTimeEstimator.MIN_SAMPLES; i++) {
+            client.holdTimes().recordHold(lockPath(), turn.toNanos());
+        }
+    }
+
+    /**
+     * Whether a thread is waiting to enter the monitor of the given object.
+     */
+    private static boolean blockedOn(Object monitor) {
+        for (ThreadInfo thread : ManagementFactory.getThreadMXBean().dumpAllThreads(true, false)) {
+            LockInfo lock = thread.getLockInfo();
+            if (thread.getThreadState() == Thread.State.BLOCKED && lock != null
+                    && lock.getIdentityHashCode() == System.identityHashCode(monitor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int childCount(ZkClient client, String path) {
+        try {
+            return client.getRaw().getChildren(path, false).size();
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package io.sagittarius.clastor.distributedlock.zookeeper;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HoldTimeEstimatorTest {
+
+    private static final String PATH = "/locks/orders/v1/1";
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final HoldTimeEstimator estimator = new HoldTimeEstimator(2);
+
+    private void holds(String path, int count, long nanos) {
+        for (int i = 0; i < count; i++) {
+            estimator.recordHold(path, nanos);
+        }
+    }
+
+    @Test
+    void nothingIsPredictedBeforeEnoughSamples() {
+        holds(PATH, HoldTimeEstimator.MIN_SAMPLES - 1, SECOND);
+        assertEquals(-1, estimator.estimateWaitNanos(PATH, 1));
+
+        estimator.recordHold(PATH, SECOND);
+        assertEquals(3 * SECOND, estimator.estimateWaitNanos(PATH, 3));
+    }
+
+    @Test
+    void waitsCountAsOneTurnPerPositionAhead() {
+        for (int i = 0; i < HoldTimeEstimator.MIN_SAMPLES; i++) {
+            estimator.recordWait(PATH, 4 * SECOND, 4);
+        }
+
+        assertEquals(SECOND, estimator.estimateWaitNanos(PATH, 1));
+    }
+
+    @Test
+    void theAverageFollowsRecentHolds() {
+        holds(PATH, HoldTimeEstimator.MIN_SAMPLES, SECOND);
+        holds(PATH, 30, 2 * SECOND);
+
+        long turn = estimator.estimateWaitNanos(PATH, 1);
+        assertTrue(turn > 1.99 * SECOND && turn <= 2 * SECOND, "turn: " + turn);
+    }
+
+    @Test
+    void onlyWaitsWellBeyondTheTimeoutAreHopeless() {
+        holds(PATH, HoldTimeEstimator.MIN_SAMPLES, SECOND);
+
+        assertEquals(-1, estimator.hopeless(PATH, 2, SECOND));
+        assertEquals(-1, estimator.hopeless(PATH, 1, SECOND / HoldTimeEstimator.MARGIN));
+        assertEquals(3 * SECOND, estimator.hopeless(PATH, 3, SECOND));
+        assertEquals(SECOND, estimator.hopeless(PATH, 1, -SECOND), "no time left at all");
+    }
+
+    @Test
+    void stalePredictionsAreDropped() throws Exception {
+        long turn = TimeUnit.MILLISECONDS.toNanos(5);
+        holds(PATH, HoldTimeEstimator.MIN_SAMPLES, turn);
+        assertEquals(turn, estimator.estimateWaitNanos(PATH, 1));
+
+        // no sample for more than STALE_TURNS turns
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(turn * HoldTimeEstimator.STALE_TURNS) + 20);
+        assertEquals(-1, estimator.estimateWaitNanos(PATH, 1));
+    }
+
+    @Test
+    void negativeSamplesAreIgnored() {
+        holds(PATH, HoldTimeEstimator.MIN_SAMPLES, -1);
+
+        assertEquals(-1, estimator.estimateWaitNanos(PATH, 1));
+    }
+
+    @Test
+    void theLeastRecentlyUsedPathIsDroppedFirst() {
+        holds("/a", HoldTimeEstimator.MIN_SAMPLES, SECOND);
+        holds("/b", HoldTimeEstimator.MIN_SAMPLES, SECOND);
+        holds("/c", HoldTimeEstimator.MIN_SAMPLES, SECOND);
+
+        assertEquals(-1, estimator.estimateWaitNanos("/a", 1));
+        assertEquals(SECOND, estimator.estimateWaitNanos("/b", 1));
+        assertEquals(SECOND, estimator.estimateWaitNanos("/c", 1));
+    }
+
+    @Test
+    void aFrequentlyUsedPathSurvivesEviction() {
+        holds(PATH, HoldTimeEstimator.MIN_SAMPLES, SECOND);
+
+        for (int i = 0; i < 10; i++) {
+            String cold = "/locks/orders/v1/cold-" + i;
+            holds(cold, HoldTimeEstimator.MIN_SAMPLES, SECOND);
+            // the path just added is never the one dropped
+            assertEquals(SECOND, estimator.estimateWaitNanos(cold, 1));
+            // contenders of the hot path keep asking for its prediction
+            assertEquals(SECOND, estimator.estimateWaitNanos(PATH, 1));
+        }
+        assertEquals(-1, estimator.estimateWaitNanos("/locks/orders/v1/cold-8", 1));
+    }
+}
@@ -0,0 +1,125 @@
+package io.sagittarius.clastor.distributedlock.zookeeper;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HolderTokenTest {
+
+    private static EmbeddedZooKeeper server;
+    private static ZkClient client;
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        server = new EmbeddedZooKeeper();
+        client = new ZkClient(server.connectionString(), Duration.ofSeconds(5), Duration.ofSeconds(10));
+    }
+
+    @AfterAll
+    static void stopServer() throws Exception {
+        client.close();
+        server.close();
+    }
+
+    private static String encoded(String text) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Stat createEphemeral(ZooKeeper zooKeeper, String path) throws Exception {
+        Stat stat = new Stat();
+        zooKeeper.create(path, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL, stat);
+        return stat;
+    }
+
+    @Test
+    void tokensSurviveTheRoundTrip() {
+        HolderToken token = new HolderToken(-1L, List.of(
+                new HolderToken.Node("/locks/orders/v1/1/owner", Long.MAX_VALUE),
+                new HolderToken.Node("/locks/commandes/v1/é €/lock-0000000001", 0)));
+
+        String encoded = token.encode();
+        assertTrue(encoded.matches("[A-Za-z0-9_-]+"), "not URL-safe: " + encoded);
+        assertEquals(token, HolderToken.decode(encoded));
+    }
+
+    @Test
+    void mergedTokensKeepEveryNodeInOrder() {
+        HolderToken first = new HolderToken(7, List.of(new HolderToken.Node("/a", 1)));
+        HolderToken second = new HolderToken(7, List.of(new HolderToken.Node("/b", 2), new HolderToken.Node("/c", 3)));
+
+        HolderToken merged = HolderToken.merge(List.of(first, second));
+
+        assertEquals(7, merged.session());
+        assertEquals(List.of("/a", "/b", "/c"), merged.nodes().stream().map(HolderToken.Node::path).toList());
+        assertEquals(merged, HolderToken.decode(merged.encode()));
+    }
+
+    @Test
+    void malformedTokensAreRejected() {
+        for (String token : List.of("not base64!", encoded("1f"), encoded("1f\n2a"), encoded("1f\n2a relative"),
+                encoded("1f\n /missing-zxid"), encoded("xyz\n2a /a"), encoded("1f\n2g /a"))) {
+            assertThrows(IllegalArgumentException.class, () -> HolderToken.decode(token), token);
+        }
+    }
+
+    @Test
+    void onlyTheNodeOfTheHoldIsReleased() throws Exception {
+        ZooKeeper zooKeeper = client.getRaw();
+        String path = "/holder-" + System.nanoTime();
+        HolderToken token = HolderToken.of(path, createEphemeral(zooKeeper, path));
+
+        zooKeeper.delete(path, -1);
+        createEphemeral(zooKeeper, path);
+        // the path is back, but from another creation
+        assertFalse(token.release(zooKeeper).get(5, TimeUnit.SECONDS));
+        assertNotNull(zooKeeper.exists(path, false));
+
+        HolderToken current = HolderToken.of(path, zooKeeper.exists(path, false));
+        assertTrue(current.release(zooKeeper).get(5, TimeUnit.SECONDS));
+        assertNull(zooKeeper.exists(path, false));
+        assertFalse(current.release(zooKeeper).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void nodesOfAnotherSessionAreNotReleased() throws Exception {
+        ZooKeeper zooKeeper = client.getRaw();
+        String path = "/holder-" + System.nanoTime();
+        Stat stat = createEphemeral(zooKeeper, path);
+        HolderToken foreign = new HolderToken(stat.getEphemeralOwner() + 1, List.of(new HolderToken.Node(path, stat.getCzxid())));
+
+        assertFalse(foreign.release(zooKeeper).get(5, TimeUnit.SECONDS));
+        assertNotNull(zooKeeper.exists(path, false));
+        zooKeeper.delete(path, -1);
+    }
+
+    @Test
+    void aMultiNodeTokenReleasesWhatIsLeft() throws Exception {
+        ZooKeeper zooKeeper = client.getRaw();
+        String first = "/holder-" + System.nanoTime();
+        String second = first + "-2";
+        HolderToken token = HolderToken.merge(List.of(
+                HolderToken.of(first, createEphemeral(zooKeeper, first)),
+                HolderToken.of(second, createEphemeral(zooKeeper, second))));
+        zooKeeper.delete(first, -1);
+
+        assertTrue(token.release(zooKeeper).get(5, TimeUnit.SECONDS));
+        assertNull(zooKeeper.exists(second, false));
+    }
+}
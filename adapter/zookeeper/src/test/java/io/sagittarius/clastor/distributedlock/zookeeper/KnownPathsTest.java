@@ -0,0 +1,74 @@
+package io.sagittarius.clastor.distributedlock.zookeeper;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KnownPathsTest {
+
+    @Test
+    void addingAPathMarksItsAncestors() {
+        KnownPaths paths = new KnownPaths(100);
+
+        paths.add("/locks/orders/v1/42");
+
+        assertTrue(paths.contains("/locks/orders/v1/42"));
+        assertTrue(paths.contains("/locks/orders/v1"));
+        assertTrue(paths.contains("/locks/orders"));
+        assertTrue(paths.contains("/locks"));
+        assertFalse(paths.contains("/locks/orders/v2"));
+        assertEquals(4, paths.size());
+    }
+
+    @Test
+    void leastRecentlyUsedPathIsEvictedFirst() {
+        KnownPaths paths = new KnownPaths(3);
+        paths.add("/a");
+        paths.add("/b");
+        paths.add("/c");
+
+        // used, so /b is now the eldest
+        assertTrue(paths.contains("/a"));
+        paths.add("/d");
+
+        assertFalse(paths.contains("/b"));
+        assertTrue(paths.contains("/a"));
+        assertTrue(paths.contains("/c"));
+        assertTrue(paths.contains("/d"));
+        assertEquals(3, paths.size());
+    }
+
+    @Test
+    void invalidatingRemovesThePathAndItsSubtreeOnly() {
+        KnownPaths paths = new KnownPaths(100);
+        paths.add("/locks/orders/v1/1");
+        paths.add("/locks/orders/v1/2");
+        paths.add("/locks/orders/v10/1");
+        paths.add("/locks/orders/v1-old/1");
+
+        paths.invalidate("/locks/orders/v1");
+
+        assertFalse(paths.contains("/locks/orders/v1"));
+        assertFalse(paths.contains("/locks/orders/v1/1"));
+        assertFalse(paths.contains("/locks/orders/v1/2"));
+        assertTrue(paths.contains("/locks/orders/v10/1"));
+        assertTrue(paths.contains("/locks/orders/v1-old/1"));
+        assertTrue(paths.contains("/locks/orders"));
+    }
+
+    @Test
+    void invalidatedPathsAreAddedBackFresh() {
+        KnownPaths paths = new KnownPaths(2);
+        paths.add("/a/b");
+        paths.invalidate("/a");
+        assertEquals(0, paths.size());
+
+        paths.add("/a/c");
+
+        assertTrue(paths.contains("/a/c"));
+        assertTrue(paths.contains("/a"));
+        assertFalse(paths.contains("/a/b"));
+    }
+}
@@ -0,0 +1,148 @@
+package io.sagittarius.clastor.distributedlock.zookeeper;
+
+import io.sagittarius.clastor.distributedlock.domain.DistributedLock;
+import io.sagittarius.clastor.distributedlock.domain.LockMode;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The zero-timeout attempt on exclusive locks, which goes through the {@code owner} node.
+ */
+class NonQueuingTryLockTest {
+
+    private static EmbeddedZooKeeper server;
+
+    private String rootPath;
+    private ZookeeperLockManager manager;
+    private ZookeeperLockManager other;
+    private ZkClient observer;
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        server = new EmbeddedZooKeeper();
+    }
+
+    @AfterAll
+    static void stopServer() throws Exception {
+        server.close();
+    }
+
+    @BeforeEach
+    void connect() throws Exception {
+        rootPath = "/non-queuing-" + System.nanoTime();
+        manager = new ZookeeperLockManager(config());
+        other = new ZookeeperLockManager(config());
+        observer = new ZkClient(server.connectionString(), Duration.ofSeconds(5), Duration.ofSeconds(10));
+    }
+
+    @AfterEach
+    void disconnect() throws Exception {
+        observer.close();
+        manager.close();
+        other.close();
+    }
+
+    private ZookeeperLockConfig config() {
+        return new ZookeeperLockConfig(server.connectionString(), Duration.ofSeconds(5), Duration.ofSeconds(10),
+                rootPath, false, 0, null, null, Duration.ZERO, 0);
+    }
+
+    private DistributedLock lock(ZookeeperLockManager owner, LockMode mode) {
+        return owner.lock("orders", "1", mode);
+    }
+
+    private List<String> children() throws Exception {
+        return observer.getRaw().getChildren(rootPath + "/orders/v1/1", false);
+    }
+
+    @Test
+    void freeLockIsTakenAndReleased() throws Exception {
+        DistributedLock lock = lock(manager, LockMode.EXCLUSIVE);
+
+        assertTrue(lock.tryLock(Duration.ZERO));
+        assertEquals(List.of("owner"), children());
+        lock.unlock();
+
+        assertEquals(List.of(), children());
+    }
+
+    @Test
+    void secondAttemptFailsWhileTheFirstHolds() throws Exception {
+        DistributedLock first = lock(manager, LockMode.EXCLUSIVE);
+        DistributedLock second = lock(other, LockMode.EXCLUSIVE);
+
+        assertTrue(first.tryLock(Duration.ZERO));
+        assertFalse(second.tryLock(Duration.ZERO));
+        first.unlock();
+        assertTrue(second.tryLock(Duration.ZERO));
+        second.unlock();
+    }
+
+    @Test
+    void attemptBacksOffFromAQueuedHolderAndLeavesNothingBehind() throws Exception {
+        DistributedLock holder = lock(manager, LockMode.EXCLUSIVE);
+        assertTrue(holder.tryLock(Duration.ofSeconds(5)));
+
+        assertFalse(lock(other, LockMode.EXCLUSIVE).tryLock(Duration.ZERO));
+        Await.until(() -> {
+            try {
+                return children().size() == 1 && !children().contains("owner");
+            } catch (Exception e) {
+                return false;
+            }
+        });
+        holder.unlock();
+    }
+
+    @Test
+    void queuedWaitersAndReadersWaitForTheOwner() throws Exception {
+        DistributedLock owner = lock(manager, LockMode.EXCLUSIVE);
+        assertTrue(owner.tryLock(Duration.ZERO));
+
+        CompletableFuture<Boolean> writer = lock(other, LockMode.EXCLUSIVE).tryLockAsync(Duration.ofSeconds(5));
+        CompletableFuture<Boolean> reader = lock(other, LockMode.SHARED).tryLockAsync(Duration.ofSeconds(5));
+        Await.until(() -> {
+            try {
+                return children().size() == 3;
+            } catch (Exception e) {
+                return false;
+            }
+        });
+        assertFalse(writer.isDone());
+        assertFalse(reader.isDone());
+
+        owner.unlock();
+        assertTrue(writer.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void sequenceCounterOfTheDirectoryIsKept() throws Exception {
+        DistributedLock queued = lock(manager, LockMode.EXCLUSIVE);
+        assertTrue(queued.tryLock(Duration.ofSeconds(5)));
+        queued.unlock();
+
+        DistributedLock owner = lock(manager, LockMode.EXCLUSIVE);
+        assertTrue(owner.tryLock(Duration.ZERO));
+        owner.unlock();
+
+        DistributedLock again = lock(manager, LockMode.EXCLUSIVE);
+        assertTrue(again.tryLock(Duration.ofSeconds(5)));
+        // the directory was not recreated, so the counter went on
+        List<String> nodes = children();
+        assertEquals(1, nodes.size());
+        assertTrue(ZookeeperDistributedLock.sequenceOf(nodes.get(0)) > 0, nodes.toString());
+        again.unlock();
+    }
+}
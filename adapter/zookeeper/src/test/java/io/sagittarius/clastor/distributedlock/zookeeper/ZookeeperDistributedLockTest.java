@@ -0,0 +1,35 @@
+package io.sagittarius.clastor.distributedlock.zookeeper;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ZookeeperDistributedLockTest {
+
+    @Test
+    void sequenceIsParsedFromWriterAndReaderNodes() {
+        assertEquals(0, ZookeeperDistributedLock.sequenceOf("lock-0000000000"));
+        assertEquals(42, ZookeeperDistributedLock.sequenceOf("lock-0000000042"));
+        assertEquals(2_147_483_647L, ZookeeperDistributedLock.sequenceOf("read-2147483647"));
+    }
+
+    @Test
+    void otherNodesHaveNoSequence() {
+        assertEquals(-1, ZookeeperDistributedLock.sequenceOf("owner"));
+        assertEquals(-1, ZookeeperDistributedLock.sequenceOf("lock-"));
+        assertEquals(-1, ZookeeperDistributedLock.sequenceOf("lock-000000001"));
+        assertEquals(-1, ZookeeperDistributedLock.sequenceOf("lock-00000000001"));
+        assertEquals(-1, ZookeeperDistributedLock.sequenceOf("lock-00000000x1"));
+        assertEquals(-1, ZookeeperDistributedLock.sequenceOf("slot-0000000001"));
+    }
+
+    @Test
+    void sequenceIsParsedInPlaceFromANodePath() {
+        String directory = "/locks/orders/v1/42";
+        String path = directory + "/lock-0000000007";
+
+        assertEquals(7, ZookeeperDistributedLock.sequenceOf(path, directory.length() + 1));
+        assertEquals(-1, ZookeeperDistributedLock.sequenceOf(path, directory.length()));
+        assertEquals(-1, ZookeeperDistributedLock.sequenceOf(directory + "/owner", directory.length() + 1));
+    }
+}
@@ -0,0 +1,189 @@
+package io.sagittarius.clastor.distributedlock.zookeeper;
+
+import io.sagittarius.clastor.distributedlock.domain.DistributedLock;
+import io.sagittarius.clastor.distributedlock.domain.DistributedSemaphore;
+import io.sagittarius.clastor.distributedlock.domain.LockMode;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ZookeeperDistributedSemaphoreTest {
+
+    private static final int WAITERS = 50;
+
+    private static EmbeddedZooKeeper server;
+
+    private String rootPath;
+    private ZookeeperLockManager manager;
+    private ZkClient observer;
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        server = new EmbeddedZooKeeper();
+    }
+
+    @AfterAll
+    static void stopServer() throws Exception {
+        server.close();
+    }
+
+    @BeforeEach
+    void connect() throws Exception {
+        rootPath = "/semaphores-" + System.nanoTime();
+        manager = new ZookeeperLockManager(new ZookeeperLockConfig(server.connectionString(), Duration.ofSeconds(5),
+                Duration.ofSeconds(30), rootPath, false, 0, null, null, Duration.ZERO, 0));
+        observer = new ZkClient(server.connectionString(), Duration.ofSeconds(5), Duration.ofSeconds(10));
+        manager.permitsAccessor().setPermits("orders", 2);
+    }
+
+    @AfterEach
+    void disconnect() throws Exception {
+        observer.close();
+        manager.close();
+    }
+
+    private String semaphorePath() {
+        return rootPath + "/orders/semaphores/1";
+    }
+
+    private int contenders() {
+        try {
+            return observer.getRaw().getChildren(semaphorePath(), false).size();
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private DistributedSemaphore semaphore() {
+        return manager.semaphore("orders", "1");
+    }
+
+    private List<CompletableFuture<Boolean>> queue(List<DistributedSemaphore> waiters, Duration timeout) {
+        List<CompletableFuture<Boolean>> acquisitions = new ArrayList<>();
+        for (int i = 0; i < WAITERS; i++) {
+            DistributedSemaphore waiter = semaphore();
+            waiters.add(waiter);
+            acquisitions.add(waiter.tryAcquireAsync(timeout));
+        }
+        return acquisitions;
+    }
+
+    private static int done(List<CompletableFuture<Boolean>> acquisitions) {
+        return (int) acquisitions.stream().filter(CompletableFuture::isDone).count();
+    }
+
+    @Test
+    void eachReleaseAdmitsOneWaiterWithoutWakingTheOthers() throws Exception {
+        DistributedSemaphore first = semaphore();
+        DistributedSemaphore second = semaphore();
+        assertTrue(first.tryAcquire(Duration.ofSeconds(5)));
+        assertTrue(second.tryAcquire(Duration.ofSeconds(5)));
+        assertFalse(semaphore().tryAcquire(Duration.ZERO));
+
+        List<DistributedSemaphore> waiters = new ArrayList<>();
+        List<CompletableFuture<Boolean>> acquisitions = queue(waiters, Duration.ofSeconds(30));
+        Await.until(() -> contenders() == WAITERS + 2);
+        // the waiters settle on their watches
+        Thread.sleep(200);
+        assertEquals(0, done(acquisitions));
+
+        long packets = server.packetsReceived();
+        first.release();
+        acquisitions.get(0).get(5, TimeUnit.SECONDS);
+        Thread.sleep(200);
+        long perRelease = server.packetsReceived() - packets;
+        assertEquals(1, done(acquisitions));
+        // release, listing, hand-over to the next waiter, its two listings; a herd would be 50 listings
+        assertTrue(perRelease <= 10, "packets per release: " + perRelease);
+
+        second.release();
+        for (int i = 0; i < WAITERS; i++) {
+            assertTrue(acquisitions.get(i).get(5, TimeUnit.SECONDS));
+            assertTrue(done(acquisitions) <= i + 2, "more than two permits held");
+            waiters.get(i).release();
+        }
+    }
+
+    @Test
+    void waitersLeavingTheQueueDoNotStrandTheirSuccessors() throws Exception {
+        DistributedSemaphore first = semaphore();
+        DistributedSemaphore second = semaphore();
+        assertTrue(first.tryAcquire(Duration.ofSeconds(5)));
+        assertTrue(second.tryAcquire(Duration.ofSeconds(5)));
+
+        List<DistributedSemaphore> waiters = new ArrayList<>();
+        List<CompletableFuture<Boolean>> acquisitions = queue(waiters, Duration.ofSeconds(30));
+        Await.until(() -> contenders() == WAITERS + 2);
+        for (int i = 0; i < WAITERS; i += 2) {
+            acquisitions.get(i).cancel(false);
+        }
+        Await.until(() -> contenders() == WAITERS / 2 + 2);
+
+        first.release();
+        second.release();
+        for (int i = 1; i < WAITERS; i += 2) {
+            assertTrue(acquisitions.get(i).get(5, TimeUnit.SECONDS));
+            waiters.get(i).release();
+        }
+    }
+
+    @Test
+    void raisingThePermitsAdmitsWaiters() throws Exception {
+        DistributedSemaphore first = semaphore();
+        DistributedSemaphore second = semaphore();
+        assertTrue(first.tryAcquire(Duration.ofSeconds(5)));
+        assertTrue(second.tryAcquire(Duration.ofSeconds(5)));
+
+        List<DistributedSemaphore> waiters = new ArrayList<>();
+        List<CompletableFuture<Boolean>> acquisitions = queue(waiters, Duration.ofSeconds(30));
+        Await.until(() -> contenders() == WAITERS + 2);
+
+        manager.permitsAccessor().setPermits("orders", 5);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(acquisitions.get(i).get(5, TimeUnit.SECONDS));
+        }
+        Thread.sleep(200);
+        assertEquals(3, done(acquisitions));
+
+        first.release();
+        second.release();
+        for (int i = 0; i < WAITERS; i++) {
+            assertTrue(acquisitions.get(i).get(5, TimeUnit.SECONDS));
+            waiters.get(i).release();
+        }
+    }
+
+    @Test
+    void semaphoresLiveOutsideTheVersions() throws Exception {
+        DistributedSemaphore permit = semaphore();
+        assertTrue(permit.tryAcquire(Duration.ofSeconds(5)));
+        DistributedLock lock = manager.lock("orders", "1", LockMode.EXCLUSIVE);
+        assertTrue(lock.tryLock(Duration.ofSeconds(5)));
+
+        List<String> lockNodes = observer.getRaw().getChildren(rootPath + "/orders/v1/1", false);
+        assertEquals(1, lockNodes.size());
+        assertEquals(1, contenders());
+        lock.unlock();
+
+        // a held permit does not hold a rotation up
+        assertEquals("v1", manager.schemaManager().rotate("orders", "v2", Duration.ofSeconds(5)).get(5, TimeUnit.SECONDS));
+        assertEquals(1, contenders());
+        permit.release();
+
+        assertThrows(IllegalArgumentException.class,
+                () -> manager.schemaManager().rotate("orders", "semaphores", Duration.ofSeconds(5)));
+    }
+}
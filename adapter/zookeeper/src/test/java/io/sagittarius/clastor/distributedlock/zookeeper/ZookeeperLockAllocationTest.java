@@ -0,0 +1,99 @@
+package io.sagittarius.clastor.distributedlock.zookeeper;
+
+import com.sun.management.ThreadMXBean;
+import io.sagittarius.clastor.distributedlock.domain.DistributedLock;
+import io.sagittarius.clastor.distributedlock.domain.LockMode;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Bytes allocated on the client side per uncontended acquire and release, against the embedded
+ * server: the calling thread and the threads of the ZooKeeper client, the server's are left out.
+ * <p>
+ * The budgets are about 40% above what a cycle allocates today (some 11.5 KB queuing, 8 KB for a
+ * single attempt, most of it in the ZooKeeper client), so that upgrades of the client or the JDK
+ * fit in while garbage added on every attempt, such as a watcher or a path per call, does not.
+ */
+class ZookeeperLockAllocationTest {
+
+    private static final long QUEUING_BUDGET_BYTES = 16 * 1024;
+    private static final long SINGLE_ATTEMPT_BUDGET_BYTES = 11 * 1024;
+
+    private static final int WARMUP_CYCLES = 2_000;
+    private static final int MEASURED_CYCLES = 2_000;
+
+    private static EmbeddedZooKeeper server;
+
+    private ZookeeperLockManager manager;
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        server = new EmbeddedZooKeeper();
+    }
+
+    @AfterAll
+    static void stopServer() throws Exception {
+        server.close();
+    }
+
+    @BeforeEach
+    void connect() throws Exception {
+        manager = new ZookeeperLockManager(new ZookeeperLockConfig(server.connectionString(), Duration.ofSeconds(5),
+                Duration.ofSeconds(30), "/allocation-" + System.nanoTime(), false, 0, null, null, Duration.ZERO, 0));
+    }
+
+    @AfterEach
+    void disconnect() throws Exception {
+        manager.close();
+    }
+
+    private void cycles(int count, Duration timeout) throws InterruptedException {
+        for (int i = 0; i < count; i++) {
+            DistributedLock lock = manager.lock("orders", "1", LockMode.EXCLUSIVE);
+            assertTrue(lock.tryLock(timeout));
+            lock.unlock();
+        }
+    }
+
+    private static long clientAllocatedBytes(ThreadMXBean threads) {
+        long bytes = 0;
+        for (ThreadInfo thread : threads.getThreadInfo(threads.getAllThreadIds())) {
+            if (thread != null && (thread.getThreadId() == Thread.currentThread().threadId()
+                    || thread.getThreadName().contains("EventThread") || thread.getThreadName().contains("SendThread"))) {
+                bytes += threads.getThreadAllocatedBytes(thread.getThreadId());
+            }
+        }
+        return bytes;
+    }
+
+    private long perCycle(Duration timeout) throws InterruptedException {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        cycles(WARMUP_CYCLES, timeout);
+        long before = clientAllocatedBytes(threads);
+        cycles(MEASURED_CYCLES, timeout);
+        return (clientAllocatedBytes(threads) - before) / MEASURED_CYCLES;
+    }
+
+    @Test
+    void queuingAcquisitionStaysWithinItsBudget() throws Exception {
+        long bytes = perCycle(Duration.ofSeconds(5));
+        assertTrue(bytes <= QUEUING_BUDGET_BYTES, "bytes per cycle: " + bytes);
+    }
+
+    @Test
+    void singleAttemptStaysWithinItsBudget() throws Exception {
+        long bytes = perCycle(Duration.ZERO);
+        assertTrue(bytes <= SINGLE_ATTEMPT_BUDGET_BYTES, "bytes per cycle: " + bytes);
+    }
+}
@@ -0,0 +1,127 @@
+package io.sagittarius.clastor.distributedlock.zookeeper;
+
+import io.sagittarius.clastor.distributedlock.domain.DistributedLock;
+import io.sagittarius.clastor.distributedlock.domain.DistributedLockMetrics;
+import io.sagittarius.clastor.distributedlock.domain.LockMode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Hundreds of waiters queued on one key, spread over several sessions, served one at a time.
+ */
+class ZookeeperLockContentionTest {
+
+    private static final int WAITERS = 500;
+    private static final int SESSIONS = 4;
+
+    private final LongAdder roundTrips = new LongAdder();
+    private final DistributedLockMetrics metrics = new DistributedLockMetrics() {
+        @Override
+        public void roundTrips(String resourceKind, int count) {
+            roundTrips.add(count);
+        }
+    };
+
+    private EmbeddedZooKeeper server;
+    private final List<ZookeeperLockManager> managers = new ArrayList<>();
+
+    @BeforeEach
+    void connect() throws Exception {
+        server = new EmbeddedZooKeeper();
+        for (int i = 0; i < SESSIONS; i++) {
+            managers.add(new ZookeeperLockManager(new ZookeeperLockConfig(server.connectionString(),
+                    Duration.ofSeconds(5), Duration.ofSeconds(30), "/contention", false, 0,
+                    null, null, Duration.ZERO, 0), metrics));
+        }
+    }
+
+    @AfterEach
+    void disconnect() throws Exception {
+        for (ZookeeperLockManager manager : managers) {
+            manager.close();
+        }
+        server.close();
+    }
+
+    @Test
+    void everyWaiterGetsTheLockAloneAndEachReleaseWakesOneSuccessor() throws Exception {
+        // sets up the shared watch of each session; replies come in order, so it is confirmed
+        // once the second round is over and no waiter needs a watch of its own
+        for (int round = 0; round < 2; round++) {
+            for (ZookeeperLockManager manager : managers) {
+                DistributedLock lock = manager.lock("orders", "hot", LockMode.EXCLUSIVE);
+                assertTrue(lock.tryLock(Duration.ofSeconds(5)));
+                lock.unlock();
+            }
+        }
+
+        DistributedLock gate = managers.get(0).lock("orders", "hot", LockMode.EXCLUSIVE);
+        assertTrue(gate.tryLock(Duration.ofSeconds(5)));
+
+        AtomicInteger inside = new AtomicInteger();
+        AtomicInteger overlaps = new AtomicInteger();
+        AtomicInteger served = new AtomicInteger();
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < WAITERS; i++) {
+            DistributedLock lock = managers.get(i % SESSIONS).lock("orders", "hot", LockMode.EXCLUSIVE);
+            results.add(lock.tryLockAsync(Duration.ofSeconds(60)).thenApply(acquired -> {
+                if (acquired) {
+                    if (inside.incrementAndGet() != 1) {
+                        overlaps.incrementAndGet();
+                    }
+                    served.incrementAndGet();
+                    inside.decrementAndGet();
+                    lock.unlockAsync();
+                }
+                return acquired;
+            }));
+        }
+
+        ZkClient observer = new ZkClient(server.connectionString(), Duration.ofSeconds(5), Duration.ofSeconds(10));
+        try {
+            Await.until(() -> children(observer) == WAITERS + 1);
+        } finally {
+            observer.close();
+        }
+        long queuedTrips = roundTrips.sum();
+        long packetsBefore = server.packetsReceived();
+
+        gate.unlock();
+        for (CompletableFuture<Boolean> result : results) {
+            assertTrue(result.get(60, TimeUnit.SECONDS));
+        }
+        // reported once each attempt is over, the first waiter takes the lock behind the gate
+        // without listing again
+        Await.until(() -> roundTrips.sum() - queuedTrips >= 3L * WAITERS - 1);
+
+        assertEquals(0, overlaps.get());
+        assertEquals(WAITERS, served.get());
+        // per waiter: its node, the listing that queued it and one more once its predecessor was
+        // gone; a release waking more than the next waiter would show as extra listings
+        long trips = roundTrips.sum() - queuedTrips;
+        assertEquals(3L * WAITERS - 1, trips);
+        // the listings and deletes sent once the gate opened, with room for pings
+        long packets = server.packetsReceived() - packetsBefore;
+        assertTrue(packets <= 2L * WAITERS + 50, "requests after the gate opened: " + packets);
+    }
+
+    private static int children(ZkClient client) {
+        try {
+            return client.getRaw().getChildren("/contention/orders/v1/hot", false).size();
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+}
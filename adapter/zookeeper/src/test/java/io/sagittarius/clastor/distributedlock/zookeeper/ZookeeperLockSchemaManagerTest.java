@@ -0,0 +1,138 @@
+package io.sagittarius.clastor.distributedlock.zookeeper;
+
+import io.sagittarius.clastor.distributedlock.domain.DistributedLock;
+import io.sagittarius.clastor.distributedlock.domain.LockMode;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ZookeeperLockSchemaManagerTest {
+
+    private static final int RESOURCES = 20;
+
+    private static EmbeddedZooKeeper server;
+
+    private ZookeeperLockManager rotating;
+    private ZookeeperLockManager holding;
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        server = new EmbeddedZooKeeper();
+    }
+
+    @AfterAll
+    static void stopServer() throws Exception {
+        server.close();
+    }
+
+    @BeforeEach
+    void connect() throws Exception {
+        String rootPath = "/schema-" + System.nanoTime();
+        rotating = manager(rootPath);
+        holding = manager(rootPath);
+    }
+
+    @AfterEach
+    void disconnect() throws Exception {
+        holding.close();
+        rotating.close();
+    }
+
+    private static ZookeeperLockManager manager(String rootPath) throws Exception {
+        return new ZookeeperLockManager(new ZookeeperLockConfig(server.connectionString(), Duration.ofSeconds(5),
+                Duration.ofSeconds(30), rootPath, false, 0, null, null, Duration.ZERO, 0));
+    }
+
+    private List<DistributedLock> holdAll() throws InterruptedException {
+        List<DistributedLock> locks = new ArrayList<>();
+        for (int i = 0; i < RESOURCES; i++) {
+            DistributedLock lock = holding.lock("orders", Integer.toString(i), LockMode.EXCLUSIVE);
+            assertTrue(lock.tryLock(Duration.ofSeconds(5)));
+            locks.add(lock);
+        }
+        return locks;
+    }
+
+    /**
+     * @return the requests the server received while all the locks but the last were released
+     */
+    private static long releaseAllButLast(List<DistributedLock> locks) throws InterruptedException {
+        long packets = server.packetsReceived();
+        for (int i = 0; i < locks.size() - 1; i++) {
+            locks.get(i).unlock();
+        }
+        // the releases and whatever they trigger reach the server
+        Thread.sleep(300);
+        return server.packetsReceived() - packets;
+    }
+
+    @Test
+    void aDrainFollowsTheReleasesWithoutReadingAgain() throws Exception {
+        List<DistributedLock> undrained = holdAll();
+        long baseline = releaseAllButLast(undrained);
+        undrained.getLast().unlock();
+
+        List<DistributedLock> locks = holdAll();
+        CompletableFuture<Void> drained = rotating.schemaManager().awaitDrained("orders", "v1");
+        Thread.sleep(300);
+        assertFalse(drained.isDone());
+
+        long packets = releaseAllButLast(locks);
+        assertFalse(drained.isDone());
+        // a drain re-reading a resource on each release would add one request per release
+        assertTrue(packets - baseline <= 4, "requests while draining: " + packets + ", without: " + baseline);
+
+        locks.getLast().unlock();
+        drained.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void aDrainSeesTheLocksTakenWhileItRuns() throws Exception {
+        CompletableFuture<Void> drained = rotating.schemaManager().awaitDrained("orders", "v1");
+        // nothing to wait for yet, but a lock taken before the drain completes would be seen
+        drained.get(5, TimeUnit.SECONDS);
+
+        List<DistributedLock> locks = holdAll();
+        CompletableFuture<Void> again = rotating.schemaManager().awaitDrained("orders", "v1");
+        DistributedLock late = holding.lock("orders", "late", LockMode.EXCLUSIVE);
+        assertTrue(late.tryLock(Duration.ofSeconds(5)));
+        locks.forEach(DistributedLock::unlock);
+        Thread.sleep(300);
+        assertFalse(again.isDone());
+
+        late.unlock();
+        again.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void closingTheManagerStopsTheRotationThread() throws Exception {
+        DistributedLock lock = holding.lock("orders", "1", LockMode.EXCLUSIVE);
+        assertTrue(lock.tryLock(Duration.ofSeconds(5)));
+        AtomicReference<Thread> rotationThread = new AtomicReference<>();
+        CompletableFuture<String> rotation = rotating.schemaManager().rotate("orders", "v2", Duration.ofSeconds(5))
+                .whenComplete((previous, error) -> rotationThread.set(Thread.currentThread()));
+        lock.unlock();
+
+        assertEquals("v1", rotation.get(5, TimeUnit.SECONDS));
+        Thread thread = rotationThread.get();
+        assertNotNull(thread);
+        assertTrue(thread.getName().startsWith("zookeeper-lock-rotation"), thread.getName());
+
+        rotating.close();
+        Await.until(() -> !thread.isAlive());
+    }
+}
@@ -0,0 +1,94 @@
+package io.sagittarius.clastor.distributedlock.zookeeper;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.ZooDefs;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ZookeeperLockVersionAccessorTest {
+
+    private static EmbeddedZooKeeper server;
+
+    private ZkClient client;
+    private ZookeeperLockVersionAccessor accessor;
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        server = new EmbeddedZooKeeper();
+    }
+
+    @AfterAll
+    static void stopServer() throws Exception {
+        server.close();
+    }
+
+    @BeforeEach
+    void connect() throws Exception {
+        client = new ZkClient(server.connectionString(), Duration.ofSeconds(5), Duration.ofSeconds(10));
+        accessor = new ZookeeperLockVersionAccessor(client, "/versions-" + System.nanoTime(), "version", "v1");
+    }
+
+    @AfterEach
+    void disconnect() throws Exception {
+        client.close();
+    }
+
+    @Test
+    void missingNodeIsCreatedWithTheDefaultAndCached() throws Exception {
+        assertEquals("v1", accessor.currentVersion("orders"));
+        assertEquals("v1", accessor.currentVersion("orders"));
+        assertEquals("v1", accessor.currentVersion("orders"));
+
+        assertEquals(1, accessor.cacheMisses());
+        byte[] stored = client.getRaw().getData(accessor.versionPath("orders"), false, null);
+        assertEquals("v1", new String(stored, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void emptyNodeIsResetAndThenCached() throws Exception {
+        client.ensurePath(ZkClient.parentOf(accessor.versionPath("orders")));
+        client.getRaw().create(accessor.versionPath("orders"), new byte[0],
+                ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals("v1", accessor.currentVersion("orders"));
+        }
+        // the read that resets the node and the one after it
+        assertTrue(accessor.cacheMisses() <= 2, "misses: " + accessor.cacheMisses());
+    }
+
+    @Test
+    void changedVersionIsSeenThroughTheWatch() throws Exception {
+        assertEquals("v1", accessor.currentVersion("orders"));
+
+        client.getRaw().setData(accessor.versionPath("orders"), "v2".getBytes(StandardCharsets.UTF_8), -1);
+
+        Await.until(() -> "v2".equals(accessor.currentVersion("orders")));
+        long misses = accessor.cacheMisses();
+        assertEquals("v2", accessor.currentVersion("orders"));
+        assertEquals(misses, accessor.cacheMisses());
+    }
+
+    @Test
+    void deletedNodeIsRecreatedWithTheDefault() throws Exception {
+        client.ensurePath(ZkClient.parentOf(accessor.versionPath("orders")));
+        client.getRaw().create(accessor.versionPath("orders"), "v7".getBytes(StandardCharsets.UTF_8),
+                ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        assertEquals("v7", accessor.currentVersion("orders"));
+
+        client.getRaw().delete(accessor.versionPath("orders"), -1);
+
+        Await.until(() -> "v1".equals(accessor.currentVersion("orders")));
+        assertNotNull(client.getRaw().exists(accessor.versionPath("orders"), false));
+    }
+}
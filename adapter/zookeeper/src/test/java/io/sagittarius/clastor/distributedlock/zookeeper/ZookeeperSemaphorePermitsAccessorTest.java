@@ -0,0 +1,86 @@
+package io.sagittarius.clastor.distributedlock.zookeeper;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.ZooDefs;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ZookeeperSemaphorePermitsAccessorTest {
+
+    private static EmbeddedZooKeeper server;
+
+    private ZkClient client;
+    private ZookeeperSemaphorePermitsAccessor accessor;
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        server = new EmbeddedZooKeeper();
+    }
+
+    @AfterAll
+    static void stopServer() throws Exception {
+        server.close();
+    }
+
+    @BeforeEach
+    void connect() throws Exception {
+        client = new ZkClient(server.connectionString(), Duration.ofSeconds(5), Duration.ofSeconds(10));
+        accessor = new ZookeeperSemaphorePermitsAccessor(client, "/permits-" + System.nanoTime(), "permits", 1);
+    }
+
+    @AfterEach
+    void disconnect() throws Exception {
+        client.close();
+    }
+
+    @Test
+    void countIsEncodedLikeSharedCount() {
+        assertArrayEquals(new byte[]{0, 0, 0, 5}, ZookeeperSemaphorePermitsAccessor.encode(5));
+        assertArrayEquals(new byte[]{0, 1, 0, 0}, ZookeeperSemaphorePermitsAccessor.encode(65536));
+        assertEquals(65536, ZookeeperSemaphorePermitsAccessor.decode(new byte[]{0, 1, 0, 0}));
+    }
+
+    @Test
+    void decimalTextIsStillRead() {
+        assertEquals(5, ZookeeperSemaphorePermitsAccessor.decode("5".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(1000, ZookeeperSemaphorePermitsAccessor.decode("1000".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void invalidCountsAreRejected() {
+        assertEquals(-1, ZookeeperSemaphorePermitsAccessor.decode(null));
+        assertEquals(-1, ZookeeperSemaphorePermitsAccessor.decode(new byte[0]));
+        assertEquals(-1, ZookeeperSemaphorePermitsAccessor.decode(new byte[]{0, 0, 0, 0}));
+        assertEquals(-1, ZookeeperSemaphorePermitsAccessor.decode(new byte[]{0, 0, 1}));
+        assertEquals(-1, ZookeeperSemaphorePermitsAccessor.decode("-3".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(-1, ZookeeperSemaphorePermitsAccessor.decode("many".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void permitsAreWrittenAsFourBytes() throws Exception {
+        assertEquals(1, accessor.currentPermits("orders"));
+        accessor.setPermits("orders", 7);
+
+        byte[] stored = client.getRaw().getData(accessor.permitsPath("orders"), false, null);
+        assertArrayEquals(new byte[]{0, 0, 0, 7}, stored);
+        Await.until(() -> accessor.currentPermits("orders") == 7);
+    }
+
+    @Test
+    void sharedCountNodeIsRead() throws Exception {
+        client.ensurePath(ZkClient.parentOf(accessor.permitsPath("orders")));
+        client.getRaw().create(accessor.permitsPath("orders"), new byte[]{0, 0, 0, 3},
+                ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+
+        assertEquals(3, accessor.currentPermits("orders"));
+    }
+}
@@ -0,0 +1,53 @@
+package io.sagittarius.clastor.distributedlock.zookeeper;
+
+import org.apache.zookeeper.server.ServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * A standalone ZooKeeper server running inside the JVM, on an ephemeral port and a temporary
+ * data directory, for the tests and the benchmarks to measure the adapters and not the network.
+ */
+public final class EmbeddedZooKeeper implements AutoCloseable {
+
+    private static final int TICK_TIME_MS = 2000;
+    private static final int MAX_CLIENT_CONNECTIONS = 1000;
+
+    private final Path dataDir;
+    private final ZooKeeperServer server;
+    private final ServerCnxnFactory connectionFactory;
+
+    public EmbeddedZooKeeper() throws IOException, InterruptedException {
+        this.dataDir = Files.createTempDirectory("clastor-zk");
+        File dir = dataDir.toFile();
+        this.server = new ZooKeeperServer(dir, dir, TICK_TIME_MS);
+        this.connectionFactory = ServerCnxnFactory.createFactory(0, MAX_CLIENT_CONNECTIONS);
+        connectionFactory.startup(server);
+    }
+
+    public String connectionString() {
+        return "127.0.0.1:" + connectionFactory.getLocalPort();
+    }
+
+    /**
+     * The number of requests the server has received so far, pings included.
+     */
+    public long packetsReceived() {
+        return server.serverStats().getPacketsReceived();
+    }
+
+    @Override
+    public void close() throws IOException {
+        connectionFactory.shutdown();
+        server.shutdown();
+        try (Stream<Path> files = Files.walk(dataDir)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
@@ -2,20 +2,56 @@ plugins {
     java
     id("org.springframework.boot") version "4.0.0"
     id("io.spring.dependency-management") version "1.1.7"
+    id("com.google.protobuf") version "0.9.5"
 }
 
+val grpcVersion = "1.83.1"
+val protobufVersion = "3.25.9"
+
 dependencies {
     implementation(project(":domain"))
     implementation(project(":adapter:curator"))
+    implementation(project(":adapter:inmemory"))
+    implementation(project(":adapter:sharded"))
     implementation(project(":adapter:zookeeper"))
+    implementation(project(":protocol:server"))
 
     implementation("org.springframework.boot:spring-boot-starter-web:4.0.0")
+    implementation("org.springframework.boot:spring-boot-starter-actuator:4.0.0")
+    runtimeOnly("io.micrometer:micrometer-registry-prometheus")
+
+    implementation("io.grpc:grpc-netty-shaded:$grpcVersion")
+    implementation("io.grpc:grpc-protobuf:$grpcVersion")
+    implementation("io.grpc:grpc-stub:$grpcVersion")
+    implementation("com.google.protobuf:protobuf-java:$protobufVersion")
+    compileOnly("org.apache.tomcat:annotations-api:6.0.53")
+
+    testImplementation("io.grpc:grpc-inprocess:$grpcVersion")
+}
+
+protobuf {
+    protoc {
+        artifact = "com.google.protobuf:protoc:$protobufVersion"
+    }
+    plugins {
+        create("grpc") {
+            artifact = "io.grpc:protoc-gen-grpc-java:$grpcVersion"
+        }
+    }
+    generateProtoTasks {
+        all().forEach { task ->
+            task.plugins {
+                create("grpc")
+            }
+        }
+    }
 }
 
 tasks.getByName<org.springframework.boot.gradle.tasks.bundling.BootJar>("bootJar") {
     archiveFileName.set("app.jar")
 }
 
+// the plain jar puts the application on the classpath of the benchmarks
 tasks.getByName<Jar>("jar") {
-    enabled = false
-}
\ No newline at end of file
+    archiveClassifier.set("plain")
+}
@@ -0,0 +1,44 @@
+package io.sagittarius.clastor.distributedlock.app.binary;
+
+import io.sagittarius.clastor.distributedlock.protocol.server.BinaryLockServer;
+import org.springframework.context.SmartLifecycle;
+
+/**
+ * Runs the binary lock server next to the web server. Like the gRPC server, it is stopped before
+ * the lock manager is closed, so that the connections still open release their locks on the way out.
+ */
+public class BinaryLockServerLifecycle implements SmartLifecycle {
+
+    private final BinaryLockServer server;
+
+    public BinaryLockServerLifecycle(BinaryLockServer server) {
+        this.server = server;
+    }
+
+    @Override
+    public void start() {
+        try {
+            server.start();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while starting the binary lock server", e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        server.close();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return server.isRunning();
+    }
+
+    /**
+     * @return the port the server is bound to
+     */
+    public int port() {
+        return server.port();
+    }
+}
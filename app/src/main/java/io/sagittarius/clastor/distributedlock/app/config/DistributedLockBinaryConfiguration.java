@@ -0,0 +1,30 @@
+package io.sagittarius.clastor.distributedlock.app.config;
+
+import io.sagittarius.clastor.distributedlock.app.binary.BinaryLockServerLifecycle;
+import io.sagittarius.clastor.distributedlock.domain.DistributedLockManager;
+import io.sagittarius.clastor.distributedlock.protocol.server.BinaryLockServer;
+import io.sagittarius.clastor.distributedlock.protocol.server.BinaryLockServerConfig;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConditionalOnProperty(prefix = "distributed-lock.binary", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class DistributedLockBinaryConfiguration {
+
+    @Bean
+    public BinaryLockServerLifecycle binaryLockServerLifecycle(DistributedLockProperties properties,
+                                                               DistributedLockManager distributedLockManager) {
+        var binaryProperties = properties.binary();
+        return new BinaryLockServerLifecycle(new BinaryLockServer(
+                distributedLockManager,
+                new BinaryLockServerConfig(
+                        binaryProperties.host(),
+                        binaryProperties.port(),
+                        binaryProperties.workerThreads(),
+                        binaryProperties.maxFrameLength(),
+                        binaryProperties.shutdownGracePeriod()
+                )
+        ));
+    }
+}
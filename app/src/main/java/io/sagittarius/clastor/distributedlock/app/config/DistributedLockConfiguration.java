@@ -1,8 +1,18 @@
 package io.sagittarius.clastor.distributedlock.app.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.sagittarius.clastor.distributedlock.app.lease.LeaseTimerWheel;
+import io.sagittarius.clastor.distributedlock.app.limiter.InFlightLimiter;
+import io.sagittarius.clastor.distributedlock.app.metrics.MicrometerDistributedLockMetrics;
+import io.sagittarius.clastor.distributedlock.app.registry.HeldLockRegistry;
 import io.sagittarius.clastor.distributedlock.curator.CuratorLockConfig;
 import io.sagittarius.clastor.distributedlock.curator.CuratorLockManager;
 import io.sagittarius.clastor.distributedlock.domain.DistributedLockManager;
+import io.sagittarius.clastor.distributedlock.domain.DistributedLockMetrics;
+import io.sagittarius.clastor.distributedlock.inmemory.InMemoryLockConfig;
+import io.sagittarius.clastor.distributedlock.inmemory.InMemoryLockManager;
+import io.sagittarius.clastor.distributedlock.sharded.Shard;
+import io.sagittarius.clastor.distributedlock.sharded.ShardedLockManager;
 import io.sagittarius.clastor.distributedlock.zookeeper.ZookeeperLockConfig;
 import io.sagittarius.clastor.distributedlock.zookeeper.ZookeeperLockManager;
 import lombok.RequiredArgsConstructor;
@@ -12,6 +22,8 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 @Configuration
 @EnableConfigurationProperties(DistributedLockProperties.class)
@@ -20,35 +32,105 @@ public class DistributedLockConfiguration {
 
     private final DistributedLockProperties properties;
 
+    @Bean
+    @ConditionalOnMissingBean
+    public DistributedLockMetrics distributedLockMetrics(MeterRegistry meterRegistry) {
+        return MicrometerDistributedLockMetrics.register(meterRegistry);
+    }
+
+    @Bean
+    public InFlightLimiter inFlightLimiter() {
+        var restProperties = properties.rest();
+        return new InFlightLimiter(restProperties.maxInFlightPerKind(), restProperties.maxInFlight());
+    }
+
+    @Bean
+    public HeldLockRegistry heldLockRegistry() {
+        return new HeldLockRegistry(properties.rest().holderCache());
+    }
+
+    @Bean(destroyMethod = "close")
+    public LeaseTimerWheel leaseTimerWheel(DistributedLockMetrics metrics) {
+        LeaseTimerWheel leases = new LeaseTimerWheel(properties.rest().leaseTick(), LeaseTimerWheel.DEFAULT_WHEEL_SIZE);
+        metrics.leases(leases::active);
+        return leases;
+    }
+
     @Bean(destroyMethod = "close")
     @ConditionalOnMissingBean
-    public DistributedLockManager distributedLockManager() throws IOException, InterruptedException {
+    public DistributedLockManager distributedLockManager(DistributedLockMetrics metrics) throws IOException, InterruptedException {
         return switch (properties.provider()) {
-            case ZOOKEEPER -> zookeeperLockManager();
-            case CURATOR -> curatorLockManager();
+            case ZOOKEEPER -> zookeeperLockManager(properties.zookeeper().connectionString(), metrics);
+            case CURATOR -> curatorLockManager(properties.curator().connectionString(), metrics);
+            case INMEMORY -> inMemoryLockManager(metrics);
+            case SHARDED -> shardedLockManager(metrics);
         };
     }
 
-    private DistributedLockManager zookeeperLockManager() throws IOException, InterruptedException {
+    private DistributedLockManager zookeeperLockManager(String connectionString, DistributedLockMetrics metrics)
+            throws IOException, InterruptedException {
         var zookeeperProperties = properties.zookeeper();
         ZookeeperLockConfig config = new ZookeeperLockConfig(
-                zookeeperProperties.connectionString(),
+                connectionString,
                 zookeeperProperties.connectionTimeout(),
                 zookeeperProperties.sessionTimeout(),
                 zookeeperProperties.rootPath(),
-                zookeeperProperties.acquireRetryDelay()
+                zookeeperProperties.localCoalescing(),
+                zookeeperProperties.localHandoffBudget(),
+                zookeeperProperties.reconnectBackoff(),
+                zookeeperProperties.maxReconnectBackoff(),
+                zookeeperProperties.reaperInterval(),
+                zookeeperProperties.reaperRate()
         );
-        return new ZookeeperLockManager(config);
+        return new ZookeeperLockManager(config, metrics);
     }
 
-    private DistributedLockManager curatorLockManager() {
+    private DistributedLockManager curatorLockManager(String connectionString, DistributedLockMetrics metrics) {
         var curatorProperties = properties.curator();
         CuratorLockConfig config = new CuratorLockConfig(
-                curatorProperties.connectionString(),
+                connectionString,
                 curatorProperties.connectionTimeout(),
                 curatorProperties.sessionTimeout(),
-                curatorProperties.rootPath()
+                curatorProperties.rootPath(),
+                curatorProperties.mutexCacheCapacity(),
+                curatorProperties.mutexIdleTimeout(),
+                curatorProperties.maxSemaphoreWaits()
         );
-        return new CuratorLockManager(config);
+        return new CuratorLockManager(config, metrics);
+    }
+
+    private DistributedLockManager inMemoryLockManager(DistributedLockMetrics metrics) {
+        InMemoryLockConfig config = new InMemoryLockConfig(properties.inmemory().rootPath());
+        return new InMemoryLockManager(config, metrics);
+    }
+
+    private DistributedLockManager shardedLockManager(DistributedLockMetrics metrics) throws IOException, InterruptedException {
+        var shardedProperties = properties.sharded();
+        if (shardedProperties.shards().isEmpty()) {
+            throw new IllegalStateException("distributed-lock.sharded.shards must list at least one shard");
+        }
+
+        List<Shard> shards = new ArrayList<>();
+        try {
+            for (var shardProperties : shardedProperties.shards()) {
+                DistributedLockManager manager = switch (shardProperties.provider()) {
+                    case ZOOKEEPER -> zookeeperLockManager(shardProperties.connectionString(), metrics);
+                    case CURATOR -> curatorLockManager(shardProperties.connectionString(), metrics);
+                    case INMEMORY -> inMemoryLockManager(metrics);
+                    case SHARDED -> throw new IllegalStateException("Shard " + shardProperties.name() + " cannot be sharded itself");
+                };
+                shards.add(new Shard(shardProperties.name(), manager, shardProperties.state()));
+            }
+            return new ShardedLockManager(shards, shardedProperties.routing(), shardedProperties.virtualNodes());
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            for (Shard shard : shards) {
+                try {
+                    shard.manager().close();
+                } catch (Exception closeFailure) {
+                    e.addSuppressed(closeFailure);
+                }
+            }
+            throw e;
+        }
     }
 }
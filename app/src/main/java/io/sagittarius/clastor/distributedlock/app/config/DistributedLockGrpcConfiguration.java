@@ -0,0 +1,33 @@
+package io.sagittarius.clastor.distributedlock.app.config;
+
+import io.sagittarius.clastor.distributedlock.app.grpc.DistributedLockGrpcService;
+import io.sagittarius.clastor.distributedlock.app.grpc.GrpcServerLifecycle;
+import io.sagittarius.clastor.distributedlock.app.registry.HeldLockRegistry;
+import io.sagittarius.clastor.distributedlock.domain.DistributedLockManager;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+
+@Configuration
+@ConditionalOnProperty(prefix = "distributed-lock.grpc", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class DistributedLockGrpcConfiguration {
+
+    @Bean
+    public DistributedLockGrpcService distributedLockGrpcService(DistributedLockManager distributedLockManager,
+                                                                 HeldLockRegistry heldLockRegistry) {
+        return new DistributedLockGrpcService(distributedLockManager, heldLockRegistry);
+    }
+
+    @Bean
+    public GrpcServerLifecycle grpcServerLifecycle(DistributedLockProperties properties,
+                                                   DistributedLockGrpcService distributedLockGrpcService) {
+        var grpcProperties = properties.grpc();
+        return new GrpcServerLifecycle(
+                grpcProperties.port(),
+                grpcProperties.shutdownGracePeriod(),
+                List.of(distributedLockGrpcService)
+        );
+    }
+}
@@ -1,19 +1,51 @@
 package io.sagittarius.clastor.distributedlock.app.config;
 
+import io.sagittarius.clastor.distributedlock.sharded.ShardRouting;
+import io.sagittarius.clastor.distributedlock.sharded.ShardState;
+import io.sagittarius.clastor.distributedlock.sharded.ShardedLockManager;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 
 import java.time.Duration;
+import java.util.List;
+import java.util.Map;
 
 @ConfigurationProperties(prefix = "distributed-lock")
 @EnableConfigurationProperties(DistributedLockProperties.class)
 public record DistributedLockProperties(
         DistributedLockProvider provider,
         ZookeeperDistributedLockProperties zookeeper,
-        CuratorDistributedLockProperties curator
+        CuratorDistributedLockProperties curator,
+        InMemoryDistributedLockProperties inmemory,
+        ShardedDistributedLockProperties sharded,
+        GrpcDistributedLockProperties grpc,
+        BinaryDistributedLockProperties binary,
+        RestDistributedLockProperties rest
 ) {
+    public DistributedLockProperties {
+        inmemory = inmemory != null
+                ? inmemory
+                : new InMemoryDistributedLockProperties(null);
+
+        sharded = sharded != null
+                ? sharded
+                : new ShardedDistributedLockProperties(null, null, null);
+
+        grpc = grpc != null
+                ? grpc
+                : new GrpcDistributedLockProperties(null, null, null);
+
+        binary = binary != null
+                ? binary
+                : new BinaryDistributedLockProperties(null, null, null, null, null, null);
+
+        rest = rest != null
+                ? rest
+                : new RestDistributedLockProperties(null, null, null, null);
+    }
+
     enum DistributedLockProvider {
-        ZOOKEEPER, CURATOR
+        ZOOKEEPER, CURATOR, INMEMORY, SHARDED
     }
 
     public record ZookeeperDistributedLockProperties(
@@ -21,7 +53,12 @@ public record DistributedLockProperties(
             Duration connectionTimeout,
             Duration sessionTimeout,
             String rootPath,
-            Duration acquireRetryDelay
+            Boolean localCoalescing,
+            Integer localHandoffBudget,
+            Duration reconnectBackoff,
+            Duration maxReconnectBackoff,
+            Duration reaperInterval,
+            Integer reaperRate
     ) {
         public ZookeeperDistributedLockProperties {
             connectionTimeout = connectionTimeout != null
@@ -36,9 +73,29 @@ public record DistributedLockProperties(
                     ? rootPath
                     : "/locks";
 
-            acquireRetryDelay = acquireRetryDelay != null
-                    ? acquireRetryDelay
-                    : Duration.ofMillis(200);
+            localCoalescing = localCoalescing != null
+                    ? localCoalescing
+                    : false;
+
+            localHandoffBudget = localHandoffBudget != null
+                    ? localHandoffBudget
+                    : 16;
+
+            reconnectBackoff = reconnectBackoff != null
+                    ? reconnectBackoff
+                    : Duration.ofMillis(100);
+
+            maxReconnectBackoff = maxReconnectBackoff != null
+                    ? maxReconnectBackoff
+                    : Duration.ofSeconds(10);
+
+            reaperInterval = reaperInterval != null
+                    ? reaperInterval
+                    : Duration.ofMinutes(10);
+
+            reaperRate = reaperRate != null
+                    ? reaperRate
+                    : 200;
         }
     }
 
@@ -46,7 +103,10 @@ public record DistributedLockProperties(
             String connectionString,
             Duration sessionTimeout,
             Duration connectionTimeout,
-            String rootPath
+            String rootPath,
+            Integer mutexCacheCapacity,
+            Duration mutexIdleTimeout,
+            Integer maxSemaphoreWaits
     ) {
         public CuratorDistributedLockProperties {
             connectionTimeout = connectionTimeout != null
@@ -60,6 +120,162 @@ public record DistributedLockProperties(
             rootPath = rootPath != null
                     ? rootPath
                     : "/locks";
+
+            mutexCacheCapacity = mutexCacheCapacity != null
+                    ? mutexCacheCapacity
+                    : 10_000;
+
+            mutexIdleTimeout = mutexIdleTimeout != null
+                    ? mutexIdleTimeout
+                    : Duration.ofMinutes(1);
+
+            maxSemaphoreWaits = maxSemaphoreWaits != null
+                    ? maxSemaphoreWaits
+                    : 256;
+        }
+    }
+
+    public record InMemoryDistributedLockProperties(
+            String rootPath
+    ) {
+        public InMemoryDistributedLockProperties {
+            rootPath = rootPath != null
+                    ? rootPath
+                    : "/locks";
+        }
+    }
+
+    /**
+     * @param routing      what locks are placed on the hash ring by
+     * @param virtualNodes the number of points of each shard on the ring
+     * @param shards       the shards, in a fixed order: new ones are appended
+     */
+    public record ShardedDistributedLockProperties(
+            ShardRouting routing,
+            Integer virtualNodes,
+            List<ShardProperties> shards
+    ) {
+        public ShardedDistributedLockProperties {
+            routing = routing != null
+                    ? routing
+                    : ShardRouting.PER_ID;
+
+            virtualNodes = virtualNodes != null
+                    ? virtualNodes
+                    : ShardedLockManager.DEFAULT_VIRTUAL_NODES;
+
+            shards = shards != null
+                    ? shards
+                    : List.of();
+        }
+    }
+
+    /**
+     * A shard, built with the settings of its provider but its own connection string.
+     *
+     * @param name             the position of the shard on the ring, the same on every instance
+     * @param provider         the backend of the shard, any but {@code sharded}
+     * @param connectionString the ensemble of the shard
+     * @param state            {@code joining} while the shard is being added
+     */
+    public record ShardProperties(
+            String name,
+            DistributedLockProvider provider,
+            String connectionString,
+            ShardState state
+    ) {
+        public ShardProperties {
+            provider = provider != null
+                    ? provider
+                    : DistributedLockProvider.ZOOKEEPER;
+
+            state = state != null
+                    ? state
+                    : ShardState.ACTIVE;
+        }
+    }
+
+    public record GrpcDistributedLockProperties(
+            Boolean enabled,
+            Integer port,
+            Duration shutdownGracePeriod
+    ) {
+        public GrpcDistributedLockProperties {
+            enabled = enabled != null
+                    ? enabled
+                    : true;
+
+            port = port != null
+                    ? port
+                    : 9090;
+
+            shutdownGracePeriod = shutdownGracePeriod != null
+                    ? shutdownGracePeriod
+                    : Duration.ofSeconds(5);
+        }
+    }
+
+    public record BinaryDistributedLockProperties(
+            Boolean enabled,
+            String host,
+            Integer port,
+            Integer workerThreads,
+            Integer maxFrameLength,
+            Duration shutdownGracePeriod
+    ) {
+        public BinaryDistributedLockProperties {
+            enabled = enabled != null
+                    ? enabled
+                    : true;
+
+            port = port != null
+                    ? port
+                    : 9091;
+
+            workerThreads = workerThreads != null
+                    ? workerThreads
+                    : 0;
+
+            maxFrameLength = maxFrameLength != null
+                    ? maxFrameLength
+                    : 1024 * 1024;
+
+            shutdownGracePeriod = shutdownGracePeriod != null
+                    ? shutdownGracePeriod
+                    : Duration.ofSeconds(5);
+        }
+    }
+
+    /**
+     * @param maxInFlightPerKind the cap on acquisitions waiting at the same time per resource kind,
+     *                           {@code 0} for none
+     * @param maxInFlight        caps of specific resource kinds, overriding the default one
+     * @param holderCache        whether this instance also keeps the holds it acquired, for releases
+     *                           by key rather than by token; shared with the unary gRPC calls
+     * @param leaseTick          how often leases that ran out are looked for, i.e. how late they expire
+     */
+    public record RestDistributedLockProperties(
+            Integer maxInFlightPerKind,
+            Map<String, Integer> maxInFlight,
+            Boolean holderCache,
+            Duration leaseTick
+    ) {
+        public RestDistributedLockProperties {
+            maxInFlightPerKind = maxInFlightPerKind != null
+                    ? maxInFlightPerKind
+                    : 1000;
+
+            maxInFlight = maxInFlight != null
+                    ? maxInFlight
+                    : Map.of();
+
+            holderCache = holderCache != null
+                    ? holderCache
+                    : true;
+
+            leaseTick = leaseTick != null
+                    ? leaseTick
+                    : Duration.ofMillis(100);
         }
     }
 }
@@ -1,30 +1,73 @@
 package io.sagittarius.clastor.distributedlock.app.controller;
 
+import io.sagittarius.clastor.distributedlock.app.lease.LeaseTimerWheel;
+import io.sagittarius.clastor.distributedlock.app.limiter.InFlightLimiter;
+import io.sagittarius.clastor.distributedlock.app.model.DistributedLockBatchRequest;
+import io.sagittarius.clastor.distributedlock.app.model.DistributedLockBatchResponse;
 import io.sagittarius.clastor.distributedlock.app.model.DistributedLockResponse;
 import io.sagittarius.clastor.distributedlock.app.model.DistributedLockStatus;
 import io.sagittarius.clastor.distributedlock.app.model.DistributedLockVersionInfo;
+import io.sagittarius.clastor.distributedlock.app.model.DistributedSemaphorePermitsInfo;
+import io.sagittarius.clastor.distributedlock.app.model.DistributedSemaphoreResponse;
+import io.sagittarius.clastor.distributedlock.app.registry.HeldLockRegistry;
 import io.sagittarius.clastor.distributedlock.domain.DistributedLock;
 import io.sagittarius.clastor.distributedlock.domain.DistributedLockManager;
+import io.sagittarius.clastor.distributedlock.domain.DistributedLockMetrics;
+import io.sagittarius.clastor.distributedlock.domain.DistributedSemaphore;
+import io.sagittarius.clastor.distributedlock.domain.EstimatedTimeoutException;
+import io.sagittarius.clastor.distributedlock.domain.LockKey;
+import io.sagittarius.clastor.distributedlock.domain.LockMode;
+import io.sagittarius.clastor.distributedlock.domain.ResourceDrainingException;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
+/**
+ * Every acquisition answers with the token of its hold, and a release given the token works
+ * through any instance: the hold is looked up in the backend, not in this instance's memory. A
+ * release by key only finds the holds acquired through this instance, in its
+ * {@link HeldLockRegistry}.
+ * <p>
+ * Acquisitions of a resource kind draining for a rotation answer {@code 503} with
+ * {@code DRAINING}, see {@link LockSchemaController}.
+ * <p>
+ * An acquisition given a {@code leaseMs} holds the lock only that long unless renewed, so that
+ * a caller that crashed does not block the resource until the session of this instance ends.
+ * Leases are kept by the instance that acquired the hold: renewals have to reach it, elsewhere
+ * they answer {@code NOT_HELD}.
+ */
+@Slf4j
 @RestController
 @RequestMapping("api/v1/locks")
 @RequiredArgsConstructor
 public class ClastorDistributedController {
 
+    private static final Duration ASYNC_TIMEOUT_MARGIN = Duration.ofSeconds(5);
+
     private final DistributedLockManager distributedLockManager;
-    private final ConcurrentMap<String, DistributedLock> heldLocks = new ConcurrentHashMap<>();
+    private final HeldLockRegistry heldLocks;
+    private final InFlightLimiter inFlightLimiter;
+    private final LeaseTimerWheel leases;
+    private final DistributedLockMetrics metrics;
 
     @GetMapping("/held")
     public ResponseEntity<Set<String>> heldLocks() {
-        return ResponseEntity.ok(heldLocks.keySet());
+        return ResponseEntity.ok(heldLocks.keys());
     }
 
     @GetMapping("/{resource}/version")
@@ -37,37 +80,393 @@ public class ClastorDistributedController {
         ));
     }
 
+    @GetMapping("/{resource}/permits")
+    public ResponseEntity<DistributedSemaphorePermitsInfo> getPermits(@PathVariable("resource") String resource) {
+        var permitsAccessor = distributedLockManager.permitsAccessor();
+
+        return ResponseEntity.ok(new DistributedSemaphorePermitsInfo(
+                permitsAccessor.permitsPath(resource),
+                permitsAccessor.currentPermits(resource)
+        ));
+    }
+
+    @PutMapping("/{resource}/permits")
+    public ResponseEntity<DistributedSemaphorePermitsInfo> setPermits(
+            @PathVariable("resource") String resource,
+            @RequestParam(name = "permits") int permits
+    ) {
+        if (permits < 1) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        var permitsAccessor = distributedLockManager.permitsAccessor();
+        permitsAccessor.setPermits(resource, permits);
+        return ResponseEntity.ok(new DistributedSemaphorePermitsInfo(permitsAccessor.permitsPath(resource), permits));
+    }
+
+    @PostMapping("/{resource}/semaphore/acquire")
+    public DeferredResult<ResponseEntity<DistributedSemaphoreResponse>> acquirePermit(
+            @PathVariable("resource") String resource,
+            @RequestParam(name = "resourceId") String resourceId,
+            @RequestParam(name = "timeoutMs", defaultValue = "5000") long timeoutMs,
+            @RequestParam(name = "leaseMs", required = false) Long leaseMs
+    ) {
+        if (leaseMs != null && leaseMs <= 0) {
+            return badRequest();
+        }
+
+        DistributedSemaphore semaphore;
+        try {
+            semaphore = distributedLockManager.semaphore(resource, resourceId);
+        } catch (ResourceDrainingException e) {
+            return answer(HttpStatus.SERVICE_UNAVAILABLE,
+                    new DistributedSemaphoreResponse(resource, resourceId, DistributedLockStatus.DRAINING, null));
+        }
+        CompletableFuture<Boolean> acquisition = inFlightLimiter.start(List.of(resource),
+                () -> semaphore.tryAcquireAsync(Duration.ofMillis(timeoutMs)));
+        if (acquisition == null) {
+            return answer(HttpStatus.TOO_MANY_REQUESTS,
+                    new DistributedSemaphoreResponse(resource, resourceId, DistributedLockStatus.REJECTED, null));
+        }
+
+        return respond(acquisition, timeoutMs,
+                () -> {
+                    String token = semaphore.token();
+                    String key = HeldLockRegistry.key(resource, resourceId);
+                    LeaseTimerWheel.Lease lease = lease(leaseMs, () -> {
+                        if (heldLocks.expiredPermit(key, semaphore)) {
+                            expired(List.of(resource), token, semaphore::releaseAsync);
+                        }
+                    });
+                    heldLocks.heldPermit(key, semaphore, token, lease);
+                    startLease(lease, leaseMs);
+                    return new DistributedSemaphoreResponse(resource, resourceId, DistributedLockStatus.ACQUIRED, token);
+                },
+                semaphore::releaseAsync,
+                new DistributedSemaphoreResponse(resource, resourceId, DistributedLockStatus.FAILED, null),
+                new DistributedSemaphoreResponse(resource, resourceId, DistributedLockStatus.ESTIMATED_TIMEOUT, null),
+                new DistributedSemaphoreResponse(resource, resourceId, DistributedLockStatus.REJECTED, null));
+    }
+
+    @PostMapping("/{resource}/semaphore/release")
+    public DeferredResult<ResponseEntity<DistributedSemaphoreResponse>> releasePermit(
+            @PathVariable("resource") String resource,
+            @RequestParam(name = "resourceId") String resourceId,
+            @RequestParam(name = "token", required = false) String token
+    ) {
+        return release(token,
+                () -> heldLocks.removePermit(HeldLockRegistry.key(resource, resourceId)),
+                DistributedSemaphore::release,
+                new DistributedSemaphoreResponse(resource, resourceId, DistributedLockStatus.RELEASED, null),
+                new DistributedSemaphoreResponse(resource, resourceId, DistributedLockStatus.NOT_HELD, null));
+    }
+
+    @PostMapping("/{resource}/semaphore/renew")
+    public ResponseEntity<DistributedSemaphoreResponse> renewPermit(
+            @PathVariable("resource") String resource,
+            @RequestParam(name = "resourceId") String resourceId,
+            @RequestParam(name = "token", required = false) String token,
+            @RequestParam(name = "leaseMs") long leaseMs
+    ) {
+        if (leaseMs <= 0) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        boolean renewed = heldLocks.renewPermit(HeldLockRegistry.key(resource, resourceId), token, Duration.ofMillis(leaseMs));
+        return ResponseEntity.ok(new DistributedSemaphoreResponse(resource, resourceId,
+                renewed ? DistributedLockStatus.RENEWED : DistributedLockStatus.NOT_HELD, null));
+    }
+
     @PostMapping("/{resource}/acquire")
-    public ResponseEntity<DistributedLockResponse> acquire(
+    public DeferredResult<ResponseEntity<DistributedLockResponse>> acquire(
             @PathVariable("resource") String resource,
             @RequestParam(name = "resourceId") String resourceId,
-            @RequestParam(name = "timeoutMs", defaultValue = "5000") long timeoutMs
-    ) throws InterruptedException {
+            @RequestParam(name = "timeoutMs", defaultValue = "5000") long timeoutMs,
+            @RequestParam(name = "mode", defaultValue = "EXCLUSIVE") LockMode mode,
+            @RequestParam(name = "leaseMs", required = false) Long leaseMs
+    ) {
+        if (leaseMs != null && leaseMs <= 0) {
+            return badRequest();
+        }
 
-        DistributedLock lock = distributedLockManager.lock(resource, resourceId);
-        boolean ok = lock.tryLock(Duration.ofMillis(timeoutMs));
-        if (!ok) {
-            return ResponseEntity.ok(new DistributedLockResponse(resource, resourceId, DistributedLockStatus.FAILED));
+        DistributedLock lock;
+        try {
+            lock = distributedLockManager.lock(resource, resourceId, mode);
+        } catch (ResourceDrainingException e) {
+            return answer(HttpStatus.SERVICE_UNAVAILABLE,
+                    new DistributedLockResponse(resource, resourceId, mode, DistributedLockStatus.DRAINING, null));
+        }
+        CompletableFuture<Boolean> acquisition = inFlightLimiter.start(List.of(resource),
+                () -> lock.tryLockAsync(Duration.ofMillis(timeoutMs)));
+        if (acquisition == null) {
+            return answer(HttpStatus.TOO_MANY_REQUESTS,
+                    new DistributedLockResponse(resource, resourceId, mode, DistributedLockStatus.REJECTED, null));
         }
 
-        String lockKey = resource + "/" + resourceId;
-        heldLocks.put(lockKey, lock);
-        return ResponseEntity.ok(new DistributedLockResponse(resource, resourceId, DistributedLockStatus.ACQUIRED));
+        return respond(acquisition, timeoutMs,
+                () -> {
+                    String token = lock.token();
+                    String key = HeldLockRegistry.key(resource, resourceId);
+                    LeaseTimerWheel.Lease lease = lease(leaseMs, () -> {
+                        if (heldLocks.expired(key, mode, lock)) {
+                            expired(List.of(resource), token, lock::unlockAsync);
+                        }
+                    });
+                    heldLocks.held(key, mode, lock, token, lease);
+                    startLease(lease, leaseMs);
+                    return new DistributedLockResponse(resource, resourceId, mode, DistributedLockStatus.ACQUIRED, token);
+                },
+                lock::unlockAsync,
+                new DistributedLockResponse(resource, resourceId, mode, DistributedLockStatus.FAILED, null),
+                new DistributedLockResponse(resource, resourceId, mode, DistributedLockStatus.ESTIMATED_TIMEOUT, null),
+                new DistributedLockResponse(resource, resourceId, mode, DistributedLockStatus.REJECTED, null));
     }
 
     @PostMapping("/{resource}/release")
-    public ResponseEntity<DistributedLockResponse> release(
+    public DeferredResult<ResponseEntity<DistributedLockResponse>> release(
+            @PathVariable("resource") String resource,
+            @RequestParam(name = "resourceId") String resourceId,
+            @RequestParam(name = "mode", defaultValue = "EXCLUSIVE") LockMode mode,
+            @RequestParam(name = "token", required = false) String token
+    ) {
+        return release(token,
+                () -> heldLocks.remove(HeldLockRegistry.key(resource, resourceId), mode),
+                DistributedLock::unlock,
+                new DistributedLockResponse(resource, resourceId, mode, DistributedLockStatus.RELEASED, null),
+                new DistributedLockResponse(resource, resourceId, mode, DistributedLockStatus.NOT_HELD, null));
+    }
+
+    @PostMapping("/{resource}/renew")
+    public ResponseEntity<DistributedLockResponse> renew(
             @PathVariable("resource") String resource,
-            @RequestParam(name = "resourceId") String resourceId
+            @RequestParam(name = "resourceId") String resourceId,
+            @RequestParam(name = "mode", defaultValue = "EXCLUSIVE") LockMode mode,
+            @RequestParam(name = "token", required = false) String token,
+            @RequestParam(name = "leaseMs") long leaseMs
     ) {
-        String lockKey = resource + "/" + resourceId;
-        try (DistributedLock lock = heldLocks.remove(lockKey)) {
-            if (lock == null) {
-                return ResponseEntity.ok(new DistributedLockResponse(resource, resourceId, DistributedLockStatus.NOT_HELD));
+        if (leaseMs <= 0) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        boolean renewed = heldLocks.renew(HeldLockRegistry.key(resource, resourceId), mode, token, Duration.ofMillis(leaseMs));
+        return ResponseEntity.ok(new DistributedLockResponse(resource, resourceId, mode,
+                renewed ? DistributedLockStatus.RENEWED : DistributedLockStatus.NOT_HELD, null));
+    }
+
+    @PostMapping("/batch/acquire")
+    public DeferredResult<ResponseEntity<DistributedLockBatchResponse>> acquireAll(
+            @RequestBody DistributedLockBatchRequest request
+    ) {
+        List<LockKey> keys = LockKey.canonical(request.keys());
+        Long leaseMs = request.leaseMs();
+        if (keys.isEmpty() || leaseMs != null && leaseMs <= 0) {
+            return badRequest();
+        }
+
+        DistributedLock lock;
+        try {
+            lock = distributedLockManager.lockAll(keys);
+        } catch (ResourceDrainingException e) {
+            return answer(HttpStatus.SERVICE_UNAVAILABLE,
+                    new DistributedLockBatchResponse(keys, DistributedLockStatus.DRAINING, null));
+        }
+        Set<String> resourceKinds = keys.stream()
+                .map(LockKey::resourceKind)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        CompletableFuture<Boolean> acquisition = inFlightLimiter.start(resourceKinds,
+                () -> lock.tryLockAsync(Duration.ofMillis(request.timeoutMs())));
+        if (acquisition == null) {
+            return answer(HttpStatus.TOO_MANY_REQUESTS,
+                    new DistributedLockBatchResponse(keys, DistributedLockStatus.REJECTED, null));
+        }
+
+        return respond(acquisition, request.timeoutMs(),
+                () -> {
+                    String token = lock.token();
+                    String key = batchKey(keys);
+                    LeaseTimerWheel.Lease lease = lease(leaseMs, () -> {
+                        if (heldLocks.expired(key, LockMode.EXCLUSIVE, lock)) {
+                            expired(resourceKinds, token, lock::unlockAsync);
+                        }
+                    });
+                    heldLocks.held(key, LockMode.EXCLUSIVE, lock, token, lease);
+                    startLease(lease, leaseMs);
+                    return new DistributedLockBatchResponse(keys, DistributedLockStatus.ACQUIRED, token);
+                },
+                lock::unlockAsync,
+                new DistributedLockBatchResponse(keys, DistributedLockStatus.FAILED, null),
+                new DistributedLockBatchResponse(keys, DistributedLockStatus.ESTIMATED_TIMEOUT, null),
+                new DistributedLockBatchResponse(keys, DistributedLockStatus.REJECTED, null));
+    }
+
+    @PostMapping("/batch/release")
+    public DeferredResult<ResponseEntity<DistributedLockBatchResponse>> releaseAll(
+            @RequestBody DistributedLockBatchRequest request,
+            @RequestParam(name = "token", required = false) String token
+    ) {
+        List<LockKey> keys = LockKey.canonical(request.keys());
+        return release(token,
+                () -> heldLocks.remove(batchKey(keys), LockMode.EXCLUSIVE),
+                DistributedLock::unlock,
+                new DistributedLockBatchResponse(keys, DistributedLockStatus.RELEASED, null),
+                new DistributedLockBatchResponse(keys, DistributedLockStatus.NOT_HELD, null));
+    }
+
+    @PostMapping("/batch/renew")
+    public ResponseEntity<DistributedLockBatchResponse> renewAll(
+            @RequestBody DistributedLockBatchRequest request,
+            @RequestParam(name = "token", required = false) String token
+    ) {
+        List<LockKey> keys = LockKey.canonical(request.keys());
+        Long leaseMs = request.leaseMs();
+        if (keys.isEmpty() || leaseMs == null || leaseMs <= 0) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        boolean renewed = heldLocks.renew(batchKey(keys), LockMode.EXCLUSIVE, token, Duration.ofMillis(leaseMs));
+        return ResponseEntity.ok(new DistributedLockBatchResponse(keys,
+                renewed ? DistributedLockStatus.RENEWED : DistributedLockStatus.NOT_HELD, null));
+    }
+
+    /**
+     * Answers from the completion of the acquisition rather than from a servlet thread, so a
+     * waiting request holds none.
+     * <p>
+     * The request outlives the lock timeout by a margin, so that the timeout is normally answered
+     * with {@code FAILED}, or {@code ESTIMATED_TIMEOUT} when it was given up on early. A backend
+     * that has no room for another waiting acquisition is answered with {@code REJECTED}. If the
+     * request still times out, or the connection fails, the acquisition is cancelled, and a lock
+     * acquired once nobody is waiting for it is given back at once.
+     *
+     * @param hold     records the acquired lock for a later release call and answers with its token
+     * @param giveBack releases the acquired lock when the request is already gone
+     */
+    private static <T> DeferredResult<ResponseEntity<T>> respond(CompletableFuture<Boolean> acquisition, long timeoutMs,
+                                                                 Supplier<T> hold, Runnable giveBack, T failed,
+                                                                 T estimatedTimeout, T rejected) {
+        DeferredResult<ResponseEntity<T>> result = new DeferredResult<>(Math.max(0, timeoutMs) + ASYNC_TIMEOUT_MARGIN.toMillis());
+        result.onTimeout(() -> acquisition.cancel(false));
+        result.onError(error -> acquisition.cancel(false));
+
+        acquisition.whenComplete((ok, error) -> {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (cause instanceof EstimatedTimeoutException) {
+                result.setResult(ResponseEntity.ok(estimatedTimeout));
+            } else if (cause instanceof RejectedExecutionException) {
+                result.setResult(ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).body(rejected));
+            } else if (error != null) {
+                result.setErrorResult(error);
+            } else if (!ok) {
+                result.setResult(ResponseEntity.ok(failed));
+            } else if (result.isSetOrExpired()) {
+                // the caller is gone and will never release it
+                giveBack.run();
+            } else {
+                result.setResult(ResponseEntity.ok(hold.get()));
             }
-            lock.unlock();
-            return ResponseEntity.ok(new DistributedLockResponse(resource, resourceId, DistributedLockStatus.RELEASED));
+        });
+        return result;
+    }
+
+    /**
+     * Releases by token whenever there is one, the given one or the one cached with the hold, so
+     * that the release reaches the hold from any instance and can never release a later hold of
+     * the same resource. Only holds without a token are released through their handle.
+     *
+     * @param token  the token of the request, {@code null} to release the hold cached under the key
+     * @param cached removes the hold cached under the key
+     * @param unlock releases a hold without a token through its handle
+     */
+    private <H, T> DeferredResult<ResponseEntity<T>> release(String token, Supplier<HeldLockRegistry.Held<H>> cached,
+                                                            Consumer<H> unlock, T released, T notHeld) {
+        DeferredResult<ResponseEntity<T>> result = new DeferredResult<>();
+        CompletableFuture<Boolean> release;
+        try {
+            if (token != null) {
+                heldLocks.forget(token);
+                release = distributedLockManager.releaseAsync(token);
+            } else {
+                HeldLockRegistry.Held<H> held = cached.get();
+                if (held == null) {
+                    release = CompletableFuture.completedFuture(false);
+                } else if (held.token() != null) {
+                    release = distributedLockManager.releaseAsync(held.token());
+                } else {
+                    unlock.accept(held.handle());
+                    release = CompletableFuture.completedFuture(true);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // not a token of this backend
+            result.setResult(ResponseEntity.badRequest().build());
+            return result;
+        }
+
+        release.whenComplete((ok, error) -> {
+            if (error instanceof UnsupportedOperationException) {
+                result.setResult(ResponseEntity.badRequest().build());
+            } else if (error != null) {
+                result.setErrorResult(error);
+            } else {
+                result.setResult(ResponseEntity.ok(ok ? released : notHeld));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * The lease of a hold acquired with a {@code leaseMs}, to be started once the hold is cached.
+     *
+     * @param onExpiry releases the hold, if it is still cached
+     */
+    private LeaseTimerWheel.Lease lease(Long leaseMs, Runnable onExpiry) {
+        return leaseMs != null ? leases.lease(onExpiry) : null;
+    }
+
+    private static void startLease(LeaseTimerWheel.Lease lease, Long leaseMs) {
+        if (lease != null) {
+            lease.renew(Duration.ofMillis(leaseMs));
         }
     }
 
+    /**
+     * Releases a hold whose lease ran out, by token whenever there is one, like a release call.
+     * Runs on the lease wheel, so the release is only started.
+     */
+    private void expired(Collection<String> resourceKinds, String token, Supplier<CompletableFuture<Void>> unlock) {
+        resourceKinds.forEach(metrics::leaseExpired);
+        CompletableFuture<?> release;
+        try {
+            release = token != null ? distributedLockManager.releaseAsync(token) : unlock.get();
+        } catch (RuntimeException e) {
+            release = CompletableFuture.failedFuture(e);
+        }
+        release.whenComplete((ignored, error) -> {
+            if (error != null) {
+                log.warn("Could not release a hold whose lease ran out", error);
+            }
+        });
+    }
+
+    private static <T> DeferredResult<ResponseEntity<T>> badRequest() {
+        DeferredResult<ResponseEntity<T>> result = new DeferredResult<>();
+        result.setResult(ResponseEntity.badRequest().build());
+        return result;
+    }
+
+    private static <T> DeferredResult<ResponseEntity<T>> answer(HttpStatus status, T body) {
+        DeferredResult<ResponseEntity<T>> result = new DeferredResult<>();
+        result.setResult(ResponseEntity.status(status).body(body));
+        return result;
+    }
+
+    /**
+     * A batch is held under its canonical key list, so it is released with the same keys in any order.
+     */
+    private static String batchKey(List<LockKey> canonicalKeys) {
+        return canonicalKeys.stream()
+                .map(LockKey::toString)
+                .collect(Collectors.joining("+"));
+    }
+
 }
@@ -0,0 +1,80 @@
+package io.sagittarius.clastor.distributedlock.app.controller;
+
+import io.sagittarius.clastor.distributedlock.app.model.LockRotationInfo;
+import io.sagittarius.clastor.distributedlock.app.model.ResourceModeInfo;
+import io.sagittarius.clastor.distributedlock.domain.DistributedLockManager;
+import io.sagittarius.clastor.distributedlock.domain.ResourceMode;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Administration of the lock namespaces: the mode of a resource kind and version rotations,
+ * which replace the {@code rotate_lock_version.sh} script.
+ * <p>
+ * A rotation answers once it is done: {@code 200} with the versions, {@code 409} if the kind did
+ * not drain in time (it is then reopened on its current version) or changed concurrently.
+ */
+@Slf4j
+@RestController
+@RequestMapping("api/v1/admin/locks")
+@RequiredArgsConstructor
+public class LockSchemaController {
+
+    private static final Duration ASYNC_TIMEOUT_MARGIN = Duration.ofSeconds(5);
+
+    private final DistributedLockManager distributedLockManager;
+
+    @GetMapping("/{resource}/mode")
+    public ResponseEntity<ResourceModeInfo> getMode(@PathVariable("resource") String resource) {
+        return ResponseEntity.ok(new ResourceModeInfo(resource, distributedLockManager.schemaManager().mode(resource)));
+    }
+
+    @PutMapping("/{resource}/mode")
+    public ResponseEntity<ResourceModeInfo> setMode(
+            @PathVariable("resource") String resource,
+            @RequestParam(name = "mode") ResourceMode mode
+    ) {
+        distributedLockManager.schemaManager().setMode(resource, mode);
+        return ResponseEntity.ok(new ResourceModeInfo(resource, mode));
+    }
+
+    @PostMapping("/{resource}/rotate")
+    public DeferredResult<ResponseEntity<LockRotationInfo>> rotate(
+            @PathVariable("resource") String resource,
+            @RequestParam(name = "version") String version,
+            @RequestParam(name = "drainTimeoutMs", defaultValue = "60000") long drainTimeoutMs
+    ) {
+        DeferredResult<ResponseEntity<LockRotationInfo>> result =
+                new DeferredResult<>(Math.max(0, drainTimeoutMs) + ASYNC_TIMEOUT_MARGIN.toMillis());
+        CompletableFuture<String> rotation;
+        try {
+            rotation = distributedLockManager.schemaManager()
+                    .rotate(resource, version, Duration.ofMillis(Math.max(0, drainTimeoutMs)));
+        } catch (IllegalArgumentException e) {
+            result.setResult(ResponseEntity.badRequest().build());
+            return result;
+        }
+
+        rotation.whenComplete((previousVersion, error) -> {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (cause == null) {
+                result.setResult(ResponseEntity.ok(new LockRotationInfo(resource, previousVersion, version)));
+            } else if (cause instanceof TimeoutException || cause instanceof IllegalStateException) {
+                log.warn("Rotation of {} to {} failed: {}", resource, version, cause.getMessage());
+                result.setResult(ResponseEntity.status(HttpStatus.CONFLICT).build());
+            } else {
+                result.setErrorResult(cause);
+            }
+        });
+        return result;
+    }
+}
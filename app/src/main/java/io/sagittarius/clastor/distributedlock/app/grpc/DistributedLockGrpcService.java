@@ -0,0 +1,134 @@
+package io.sagittarius.clastor.distributedlock.app.grpc;
+
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import io.sagittarius.clastor.distributedlock.app.grpc.v1.AcquireRequest;
+import io.sagittarius.clastor.distributedlock.app.grpc.v1.DistributedLockServiceGrpc;
+import io.sagittarius.clastor.distributedlock.app.grpc.v1.LockResult;
+import io.sagittarius.clastor.distributedlock.app.grpc.v1.LockStatus;
+import io.sagittarius.clastor.distributedlock.app.grpc.v1.ReleaseRequest;
+import io.sagittarius.clastor.distributedlock.app.grpc.v1.SessionRequest;
+import io.sagittarius.clastor.distributedlock.app.grpc.v1.SessionResponse;
+import io.sagittarius.clastor.distributedlock.app.registry.HeldLockRegistry;
+import io.sagittarius.clastor.distributedlock.domain.DistributedLock;
+import io.sagittarius.clastor.distributedlock.domain.DistributedLockManager;
+import io.sagittarius.clastor.distributedlock.domain.LockMode;
+import io.sagittarius.clastor.distributedlock.domain.ResourceDrainingException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * gRPC counterpart of the REST controller. Acquisitions run on the asynchronous lock API and
+ * answer from its completion, so a waiting call holds no server thread.
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class DistributedLockGrpcService extends DistributedLockServiceGrpc.DistributedLockServiceImplBase {
+
+    private final DistributedLockManager distributedLockManager;
+    private final HeldLockRegistry heldLocks;
+
+    @Override
+    public void acquire(AcquireRequest request, StreamObserver<LockResult> responseObserver) {
+        if (request.getResourceKind().isEmpty() || request.getResourceId().isEmpty()) {
+            responseObserver.onError(Status.INVALID_ARGUMENT
+                    .withDescription("resource_kind and resource_id are required")
+                    .asRuntimeException());
+            return;
+        }
+
+        ServerCallStreamObserver<LockResult> call = (ServerCallStreamObserver<LockResult>) responseObserver;
+        LockMode mode = GrpcMessages.mode(request.getMode());
+        DistributedLock lock;
+        try {
+            lock = distributedLockManager.lock(request.getResourceKind(), request.getResourceId(), mode);
+        } catch (ResourceDrainingException e) {
+            responseObserver.onError(Status.UNAVAILABLE.withDescription(e.getMessage()).asRuntimeException());
+            return;
+        }
+        CompletableFuture<Boolean> acquisition = lock.tryLockAsync(GrpcMessages.timeout(request.getTimeoutMs()));
+        call.setOnCancelHandler(() -> acquisition.cancel(false));
+
+        acquisition.whenComplete((acquired, error) -> {
+            if (call.isCancelled()) {
+                if (Boolean.TRUE.equals(acquired)) {
+                    // the caller is gone and will never release it
+                    lock.unlockAsync();
+                }
+                return;
+            }
+            if (GrpcMessages.estimatedTimeout(error)) {
+                call.onNext(GrpcMessages.result(request.getResourceKind(), request.getResourceId(), request.getMode(),
+                        LockStatus.LOCK_STATUS_ESTIMATED_TIMEOUT));
+                call.onCompleted();
+                return;
+            }
+            if (error != null) {
+                log.error("Failed to acquire {}/{} over gRPC", request.getResourceKind(), request.getResourceId(), error);
+                call.onError(Status.INTERNAL.withDescription("Failed to acquire lock").withCause(error).asRuntimeException());
+                return;
+            }
+
+            LockResult result;
+            if (acquired) {
+                String token = lock.token();
+                heldLocks.held(HeldLockRegistry.key(request.getResourceKind(), request.getResourceId()), mode, lock, token);
+                result = GrpcMessages.result(request.getResourceKind(), request.getResourceId(), request.getMode(),
+                        LockStatus.LOCK_STATUS_ACQUIRED).toBuilder()
+                        .setToken(token != null ? token : "")
+                        .build();
+            } else {
+                result = GrpcMessages.result(request.getResourceKind(), request.getResourceId(), request.getMode(),
+                        LockStatus.LOCK_STATUS_FAILED);
+            }
+            call.onNext(result);
+            call.onCompleted();
+        });
+    }
+
+    /**
+     * Releases by token when there is one, given or cached with the hold, like the REST API.
+     */
+    @Override
+    public void release(ReleaseRequest request, StreamObserver<LockResult> responseObserver) {
+        CompletableFuture<Boolean> release;
+        try {
+            if (!request.getToken().isEmpty()) {
+                heldLocks.forget(request.getToken());
+                release = distributedLockManager.releaseAsync(request.getToken());
+            } else {
+                String key = HeldLockRegistry.key(request.getResourceKind(), request.getResourceId());
+                HeldLockRegistry.Held<DistributedLock> held = heldLocks.remove(key, GrpcMessages.mode(request.getMode()));
+                if (held == null) {
+                    release = CompletableFuture.completedFuture(false);
+                } else if (held.token() != null) {
+                    release = distributedLockManager.releaseAsync(held.token());
+                } else {
+                    release = held.handle().unlockAsync().thenApply(ignored -> true);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
+            return;
+        }
+
+        release.whenComplete((released, error) -> {
+            if (error != null) {
+                responseObserver.onNext(GrpcMessages.error(request.getResourceKind(), request.getResourceId(),
+                        request.getMode(), error));
+            } else {
+                responseObserver.onNext(GrpcMessages.result(request.getResourceKind(), request.getResourceId(),
+                        request.getMode(), released ? LockStatus.LOCK_STATUS_RELEASED : LockStatus.LOCK_STATUS_NOT_HELD));
+            }
+            responseObserver.onCompleted();
+        });
+    }
+
+    @Override
+    public StreamObserver<SessionRequest> session(StreamObserver<SessionResponse> responseObserver) {
+        return new LockSession(distributedLockManager, (ServerCallStreamObserver<SessionResponse>) responseObserver);
+    }
+}
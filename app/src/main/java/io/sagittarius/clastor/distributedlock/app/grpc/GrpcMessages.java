@@ -0,0 +1,61 @@
+package io.sagittarius.clastor.distributedlock.app.grpc;
+
+import io.sagittarius.clastor.distributedlock.app.grpc.v1.LockResult;
+import io.sagittarius.clastor.distributedlock.app.grpc.v1.LockStatus;
+import io.sagittarius.clastor.distributedlock.domain.EstimatedTimeoutException;
+import io.sagittarius.clastor.distributedlock.domain.LockMode;
+
+import java.time.Duration;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Conversions between the protocol messages and the domain.
+ */
+final class GrpcMessages {
+
+    static final Duration DEFAULT_TIMEOUT = Duration.ofMillis(5000);
+
+    private GrpcMessages() {
+    }
+
+    static LockMode mode(io.sagittarius.clastor.distributedlock.app.grpc.v1.LockMode mode) {
+        return mode == io.sagittarius.clastor.distributedlock.app.grpc.v1.LockMode.LOCK_MODE_SHARED
+                ? LockMode.SHARED
+                : LockMode.EXCLUSIVE;
+    }
+
+    static Duration timeout(long timeoutMs) {
+        return timeoutMs > 0 ? Duration.ofMillis(timeoutMs) : DEFAULT_TIMEOUT;
+    }
+
+    static LockResult result(String resourceKind, String resourceId,
+                             io.sagittarius.clastor.distributedlock.app.grpc.v1.LockMode mode, LockStatus status) {
+        return LockResult.newBuilder()
+                .setResourceKind(resourceKind)
+                .setResourceId(resourceId)
+                .setMode(mode)
+                .setStatus(status)
+                .build();
+    }
+
+    /**
+     * Whether an acquisition failed by being given up on its predicted wait, which is answered
+     * with a status rather than as an error.
+     */
+    static boolean estimatedTimeout(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause instanceof EstimatedTimeoutException;
+    }
+
+    static LockResult error(String resourceKind, String resourceId,
+                            io.sagittarius.clastor.distributedlock.app.grpc.v1.LockMode mode, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return LockResult.newBuilder()
+                .setResourceKind(resourceKind)
+                .setResourceId(resourceId)
+                .setMode(mode)
+                .setStatus(LockStatus.LOCK_STATUS_ERROR)
+                .setError(String.valueOf(cause.getMessage()))
+                .build();
+    }
+}
@@ -0,0 +1,212 @@
+package io.sagittarius.clastor.distributedlock.app.grpc;
+
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import io.sagittarius.clastor.distributedlock.app.grpc.v1.AcquireRequest;
+import io.sagittarius.clastor.distributedlock.app.grpc.v1.LockResult;
+import io.sagittarius.clastor.distributedlock.app.grpc.v1.LockStatus;
+import io.sagittarius.clastor.distributedlock.app.grpc.v1.ReleaseRequest;
+import io.sagittarius.clastor.distributedlock.app.grpc.v1.SessionRequest;
+import io.sagittarius.clastor.distributedlock.app.grpc.v1.SessionResponse;
+import io.sagittarius.clastor.distributedlock.app.registry.HeldLockRegistry;
+import io.sagittarius.clastor.distributedlock.domain.DistributedLock;
+import io.sagittarius.clastor.distributedlock.domain.DistributedLockManager;
+import io.sagittarius.clastor.distributedlock.domain.LockMode;
+import io.sagittarius.clastor.distributedlock.domain.ResourceDrainingException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One bidirectional session stream. Operations are started as they arrive and answered as they
+ * complete, so a slow acquisition does not hold up the ones behind it.
+ * <p>
+ * The locks belong to the stream, not to the {@link HeldLockRegistry}: when the stream ends for
+ * any reason, pending acquisitions are cancelled and every held lock is released.
+ */
+@Slf4j
+final class LockSession implements StreamObserver<SessionRequest> {
+
+    private final DistributedLockManager distributedLockManager;
+    private final ServerCallStreamObserver<SessionResponse> responses;
+
+    // all guarded by this
+    private final Map<String, DistributedLock> exclusiveLocks = new HashMap<>();
+    private final Map<String, Queue<DistributedLock>> sharedLocks = new HashMap<>();
+    private final Set<CompletableFuture<Boolean>> pending = new HashSet<>();
+    private boolean closed;
+
+    // guarded by responses
+    private boolean completed;
+
+    LockSession(DistributedLockManager distributedLockManager, ServerCallStreamObserver<SessionResponse> responses) {
+        this.distributedLockManager = distributedLockManager;
+        this.responses = responses;
+        responses.setOnCancelHandler(this::close);
+    }
+
+    @Override
+    public void onNext(SessionRequest request) {
+        switch (request.getOperationCase()) {
+            case ACQUIRE -> acquire(request.getRequestId(), request.getAcquire());
+            case RELEASE -> release(request.getRequestId(), request.getRelease());
+            default -> send(request.getRequestId(), LockResult.newBuilder()
+                    .setStatus(LockStatus.LOCK_STATUS_ERROR)
+                    .setError("No operation in request")
+                    .build());
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        log.debug("Lock session stream failed: {}", t.toString());
+        close();
+    }
+
+    @Override
+    public void onCompleted() {
+        close();
+        synchronized (responses) {
+            completed = true;
+            responses.onCompleted();
+        }
+    }
+
+    private void acquire(long requestId, AcquireRequest request) {
+        if (request.getResourceKind().isEmpty() || request.getResourceId().isEmpty()) {
+            send(requestId, GrpcMessages.error(request.getResourceKind(), request.getResourceId(), request.getMode(),
+                    new IllegalArgumentException("resource_kind and resource_id are required")));
+            return;
+        }
+
+        LockMode mode = GrpcMessages.mode(request.getMode());
+        DistributedLock lock;
+        try {
+            lock = distributedLockManager.lock(request.getResourceKind(), request.getResourceId(), mode);
+        } catch (ResourceDrainingException e) {
+            send(requestId, GrpcMessages.error(request.getResourceKind(), request.getResourceId(), request.getMode(), e));
+            return;
+        }
+        CompletableFuture<Boolean> acquisition = lock.tryLockAsync(GrpcMessages.timeout(request.getTimeoutMs()));
+        synchronized (this) {
+            if (closed) {
+                acquisition.cancel(false);
+                return;
+            }
+            pending.add(acquisition);
+        }
+
+        acquisition.whenComplete((acquired, error) -> {
+            String key = HeldLockRegistry.key(request.getResourceKind(), request.getResourceId());
+            synchronized (this) {
+                pending.remove(acquisition);
+                if (closed) {
+                    if (Boolean.TRUE.equals(acquired)) {
+                        lock.unlockAsync();
+                    }
+                    return;
+                }
+                if (Boolean.TRUE.equals(acquired)) {
+                    if (mode == LockMode.SHARED) {
+                        sharedLocks.computeIfAbsent(key, k -> new ArrayDeque<>()).add(lock);
+                    } else {
+                        exclusiveLocks.put(key, lock);
+                    }
+                }
+            }
+
+            if (GrpcMessages.estimatedTimeout(error)) {
+                send(requestId, GrpcMessages.result(request.getResourceKind(), request.getResourceId(), request.getMode(),
+                        LockStatus.LOCK_STATUS_ESTIMATED_TIMEOUT));
+            } else if (error != null) {
+                log.error("Failed to acquire {} in a gRPC session", key, error);
+                send(requestId, GrpcMessages.error(request.getResourceKind(), request.getResourceId(), request.getMode(), error));
+            } else {
+                send(requestId, GrpcMessages.result(request.getResourceKind(), request.getResourceId(), request.getMode(),
+                        acquired ? LockStatus.LOCK_STATUS_ACQUIRED : LockStatus.LOCK_STATUS_FAILED));
+            }
+        });
+    }
+
+    private void release(long requestId, ReleaseRequest request) {
+        String key = HeldLockRegistry.key(request.getResourceKind(), request.getResourceId());
+        DistributedLock lock;
+        synchronized (this) {
+            lock = GrpcMessages.mode(request.getMode()) == LockMode.SHARED
+                    ? pollShared(key)
+                    : exclusiveLocks.remove(key);
+        }
+        if (lock == null) {
+            send(requestId, GrpcMessages.result(request.getResourceKind(), request.getResourceId(), request.getMode(),
+                    LockStatus.LOCK_STATUS_NOT_HELD));
+            return;
+        }
+
+        lock.unlockAsync().whenComplete((ignored, error) -> send(requestId, error != null
+                ? GrpcMessages.error(request.getResourceKind(), request.getResourceId(), request.getMode(), error)
+                : GrpcMessages.result(request.getResourceKind(), request.getResourceId(), request.getMode(),
+                        LockStatus.LOCK_STATUS_RELEASED)));
+    }
+
+    // guarded by this
+    private DistributedLock pollShared(String key) {
+        Queue<DistributedLock> holders = sharedLocks.get(key);
+        if (holders == null) {
+            return null;
+        }
+        DistributedLock lock = holders.poll();
+        if (holders.isEmpty()) {
+            sharedLocks.remove(key);
+        }
+        return lock;
+    }
+
+    /**
+     * Ends the session: pending acquisitions are cancelled and held locks released.
+     */
+    private void close() {
+        List<CompletableFuture<Boolean>> cancelled;
+        List<DistributedLock> released = new ArrayList<>();
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            cancelled = new ArrayList<>(pending);
+            pending.clear();
+            released.addAll(exclusiveLocks.values());
+            sharedLocks.values().forEach(released::addAll);
+            exclusiveLocks.clear();
+            sharedLocks.clear();
+        }
+
+        cancelled.forEach(acquisition -> acquisition.cancel(false));
+        if (!released.isEmpty()) {
+            log.debug("Lock session closed, releasing {} locks", released.size());
+        }
+        released.forEach(DistributedLock::unlockAsync);
+    }
+
+    /**
+     * Responses come from ZooKeeper callbacks on any thread, the observer is not thread-safe.
+     */
+    private void send(long requestId, LockResult result) {
+        synchronized (responses) {
+            if (completed || responses.isCancelled()) {
+                return;
+            }
+            responses.onNext(SessionResponse.newBuilder()
+                    .setRequestId(requestId)
+                    .setResult(result)
+                    .build());
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package io.sagittarius.clastor.distributedlock.app.lease;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Expires the leases of holds taken through the stateless APIs, on a hashed timing wheel.
+ * <p>
+ * Starting, renewing and cancelling a lease is O(1) and never blocks on the wheel: new and
+ * cancelled leases are handed to the wheel thread through queues, and a renewal that pushes the
+ * deadline out only moves the deadline, the lease being moved to its new bucket once the wheel
+ * reaches the old one. A tick visits a single bucket, so hundreds of thousands of leases spread
+ * over the wheel cost each tick a few hundred checks at most.
+ * <p>
+ * Expiry callbacks run on the wheel thread and must not block.
+ */
+@Slf4j
+public class LeaseTimerWheel implements AutoCloseable {
+
+    public static final Duration DEFAULT_TICK = Duration.ofMillis(100);
+    public static final int DEFAULT_WHEEL_SIZE = 1024;
+
+    private static final int IDLE = 0;
+    private static final int ACTIVE = 1;
+    private static final int CANCELLED = 2;
+    private static final int EXPIRED = 3;
+
+    private final long tickNanos;
+    private final Lease[] buckets;
+    private final int mask;
+    private final long startNanos = System.nanoTime();
+
+    private final Queue<Lease> scheduled = new ConcurrentLinkedQueue<>();
+    private final Queue<Lease> cancelled = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger active = new AtomicInteger();
+    private final Thread worker;
+    private volatile boolean closed;
+
+    // only touched from the wheel thread: the tick being processed, and the leases of its bucket
+    // that were renewed, moved once it is done so that none lands back in it a rotation late
+    private long tick;
+    private final List<Lease> renewed = new ArrayList<>();
+
+    public LeaseTimerWheel() {
+        this(DEFAULT_TICK, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * @param tick      how often expired leases are looked for, i.e. how late a lease may expire
+     * @param wheelSize the number of buckets, rounded up to a power of two
+     */
+    public LeaseTimerWheel(Duration tick, int wheelSize) {
+        if (tick.isZero() || tick.isNegative()) {
+            throw new IllegalArgumentException("The tick must be positive: " + tick);
+        }
+        this.tickNanos = tick.toNanos();
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.buckets = new Lease[size];
+        this.mask = size - 1;
+
+        this.worker = new Thread(this::run, "lock-lease-wheel");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Creates a lease that runs once {@link Lease#renew(Duration) renewed} the first time, so that
+     * whatever its expiry callback looks for can be set up before it may be called.
+     *
+     * @param onExpiry called once it has run out
+     */
+    public Lease lease(Runnable onExpiry) {
+        return new Lease(onExpiry);
+    }
+
+    /**
+     * @return the number of leases neither expired nor cancelled
+     */
+    public int active() {
+        return active.get();
+    }
+
+    private void run() {
+        while (!closed) {
+            long waitNanos = startNanos + (tick + 1) * tickNanos - System.nanoTime();
+            if (waitNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+
+            Lease lease;
+            while ((lease = cancelled.poll()) != null) {
+                unlink(lease);
+            }
+            long now = System.nanoTime();
+            while ((lease = scheduled.poll()) != null) {
+                unlink(lease);
+                if (lease.state == ACTIVE) {
+                    insert(lease);
+                }
+            }
+            expire((int) (tick & mask), now);
+            tick++;
+            for (Lease moved : renewed) {
+                insert(moved);
+            }
+            renewed.clear();
+        }
+    }
+
+    private void expire(int bucket, long now) {
+        Lease lease = buckets[bucket];
+        while (lease != null) {
+            Lease next = lease.next;
+            if (lease.rounds > 0) {
+                lease.rounds--;
+            } else {
+                unlink(lease);
+                if (lease.expireIfDue(now)) {
+                    active.decrementAndGet();
+                    try {
+                        lease.onExpiry.run();
+                    } catch (RuntimeException e) {
+                        log.warn("Lease expiry callback failed", e);
+                    }
+                } else if (lease.state == ACTIVE) {
+                    // renewed since it was placed here
+                    renewed.add(lease);
+                }
+            }
+            lease = next;
+        }
+    }
+
+    private void insert(Lease lease) {
+        // tick t is processed once t + 1 ticks have passed since the start
+        long dueTick = Math.max(tick, Math.floorDiv(lease.deadline() - startNanos - 1, tickNanos));
+        int bucket = (int) (dueTick & mask);
+        lease.rounds = (dueTick - tick) / buckets.length;
+        lease.bucket = bucket;
+        lease.prev = null;
+        lease.next = buckets[bucket];
+        if (lease.next != null) {
+            lease.next.prev = lease;
+        }
+        buckets[bucket] = lease;
+    }
+
+    private void unlink(Lease lease) {
+        if (lease.bucket < 0) {
+            return;
+        }
+        if (lease.prev != null) {
+            lease.prev.next = lease.next;
+        } else {
+            buckets[lease.bucket] = lease.next;
+        }
+        if (lease.next != null) {
+            lease.next.prev = lease.prev;
+        }
+        lease.prev = null;
+        lease.next = null;
+        lease.bucket = -1;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        worker.interrupt();
+    }
+
+    /**
+     * A lease, running from its first renewal until it expires or is cancelled.
+     */
+    public final class Lease {
+
+        private final Runnable onExpiry;
+
+        // guarded by this, the state is also read by the wheel thread without it
+        private long deadlineNanos;
+        private volatile int state = IDLE;
+
+        // only touched from the wheel thread
+        private int bucket = -1;
+        private long rounds;
+        private Lease prev;
+        private Lease next;
+
+        private Lease(Runnable onExpiry) {
+            this.onExpiry = onExpiry;
+        }
+
+        /**
+         * Runs the lease for the given duration from now on, starting it the first time.
+         *
+         * @return {@code false} if it has already expired or been cancelled
+         */
+        public boolean renew(Duration duration) {
+            long deadline = System.nanoTime() + duration.toNanos();
+            boolean schedule;
+            synchronized (this) {
+                if (state == IDLE) {
+                    state = ACTIVE;
+                    active.incrementAndGet();
+                    schedule = true;
+                } else if (state == ACTIVE) {
+                    // otherwise its bucket would be reached too late
+                    schedule = deadline < deadlineNanos;
+                } else {
+                    return false;
+                }
+                deadlineNanos = deadline;
+            }
+            if (schedule) {
+                scheduled.add(this);
+            }
+            return true;
+        }
+
+        /**
+         * Ends the lease without calling its expiry callback.
+         *
+         * @return {@code false} if it had already expired or been cancelled
+         */
+        public boolean cancel() {
+            synchronized (this) {
+                if (state == IDLE) {
+                    state = CANCELLED;
+                    return true;
+                }
+                if (state != ACTIVE) {
+                    return false;
+                }
+                state = CANCELLED;
+            }
+            active.decrementAndGet();
+            cancelled.add(this);
+            return true;
+        }
+
+        private synchronized long deadline() {
+            return deadlineNanos;
+        }
+
+        private synchronized boolean expireIfDue(long now) {
+            if (state != ACTIVE || deadlineNanos - now > 0) {
+                return false;
+            }
+            state = EXPIRED;
+            return true;
+        }
+    }
+}
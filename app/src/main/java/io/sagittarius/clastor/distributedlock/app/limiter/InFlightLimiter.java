@@ -0,0 +1,92 @@
+package io.sagittarius.clastor.distributedlock.app.limiter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Caps the acquisitions waiting at the same time per resource kind, so that a burst on one hot
+ * kind cannot pile up without bound while other kinds are still served. An acquisition over the
+ * cap is rejected at once instead of being queued.
+ */
+public class InFlightLimiter {
+
+    private final int defaultLimit;
+    private final Map<String, Integer> limits;
+    private final ConcurrentMap<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * @param defaultLimit the cap of the kinds without one of their own, {@code 0} or less for none
+     * @param limits       the caps of specific kinds
+     */
+    public InFlightLimiter(int defaultLimit, Map<String, Integer> limits) {
+        this.defaultLimit = defaultLimit;
+        this.limits = Map.copyOf(limits);
+    }
+
+    /**
+     * Starts an acquisition if none of its kinds is at its cap, and counts it against all of
+     * them until it completes.
+     *
+     * @param resourceKinds the distinct kinds of the resources acquired
+     * @param acquisition   starts the acquisition
+     * @return the started acquisition, or {@code null} if it was rejected
+     */
+    public <T> CompletableFuture<T> start(Collection<String> resourceKinds, Supplier<CompletableFuture<T>> acquisition) {
+        List<AtomicInteger> entered = new ArrayList<>(resourceKinds.size());
+        for (String resourceKind : resourceKinds) {
+            AtomicInteger counter = tryEnter(resourceKind);
+            if (counter == null) {
+                entered.forEach(AtomicInteger::decrementAndGet);
+                return null;
+            }
+            entered.add(counter);
+        }
+
+        CompletableFuture<T> started;
+        try {
+            started = acquisition.get();
+        } catch (RuntimeException e) {
+            entered.forEach(AtomicInteger::decrementAndGet);
+            throw e;
+        }
+        started.whenComplete((result, error) -> entered.forEach(AtomicInteger::decrementAndGet));
+        return started;
+    }
+
+    /**
+     * @return the number of acquisitions of the kind in flight
+     */
+    public int inFlight(String resourceKind) {
+        AtomicInteger counter = inFlight.get(resourceKind);
+        return counter != null ? counter.get() : 0;
+    }
+
+    private AtomicInteger tryEnter(String resourceKind) {
+        AtomicInteger counter = inFlight.get(resourceKind);
+        if (counter == null) {
+            counter = inFlight.computeIfAbsent(resourceKind, k -> new AtomicInteger());
+        }
+
+        int limit = limits.getOrDefault(resourceKind, defaultLimit);
+        if (limit <= 0) {
+            counter.incrementAndGet();
+            return counter;
+        }
+        while (true) {
+            int current = counter.get();
+            if (current >= limit) {
+                return null;
+            }
+            if (counter.compareAndSet(current, current + 1)) {
+                return counter;
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package io.sagittarius.clastor.distributedlock.app.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.sagittarius.clastor.distributedlock.domain.DistributedLockMetrics;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Publishes the adapter measurements as Micrometer meters, tagged by resource kind.
+ * <p>
+ * Meters are resolved once per kind and kept, so recording on the lock path is a map lookup
+ * and no meter registration.
+ */
+public class MicrometerDistributedLockMetrics implements DistributedLockMetrics {
+
+    private static final String PREFIX = "clastor.lock.";
+
+    private final MeterRegistry registry;
+    private final ConcurrentMap<String, KindMeters> kinds = new ConcurrentHashMap<>();
+    private volatile SessionState sessionState = SessionState.DISCONNECTED;
+
+    // meters only hold their source weakly, so the suppliers are kept here
+    private volatile LongSupplier versionCacheHits = () -> 0;
+    private volatile LongSupplier versionCacheMisses = () -> 0;
+    private volatile LongSupplier activeLeases = () -> 0;
+
+    private MicrometerDistributedLockMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Metrics publishing to the given registry, with the session state gauges registered. The
+     * gauges read the instance, so they are only registered once it is fully built.
+     */
+    public static MicrometerDistributedLockMetrics register(MeterRegistry registry) {
+        MicrometerDistributedLockMetrics metrics = new MicrometerDistributedLockMetrics(registry);
+        metrics.registerSessionState();
+        return metrics;
+    }
+
+    private void registerSessionState() {
+        for (SessionState state : SessionState.values()) {
+            Gauge.builder(PREFIX + "session.state", this, metrics -> metrics.sessionState == state ? 1 : 0)
+                    .description("1 for the current state of the coordination session, 0 for the others")
+                    .tag("state", tagValue(state))
+                    .register(registry);
+        }
+    }
+
+    @Override
+    public void acquireCompleted(String resourceKind, AcquireOutcome outcome, long durationNanos) {
+        meters(resourceKind).acquire.get(outcome).record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void enqueued(String resourceKind, int position) {
+        meters(resourceKind).queuePosition.record(position);
+    }
+
+    @Override
+    public void roundTrips(String resourceKind, int roundTrips) {
+        meters(resourceKind).roundTrips.record(roundTrips);
+    }
+
+    @Override
+    public void released(String resourceKind, long heldNanos) {
+        meters(resourceKind).hold.record(heldNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void sessionStateChanged(SessionState state) {
+        sessionState = state;
+    }
+
+    @Override
+    public void versionCache(LongSupplier hits, LongSupplier misses) {
+        versionCacheHits = hits;
+        versionCacheMisses = misses;
+        FunctionCounter.builder(PREFIX + "version.cache", this, metrics -> metrics.versionCacheHits.getAsLong())
+                .description("Version lookups by whether they were served from the cache")
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder(PREFIX + "version.cache", this, metrics -> metrics.versionCacheMisses.getAsLong())
+                .description("Version lookups by whether they were served from the cache")
+                .tag("result", "miss")
+                .register(registry);
+    }
+
+    @Override
+    public void leaseExpired(String resourceKind) {
+        meters(resourceKind).leaseExpired.increment();
+    }
+
+    @Override
+    public void leases(LongSupplier active) {
+        activeLeases = active;
+        Gauge.builder(PREFIX + "leases.active", this, metrics -> metrics.activeLeases.getAsLong())
+                .description("Holds of the stateless APIs with a running lease")
+                .register(registry);
+    }
+
+    private KindMeters meters(String resourceKind) {
+        KindMeters meters = kinds.get(resourceKind);
+        return meters != null ? meters : kinds.computeIfAbsent(resourceKind, KindMeters::new);
+    }
+
+    private static String tagValue(Enum<?> value) {
+        return value.name().toLowerCase(Locale.ROOT);
+    }
+
+    private final class KindMeters {
+
+        private final Map<AcquireOutcome, Timer> acquire = new EnumMap<>(AcquireOutcome.class);
+        private final Timer hold;
+        private final DistributionSummary queuePosition;
+        private final DistributionSummary roundTrips;
+        private final Counter leaseExpired;
+
+        private KindMeters(String resourceKind) {
+            for (AcquireOutcome outcome : AcquireOutcome.values()) {
+                acquire.put(outcome, Timer.builder(PREFIX + "acquire")
+                        .description("Time to acquire a lock, by outcome")
+                        .tag("kind", resourceKind)
+                        .tag("outcome", tagValue(outcome))
+                        .publishPercentileHistogram()
+                        .register(registry));
+            }
+            hold = Timer.builder(PREFIX + "hold")
+                    .description("Time a lock was held before it was released")
+                    .tag("kind", resourceKind)
+                    .publishPercentileHistogram()
+                    .register(registry);
+            queuePosition = DistributionSummary.builder(PREFIX + "queue.position")
+                    .description("Conflicting contenders ahead when joining the wait queue")
+                    .tag("kind", resourceKind)
+                    .publishPercentileHistogram()
+                    .register(registry);
+            roundTrips = DistributionSummary.builder(PREFIX + "round.trips")
+                    .description("Requests sent to ZooKeeper per acquisition attempt")
+                    .tag("kind", resourceKind)
+                    .publishPercentileHistogram()
+                    .register(registry);
+            leaseExpired = Counter.builder(PREFIX + "lease.expired")
+                    .description("Holds released because their lease ran out")
+                    .tag("kind", resourceKind)
+                    .register(registry);
+        }
+    }
+}
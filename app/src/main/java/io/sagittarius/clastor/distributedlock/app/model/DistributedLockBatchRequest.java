@@ -0,0 +1,24 @@
+package io.sagittarius.clastor.distributedlock.app.model;
+
+import io.sagittarius.clastor.distributedlock.domain.LockKey;
+
+import java.util.List;
+
+/**
+ * @param leaseMs how long an acquired batch is held unless renewed, {@code null} until released
+ */
+public record DistributedLockBatchRequest(
+        List<LockKey> keys,
+        Long timeoutMs,
+        Long leaseMs
+) {
+    public DistributedLockBatchRequest {
+        keys = keys != null
+                ? keys
+                : List.of();
+
+        timeoutMs = timeoutMs != null
+                ? timeoutMs
+                : 5000L;
+    }
+}
@@ -0,0 +1,15 @@
+package io.sagittarius.clastor.distributedlock.app.model;
+
+import io.sagittarius.clastor.distributedlock.domain.LockKey;
+
+import java.util.List;
+
+/**
+ * @param token the token of the hold once {@code ACQUIRED}, which releases it through any instance
+ */
+public record DistributedLockBatchResponse(
+        List<LockKey> keys,
+        DistributedLockStatus status,
+        String token
+) {
+}
@@ -1,8 +1,15 @@
 package io.sagittarius.clastor.distributedlock.app.model;
 
+import io.sagittarius.clastor.distributedlock.domain.LockMode;
+
+/**
+ * @param token the token of the hold once {@code ACQUIRED}, which releases it through any instance
+ */
 public record DistributedLockResponse(
         String resource,
         String resourceId,
-        DistributedLockStatus status
+        LockMode mode,
+        DistributedLockStatus status,
+        String token
 ) {
 }
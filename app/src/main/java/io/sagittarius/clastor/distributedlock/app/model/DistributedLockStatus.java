@@ -3,6 +3,14 @@ package io.sagittarius.clastor.distributedlock.app.model;
 public enum DistributedLockStatus {
     ACQUIRED,
     RELEASED,
+    // the lease of the hold runs again for the requested time
+    RENEWED,
     NOT_HELD,
-    FAILED
+    FAILED,
+    // given up at once, the predicted wait being far longer than the timeout
+    ESTIMATED_TIMEOUT,
+    // too many acquisitions of the resource kind already waiting
+    REJECTED,
+    // the resource kind is draining for a version rotation, retry shortly
+    DRAINING
 }
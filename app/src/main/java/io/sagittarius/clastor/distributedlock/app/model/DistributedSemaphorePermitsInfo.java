@@ -0,0 +1,4 @@
+package io.sagittarius.clastor.distributedlock.app.model;
+
+public record DistributedSemaphorePermitsInfo(String path, int permits) {
+}
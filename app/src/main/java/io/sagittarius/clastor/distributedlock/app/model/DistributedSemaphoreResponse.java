@@ -0,0 +1,12 @@
+package io.sagittarius.clastor.distributedlock.app.model;
+
+/**
+ * @param token the token of the hold once {@code ACQUIRED}, which releases it through any instance
+ */
+public record DistributedSemaphoreResponse(
+        String resource,
+        String resourceId,
+        DistributedLockStatus status,
+        String token
+) {
+}
@@ -0,0 +1,4 @@
+package io.sagittarius.clastor.distributedlock.app.model;
+
+public record LockRotationInfo(String resource, String previousVersion, String version) {
+}
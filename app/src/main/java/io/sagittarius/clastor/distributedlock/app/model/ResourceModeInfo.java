@@ -0,0 +1,6 @@
+package io.sagittarius.clastor.distributedlock.app.model;
+
+import io.sagittarius.clastor.distributedlock.domain.ResourceMode;
+
+public record ResourceModeInfo(String resource, ResourceMode mode) {
+}
@@ -0,0 +1,283 @@
+package io.sagittarius.clastor.distributedlock.app.registry;
+
+import io.sagittarius.clastor.distributedlock.app.lease.LeaseTimerWheel;
+import io.sagittarius.clastor.distributedlock.domain.DistributedLock;
+import io.sagittarius.clastor.distributedlock.domain.DistributedSemaphore;
+import io.sagittarius.clastor.distributedlock.domain.LockMode;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Locks and permits acquired through the stateless APIs (REST, unary gRPC) on this instance, so
+ * that a release call for the same key can find them again, whichever API it comes through.
+ * <p>
+ * The holds themselves live in the backend and are released by their token from any instance;
+ * this is only a cache for callers that release by key. Disabled, it keeps nothing but the
+ * holds without a token, which no other instance could release, and the holds with a lease.
+ * <p>
+ * A hold may have a lease, which releases it unless renewed in time. Removing the hold from the
+ * registry, for its release or because its token was released, cancels the lease.
+ * <p>
+ * Keys are {@code resourceKind/resourceId}. Shared locks and permits of a key may be held
+ * several times over, each release gives back one of them.
+ */
+public class HeldLockRegistry {
+
+    /**
+     * A cached hold.
+     *
+     * @param handle the lock or semaphore that acquired it
+     * @param token  its token, {@code null} if the backend cannot release it by token
+     * @param lease  its lease, {@code null} if it is held until released
+     */
+    public record Held<T>(T handle, String token, LeaseTimerWheel.Lease lease) {
+    }
+
+    private final boolean enabled;
+
+    private final ConcurrentMap<String, Held<DistributedLock>> exclusiveLocks = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Queue<Held<DistributedLock>>> sharedLocks = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Queue<Held<DistributedSemaphore>>> permits = new ConcurrentHashMap<>();
+    // the key each cached token is under, to drop it once the hold is released by token
+    private final ConcurrentMap<String, String> keysByToken = new ConcurrentHashMap<>();
+
+    /**
+     * @param enabled whether holds that have a token are cached too
+     */
+    public HeldLockRegistry(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public static String key(String resourceKind, String resourceId) {
+        return resourceKind + "/" + resourceId;
+    }
+
+    public void held(String key, LockMode mode, DistributedLock lock, String token) {
+        held(key, mode, lock, token, null);
+    }
+
+    /**
+     * @param lease the lease of the hold, to be started by the caller once cached
+     */
+    public void held(String key, LockMode mode, DistributedLock lock, String token, LeaseTimerWheel.Lease lease) {
+        if (!caches(key, token, lease)) {
+            return;
+        }
+        Held<DistributedLock> held = new Held<>(lock, token, lease);
+        if (mode == LockMode.SHARED) {
+            sharedLocks.computeIfAbsent(key, k -> new ConcurrentLinkedQueue<>()).add(held);
+        } else {
+            exclusiveLocks.put(key, held);
+        }
+    }
+
+    /**
+     * Removes a held lock, to be released by the caller.
+     *
+     * @return the lock, or {@code null} if none is cached under the key in that mode
+     */
+    public Held<DistributedLock> remove(String key, LockMode mode) {
+        return forgotten(mode == LockMode.SHARED
+                ? poll(sharedLocks, key)
+                : exclusiveLocks.remove(key));
+    }
+
+    public void heldPermit(String key, DistributedSemaphore semaphore, String token) {
+        heldPermit(key, semaphore, token, null);
+    }
+
+    /**
+     * @param lease the lease of the permit, to be started by the caller once cached
+     */
+    public void heldPermit(String key, DistributedSemaphore semaphore, String token, LeaseTimerWheel.Lease lease) {
+        if (caches(key, token, lease)) {
+            permits.computeIfAbsent(key, k -> new ConcurrentLinkedQueue<>()).add(new Held<>(semaphore, token, lease));
+        }
+    }
+
+    /**
+     * Removes a held permit, to be released by the caller.
+     *
+     * @return the semaphore, or {@code null} if no permit is cached under the key
+     */
+    public Held<DistributedSemaphore> removePermit(String key) {
+        return forgotten(poll(permits, key));
+    }
+
+    /**
+     * Removes a held lock whose lease ran out, to be released by the caller.
+     *
+     * @param lock the handle that acquired it
+     * @return whether it was still cached, i.e. nobody released it meanwhile
+     */
+    public boolean expired(String key, LockMode mode, DistributedLock lock) {
+        Held<DistributedLock> removed;
+        if (mode == LockMode.SHARED) {
+            removed = removeHandle(sharedLocks, key, lock);
+        } else {
+            AtomicReference<Held<DistributedLock>> exclusive = new AtomicReference<>();
+            exclusiveLocks.computeIfPresent(key, (k, held) -> {
+                if (held.handle() != lock) {
+                    return held;
+                }
+                exclusive.set(held);
+                return null;
+            });
+            removed = exclusive.get();
+        }
+        return forgotten(removed) != null;
+    }
+
+    /**
+     * Removes a held permit whose lease ran out, to be released by the caller.
+     *
+     * @param semaphore the handle that acquired it
+     * @return whether it was still cached, i.e. nobody released it meanwhile
+     */
+    public boolean expiredPermit(String key, DistributedSemaphore semaphore) {
+        return forgotten(removeHandle(permits, key, semaphore)) != null;
+    }
+
+    /**
+     * Renews the leases of the held locks of a key: the one of the token, or without a token
+     * every one of the key in that mode.
+     *
+     * @return whether any lease was renewed
+     */
+    public boolean renew(String key, LockMode mode, String token, Duration duration) {
+        if (mode == LockMode.SHARED) {
+            return renew(sharedLocks.get(key), token, duration);
+        }
+        Held<DistributedLock> held = exclusiveLocks.get(key);
+        return held != null && renew(List.of(held), token, duration);
+    }
+
+    /**
+     * Renews the leases of the held permits of a key: the one of the token, or without a token
+     * every one of the key.
+     *
+     * @return whether any lease was renewed
+     */
+    public boolean renewPermit(String key, String token, Duration duration) {
+        return renew(permits.get(key), token, duration);
+    }
+
+    /**
+     * Drops the hold of a token, which is being released by its token.
+     */
+    public void forget(String token) {
+        String key = keysByToken.remove(token);
+        if (key == null) {
+            return;
+        }
+        exclusiveLocks.computeIfPresent(key, (k, held) -> {
+            if (!token.equals(held.token())) {
+                return held;
+            }
+            cancelLease(held);
+            return null;
+        });
+        removeToken(sharedLocks, key, token);
+        removeToken(permits, key, token);
+    }
+
+    /**
+     * Every cached key, shared locks and permits marked with a {@code #shared} or {@code #permit} suffix.
+     */
+    public Set<String> keys() {
+        Set<String> held = new TreeSet<>(exclusiveLocks.keySet());
+        sharedLocks.keySet().forEach(key -> held.add(key + "#shared"));
+        permits.keySet().forEach(key -> held.add(key + "#permit"));
+        return held;
+    }
+
+    private boolean caches(String key, String token, LeaseTimerWheel.Lease lease) {
+        if (token == null) {
+            return true;
+        }
+        // a lease is renewed and expired through the registry
+        boolean cached = enabled || lease != null;
+        if (cached) {
+            keysByToken.put(token, key);
+        }
+        return cached;
+    }
+
+    private <T> Held<T> forgotten(Held<T> held) {
+        if (held != null) {
+            if (held.token() != null) {
+                keysByToken.remove(held.token());
+            }
+            cancelLease(held);
+        }
+        return held;
+    }
+
+    private static void cancelLease(Held<?> held) {
+        if (held.lease() != null) {
+            held.lease().cancel();
+        }
+    }
+
+    private static <T> boolean renew(Collection<Held<T>> holds, String token, Duration duration) {
+        if (holds == null) {
+            return false;
+        }
+        boolean renewed = false;
+        for (Held<T> held : holds) {
+            if (held.lease() != null && (token == null || token.equals(held.token()))) {
+                renewed |= held.lease().renew(duration);
+            }
+        }
+        return renewed;
+    }
+
+    private static <T> Held<T> removeHandle(ConcurrentMap<String, Queue<Held<T>>> holders, String key, T handle) {
+        AtomicReference<Held<T>> removed = new AtomicReference<>();
+        holders.computeIfPresent(key, (k, queue) -> {
+            Iterator<Held<T>> iterator = queue.iterator();
+            while (iterator.hasNext()) {
+                Held<T> held = iterator.next();
+                if (held.handle() == handle) {
+                    iterator.remove();
+                    removed.set(held);
+                    break;
+                }
+            }
+            return queue.isEmpty() ? null : queue;
+        });
+        return removed.get();
+    }
+
+    private static <T> T poll(ConcurrentMap<String, Queue<T>> holders, String key) {
+        AtomicReference<T> removed = new AtomicReference<>();
+        holders.computeIfPresent(key, (k, queue) -> {
+            removed.set(queue.poll());
+            return queue.isEmpty() ? null : queue;
+        });
+        return removed.get();
+    }
+
+    private static <T> void removeToken(ConcurrentMap<String, Queue<Held<T>>> holders, String key, String token) {
+        holders.computeIfPresent(key, (k, queue) -> {
+            queue.removeIf(held -> {
+                if (!token.equals(held.token())) {
+                    return false;
+                }
+                cancelLease(held);
+                return true;
+            });
+            return queue.isEmpty() ? null : queue;
+        });
+    }
+}
@@ -0,0 +1,268 @@
+package io.sagittarius.clastor.distributedlock.app.grpc;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import io.sagittarius.clastor.distributedlock.app.grpc.v1.AcquireRequest;
+import io.sagittarius.clastor.distributedlock.app.grpc.v1.DistributedLockServiceGrpc;
+import io.sagittarius.clastor.distributedlock.app.grpc.v1.LockResult;
+import io.sagittarius.clastor.distributedlock.app.grpc.v1.LockStatus;
+import io.sagittarius.clastor.distributedlock.app.grpc.v1.ReleaseRequest;
+import io.sagittarius.clastor.distributedlock.app.grpc.v1.SessionRequest;
+import io.sagittarius.clastor.distributedlock.app.grpc.v1.SessionResponse;
+import io.sagittarius.clastor.distributedlock.app.registry.HeldLockRegistry;
+import io.sagittarius.clastor.distributedlock.domain.DistributedLock;
+import io.sagittarius.clastor.distributedlock.domain.LockMode;
+import io.sagittarius.clastor.distributedlock.inmemory.InMemoryLockConfig;
+import io.sagittarius.clastor.distributedlock.inmemory.InMemoryLockManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DistributedLockGrpcServiceTest {
+
+    private static final Duration WAIT = Duration.ofSeconds(5);
+
+    private final InMemoryLockManager manager = new InMemoryLockManager(new InMemoryLockConfig("/locks"));
+    private Server server;
+    private ManagedChannel channel;
+
+    @BeforeEach
+    void start() throws Exception {
+        String name = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(name)
+                .addService(new DistributedLockGrpcService(manager, new HeldLockRegistry(true)))
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName(name).build();
+    }
+
+    @AfterEach
+    void stop() throws Exception {
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        manager.close();
+    }
+
+    private static AcquireRequest acquire(String id, long timeoutMs) {
+        return AcquireRequest.newBuilder()
+                .setResourceKind("orders")
+                .setResourceId(id)
+                .setTimeoutMs(timeoutMs)
+                .build();
+    }
+
+    private static ReleaseRequest release(String id) {
+        return ReleaseRequest.newBuilder()
+                .setResourceKind("orders")
+                .setResourceId(id)
+                .build();
+    }
+
+    private DistributedLock lock(String id) {
+        return manager.lock("orders", id, LockMode.EXCLUSIVE);
+    }
+
+    @Test
+    void unaryAcquireIsReleasedByKeyOrByToken() throws Exception {
+        DistributedLockServiceGrpc.DistributedLockServiceBlockingStub stub =
+                DistributedLockServiceGrpc.newBlockingStub(channel);
+
+        LockResult first = stub.acquire(acquire("1", 1000));
+        assertEquals(LockStatus.LOCK_STATUS_ACQUIRED, first.getStatus());
+        assertEquals(LockStatus.LOCK_STATUS_FAILED, stub.acquire(acquire("1", 50)).getStatus());
+        assertEquals(LockStatus.LOCK_STATUS_RELEASED, stub.release(release("1")).getStatus());
+        assertEquals(LockStatus.LOCK_STATUS_NOT_HELD, stub.release(release("1")).getStatus());
+
+        LockResult second = stub.acquire(acquire("1", 1000));
+        assertEquals(LockStatus.LOCK_STATUS_ACQUIRED, second.getStatus());
+        assertFalse(second.getToken().isEmpty());
+        assertEquals(LockStatus.LOCK_STATUS_RELEASED,
+                stub.release(release("1").toBuilder().setToken(second.getToken()).build()).getStatus());
+        assertTrue(lock("1").tryLock(Duration.ZERO));
+    }
+
+    @Test
+    void unaryReleaseOfAnUnknownIdIsNotHeld() {
+        DistributedLockServiceGrpc.DistributedLockServiceBlockingStub stub =
+                DistributedLockServiceGrpc.newBlockingStub(channel);
+
+        assertEquals(LockStatus.LOCK_STATUS_NOT_HELD, stub.release(release("unknown")).getStatus());
+    }
+
+    @Test
+    void sessionOperationsCompleteInAnyOrder() throws Exception {
+        Session session = new Session();
+        DistributedLock other = lock("1");
+        assertTrue(other.tryLock(Duration.ZERO));
+
+        // the first waits for the lock held outside, the second is answered before it
+        session.send(1, acquire("1", 5000));
+        session.send(2, acquire("2", 5000));
+        SessionResponse second = session.next();
+        assertEquals(2, second.getRequestId());
+        assertEquals(LockStatus.LOCK_STATUS_ACQUIRED, second.getResult().getStatus());
+        assertEquals("2", second.getResult().getResourceId());
+
+        other.unlock();
+        SessionResponse first = session.next();
+        assertEquals(1, first.getRequestId());
+        assertEquals(LockStatus.LOCK_STATUS_ACQUIRED, first.getResult().getStatus());
+        assertEquals("1", first.getResult().getResourceId());
+
+        session.send(3, release("2"));
+        session.send(4, release("1"));
+        assertEquals(LockStatus.LOCK_STATUS_RELEASED, session.next().getResult().getStatus());
+        assertEquals(LockStatus.LOCK_STATUS_RELEASED, session.next().getResult().getStatus());
+        session.complete();
+    }
+
+    @Test
+    void secondAcquireOfTheSameIdWaitsForTheFirst() throws Exception {
+        Session session = new Session();
+
+        session.send(1, acquire("1", 5000));
+        assertEquals(LockStatus.LOCK_STATUS_ACQUIRED, session.next().getResult().getStatus());
+        session.send(2, acquire("1", 50));
+        SessionResponse second = session.next();
+        assertEquals(2, second.getRequestId());
+        assertEquals(LockStatus.LOCK_STATUS_FAILED, second.getResult().getStatus());
+
+        // the failed attempt left the first hold in place
+        session.send(3, release("1"));
+        assertEquals(LockStatus.LOCK_STATUS_RELEASED, session.next().getResult().getStatus());
+        session.send(4, release("1"));
+        assertEquals(LockStatus.LOCK_STATUS_NOT_HELD, session.next().getResult().getStatus());
+        session.complete();
+    }
+
+    @Test
+    void sharedAcquiresOfTheSameIdAreReleasedOneByOne() throws Exception {
+        Session session = new Session();
+        AcquireRequest shared = acquire("1", 1000).toBuilder()
+                .setMode(io.sagittarius.clastor.distributedlock.app.grpc.v1.LockMode.LOCK_MODE_SHARED)
+                .build();
+        ReleaseRequest release = release("1").toBuilder()
+                .setMode(io.sagittarius.clastor.distributedlock.app.grpc.v1.LockMode.LOCK_MODE_SHARED)
+                .build();
+
+        session.send(1, shared);
+        session.send(2, shared);
+        assertEquals(LockStatus.LOCK_STATUS_ACQUIRED, session.next().getResult().getStatus());
+        assertEquals(LockStatus.LOCK_STATUS_ACQUIRED, session.next().getResult().getStatus());
+
+        session.send(3, release);
+        assertEquals(LockStatus.LOCK_STATUS_RELEASED, session.next().getResult().getStatus());
+        assertFalse(lock("1").tryLock(Duration.ZERO));
+        session.send(4, release);
+        assertEquals(LockStatus.LOCK_STATUS_RELEASED, session.next().getResult().getStatus());
+        assertTrue(lock("1").tryLock(Duration.ZERO));
+        session.complete();
+    }
+
+    @Test
+    void sessionReleaseOfAnUnknownIdIsNotHeld() throws Exception {
+        Session session = new Session();
+
+        session.send(1, release("unknown"));
+        SessionResponse response = session.next();
+        assertEquals(1, response.getRequestId());
+        assertEquals(LockStatus.LOCK_STATUS_NOT_HELD, response.getResult().getStatus());
+
+        // the session carries on
+        session.send(2, acquire("1", 1000));
+        assertEquals(LockStatus.LOCK_STATUS_ACQUIRED, session.next().getResult().getStatus());
+        session.complete();
+    }
+
+    @Test
+    void completingTheSessionReleasesItsLocks() throws Exception {
+        Session session = new Session();
+        session.send(1, acquire("1", 1000));
+        assertEquals(LockStatus.LOCK_STATUS_ACQUIRED, session.next().getResult().getStatus());
+        assertFalse(lock("1").tryLock(Duration.ZERO));
+
+        session.complete();
+        assertTrue(session.completed.await(5, TimeUnit.SECONDS));
+        assertTrue(lock("1").tryLock(WAIT));
+    }
+
+    @Test
+    void cancellingTheSessionReleasesItsLocksAndCancelsItsAcquisitions() throws Exception {
+        Session session = new Session();
+        DistributedLock other = lock("2");
+        assertTrue(other.tryLock(Duration.ZERO));
+
+        session.send(1, acquire("1", 1000));
+        assertEquals(LockStatus.LOCK_STATUS_ACQUIRED, session.next().getResult().getStatus());
+        session.send(2, acquire("2", 60_000));
+
+        session.requests.cancel("client gone", null);
+        assertTrue(session.completed.await(5, TimeUnit.SECONDS));
+        assertTrue(lock("1").tryLock(WAIT));
+
+        // nor does the pending acquisition keep the lock once it is free
+        other.unlock();
+        assertTrue(lock("2").tryLock(WAIT));
+        assertNull(session.responses.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * The client side of a session stream, with its responses queued as they come.
+     */
+    private final class Session implements StreamObserver<SessionResponse> {
+
+        final BlockingQueue<SessionResponse> responses = new LinkedBlockingQueue<>();
+        final CountDownLatch completed = new CountDownLatch(1);
+        final ClientCallStreamObserver<SessionRequest> requests =
+                (ClientCallStreamObserver<SessionRequest>) DistributedLockServiceGrpc.newStub(channel).session(this);
+
+        void send(long requestId, AcquireRequest acquire) {
+            requests.onNext(SessionRequest.newBuilder().setRequestId(requestId).setAcquire(acquire).build());
+        }
+
+        void send(long requestId, ReleaseRequest release) {
+            requests.onNext(SessionRequest.newBuilder().setRequestId(requestId).setRelease(release).build());
+        }
+
+        SessionResponse next() throws InterruptedException {
+            SessionResponse response = responses.poll(5, TimeUnit.SECONDS);
+            assertNotNull(response, "no response in time");
+            return response;
+        }
+
+        void complete() {
+            requests.onCompleted();
+        }
+
+        @Override
+        public void onNext(SessionResponse response) {
+            responses.add(response);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            completed.countDown();
+        }
+
+        @Override
+        public void onCompleted() {
+            completed.countDown();
+        }
+    }
+}
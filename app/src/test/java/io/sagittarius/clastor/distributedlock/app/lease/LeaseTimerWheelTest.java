@@ -0,0 +1,135 @@
+package io.sagittarius.clastor.distributedlock.app.lease;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LeaseTimerWheelTest {
+
+    private static final Duration TICK = Duration.ofMillis(10);
+
+    // a small wheel, so that leases go around it several times
+    private final LeaseTimerWheel wheel = new LeaseTimerWheel(TICK, 8);
+
+    @AfterEach
+    void close() {
+        wheel.close();
+    }
+
+    @Test
+    void aLeaseExpiresOnceAfterItsDuration() throws Exception {
+        CountDownLatch expired = new CountDownLatch(1);
+        AtomicLong expiredAt = new AtomicLong();
+        AtomicInteger expiries = new AtomicInteger();
+        LeaseTimerWheel.Lease lease = wheel.lease(() -> {
+            expiredAt.set(System.nanoTime());
+            expiries.incrementAndGet();
+            expired.countDown();
+        });
+
+        long startNanos = System.nanoTime();
+        assertTrue(lease.renew(Duration.ofMillis(200)));
+        assertEquals(1, wheel.active());
+        assertTrue(expired.await(5, TimeUnit.SECONDS));
+
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(expiredAt.get() - startNanos);
+        assertTrue(elapsedMs >= 200, "expired after " + elapsedMs + " ms");
+        assertEquals(0, wheel.active());
+        assertFalse(lease.renew(Duration.ofSeconds(1)), "an expired lease cannot be renewed");
+        assertFalse(lease.cancel());
+        Thread.sleep(100);
+        assertEquals(1, expiries.get());
+    }
+
+    @Test
+    void aLeaseOnlyRunsOnceRenewed() throws Exception {
+        AtomicInteger expiries = new AtomicInteger();
+        wheel.lease(expiries::incrementAndGet);
+
+        Thread.sleep(100);
+        assertEquals(0, expiries.get());
+        assertEquals(0, wheel.active());
+    }
+
+    @Test
+    void renewalsPushTheExpiryOut() throws Exception {
+        CountDownLatch expired = new CountDownLatch(1);
+        LeaseTimerWheel.Lease lease = wheel.lease(expired::countDown);
+        long startNanos = System.nanoTime();
+        lease.renew(Duration.ofMillis(100));
+
+        // renewed for longer than the wheel turns, while its bucket comes around
+        for (int i = 0; i < 10; i++) {
+            Thread.sleep(50);
+            assertTrue(lease.renew(Duration.ofMillis(100)));
+        }
+        assertFalse(expired.await(0, TimeUnit.MILLISECONDS));
+        assertTrue(expired.await(5, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) >= 600);
+    }
+
+    @Test
+    void aShorterRenewalBringsTheExpiryIn() throws Exception {
+        CountDownLatch expired = new CountDownLatch(1);
+        LeaseTimerWheel.Lease lease = wheel.lease(expired::countDown);
+        lease.renew(Duration.ofHours(1));
+
+        lease.renew(Duration.ofMillis(50));
+        assertTrue(expired.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void aCancelledLeaseNeverExpires() throws Exception {
+        AtomicInteger expiries = new AtomicInteger();
+        LeaseTimerWheel.Lease running = wheel.lease(expiries::incrementAndGet);
+        running.renew(Duration.ofMillis(50));
+        LeaseTimerWheel.Lease idle = wheel.lease(expiries::incrementAndGet);
+
+        assertTrue(running.cancel());
+        assertTrue(idle.cancel());
+        assertFalse(running.cancel());
+        assertFalse(idle.renew(Duration.ofMillis(50)));
+        assertEquals(0, wheel.active());
+
+        Thread.sleep(200);
+        assertEquals(0, expiries.get());
+    }
+
+    @Test
+    void leasesSpreadOverTheWheelAllExpire() throws Exception {
+        int leases = 1000;
+        CountDownLatch expired = new CountDownLatch(leases);
+        for (int i = 0; i < leases; i++) {
+            wheel.lease(expired::countDown).renew(Duration.ofMillis(i % 300));
+        }
+
+        assertTrue(expired.await(5, TimeUnit.SECONDS), expired.getCount() + " leases left");
+        assertEquals(0, wheel.active());
+    }
+
+    @Test
+    void aFailingCallbackDoesNotStopTheWheel() throws Exception {
+        wheel.lease(() -> {
+            throw new IllegalStateException("expiry failed");
+        }).renew(Duration.ZERO);
+        CountDownLatch expired = new CountDownLatch(1);
+        wheel.lease(expired::countDown).renew(Duration.ofMillis(50));
+
+        assertTrue(expired.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void theTickMustBePositive() {
+        assertThrows(IllegalArgumentException.class, () -> new LeaseTimerWheel(Duration.ZERO, 8));
+    }
+}
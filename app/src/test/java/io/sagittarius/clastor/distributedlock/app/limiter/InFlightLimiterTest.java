@@ -0,0 +1,83 @@
+package io.sagittarius.clastor.distributedlock.app.limiter;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class InFlightLimiterTest {
+
+    private final InFlightLimiter limiter = new InFlightLimiter(2, Map.of("orders", 1, "audit", 0));
+
+    private static CompletableFuture<Boolean> pending() {
+        return new CompletableFuture<>();
+    }
+
+    @Test
+    void acquisitionsOverTheCapAreRejected() {
+        CompletableFuture<Boolean> first = limiter.start(List.of("orders"), InFlightLimiterTest::pending);
+        assertNotNull(first);
+        assertNull(limiter.start(List.of("orders"), InFlightLimiterTest::pending));
+        assertEquals(1, limiter.inFlight("orders"));
+
+        first.complete(true);
+        assertEquals(0, limiter.inFlight("orders"));
+        assertNotNull(limiter.start(List.of("orders"), InFlightLimiterTest::pending));
+    }
+
+    @Test
+    void failedAcquisitionsLeaveTheCount() {
+        CompletableFuture<Boolean> first = limiter.start(List.of("orders"), InFlightLimiterTest::pending);
+        first.completeExceptionally(new IllegalStateException());
+        assertEquals(0, limiter.inFlight("orders"));
+
+        assertThrows(IllegalStateException.class, () -> limiter.start(List.of("orders"), () -> {
+            throw new IllegalStateException();
+        }));
+        assertEquals(0, limiter.inFlight("orders"));
+    }
+
+    @Test
+    void kindsWithoutACapOfTheirOwnGetTheDefault() {
+        assertNotNull(limiter.start(List.of("invoices"), InFlightLimiterTest::pending));
+        assertNotNull(limiter.start(List.of("invoices"), InFlightLimiterTest::pending));
+        assertNull(limiter.start(List.of("invoices"), InFlightLimiterTest::pending));
+    }
+
+    @Test
+    void aCapOfZeroIsNone() {
+        for (int i = 0; i < 100; i++) {
+            assertNotNull(limiter.start(List.of("audit"), InFlightLimiterTest::pending));
+        }
+        assertEquals(100, limiter.inFlight("audit"));
+    }
+
+    @Test
+    void aRejectionByOneKindLeavesTheOthersUncounted() {
+        limiter.start(List.of("orders"), InFlightLimiterTest::pending);
+
+        assertNull(limiter.start(List.of("invoices", "orders"), InFlightLimiterTest::pending));
+        assertEquals(0, limiter.inFlight("invoices"));
+
+        CompletableFuture<Boolean> both = limiter.start(List.of("invoices", "audit"), InFlightLimiterTest::pending);
+        assertEquals(1, limiter.inFlight("invoices"));
+        assertEquals(1, limiter.inFlight("audit"));
+        both.complete(false);
+        assertEquals(0, limiter.inFlight("invoices"));
+        assertEquals(0, limiter.inFlight("audit"));
+    }
+
+    @Test
+    void theStartedAcquisitionIsReturned() {
+        CompletableFuture<Boolean> acquisition = pending();
+
+        assertSame(acquisition, limiter.start(List.of("invoices"), () -> acquisition));
+    }
+}
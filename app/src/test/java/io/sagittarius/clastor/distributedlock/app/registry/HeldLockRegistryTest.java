@@ -0,0 +1,137 @@
+package io.sagittarius.clastor.distributedlock.app.registry;
+
+import io.sagittarius.clastor.distributedlock.app.lease.LeaseTimerWheel;
+import io.sagittarius.clastor.distributedlock.domain.DistributedLock;
+import io.sagittarius.clastor.distributedlock.domain.DistributedSemaphore;
+import io.sagittarius.clastor.distributedlock.domain.LockMode;
+import io.sagittarius.clastor.distributedlock.inmemory.InMemoryLockConfig;
+import io.sagittarius.clastor.distributedlock.inmemory.InMemoryLockManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HeldLockRegistryTest {
+
+    private static final Duration LONG = Duration.ofMinutes(5);
+
+    private final InMemoryLockManager manager = new InMemoryLockManager(new InMemoryLockConfig("/locks"));
+    private final LeaseTimerWheel wheel = new LeaseTimerWheel();
+    private final HeldLockRegistry registry = new HeldLockRegistry(true);
+    private final String key = HeldLockRegistry.key("orders", "1");
+
+    @AfterEach
+    void close() throws Exception {
+        wheel.close();
+        manager.close();
+    }
+
+    private DistributedLock lock() {
+        return manager.lock("orders", "1", LockMode.EXCLUSIVE);
+    }
+
+    private LeaseTimerWheel.Lease lease() {
+        LeaseTimerWheel.Lease lease = wheel.lease(() -> {
+        });
+        lease.renew(LONG);
+        return lease;
+    }
+
+    @Test
+    void exclusiveHoldIsRemovedOnce() {
+        DistributedLock lock = lock();
+        registry.held(key, LockMode.EXCLUSIVE, lock, "t1");
+
+        assertSame(lock, registry.remove(key, LockMode.EXCLUSIVE).handle());
+        assertNull(registry.remove(key, LockMode.EXCLUSIVE));
+        assertNull(registry.remove(key, LockMode.SHARED));
+    }
+
+    @Test
+    void sharedHoldsAreGivenBackOneByOne() {
+        DistributedLock first = lock();
+        DistributedLock second = lock();
+        registry.held(key, LockMode.SHARED, first, "t1");
+        registry.held(key, LockMode.SHARED, second, "t2");
+        assertEquals(Set.of("orders/1#shared"), registry.keys());
+
+        assertSame(first, registry.remove(key, LockMode.SHARED).handle());
+        assertEquals(Set.of("orders/1#shared"), registry.keys());
+        assertSame(second, registry.remove(key, LockMode.SHARED).handle());
+        assertEquals(Set.of(), registry.keys());
+    }
+
+    @Test
+    void disabledRegistryOnlyKeepsWhatNothingElseCanRelease() {
+        HeldLockRegistry disabled = new HeldLockRegistry(false);
+        disabled.held(key, LockMode.EXCLUSIVE, lock(), "t1");
+        assertNull(disabled.remove(key, LockMode.EXCLUSIVE));
+
+        DistributedLock withoutToken = lock();
+        disabled.held(key, LockMode.EXCLUSIVE, withoutToken, null);
+        assertSame(withoutToken, disabled.remove(key, LockMode.EXCLUSIVE).handle());
+
+        DistributedLock leased = lock();
+        disabled.held(key, LockMode.EXCLUSIVE, leased, "t2", lease());
+        assertSame(leased, disabled.remove(key, LockMode.EXCLUSIVE).handle());
+    }
+
+    @Test
+    void releasedTokenIsForgottenWithItsLease() {
+        LeaseTimerWheel.Lease released = lease();
+        LeaseTimerWheel.Lease kept = lease();
+        DistributedLock other = lock();
+        registry.held(key, LockMode.SHARED, lock(), "t1", released);
+        registry.held(key, LockMode.SHARED, other, "t2", kept);
+
+        registry.forget("t1");
+
+        assertFalse(released.renew(LONG), "the lease of a forgotten hold is cancelled");
+        assertTrue(kept.renew(LONG));
+        assertSame(other, registry.remove(key, LockMode.SHARED).handle());
+        assertNull(registry.remove(key, LockMode.SHARED));
+    }
+
+    @Test
+    void removingAHoldCancelsItsLease() {
+        LeaseTimerWheel.Lease lease = lease();
+        DistributedSemaphore semaphore = manager.semaphore("orders", "1");
+        registry.heldPermit(key, semaphore, "p1", lease);
+
+        assertSame(semaphore, registry.removePermit(key).handle());
+        assertFalse(lease.renew(LONG));
+        assertFalse(registry.expiredPermit(key, semaphore), "released before its lease ran out");
+    }
+
+    @Test
+    void expiryOnlyRemovesTheHoldOfItsHandle() {
+        DistributedLock expired = lock();
+        DistributedLock later = lock();
+        registry.held(key, LockMode.EXCLUSIVE, later, "t2");
+
+        assertFalse(registry.expired(key, LockMode.EXCLUSIVE, expired));
+        assertTrue(registry.expired(key, LockMode.EXCLUSIVE, later));
+        assertNull(registry.remove(key, LockMode.EXCLUSIVE));
+    }
+
+    @Test
+    void renewalFollowsTheToken() {
+        LeaseTimerWheel.Lease first = lease();
+        LeaseTimerWheel.Lease second = lease();
+        registry.heldPermit(key, manager.semaphore("orders", "1"), "p1", first);
+        registry.heldPermit(key, manager.semaphore("orders", "1"), "p2", second);
+
+        assertTrue(registry.renewPermit(key, "p2", LONG));
+        assertFalse(registry.renewPermit(key, "p3", LONG));
+        first.cancel();
+        assertTrue(registry.renewPermit(key, null, LONG), "the other lease is renewed without a token");
+        assertFalse(registry.renew(key, LockMode.EXCLUSIVE, null, LONG));
+    }
+}
@@ -0,0 +1,51 @@
+plugins {
+    java
+    id("me.champeau.jmh") version "0.7.3"
+}
+
+dependencies {
+    jmh(project(":domain"))
+    jmh(project(":adapter:zookeeper"))
+    jmh(project(":adapter:curator"))
+    jmh(project(":adapter:inmemory"))
+    jmh(project(":adapter:sharded"))
+    jmh(project(":protocol:client"))
+
+    // the application itself, for the REST to binary protocol comparison
+    jmh(project(":app"))
+    jmh(platform("org.springframework.boot:spring-boot-dependencies:4.0.0"))
+    jmh("org.springframework.boot:spring-boot")
+
+    jmh(testFixtures(project(":adapter:zookeeper")))
+    jmh("org.apache.zookeeper:zookeeper:3.9.4")
+    jmh("org.apache.curator:curator-framework:5.9.0")
+}
+
+jmh {
+    jmhVersion.set("1.37")
+    // sample mode reports the latency percentiles, the gc profiler the allocation rate per operation
+    benchmarkMode.set(listOf("sample"))
+    timeUnit.set("us")
+    profilers.set(listOf("gc"))
+    fork.set(1)
+    warmupIterations.set(3)
+    warmup.set("5s")
+    iterations.set(5)
+    timeOnIteration.set("5s")
+    resultFormat.set("JSON")
+    includes.set(listOfNotNull(findProperty("jmhIncludes")?.toString()))
+    // e.g. -PjmhProvider=inmemory to run the application benchmarks without ZooKeeper
+    findProperty("jmhProvider")?.let { provider ->
+        benchmarkParameters.put("provider", objects.listProperty<String>().value(listOf(provider.toString())))
+    }
+}
+
+// keep the benchmarks compiling with the rest of the build, running them stays explicit
+tasks.named("check") {
+    dependsOn(tasks.named("jmhClasses"))
+}
+
+// benchmarks are run, never published
+tasks.withType<PublishToMavenRepository>().configureEach {
+    enabled = false
+}
@@ -0,0 +1,117 @@
+package io.sagittarius.clastor.distributedlock.benchmarks;
+
+import io.sagittarius.clastor.distributedlock.app.ClastorDistributedLockApplication;
+import io.sagittarius.clastor.distributedlock.app.binary.BinaryLockServerLifecycle;
+import io.sagittarius.clastor.distributedlock.protocol.client.BinaryLockClient;
+import io.sagittarius.clastor.distributedlock.zookeeper.EmbeddedZooKeeper;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The whole application, started in the benchmark JVM against an embedded server, with a client
+ * of each of its endpoints. REST and binary requests go through the same lock manager, so the
+ * difference between them is the transport alone.
+ * <p>
+ * With the {@code inmemory} provider no server is started and the application locks in its own
+ * memory, which leaves the cost of the endpoints alone. With {@code sharded} it spreads its locks
+ * over {@link LockManagerState#SHARDS} servers.
+ */
+@State(Scope.Benchmark)
+public class ApplicationState {
+
+    static final int SERVLET_THREADS = 32;
+
+    @Param({"zookeeper"})
+    public String provider;
+
+    EmbeddedZooKeeper zooKeeper;
+    List<EmbeddedZooKeeper> shardServers = new ArrayList<>();
+    ConfigurableApplicationContext application;
+
+    HttpClient httpClient;
+    URI restBase;
+    BinaryLockClient binaryClient;
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        List<String> arguments = new ArrayList<>(List.of(
+                "--server.port=0",
+                // a small servlet pool, so that requests holding on to its threads would show at once
+                "--server.tomcat.threads.max=" + SERVLET_THREADS,
+                "--logging.level.root=WARN",
+                "--distributed-lock.provider=" + provider,
+                "--distributed-lock.zookeeper.root-path=" + LockManagerState.ROOT_PATH,
+                "--distributed-lock.curator.root-path=" + LockManagerState.ROOT_PATH,
+                "--distributed-lock.inmemory.root-path=" + LockManagerState.ROOT_PATH,
+                "--distributed-lock.grpc.enabled=false",
+                "--distributed-lock.binary.port=0"
+        ));
+        switch (provider) {
+            case "inmemory" -> {
+            }
+            case "sharded" -> {
+                for (int i = 0; i < LockManagerState.SHARDS; i++) {
+                    EmbeddedZooKeeper server = new EmbeddedZooKeeper();
+                    shardServers.add(server);
+                    arguments.add("--distributed-lock.sharded.shards[" + i + "].name=shard-" + i);
+                    arguments.add("--distributed-lock.sharded.shards[" + i + "].connection-string=" + server.connectionString());
+                }
+            }
+            default -> {
+                zooKeeper = new EmbeddedZooKeeper();
+                arguments.add("--distributed-lock.zookeeper.connection-string=" + zooKeeper.connectionString());
+                arguments.add("--distributed-lock.curator.connection-string=" + zooKeeper.connectionString());
+            }
+        }
+        // as arguments, since they must win over application.yml
+        application = new SpringApplicationBuilder(ClastorDistributedLockApplication.class)
+                .run(arguments.toArray(String[]::new));
+
+        String restPort = application.getEnvironment().getRequiredProperty("local.server.port");
+        restBase = URI.create("http://127.0.0.1:" + restPort + "/api/v1/locks/" + LockManagerState.RESOURCE_KIND + "/");
+        httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .build();
+
+        int binaryPort = application.getBean(BinaryLockServerLifecycle.class).port();
+        binaryClient = BinaryLockClient.connect("127.0.0.1", binaryPort);
+    }
+
+    /**
+     * Posts to the REST API.
+     *
+     * @return the response, whatever its status
+     */
+    HttpResponse<String> post(URI uri) throws IOException, InterruptedException {
+        return httpClient.send(
+                HttpRequest.newBuilder(uri).POST(HttpRequest.BodyPublishers.noBody()).build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws Exception {
+        binaryClient.close();
+        httpClient.close();
+        application.close();
+        if (zooKeeper != null) {
+            zooKeeper.close();
+        }
+        for (EmbeddedZooKeeper server : shardServers) {
+            server.close();
+        }
+    }
+}
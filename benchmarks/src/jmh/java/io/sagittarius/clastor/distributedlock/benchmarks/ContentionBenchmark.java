@@ -0,0 +1,80 @@
+package io.sagittarius.clastor.distributedlock.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpResponse;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load test of the REST API: the latency of uncontended acquire/release round trips while a single
+ * hot key is fought over by twice as many clients as there are servlet threads.
+ * <p>
+ * Compare {@code hotKey:uncontended} with {@code uncontendedAlone}. The waits on the hot key hold
+ * no servlet thread, so the uncontended percentiles should stay close to the baseline.
+ */
+public class ContentionBenchmark {
+
+    private static final String HOT_KIND = "hot";
+    private static final long HOT_TIMEOUT_MS = 1000;
+
+    private static final AtomicInteger THREAD_IDS = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class Requests {
+
+        URI acquire;
+        URI release;
+        URI hotAcquire;
+        URI hotRelease;
+
+        @Setup
+        public void setUp(ApplicationState state) {
+            String resourceId = "contention-" + THREAD_IDS.incrementAndGet();
+            acquire = state.restBase.resolve("acquire?resourceId=" + resourceId);
+            release = state.restBase.resolve("release?resourceId=" + resourceId);
+
+            URI hotBase = state.restBase.resolve("../" + HOT_KIND + "/");
+            hotAcquire = hotBase.resolve("acquire?resourceId=hot&timeoutMs=" + HOT_TIMEOUT_MS);
+            hotRelease = hotBase.resolve("release?resourceId=hot");
+        }
+    }
+
+    @Benchmark
+    public void uncontendedAlone(ApplicationState state, Requests requests, Blackhole blackhole)
+            throws IOException, InterruptedException {
+        acquireRelease(state, requests.acquire, requests.release, blackhole);
+    }
+
+    @Benchmark
+    @Group("hotKey")
+    @GroupThreads(1)
+    public void uncontended(ApplicationState state, Requests requests, Blackhole blackhole)
+            throws IOException, InterruptedException {
+        acquireRelease(state, requests.acquire, requests.release, blackhole);
+    }
+
+    @Benchmark
+    @Group("hotKey")
+    @GroupThreads(2 * ApplicationState.SERVLET_THREADS)
+    public void contended(ApplicationState state, Requests requests, Blackhole blackhole)
+            throws IOException, InterruptedException {
+        acquireRelease(state, requests.hotAcquire, requests.hotRelease, blackhole);
+    }
+
+    private static void acquireRelease(ApplicationState state, URI acquire, URI release, Blackhole blackhole)
+            throws IOException, InterruptedException {
+        HttpResponse<String> response = state.post(acquire);
+        blackhole.consume(response.body());
+        if (response.statusCode() == 200 && response.body().contains("\"ACQUIRED\"")) {
+            blackhole.consume(state.post(release).body());
+        }
+    }
+}
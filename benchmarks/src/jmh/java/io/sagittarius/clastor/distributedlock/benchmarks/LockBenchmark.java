@@ -0,0 +1,121 @@
+package io.sagittarius.clastor.distributedlock.benchmarks;
+
+import io.sagittarius.clastor.distributedlock.domain.DistributedLock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Acquire/release round trips of both adapters against an embedded server.
+ * <p>
+ * Run with {@code gradle :benchmarks:jmh}; a subset is selected with
+ * {@code -PjmhIncludes=LockBenchmark.contended}. Latency percentiles come from the sample mode,
+ * allocation rates from the gc profiler, both configured in the build.
+ */
+public class LockBenchmark {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+    private static final int DISTINCT_KEYS = 1024;
+
+    private static final AtomicInteger THREAD_IDS = new AtomicInteger();
+
+    /**
+     * A key of its own per benchmark thread, so that nothing is ever contended.
+     */
+    @State(Scope.Thread)
+    public static class ThreadKey {
+
+        String resourceId;
+        int next;
+
+        @Setup
+        public void setUp() {
+            resourceId = "uncontended-" + THREAD_IDS.incrementAndGet();
+        }
+    }
+
+    @Benchmark
+    public void uncontended(LockManagerState state, ThreadKey key, Blackhole blackhole) throws InterruptedException {
+        acquireRelease(state.manager.lock(LockManagerState.RESOURCE_KIND, key.resourceId), blackhole);
+    }
+
+    @Benchmark
+    public void uncontendedTryLock(LockManagerState state, ThreadKey key, Blackhole blackhole) throws InterruptedException {
+        DistributedLock lock = state.manager.lock(LockManagerState.RESOURCE_KIND, key.resourceId);
+        boolean acquired = lock.tryLock();
+        blackhole.consume(acquired);
+        if (acquired) {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A key of its own per benchmark thread, held by the thread throughout.
+     */
+    @State(Scope.Thread)
+    public static class HeldKey {
+
+        DistributedLock held;
+        String resourceId;
+
+        @Setup
+        public void setUp(LockManagerState state) throws InterruptedException {
+            resourceId = "held-" + THREAD_IDS.incrementAndGet();
+            held = state.manager.lock(LockManagerState.RESOURCE_KIND, resourceId);
+            if (!held.tryLock(TIMEOUT)) {
+                throw new IllegalStateException("Could not take " + resourceId);
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            held.unlock();
+        }
+    }
+
+    /**
+     * Tries a lock the thread already holds, through another handle. Only the Curator recipe is
+     * reentrant and takes it again without a round trip, the other adapters refuse it.
+     */
+    @Benchmark
+    public void reentrantTryLock(LockManagerState state, HeldKey key, Blackhole blackhole) throws InterruptedException {
+        DistributedLock lock = state.manager.lock(LockManagerState.RESOURCE_KIND, key.resourceId);
+        boolean acquired = lock.tryLock();
+        blackhole.consume(acquired);
+        if (acquired) {
+            lock.unlock();
+        }
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void contended(LockManagerState state, Blackhole blackhole) throws InterruptedException {
+        acquireRelease(state.manager.lock(LockManagerState.RESOURCE_KIND, "contended"), blackhole);
+    }
+
+    /**
+     * Cycles through many keys, so that the path caches and the server see a realistic key space
+     * instead of a single hot node.
+     */
+    @Benchmark
+    @Threads(8)
+    public void distinctKeys(LockManagerState state, ThreadKey key, Blackhole blackhole) throws InterruptedException {
+        String resourceId = key.resourceId + "-" + (key.next++ % DISTINCT_KEYS);
+        acquireRelease(state.manager.lock(LockManagerState.RESOURCE_KIND, resourceId), blackhole);
+    }
+
+    private static void acquireRelease(DistributedLock lock, Blackhole blackhole) throws InterruptedException {
+        boolean acquired = lock.tryLock(TIMEOUT);
+        blackhole.consume(acquired);
+        if (acquired) {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package io.sagittarius.clastor.distributedlock.benchmarks;
+
+import io.sagittarius.clastor.distributedlock.curator.CuratorLockConfig;
+import io.sagittarius.clastor.distributedlock.curator.CuratorLockManager;
+import io.sagittarius.clastor.distributedlock.domain.DistributedLockManager;
+import io.sagittarius.clastor.distributedlock.inmemory.InMemoryLockConfig;
+import io.sagittarius.clastor.distributedlock.inmemory.InMemoryLockManager;
+import io.sagittarius.clastor.distributedlock.sharded.Shard;
+import io.sagittarius.clastor.distributedlock.sharded.ShardRouting;
+import io.sagittarius.clastor.distributedlock.sharded.ShardState;
+import io.sagittarius.clastor.distributedlock.sharded.ShardedLockManager;
+import io.sagittarius.clastor.distributedlock.zookeeper.EmbeddedZooKeeper;
+import io.sagittarius.clastor.distributedlock.zookeeper.ZookeeperLockConfig;
+import io.sagittarius.clastor.distributedlock.zookeeper.ZookeeperLockManager;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An embedded server and a lock manager of the selected adapter, shared by all benchmark threads
+ * of a trial, the way a single application instance shares its manager between requests.
+ * The in-memory adapter needs no server, it is there as the floor the others are measured against.
+ * The sharded one spreads the locks of the raw ZooKeeper adapter over {@link #SHARDS} servers.
+ */
+@State(Scope.Benchmark)
+public class LockManagerState {
+
+    static final String ROOT_PATH = "/bench-locks";
+    static final String RESOURCE_KIND = "bench";
+
+    private static final Duration CONNECTION_TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration SESSION_TIMEOUT = Duration.ofSeconds(30);
+
+    static final int SHARDS = 3;
+
+    @Param({"zookeeper", "curator", "inmemory", "sharded"})
+    public String provider;
+
+    EmbeddedZooKeeper zooKeeper;
+    List<EmbeddedZooKeeper> shardServers = new ArrayList<>();
+    DistributedLockManager manager;
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        if (provider.equals("inmemory")) {
+            manager = new InMemoryLockManager(new InMemoryLockConfig(ROOT_PATH));
+            return;
+        }
+        if (provider.equals("sharded")) {
+            List<Shard> shards = new ArrayList<>();
+            for (int i = 0; i < SHARDS; i++) {
+                EmbeddedZooKeeper server = new EmbeddedZooKeeper();
+                shardServers.add(server);
+                shards.add(new Shard("shard-" + i, new ZookeeperLockManager(new ZookeeperLockConfig(
+                        server.connectionString(), CONNECTION_TIMEOUT, SESSION_TIMEOUT, ROOT_PATH, false, 0, null, null, Duration.ZERO, 0)),
+                        ShardState.ACTIVE));
+            }
+            manager = new ShardedLockManager(shards, ShardRouting.PER_ID);
+            return;
+        }
+
+        zooKeeper = new EmbeddedZooKeeper();
+        manager = switch (provider) {
+            case "zookeeper" -> new ZookeeperLockManager(new ZookeeperLockConfig(
+                    zooKeeper.connectionString(), CONNECTION_TIMEOUT, SESSION_TIMEOUT, ROOT_PATH, false, 0, null, null, Duration.ZERO, 0));
+            case "curator" -> new CuratorLockManager(new CuratorLockConfig(
+                    zooKeeper.connectionString(), CONNECTION_TIMEOUT, SESSION_TIMEOUT, ROOT_PATH, 0, null, 0));
+            default -> throw new IllegalArgumentException("Unknown provider: " + provider);
+        };
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws Exception {
+        manager.close();
+        if (zooKeeper != null) {
+            zooKeeper.close();
+        }
+        for (EmbeddedZooKeeper server : shardServers) {
+            server.close();
+        }
+    }
+}
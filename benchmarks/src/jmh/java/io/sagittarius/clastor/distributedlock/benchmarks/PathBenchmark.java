@@ -0,0 +1,67 @@
+package io.sagittarius.clastor.distributedlock.benchmarks;
+
+import io.sagittarius.clastor.distributedlock.zookeeper.EmbeddedZooKeeper;
+import io.sagittarius.clastor.distributedlock.zookeeper.ZkClient;
+import org.apache.zookeeper.KeeperException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.time.Duration;
+
+/**
+ * Cost of the bookkeeping around every acquisition: reading the current lock version and
+ * making sure the lock directory exists.
+ */
+public class PathBenchmark {
+
+    private static final String LOCK_PATH = LockManagerState.ROOT_PATH + "/" + LockManagerState.RESOURCE_KIND + "/1/ensured";
+
+    @Benchmark
+    public String currentVersion(LockManagerState state) {
+        return state.manager.versionAccessor().currentVersion(LockManagerState.RESOURCE_KIND);
+    }
+
+    /**
+     * {@code ensurePath} only exists in the plain ZooKeeper adapter, Curator creates parents as
+     * part of its recipes, so this one runs against a bare {@link ZkClient}.
+     */
+    @State(Scope.Benchmark)
+    public static class ClientState {
+
+        @Param({"cached", "uncached"})
+        public String pathCache;
+
+        EmbeddedZooKeeper zooKeeper;
+        ZkClient client;
+
+        @Setup(Level.Trial)
+        public void start() throws Exception {
+            zooKeeper = new EmbeddedZooKeeper();
+            client = new ZkClient(zooKeeper.connectionString(), Duration.ofSeconds(10), Duration.ofSeconds(30));
+            client.ensurePath(LOCK_PATH);
+        }
+
+        @Setup(Level.Invocation)
+        public void forget() {
+            if ("uncached".equals(pathCache)) {
+                client.invalidatePath(LOCK_PATH);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() throws Exception {
+            client.close();
+            zooKeeper.close();
+        }
+    }
+
+    @Benchmark
+    public void ensurePath(ClientState state) throws InterruptedException, KeeperException {
+        state.client.ensurePath(LOCK_PATH);
+    }
+}
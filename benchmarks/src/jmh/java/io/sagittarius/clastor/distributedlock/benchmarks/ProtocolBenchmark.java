@@ -0,0 +1,95 @@
+package io.sagittarius.clastor.distributedlock.benchmarks;
+
+import io.sagittarius.clastor.distributedlock.domain.DistributedLock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loopback acquire/release round trips through the REST endpoint and through the binary
+ * protocol, against the same application.
+ * <p>
+ * The concurrent variants share one binary connection between all threads, so their operations
+ * are pipelined and batched into common frames, while each REST request waits for its own response.
+ */
+public class ProtocolBenchmark {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    private static final AtomicInteger THREAD_IDS = new AtomicInteger();
+
+    /**
+     * A key of its own per benchmark thread, so that nothing is ever contended.
+     */
+    @State(Scope.Thread)
+    public static class ThreadKey {
+
+        String resourceId;
+        URI acquire;
+        URI release;
+
+        @Setup
+        public void setUp(ApplicationState state) {
+            resourceId = "protocol-" + THREAD_IDS.incrementAndGet();
+            acquire = state.restBase.resolve("acquire?resourceId=" + resourceId + "&timeoutMs=" + TIMEOUT.toMillis());
+            release = state.restBase.resolve("release?resourceId=" + resourceId);
+        }
+    }
+
+    @Benchmark
+    public void rest(ApplicationState state, ThreadKey key, Blackhole blackhole)
+            throws IOException, InterruptedException {
+        restAcquireRelease(state, key, blackhole);
+    }
+
+    @Benchmark
+    public void binary(ApplicationState state, ThreadKey key, Blackhole blackhole) throws InterruptedException {
+        binaryAcquireRelease(state, key, blackhole);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void restConcurrent(ApplicationState state, ThreadKey key, Blackhole blackhole)
+            throws IOException, InterruptedException {
+        restAcquireRelease(state, key, blackhole);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void binaryConcurrent(ApplicationState state, ThreadKey key, Blackhole blackhole) throws InterruptedException {
+        binaryAcquireRelease(state, key, blackhole);
+    }
+
+    private static void restAcquireRelease(ApplicationState state, ThreadKey key, Blackhole blackhole)
+            throws IOException, InterruptedException {
+        blackhole.consume(post(state, key.acquire));
+        blackhole.consume(post(state, key.release));
+    }
+
+    private static void binaryAcquireRelease(ApplicationState state, ThreadKey key, Blackhole blackhole)
+            throws InterruptedException {
+        DistributedLock lock = state.binaryClient.lock(LockManagerState.RESOURCE_KIND, key.resourceId);
+        boolean acquired = lock.tryLock(TIMEOUT);
+        blackhole.consume(acquired);
+        if (acquired) {
+            lock.unlock();
+        }
+    }
+
+    private static String post(ApplicationState state, URI uri) throws IOException, InterruptedException {
+        HttpResponse<String> response = state.post(uri);
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("POST " + uri + " answered " + response.statusCode());
+        }
+        return response.body();
+    }
+}
@@ -19,6 +19,7 @@ subprojects {
 
             // JUnit
             "testImplementation"("org.junit.jupiter:junit-jupiter:5.11.3")
+            "testRuntimeOnly"("org.junit.platform:junit-platform-launcher")
         }
 
         extensions.configure<JavaPluginExtension> {
@@ -1,6 +1,7 @@
 package io.sagittarius.clastor.distributedlock.domain;
 
 import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * A distributed lock that can be used to synchronize access to resources
@@ -8,8 +9,20 @@ import java.time.Duration;
  */
 public interface DistributedLock extends AutoCloseable {
 
+    /**
+     * Tries to acquire the lock once, without queuing: it either is free right now or the
+     * attempt fails. Equivalent to {@code tryLock(Duration.ZERO)}.
+     *
+     * @return whether the lock was successfully acquired
+     * @throws InterruptedException if the thread was interrupted
+     */
+    default boolean tryLock() throws InterruptedException {
+        return tryLock(Duration.ZERO);
+    }
+
     /**
      * Tries to acquire the lock within the given timeout.
+     * A zero or negative timeout makes a single attempt, like {@link #tryLock()}.
      *
      * @param timeout the timeout
      * @return whether the lock was successfully acquired
@@ -17,11 +30,56 @@ public interface DistributedLock extends AutoCloseable {
      */
     boolean tryLock(Duration timeout) throws InterruptedException;
 
+    /**
+     * Tries to acquire the lock within the given timeout without blocking the caller.
+     * <p>
+     * The returned future completes with {@code true} once the lock is held and with
+     * {@code false} when the timeout elapses. Cancelling the future abandons the attempt.
+     *
+     * @param timeout the timeout
+     * @return a future of whether the lock was successfully acquired
+     */
+    CompletableFuture<Boolean> tryLockAsync(Duration timeout);
+
     /**
      * Releases the lock.
      */
     void unlock();
 
+    /**
+     * Releases the lock without blocking the caller.
+     *
+     * @return a future completed once the lock has been released
+     */
+    CompletableFuture<Void> unlockAsync();
+
+    /**
+     * Returns an opaque token of the current hold, with which any instance connected to the same
+     * backend can release the lock through {@link DistributedLockManager#releaseAsync(String)}.
+     * <p>
+     * The token names this hold only: once the lock is released, or lost with its session, the
+     * token releases nothing, even if the lock has been taken again since.
+     *
+     * @return the token, or {@code null} if the lock is not held or cannot be released by token
+     */
+    default String token() {
+        return null;
+    }
+
+    /**
+     * Registers a listener told when a hold of this lock is lost without being released, e.g.
+     * because the session it was taken with expired. The lock is then no longer held, and another
+     * client may already hold it.
+     * <p>
+     * The listener stays registered for every later hold of this handle. It is called at most once
+     * per hold, from a backend thread, and must not block. Backends whose holds cannot be lost
+     * never call it.
+     *
+     * @param listener the listener
+     */
+    default void onLost(Runnable listener) {
+    }
+
     /**
      * Releases the lock when the lock is closed.
      */
@@ -29,4 +87,4 @@ public interface DistributedLock extends AutoCloseable {
     default void close() {
         unlock();
     }
-}
\ No newline at end of file
+}
@@ -1,19 +1,95 @@
 package io.sagittarius.clastor.distributedlock.domain;
 
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * A manager for distributed locks.
  */
 public interface DistributedLockManager {
-    // TODO: Add resource mode like: normal, draining for correct rotation support
 
     /**
-     * Acquires a distributed lock for a given resource kind and resource id.
+     * Acquires an exclusive distributed lock for a given resource kind and resource id.
+     *
+     * @param resourceKind the kind of the resource to lock
+     * @param resourceId the id of the resource to lock
+     * @return a distributed lock that can be used to lock the resource
+     * @throws ResourceDrainingException if the resource kind is {@link ResourceMode#DRAINING draining}
+     */
+    default DistributedLock lock(String resourceKind, String resourceId) {
+        return lock(resourceKind, resourceId, LockMode.EXCLUSIVE);
+    }
+
+    /**
+     * Acquires a distributed lock for a given resource kind and resource id in the given mode.
+     * Shared and exclusive locks of the same resource exclude each other.
      *
      * @param resourceKind the kind of the resource to lock
      * @param resourceId the id of the resource to lock
+     * @param mode whether the lock is exclusive (write) or shared (read)
      * @return a distributed lock that can be used to lock the resource
+     * @throws ResourceDrainingException if the resource kind is {@link ResourceMode#DRAINING draining}
+     */
+    DistributedLock lock(String resourceKind, String resourceId, LockMode mode);
+
+    /**
+     * Returns a single lock over several resources of the same kind.
+     *
+     * @param resourceKind the kind of the resources to lock
+     * @param resourceIds the ids of the resources to lock
+     * @return a distributed lock that holds all of the resources at once
+     * @see #lockAll(Collection)
+     */
+    default DistributedLock lockAll(String resourceKind, Collection<String> resourceIds) {
+        return lockAll(resourceIds.stream()
+                .map(resourceId -> new LockKey(resourceKind, resourceId))
+                .toList());
+    }
+
+    /**
+     * Returns a single lock over several resources, possibly of different kinds.
+     * <p>
+     * The lock is acquired only when every resource is held exclusively, and releasing it
+     * releases all of them. Resources are taken in {@link LockKey canonical order}, whatever the order given.
+     *
+     * @param keys the resources to lock
+     * @return a distributed lock that holds all of the resources at once
+     * @throws ResourceDrainingException if the kind of any resource is {@link ResourceMode#DRAINING draining}
      */
-    DistributedLock lock(String resourceKind, String resourceId);
+    DistributedLock lockAll(Collection<LockKey> keys);
+
+    /**
+     * Returns a counting semaphore for a given resource kind and resource id.
+     * Its number of permits is shared by all resources of the kind, see {@link #permitsAccessor()}.
+     *
+     * @param resourceKind the kind of the resource
+     * @param resourceId the id of the resource
+     * @return a semaphore that can be used to take one of the permits of the resource
+     * @throws ResourceDrainingException if the resource kind is {@link ResourceMode#DRAINING draining}
+     */
+    DistributedSemaphore semaphore(String resourceKind, String resourceId);
+
+    /**
+     * Releases a lock or a permit by the {@link DistributedLock#token() token} of its hold, from
+     * any instance connected to the same backend, without the handle that acquired it.
+     * <p>
+     * The handle itself is not told: it must not be released again once its token has been used.
+     *
+     * @param token the token of the hold
+     * @return a future of whether the hold was released, {@code false} if it was not held any more
+     * @throws IllegalArgumentException if the token was not issued by this kind of manager
+     */
+    default CompletableFuture<Boolean> releaseAsync(String token) {
+        return CompletableFuture.failedFuture(
+                new UnsupportedOperationException(getClass().getSimpleName() + " does not release by token"));
+    }
+
+    /**
+     * Returns the accessor of the number of semaphore permits per resource kind.
+     *
+     * @return the accessor of the number of semaphore permits
+     */
+    DistributedSemaphorePermitsAccessor permitsAccessor();
 
     /**
      * Returns the current version of the distributed lock system.
@@ -22,6 +98,13 @@ public interface DistributedLockManager {
      */
     DistributedLockVersionAccessor versionAccessor();
 
+    /**
+     * Returns the manager of the resource modes and version rotations.
+     *
+     * @return the lock schema manager
+     */
+    LockSchemaManager schemaManager();
+
     /**
      * Closes the manager and releases all resources.
      *
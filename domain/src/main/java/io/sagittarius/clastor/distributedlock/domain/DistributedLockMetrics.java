@@ -0,0 +1,107 @@
+package io.sagittarius.clastor.distributedlock.domain;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Receives measurements from the lock adapters, and from the APIs in front of them.
+ * <p>
+ * Every method does nothing by default, and {@link #NOOP} is what the adapters use unless
+ * told otherwise, so an embedding application that does not care about metrics pays nothing.
+ * Implementations are called from ZooKeeper event threads and must not block.
+ */
+public interface DistributedLockMetrics {
+
+    /**
+     * Records nothing.
+     */
+    DistributedLockMetrics NOOP = new DistributedLockMetrics() {
+    };
+
+    /**
+     * How an acquisition ended.
+     */
+    enum AcquireOutcome {
+        ACQUIRED,
+        /**
+         * The timeout passed, or the caller gave up waiting (cancellation, interruption).
+         */
+        TIMEOUT,
+        /**
+         * Given up at once, the wait predicted for it being far longer than its timeout.
+         */
+        ESTIMATED_TIMEOUT,
+        ERROR
+    }
+
+    /**
+     * State of the client session to the coordination service.
+     */
+    enum SessionState {
+        CONNECTED,
+        DISCONNECTED,
+        EXPIRED,
+        CLOSED
+    }
+
+    /**
+     * An acquisition through a lock handle has ended.
+     * @param resourceKind the kind of the resource
+     * @param outcome how it ended
+     * @param durationNanos how long it took
+     */
+    default void acquireCompleted(String resourceKind, AcquireOutcome outcome, long durationNanos) {
+    }
+
+    /**
+     * A contender has joined the wait queue of a lock.
+     * @param resourceKind the kind of the resource
+     * @param position the number of conflicting contenders ahead of it, {@code 0} when it holds the lock at once
+     */
+    default void enqueued(String resourceKind, int position) {
+    }
+
+    /**
+     * A contender has finished its attempt, whatever the outcome.
+     * @param resourceKind the kind of the resource
+     * @param roundTrips the number of requests the attempt sent to the server
+     */
+    default void roundTrips(String resourceKind, int roundTrips) {
+    }
+
+    /**
+     * A held lock has been released through its handle.
+     * @param resourceKind the kind of the resource
+     * @param heldNanos how long it was held
+     */
+    default void released(String resourceKind, long heldNanos) {
+    }
+
+    /**
+     * The client session has changed state.
+     * @param state the new state
+     */
+    default void sessionStateChanged(SessionState state) {
+    }
+
+    /**
+     * Makes the version cache counters of an adapter available for reporting.
+     * @param hits the number of version lookups served from the cache so far
+     * @param misses the number of version lookups that went to the server so far
+     */
+    default void versionCache(LongSupplier hits, LongSupplier misses) {
+    }
+
+    /**
+     * The lease of a hold ran out before the hold was released, and it was released for its holder.
+     * @param resourceKind the kind of the resource
+     */
+    default void leaseExpired(String resourceKind) {
+    }
+
+    /**
+     * Makes the number of running leases available for reporting.
+     * @param active the number of leases neither expired nor ended by a release
+     */
+    default void leases(LongSupplier active) {
+    }
+}
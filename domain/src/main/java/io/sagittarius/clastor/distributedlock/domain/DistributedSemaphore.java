@@ -0,0 +1,63 @@
+package io.sagittarius.clastor.distributedlock.domain;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A distributed counting semaphore: up to a configured number of holders may hold a permit
+ * of the same resource at the same time.
+ * <p>
+ * Each instance holds at most one permit.
+ */
+public interface DistributedSemaphore extends AutoCloseable {
+
+    /**
+     * Tries to acquire a permit within the given timeout.
+     * A zero or negative timeout makes a single attempt.
+     *
+     * @param timeout the timeout
+     * @return whether a permit was successfully acquired
+     * @throws InterruptedException if the thread was interrupted
+     */
+    boolean tryAcquire(Duration timeout) throws InterruptedException;
+
+    /**
+     * Tries to acquire a permit within the given timeout without blocking the caller.
+     * <p>
+     * The returned future completes with {@code true} once a permit is held and with
+     * {@code false} when the timeout elapses. Cancelling the future abandons the attempt.
+     *
+     * @param timeout the timeout
+     * @return a future of whether a permit was successfully acquired
+     */
+    CompletableFuture<Boolean> tryAcquireAsync(Duration timeout);
+
+    /**
+     * Releases the permit.
+     */
+    void release();
+
+    /**
+     * Releases the permit without blocking the caller.
+     *
+     * @return a future completed once the permit has been released
+     */
+    CompletableFuture<Void> releaseAsync();
+
+    /**
+     * Returns an opaque token of the held permit, see {@link DistributedLock#token()}.
+     *
+     * @return the token, or {@code null} if no permit is held or it cannot be released by token
+     */
+    default String token() {
+        return null;
+    }
+
+    /**
+     * Releases the permit when the semaphore is closed.
+     */
+    @Override
+    default void close() {
+        release();
+    }
+}
@@ -0,0 +1,31 @@
+package io.sagittarius.clastor.distributedlock.domain;
+
+/**
+ * Interface for accessing the number of permits of the semaphores of a resource kind.
+ * The number is stored next to the version node and can be changed at runtime.
+ */
+public interface DistributedSemaphorePermitsAccessor {
+
+    /**
+     * Returns the path to the permits node for a given resource kind.
+     * @param resourceKind the kind of the resource
+     * @return the path to the permits node for the given resource kind
+     */
+    String permitsPath(String resourceKind);
+
+    /**
+     * Returns the current number of permits of every semaphore of a given resource kind.
+     * @param resourceKind the kind of the resource
+     * @return the current number of permits for the given resource kind
+     */
+    int currentPermits(String resourceKind);
+
+    /**
+     * Changes the number of permits of every semaphore of a given resource kind.
+     * Holders above the new limit keep their permits; waiters are admitted once the
+     * number of holders is below it.
+     * @param resourceKind the kind of the resource
+     * @param permits the new number of permits, at least one
+     */
+    void setPermits(String resourceKind, int permits);
+}
@@ -0,0 +1,36 @@
+package io.sagittarius.clastor.distributedlock.domain;
+
+import java.time.Duration;
+
+/**
+ * Fails an asynchronous acquisition that was given up before waiting out its timeout, because
+ * the wait predicted from the queue ahead and the hold times seen so far is far longer. Nothing
+ * is left queued on its behalf. Blocking acquisitions answer {@code false} instead, as for any
+ * other timeout.
+ */
+public class EstimatedTimeoutException extends RuntimeException {
+
+    private final Duration estimatedWait;
+
+    /**
+     * @param position the number of holders and waiters ahead
+     * @param remaining the time that was left until the timeout
+     */
+    public EstimatedTimeoutException(String resource, int position, Duration estimatedWait, Duration remaining) {
+        super("Estimated wait for " + resource + " behind " + position + " contenders is " + estimatedWait.toMillis()
+                + " ms, with " + remaining.toMillis() + " ms left");
+        this.estimatedWait = estimatedWait;
+    }
+
+    public EstimatedTimeoutException(String message) {
+        super(message);
+        this.estimatedWait = null;
+    }
+
+    /**
+     * @return the predicted wait, {@code null} if not known here, e.g. when reported by a remote server
+     */
+    public Duration estimatedWait() {
+        return estimatedWait;
+    }
+}
@@ -0,0 +1,147 @@
+package io.sagittarius.clastor.distributedlock.domain;
+
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Records the acquire latency and hold time of any lock handle into
+ * {@link DistributedLockMetrics}. Measured at the handle the caller holds, so a coalesced or
+ * multi-resource lock is counted once, however many server-side contenders it uses.
+ */
+public final class InstrumentedDistributedLock implements DistributedLock {
+
+    private final DistributedLock delegate;
+    private final String resourceKind;
+    private final DistributedLockMetrics metrics;
+    // whether blocking acquisitions go through the asynchronous one of the delegate
+    private final boolean blockingAsync;
+
+    private volatile long acquiredAtNanos;
+
+    private InstrumentedDistributedLock(DistributedLock delegate, String resourceKind, DistributedLockMetrics metrics,
+                                        boolean blockingAsync) {
+        this.delegate = delegate;
+        this.resourceKind = resourceKind;
+        this.metrics = metrics;
+        this.blockingAsync = blockingAsync;
+    }
+
+    /**
+     * Wraps the given lock, or returns it as is when nothing is recorded.
+     */
+    public static DistributedLock instrument(DistributedLock lock, String resourceKind, DistributedLockMetrics metrics) {
+        if (metrics == DistributedLockMetrics.NOOP) {
+            return lock;
+        }
+        return new InstrumentedDistributedLock(lock, resourceKind, metrics, false);
+    }
+
+    /**
+     * Wraps a lock whose blocking acquisition only waits for its asynchronous one, such as those
+     * giving up with an {@link EstimatedTimeoutException}. Blocking acquisitions then go through
+     * the asynchronous one as well, so that an estimated timeout is recorded as such; they still
+     * answer {@code false} for it.
+     */
+    public static DistributedLock instrumentAsync(DistributedLock lock, String resourceKind, DistributedLockMetrics metrics) {
+        if (metrics == DistributedLockMetrics.NOOP) {
+            return lock;
+        }
+        return new InstrumentedDistributedLock(lock, resourceKind, metrics, true);
+    }
+
+    @Override
+    public boolean tryLock(Duration timeout) throws InterruptedException {
+        if (blockingAsync) {
+            return awaitLock(timeout);
+        }
+        long startNanos = System.nanoTime();
+        boolean acquired = false;
+        DistributedLockMetrics.AcquireOutcome outcome = DistributedLockMetrics.AcquireOutcome.ERROR;
+        try {
+            acquired = delegate.tryLock(timeout);
+            outcome = acquired ? DistributedLockMetrics.AcquireOutcome.ACQUIRED : DistributedLockMetrics.AcquireOutcome.TIMEOUT;
+            return acquired;
+        } catch (InterruptedException e) {
+            outcome = DistributedLockMetrics.AcquireOutcome.TIMEOUT;
+            throw e;
+        } finally {
+            completed(startNanos, outcome, acquired);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Boolean> tryLockAsync(Duration timeout) {
+        long startNanos = System.nanoTime();
+        CompletableFuture<Boolean> result = delegate.tryLockAsync(timeout);
+        result.whenComplete((acquired, error) -> {
+            DistributedLockMetrics.AcquireOutcome outcome;
+            if (error == null) {
+                outcome = acquired ? DistributedLockMetrics.AcquireOutcome.ACQUIRED : DistributedLockMetrics.AcquireOutcome.TIMEOUT;
+            } else if (error instanceof CancellationException) {
+                outcome = DistributedLockMetrics.AcquireOutcome.TIMEOUT;
+            } else if (error instanceof EstimatedTimeoutException) {
+                outcome = DistributedLockMetrics.AcquireOutcome.ESTIMATED_TIMEOUT;
+            } else {
+                outcome = DistributedLockMetrics.AcquireOutcome.ERROR;
+            }
+            completed(startNanos, outcome, Boolean.TRUE.equals(acquired));
+        });
+        // the caller's future, so that cancelling it reaches the delegate
+        return result;
+    }
+
+    private boolean awaitLock(Duration timeout) throws InterruptedException {
+        CompletableFuture<Boolean> acquisition = tryLockAsync(timeout);
+        try {
+            return acquisition.get();
+        } catch (InterruptedException e) {
+            acquisition.cancel(false);
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof EstimatedTimeoutException) {
+                return false;
+            }
+            throw new RuntimeException("Error while acquiring lock", e.getCause());
+        }
+    }
+
+    @Override
+    public void unlock() {
+        releasing();
+        delegate.unlock();
+    }
+
+    @Override
+    public CompletableFuture<Void> unlockAsync() {
+        releasing();
+        return delegate.unlockAsync();
+    }
+
+    @Override
+    public String token() {
+        return delegate.token();
+    }
+
+    @Override
+    public void onLost(Runnable listener) {
+        delegate.onLost(listener);
+    }
+
+    private void completed(long startNanos, DistributedLockMetrics.AcquireOutcome outcome, boolean acquired) {
+        long now = System.nanoTime();
+        if (acquired) {
+            acquiredAtNanos = now;
+        }
+        metrics.acquireCompleted(resourceKind, outcome, now - startNanos);
+    }
+
+    private void releasing() {
+        long acquiredAt = acquiredAtNanos;
+        if (acquiredAt != 0) {
+            acquiredAtNanos = 0;
+            metrics.released(resourceKind, System.nanoTime() - acquiredAt);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package io.sagittarius.clastor.distributedlock.domain;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Identifies a single lockable resource.
+ * <p>
+ * Keys are ordered by resource kind, then by resource id. Multi-resource locks always take
+ * their keys in this order, so that two callers locking overlapping sets can never deadlock.
+ *
+ * @param resourceKind the kind of the resource
+ * @param resourceId   the id of the resource
+ */
+public record LockKey(String resourceKind, String resourceId) implements Comparable<LockKey> {
+
+    private static final Comparator<LockKey> ORDER = Comparator
+            .comparing(LockKey::resourceKind)
+            .thenComparing(LockKey::resourceId);
+
+    public LockKey {
+        if (resourceKind == null || resourceKind.isEmpty()) {
+            throw new IllegalArgumentException("resourceKind must not be empty");
+        }
+        if (resourceId == null || resourceId.isEmpty()) {
+            throw new IllegalArgumentException("resourceId must not be empty");
+        }
+    }
+
+    /**
+     * Returns the given keys without duplicates, in canonical order.
+     *
+     * @param keys the keys to order
+     * @return the distinct keys in canonical order
+     */
+    public static List<LockKey> canonical(Collection<LockKey> keys) {
+        return keys.stream().distinct().sorted().toList();
+    }
+
+    @Override
+    public int compareTo(LockKey other) {
+        return ORDER.compare(this, other);
+    }
+
+    @Override
+    public String toString() {
+        return resourceKind + "/" + resourceId;
+    }
+}
@@ -0,0 +1,17 @@
+package io.sagittarius.clastor.distributedlock.domain;
+
+/**
+ * How a lock is held.
+ */
+public enum LockMode {
+
+    /**
+     * A single holder at a time, excluding every other holder (a write lock).
+     */
+    EXCLUSIVE,
+
+    /**
+     * Any number of shared holders at a time, excluding exclusive holders only (a read lock).
+     */
+    SHARED
+}
@@ -0,0 +1,66 @@
+package io.sagittarius.clastor.distributedlock.domain;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Manages the lock namespaces of the resource kinds: whether new locks can be taken, and the
+ * rotation of a kind to a new version.
+ * <p>
+ * A rotation puts the kind in {@link ResourceMode#DRAINING}, so that no new lock is taken under
+ * the current version, waits until every lock and permit held or waited for under it is gone,
+ * then switches the version and reopens the kind in a single step, and finally deletes the old
+ * namespace. Instances sharing the backend see the mode and the version change together.
+ * <p>
+ * Handles resolve the version of their resource when they are obtained from the
+ * {@link DistributedLockManager}, so a handle obtained before a rotation must not be used to
+ * acquire again after it.
+ */
+public interface LockSchemaManager {
+
+    /**
+     * Returns the mode of a resource kind, {@link ResourceMode#NORMAL} unless set otherwise.
+     * Served from a cache the backend keeps up to date, so it is cheap enough for every lock.
+     *
+     * @param resourceKind the kind of the resource
+     * @return the mode of the resource kind
+     */
+    ResourceMode mode(String resourceKind);
+
+    /**
+     * Changes the mode of a resource kind, for every instance sharing the backend.
+     *
+     * @param resourceKind the kind of the resource
+     * @param mode the new mode
+     */
+    void setMode(String resourceKind, ResourceMode mode);
+
+    /**
+     * Waits until nothing holds or waits for a lock or a permit of a resource kind under a version.
+     * <p>
+     * The backend is told of every change, nothing is polled. While new locks keep being taken the
+     * version never drains, so the kind is put in {@link ResourceMode#DRAINING} first. Cancelling
+     * the future stops the wait.
+     *
+     * @param resourceKind the kind of the resource
+     * @param version the version to drain
+     * @return a future completed once the version is drained
+     */
+    CompletableFuture<Void> awaitDrained(String resourceKind, String version);
+
+    /**
+     * Rotates a resource kind to a new version: drains the current version, switches to the new
+     * one and reopens the kind at once, then deletes the namespace of the old version.
+     * <p>
+     * If the current version does not drain within the timeout, the rotation is abandoned: the
+     * kind goes back to the mode it had, still on the current version, and the future fails with a
+     * {@link java.util.concurrent.TimeoutException}.
+     *
+     * @param resourceKind the kind of the resource
+     * @param newVersion the version to rotate to
+     * @param drainTimeout how long the current version may take to drain
+     * @return a future of the version rotated away from
+     * @throws IllegalArgumentException if the new version is blank or already the current one
+     */
+    CompletableFuture<String> rotate(String resourceKind, String newVersion, Duration drainTimeout);
+}
@@ -0,0 +1,20 @@
+package io.sagittarius.clastor.distributedlock.domain;
+
+/**
+ * Thrown when a lock of a resource kind in {@link ResourceMode#DRAINING} is asked for.
+ * Callers retry once the kind is back to {@link ResourceMode#NORMAL}, normally within the
+ * duration of a rotation.
+ */
+public class ResourceDrainingException extends IllegalStateException {
+
+    private final String resourceKind;
+
+    public ResourceDrainingException(String resourceKind) {
+        super("Resource kind " + resourceKind + " is draining, no new locks are taken");
+        this.resourceKind = resourceKind;
+    }
+
+    public String resourceKind() {
+        return resourceKind;
+    }
+}
@@ -0,0 +1,19 @@
+package io.sagittarius.clastor.distributedlock.domain;
+
+/**
+ * Whether new locks of a resource kind can be taken, see {@link LockSchemaManager}.
+ */
+public enum ResourceMode {
+
+    /**
+     * Locks are taken as usual.
+     */
+    NORMAL,
+
+    /**
+     * New locks, multi-resource locks and semaphores of the kind are refused with a
+     * {@link ResourceDrainingException}, so that the holds of the current version drain out.
+     * Holds already taken and handles already obtained are not affected.
+     */
+    DRAINING
+}
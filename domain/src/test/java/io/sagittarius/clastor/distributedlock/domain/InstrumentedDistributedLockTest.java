@@ -0,0 +1,105 @@
+package io.sagittarius.clastor.distributedlock.domain;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InstrumentedDistributedLockTest {
+
+    private final List<DistributedLockMetrics.AcquireOutcome> outcomes = new ArrayList<>();
+    private final DistributedLockMetrics metrics = new DistributedLockMetrics() {
+        @Override
+        public void acquireCompleted(String resourceKind, AcquireOutcome outcome, long durationNanos) {
+            outcomes.add(outcome);
+        }
+    };
+
+    /**
+     * A lock answering every acquisition with the given future, its blocking acquisitions waiting
+     * for it and answering {@code false} for an estimated timeout.
+     */
+    private static DistributedLock answering(CompletableFuture<Boolean> answer) {
+        return new DistributedLock() {
+            @Override
+            public boolean tryLock(Duration timeout) {
+                try {
+                    return answer.get();
+                } catch (InterruptedException | ExecutionException e) {
+                    if (e.getCause() instanceof EstimatedTimeoutException) {
+                        return false;
+                    }
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+
+            @Override
+            public CompletableFuture<Boolean> tryLockAsync(Duration timeout) {
+                return answer;
+            }
+
+            @Override
+            public void unlock() {
+            }
+
+            @Override
+            public CompletableFuture<Void> unlockAsync() {
+                return CompletableFuture.completedFuture(null);
+            }
+        };
+    }
+
+    private static CompletableFuture<Boolean> estimatedTimeout() {
+        return CompletableFuture.failedFuture(new EstimatedTimeoutException("predicted too long"));
+    }
+
+    @Test
+    void blockingEstimatedTimeoutsAreRecordedAsSuch() throws Exception {
+        DistributedLock lock = InstrumentedDistributedLock.instrumentAsync(answering(estimatedTimeout()), "orders", metrics);
+
+        assertFalse(lock.tryLock(Duration.ofSeconds(1)));
+        assertEquals(List.of(DistributedLockMetrics.AcquireOutcome.ESTIMATED_TIMEOUT), outcomes);
+    }
+
+    @Test
+    void blockingAcquisitionsThroughTheAsynchronousOneKeepTheirOutcomes() throws Exception {
+        assertTrue(InstrumentedDistributedLock.instrumentAsync(answering(CompletableFuture.completedFuture(true)), "orders", metrics)
+                .tryLock(Duration.ofSeconds(1)));
+        assertFalse(InstrumentedDistributedLock.instrumentAsync(answering(CompletableFuture.completedFuture(false)), "orders", metrics)
+                .tryLock(Duration.ofSeconds(1)));
+        IllegalStateException failure = new IllegalStateException("backend down");
+        RuntimeException error = assertThrows(RuntimeException.class, () -> InstrumentedDistributedLock
+                .instrumentAsync(answering(CompletableFuture.failedFuture(failure)), "orders", metrics)
+                .tryLock(Duration.ofSeconds(1)));
+        assertSame(failure, error.getCause());
+
+        assertEquals(List.of(DistributedLockMetrics.AcquireOutcome.ACQUIRED, DistributedLockMetrics.AcquireOutcome.TIMEOUT,
+                DistributedLockMetrics.AcquireOutcome.ERROR), outcomes);
+    }
+
+    @Test
+    void asynchronousEstimatedTimeoutsAreRecordedAsSuch() {
+        DistributedLock lock = InstrumentedDistributedLock.instrument(answering(estimatedTimeout()), "orders", metrics);
+
+        ExecutionException error = assertThrows(ExecutionException.class, () -> lock.tryLockAsync(Duration.ofSeconds(1)).get());
+        assertInstanceOf(EstimatedTimeoutException.class, error.getCause());
+        assertEquals(List.of(DistributedLockMetrics.AcquireOutcome.ESTIMATED_TIMEOUT), outcomes);
+    }
+
+    @Test
+    void nothingIsWrappedWithoutMetrics() {
+        DistributedLock lock = answering(estimatedTimeout());
+
+        assertSame(lock, InstrumentedDistributedLock.instrumentAsync(lock, "orders", DistributedLockMetrics.NOOP));
+    }
+}
@@ -0,0 +1,55 @@
+package io.sagittarius.clastor.distributedlock.domain;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class LockKeyTest {
+
+    @Test
+    void canonicalOrderIsByKindThenId() {
+        List<LockKey> keys = List.of(
+                new LockKey("payments", "1"),
+                new LockKey("orders", "2"),
+                new LockKey("orders", "10"),
+                new LockKey("orders", "1"));
+
+        assertEquals(List.of(
+                new LockKey("orders", "1"),
+                new LockKey("orders", "10"),
+                new LockKey("orders", "2"),
+                new LockKey("payments", "1")), LockKey.canonical(keys));
+    }
+
+    @Test
+    void canonicalDropsDuplicates() {
+        List<LockKey> keys = List.of(
+                new LockKey("orders", "1"),
+                new LockKey("orders", "1"),
+                new LockKey("orders", "2"));
+
+        assertEquals(List.of(new LockKey("orders", "1"), new LockKey("orders", "2")), LockKey.canonical(keys));
+    }
+
+    @Test
+    void overlappingSetsAreTakenInTheSameOrder() {
+        List<LockKey> first = LockKey.canonical(List.of(new LockKey("a", "y"), new LockKey("a", "x")));
+        List<LockKey> second = LockKey.canonical(List.of(new LockKey("a", "x"), new LockKey("a", "y"), new LockKey("a", "z")));
+
+        assertEquals(first, second.subList(0, 2));
+    }
+
+    @Test
+    void emptyPartsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new LockKey("", "1"));
+        assertThrows(IllegalArgumentException.class, () -> new LockKey("orders", null));
+    }
+
+    @Test
+    void printsAsKindSlashId() {
+        assertEquals("orders/42", new LockKey("orders", "42").toString());
+    }
+}
@@ -0,0 +1,8 @@
+subprojects {
+    pluginManager.withPlugin("java") {
+        dependencies {
+            "implementation"(project(":domain"))
+            "implementation"("org.slf4j:slf4j-api:2.0.17")
+        }
+    }
+}
@@ -0,0 +1,13 @@
+plugins {
+    `java-library`
+}
+
+dependencies {
+    // the client hands out DistributedLock instances
+    api(project(":domain"))
+    implementation(project(":protocol:codec"))
+
+    // the tests talk to a real server over loopback
+    testImplementation(project(":protocol:server"))
+    testImplementation(project(":adapter:inmemory"))
+}
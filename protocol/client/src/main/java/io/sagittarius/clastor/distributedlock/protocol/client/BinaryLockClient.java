@@ -0,0 +1,216 @@
+package io.sagittarius.clastor.distributedlock.protocol.client;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.MultiThreadIoEventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioIoHandler;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.sagittarius.clastor.distributedlock.domain.DistributedLock;
+import io.sagittarius.clastor.distributedlock.domain.LockMode;
+import io.sagittarius.clastor.distributedlock.protocol.LockClientCodec;
+import io.sagittarius.clastor.distributedlock.protocol.LockFrames;
+import io.sagittarius.clastor.distributedlock.protocol.LockOperation;
+import io.sagittarius.clastor.distributedlock.protocol.LockReply;
+import io.sagittarius.clastor.distributedlock.protocol.ReplyFrame;
+import io.sagittarius.clastor.distributedlock.protocol.RequestFrame;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A connection to a binary lock server, safe to share between threads.
+ * <p>
+ * Requests are pipelined: they are sent without waiting for the replies to the previous ones,
+ * which come back in completion order. Operations submitted while the event loop is busy are
+ * written together in one frame.
+ * <p>
+ * Locks handed out by {@link #lock} are held by this connection on the server, and are all
+ * released by the server when the connection closes.
+ */
+@Slf4j
+public class BinaryLockClient implements AutoCloseable {
+
+    private static final long SHUTDOWN_TIMEOUT_MS = 1000;
+
+    private final EventLoopGroup group;
+    private final Channel channel;
+
+    private final AtomicInteger requestIds = new AtomicInteger();
+    private final ConcurrentMap<Integer, CompletableFuture<LockReply>> inFlight = new ConcurrentHashMap<>();
+    private final Queue<LockOperation> outbound = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    private BinaryLockClient(String host, int port, int maxFrameLength) throws InterruptedException {
+        this.group = new MultiThreadIoEventLoopGroup(1, NioIoHandler.newFactory());
+        Bootstrap bootstrap = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel channel) {
+                        channel.pipeline().addLast(
+                                LockFrames.frameDecoder(maxFrameLength),
+                                new LockClientCodec(),
+                                new ReplyHandler());
+                    }
+                });
+        try {
+            this.channel = bootstrap.connect(host, port).sync().channel();
+        } catch (RuntimeException | InterruptedException e) {
+            group.shutdownGracefully(0, SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            throw e;
+        }
+    }
+
+    public static BinaryLockClient connect(String host, int port) throws InterruptedException {
+        return connect(host, port, LockFrames.DEFAULT_MAX_FRAME_LENGTH);
+    }
+
+    public static BinaryLockClient connect(String host, int port, int maxFrameLength) throws InterruptedException {
+        return new BinaryLockClient(host, port, maxFrameLength);
+    }
+
+    /**
+     * Returns an exclusive lock of the resource, held through this connection.
+     */
+    public DistributedLock lock(String resourceKind, String resourceId) {
+        return lock(resourceKind, resourceId, LockMode.EXCLUSIVE);
+    }
+
+    /**
+     * Returns a lock of the resource in the given mode, held through this connection.
+     */
+    public DistributedLock lock(String resourceKind, String resourceId, LockMode mode) {
+        return new RemoteDistributedLock(this, resourceKind, resourceId, mode);
+    }
+
+    public boolean isConnected() {
+        return channel.isActive();
+    }
+
+    int nextRequestId() {
+        return requestIds.incrementAndGet();
+    }
+
+    /**
+     * Queues an operation for the next frame.
+     *
+     * @return a future of the reply to the operation
+     */
+    CompletableFuture<LockReply> send(LockOperation operation) {
+        CompletableFuture<LockReply> reply = new CompletableFuture<>();
+        inFlight.put(operation.requestId(), reply);
+        enqueue(operation);
+        if (!channel.isActive()) {
+            fail(operation.requestId(), new ClosedChannelException());
+        }
+        return reply;
+    }
+
+    /**
+     * Queues an operation that gets no reply.
+     */
+    void sendOneWay(LockOperation operation) {
+        enqueue(operation);
+    }
+
+    private void enqueue(LockOperation operation) {
+        outbound.add(operation);
+        if (flushScheduled.compareAndSet(false, true)) {
+            try {
+                channel.eventLoop().execute(this::flush);
+            } catch (RejectedExecutionException e) {
+                // closed, the caller fails the operation
+            }
+        }
+    }
+
+    private void flush() {
+        flushScheduled.set(false);
+        List<LockOperation> batch = new ArrayList<>();
+        LockOperation operation;
+        while ((operation = outbound.poll()) != null) {
+            batch.add(operation);
+            if (batch.size() == LockFrames.MAX_ENTRIES_PER_FRAME) {
+                write(batch);
+                batch = new ArrayList<>();
+            }
+        }
+        if (!batch.isEmpty()) {
+            write(batch);
+        }
+        channel.flush();
+    }
+
+    private void write(List<LockOperation> batch) {
+        channel.write(new RequestFrame(batch)).addListener(future -> {
+            if (!future.isSuccess()) {
+                batch.forEach(operation -> fail(operation.requestId(), future.cause()));
+            }
+        });
+    }
+
+    private void fail(int requestId, Throwable cause) {
+        CompletableFuture<LockReply> reply = inFlight.remove(requestId);
+        if (reply != null) {
+            reply.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Closes the connection; the server releases every lock it still holds for it.
+     */
+    @Override
+    public void close() {
+        channel.close().awaitUninterruptibly();
+        group.shutdownGracefully(0, SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS).awaitUninterruptibly();
+    }
+
+    private final class ReplyHandler extends SimpleChannelInboundHandler<ReplyFrame> {
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, ReplyFrame frame) {
+            for (LockReply reply : frame.replies()) {
+                CompletableFuture<LockReply> future = inFlight.remove(reply.requestId());
+                if (future != null) {
+                    future.complete(reply);
+                } else {
+                    log.debug("Reply to unknown request {}: {}", reply.requestId(), reply.status());
+                }
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            ClosedChannelException closed = new ClosedChannelException();
+            inFlight.keySet().forEach(requestId -> fail(requestId, closed));
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            log.warn("Closing binary lock connection to {}", ctx.channel().remoteAddress(), cause);
+            ctx.close();
+        }
+    }
+}
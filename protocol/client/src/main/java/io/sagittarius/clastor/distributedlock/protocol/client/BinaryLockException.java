@@ -0,0 +1,11 @@
+package io.sagittarius.clastor.distributedlock.protocol.client;
+
+/**
+ * An operation failed on the server; the connection itself is still usable.
+ */
+public class BinaryLockException extends RuntimeException {
+
+    public BinaryLockException(String message) {
+        super(message);
+    }
+}
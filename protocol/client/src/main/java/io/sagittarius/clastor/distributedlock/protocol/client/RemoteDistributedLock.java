@@ -0,0 +1,116 @@
+package io.sagittarius.clastor.distributedlock.protocol.client;
+
+import io.sagittarius.clastor.distributedlock.domain.DistributedLock;
+import io.sagittarius.clastor.distributedlock.domain.EstimatedTimeoutException;
+import io.sagittarius.clastor.distributedlock.domain.LockMode;
+import io.sagittarius.clastor.distributedlock.protocol.LockOperation;
+import io.sagittarius.clastor.distributedlock.protocol.LockReply;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A lock held on the server through the connection of a {@link BinaryLockClient}. The server
+ * knows it by the request id of the acquisition that took it.
+ */
+@Slf4j
+final class RemoteDistributedLock implements DistributedLock {
+
+    private static final int NOT_HELD = 0;
+
+    private final BinaryLockClient client;
+    private final String resourceKind;
+    private final String resourceId;
+    private final LockMode mode;
+
+    private volatile int lockId = NOT_HELD;
+
+    RemoteDistributedLock(BinaryLockClient client, String resourceKind, String resourceId, LockMode mode) {
+        this.client = client;
+        this.resourceKind = resourceKind;
+        this.resourceId = resourceId;
+        this.mode = mode;
+    }
+
+    @Override
+    public boolean tryLock(Duration timeout) throws InterruptedException {
+        CompletableFuture<Boolean> acquisition = tryLockAsync(timeout);
+        try {
+            return acquisition.get();
+        } catch (InterruptedException e) {
+            acquisition.cancel(false);
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof EstimatedTimeoutException) {
+                return false;
+            }
+            throw new RuntimeException("Error while acquiring remote lock", e.getCause());
+        }
+    }
+
+    @Override
+    public CompletableFuture<Boolean> tryLockAsync(Duration timeout) {
+        int requestId = client.nextRequestId();
+        int timeoutMillis = (int) Math.min(Integer.MAX_VALUE, Math.max(0, timeout.toMillis()));
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        client.send(new LockOperation.Acquire(requestId, resourceKind, resourceId, mode, timeoutMillis))
+                .whenComplete((reply, error) -> {
+                    if (error != null) {
+                        result.completeExceptionally(error);
+                        return;
+                    }
+                    switch (reply.status()) {
+                        case ACQUIRED -> {
+                            lockId = requestId;
+                            if (!result.complete(true)) {
+                                // cancelled while the reply was on its way
+                                lockId = NOT_HELD;
+                                client.send(new LockOperation.Release(client.nextRequestId(), requestId));
+                            }
+                        }
+                        case TIMEOUT, CANCELLED -> result.complete(false);
+                        case ESTIMATED_TIMEOUT -> result.completeExceptionally(new EstimatedTimeoutException(
+                                "Estimated wait for " + resourceKind + "/" + resourceId + " is far longer than the timeout"));
+                        case ERROR -> result.completeExceptionally(new BinaryLockException(reply.error()));
+                        default -> result.completeExceptionally(
+                                new BinaryLockException("Unexpected reply to an acquisition: " + reply.status()));
+                    }
+                });
+        result.whenComplete((acquired, error) -> {
+            if (error instanceof CancellationException) {
+                client.sendOneWay(new LockOperation.Cancel(client.nextRequestId(), requestId));
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public void unlock() {
+        try {
+            unlockAsync().join();
+        } catch (CompletionException e) {
+            log.error("Failed to release remote lock {}/{}", resourceKind, resourceId, e.getCause());
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> unlockAsync() {
+        int heldId = lockId;
+        if (heldId == NOT_HELD) {
+            return CompletableFuture.completedFuture(null);
+        }
+        lockId = NOT_HELD;
+
+        return client.send(new LockOperation.Release(client.nextRequestId(), heldId)).thenApply(reply -> {
+            if (reply.status() == LockReply.Status.ERROR) {
+                throw new BinaryLockException(reply.error());
+            }
+            return null;
+        });
+    }
+}
@@ -0,0 +1,248 @@
+package io.sagittarius.clastor.distributedlock.protocol.client;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.sagittarius.clastor.distributedlock.domain.DistributedLock;
+import io.sagittarius.clastor.distributedlock.domain.LockMode;
+import io.sagittarius.clastor.distributedlock.inmemory.InMemoryLockConfig;
+import io.sagittarius.clastor.distributedlock.inmemory.InMemoryLockManager;
+import io.sagittarius.clastor.distributedlock.protocol.LockClientCodec;
+import io.sagittarius.clastor.distributedlock.protocol.LockFrames;
+import io.sagittarius.clastor.distributedlock.protocol.LockOperation;
+import io.sagittarius.clastor.distributedlock.protocol.LockReply;
+import io.sagittarius.clastor.distributedlock.protocol.ReplyFrame;
+import io.sagittarius.clastor.distributedlock.protocol.RequestFrame;
+import io.sagittarius.clastor.distributedlock.protocol.server.BinaryLockServer;
+import io.sagittarius.clastor.distributedlock.protocol.server.BinaryLockServerConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.channels.ClosedChannelException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Drives a {@link BinaryLockServer} over the in-memory backend, through the client and through
+ * hand-built frames where the client would not send them.
+ */
+class BinaryLockLoopbackTest {
+
+    private static final Duration WAIT = Duration.ofSeconds(5);
+
+    private final InMemoryLockManager manager = new InMemoryLockManager(new InMemoryLockConfig("/locks"));
+    private final BinaryLockServer server = new BinaryLockServer(manager, new BinaryLockServerConfig(
+            "127.0.0.1", 0, 1, LockFrames.DEFAULT_MAX_FRAME_LENGTH, Duration.ofMillis(100)));
+
+    @BeforeEach
+    void start() throws InterruptedException {
+        server.start();
+    }
+
+    @AfterEach
+    void stop() {
+        server.close();
+        manager.close();
+    }
+
+    private BinaryLockClient connect() throws InterruptedException {
+        return BinaryLockClient.connect("127.0.0.1", server.port());
+    }
+
+    private DistributedLock local(String id) {
+        return manager.lock("orders", id, LockMode.EXCLUSIVE);
+    }
+
+    private static LockOperation.Acquire acquire(int requestId, String id, int timeoutMillis) {
+        return new LockOperation.Acquire(requestId, "orders", id, LockMode.EXCLUSIVE, timeoutMillis);
+    }
+
+    @Test
+    void repliesAreMatchedToTheirRequestsInCompletionOrder() throws Exception {
+        DistributedLock other = local("1");
+        assertTrue(other.tryLock(Duration.ZERO));
+
+        try (BinaryLockClient client = connect()) {
+            DistributedLock first = client.lock("orders", "1");
+            DistributedLock second = client.lock("orders", "2");
+            CompletableFuture<Boolean> waiting = first.tryLockAsync(WAIT);
+            CompletableFuture<Boolean> free = second.tryLockAsync(WAIT);
+
+            assertTrue(free.get(5, TimeUnit.SECONDS));
+            assertFalse(waiting.isDone());
+            assertFalse(local("2").tryLock(Duration.ZERO));
+
+            other.unlock();
+            assertTrue(waiting.get(5, TimeUnit.SECONDS));
+            assertFalse(local("1").tryLock(Duration.ZERO));
+
+            first.unlock();
+            second.unlock();
+            assertTrue(local("1").tryLock(Duration.ZERO));
+            assertTrue(local("2").tryLock(Duration.ZERO));
+        }
+    }
+
+    @Test
+    void timedOutAcquisitionsAreNotHeld() throws Exception {
+        DistributedLock other = local("1");
+        assertTrue(other.tryLock(Duration.ZERO));
+
+        try (BinaryLockClient client = connect()) {
+            DistributedLock lock = client.lock("orders", "1");
+            assertFalse(lock.tryLock(Duration.ofMillis(50)));
+
+            other.unlock();
+            assertTrue(local("1").tryLock(Duration.ZERO));
+        }
+    }
+
+    @Test
+    void operationsOfOneFrameAreAnsweredInOneFrame() throws Exception {
+        try (RawConnection connection = new RawConnection()) {
+            connection.send(acquire(1, "1", 0), acquire(2, "2", 0), new LockOperation.Release(3, 1));
+
+            assertEquals(List.of(
+                    LockReply.of(1, LockReply.Status.ACQUIRED),
+                    LockReply.of(2, LockReply.Status.ACQUIRED),
+                    LockReply.of(3, LockReply.Status.RELEASED)), connection.next().replies());
+            assertTrue(local("1").tryLock(Duration.ZERO));
+            assertFalse(local("2").tryLock(Duration.ZERO));
+        }
+    }
+
+    @Test
+    void requestIdsInUseAreRejected() throws Exception {
+        DistributedLock other = local("3");
+        assertTrue(other.tryLock(Duration.ZERO));
+
+        try (RawConnection connection = new RawConnection()) {
+            // 1 is held, 2 is pending behind the lock held outside
+            connection.send(acquire(1, "1", 0), acquire(1, "2", 0), acquire(2, "3", 5000), acquire(2, "4", 0));
+
+            List<LockReply> replies = connection.next().replies();
+            assertEquals(3, replies.size());
+            assertEquals(LockReply.of(1, LockReply.Status.ACQUIRED), replies.get(0));
+            assertEquals(LockReply.Status.ERROR, replies.get(1).status());
+            assertEquals(1, replies.get(1).requestId());
+            assertTrue(replies.get(1).error().contains("already in use"));
+            assertEquals(LockReply.Status.ERROR, replies.get(2).status());
+            assertEquals(2, replies.get(2).requestId());
+
+            // neither rejected acquisition took its lock
+            assertTrue(local("2").tryLock(Duration.ZERO));
+            assertTrue(local("4").tryLock(Duration.ZERO));
+
+            other.unlock();
+            assertEquals(List.of(LockReply.of(2, LockReply.Status.ACQUIRED)), connection.next().replies());
+            // the first hold is still there under its id
+            connection.send(new LockOperation.Release(5, 1));
+            assertEquals(List.of(LockReply.of(5, LockReply.Status.RELEASED)), connection.next().replies());
+        }
+    }
+
+    @Test
+    void releaseOfAnUnknownLockIsNotHeld() throws Exception {
+        try (RawConnection connection = new RawConnection()) {
+            connection.send(new LockOperation.Release(1, 42));
+
+            assertEquals(List.of(LockReply.of(1, LockReply.Status.NOT_HELD)), connection.next().replies());
+        }
+    }
+
+    @Test
+    void cancelledAcquisitionsAreAnsweredAsCancelled() throws Exception {
+        DistributedLock other = local("1");
+        assertTrue(other.tryLock(Duration.ZERO));
+
+        try (RawConnection connection = new RawConnection()) {
+            connection.send(acquire(1, "1", 60_000));
+            connection.send(new LockOperation.Cancel(2, 1));
+
+            assertEquals(List.of(LockReply.of(1, LockReply.Status.CANCELLED)), connection.next().replies());
+            other.unlock();
+            assertTrue(local("1").tryLock(Duration.ZERO));
+        }
+    }
+
+    @Test
+    void closingTheConnectionReleasesItsLocksAndCancelsItsAcquisitions() throws Exception {
+        DistributedLock other = local("2");
+        assertTrue(other.tryLock(Duration.ZERO));
+
+        BinaryLockClient client = connect();
+        assertTrue(client.lock("orders", "1").tryLock(WAIT));
+        CompletableFuture<Boolean> pending = client.lock("orders", "2").tryLockAsync(Duration.ofMinutes(1));
+        client.close();
+
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> pending.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(ClosedChannelException.class, failure.getCause());
+        assertTrue(local("1").tryLock(WAIT));
+
+        // nor does the abandoned acquisition take the lock once it is free
+        other.unlock();
+        assertTrue(local("2").tryLock(Duration.ZERO));
+    }
+
+    /**
+     * A connection sending frames exactly as given, which the client never batches on purpose.
+     */
+    private final class RawConnection implements AutoCloseable {
+
+        private final Socket socket;
+        private final EmbeddedChannel codec = new EmbeddedChannel(
+                LockFrames.frameDecoder(LockFrames.DEFAULT_MAX_FRAME_LENGTH), new LockClientCodec());
+        private final List<ReplyFrame> received = new ArrayList<>();
+
+        RawConnection() throws IOException {
+            socket = new Socket("127.0.0.1", server.port());
+            socket.setSoTimeout(5000);
+        }
+
+        void send(LockOperation... operations) throws IOException {
+            assertTrue(codec.writeOutbound(new RequestFrame(List.of(operations))));
+            ByteBuf encoded = codec.readOutbound();
+            try {
+                socket.getOutputStream().write(ByteBufUtil.getBytes(encoded));
+            } finally {
+                encoded.release();
+            }
+        }
+
+        ReplyFrame next() throws IOException {
+            byte[] buffer = new byte[4096];
+            while (received.isEmpty()) {
+                int read = socket.getInputStream().read(buffer);
+                if (read < 0) {
+                    fail("Connection closed by the server");
+                }
+                codec.writeInbound(Unpooled.copiedBuffer(buffer, 0, read));
+                for (Object frame; (frame = codec.readInbound()) != null; ) {
+                    received.add((ReplyFrame) frame);
+                }
+            }
+            return received.removeFirst();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+            codec.finishAndReleaseAll();
+        }
+    }
+}
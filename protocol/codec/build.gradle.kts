@@ -0,0 +1,7 @@
+plugins {
+    `java-library`
+}
+
+dependencies {
+    api("io.netty:netty-codec-base:4.2.7.Final")
+}
@@ -0,0 +1,23 @@
+package io.sagittarius.clastor.distributedlock.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageCodec;
+
+import java.util.List;
+
+/**
+ * Encodes request frames and decodes reply frames, behind {@link LockFrames#frameDecoder(int)}.
+ */
+public final class LockClientCodec extends MessageToMessageCodec<ByteBuf, RequestFrame> {
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, RequestFrame frame, List<Object> out) {
+        out.add(LockFrames.encode(ctx.alloc(), frame));
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf buf, List<Object> out) {
+        out.add(LockFrames.decodeReply(buf));
+    }
+}
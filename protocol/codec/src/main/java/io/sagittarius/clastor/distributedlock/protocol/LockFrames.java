@@ -0,0 +1,221 @@
+package io.sagittarius.clastor.distributedlock.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.EncoderException;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.sagittarius.clastor.distributedlock.domain.LockMode;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The wire format. All integers are big-endian, strings are UTF-8 prefixed with their length in
+ * bytes as an unsigned short.
+ * <pre>
+ * frame   := length:int32 count:uint16 entry{count}     length counts the bytes after itself
+ *
+ * request entries
+ * acquire := 0x01 requestId:int32 mode:uint8 timeoutMillis:int32 resourceKind:string resourceId:string
+ * release := 0x02 requestId:int32 lockId:int32
+ * cancel  := 0x03 requestId:int32 acquireId:int32
+ *
+ * reply entry
+ * reply   := status:uint8 requestId:int32 [error:string]    the error only follows status ERROR
+ * </pre>
+ * The mode is {@code 0} for exclusive and {@code 1} for shared.
+ */
+public final class LockFrames {
+
+    public static final int DEFAULT_MAX_FRAME_LENGTH = 1 << 20;
+
+    /**
+     * Larger batches are split over several frames by the senders.
+     */
+    public static final int MAX_ENTRIES_PER_FRAME = 1024;
+
+    static final int LENGTH_FIELD_LENGTH = 4;
+
+    private static final int HEADER_LENGTH = LENGTH_FIELD_LENGTH + 2;
+    private static final int MAX_STRING_LENGTH = 0xFFFF;
+    private static final int MAX_ERROR_CHARS = 512;
+
+    private static final int ACQUIRE = 0x01;
+    private static final int RELEASE = 0x02;
+    private static final int CANCEL = 0x03;
+
+    private static final int EXCLUSIVE = 0;
+    private static final int SHARED = 1;
+
+    private LockFrames() {
+    }
+
+    /**
+     * Splits the stream into frames, stripped of their length field.
+     */
+    public static LengthFieldBasedFrameDecoder frameDecoder(int maxFrameLength) {
+        return new LengthFieldBasedFrameDecoder(maxFrameLength, 0, LENGTH_FIELD_LENGTH, 0, LENGTH_FIELD_LENGTH);
+    }
+
+    static ByteBuf encode(ByteBufAllocator allocator, RequestFrame frame) {
+        List<LockOperation> operations = frame.operations();
+        int estimate = HEADER_LENGTH;
+        for (LockOperation operation : operations) {
+            estimate += operation instanceof LockOperation.Acquire acquire
+                    ? 14 + ByteBufUtil.utf8MaxBytes(acquire.resourceKind()) + ByteBufUtil.utf8MaxBytes(acquire.resourceId())
+                    : 9;
+        }
+
+        ByteBuf buf = allocator.directBuffer(estimate);
+        try {
+            writeHeader(buf, operations.size());
+            for (LockOperation operation : operations) {
+                switch (operation) {
+                    case LockOperation.Acquire acquire -> {
+                        buf.writeByte(ACQUIRE);
+                        buf.writeInt(acquire.requestId());
+                        buf.writeByte(acquire.mode() == LockMode.SHARED ? SHARED : EXCLUSIVE);
+                        buf.writeInt(acquire.timeoutMillis());
+                        writeString(buf, acquire.resourceKind());
+                        writeString(buf, acquire.resourceId());
+                    }
+                    case LockOperation.Release release -> {
+                        buf.writeByte(RELEASE);
+                        buf.writeInt(release.requestId());
+                        buf.writeInt(release.lockId());
+                    }
+                    case LockOperation.Cancel cancel -> {
+                        buf.writeByte(CANCEL);
+                        buf.writeInt(cancel.requestId());
+                        buf.writeInt(cancel.acquireId());
+                    }
+                }
+            }
+            return writeLength(buf);
+        } catch (RuntimeException e) {
+            buf.release();
+            throw e;
+        }
+    }
+
+    static ByteBuf encode(ByteBufAllocator allocator, ReplyFrame frame) {
+        List<LockReply> replies = frame.replies();
+        int estimate = HEADER_LENGTH + 5 * replies.size();
+        ByteBuf buf = allocator.directBuffer(estimate);
+        try {
+            writeHeader(buf, replies.size());
+            for (LockReply reply : replies) {
+                buf.writeByte(reply.status().code());
+                buf.writeInt(reply.requestId());
+                if (reply.status() == LockReply.Status.ERROR) {
+                    String error = reply.error();
+                    writeString(buf, error.length() > MAX_ERROR_CHARS ? error.substring(0, MAX_ERROR_CHARS) : error);
+                }
+            }
+            return writeLength(buf);
+        } catch (RuntimeException e) {
+            buf.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @param buf a frame without its length field
+     */
+    static RequestFrame decodeRequest(ByteBuf buf) {
+        int count = readCount(buf);
+        List<LockOperation> operations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int type = buf.readUnsignedByte();
+            int requestId = buf.readInt();
+            operations.add(switch (type) {
+                case ACQUIRE -> {
+                    LockMode mode = switch (buf.readUnsignedByte()) {
+                        case EXCLUSIVE -> LockMode.EXCLUSIVE;
+                        case SHARED -> LockMode.SHARED;
+                        default -> throw new CorruptedFrameException("Unknown lock mode in request " + requestId);
+                    };
+                    int timeoutMillis = buf.readInt();
+                    String resourceKind = readString(buf);
+                    String resourceId = readString(buf);
+                    yield new LockOperation.Acquire(requestId, resourceKind, resourceId, mode, timeoutMillis);
+                }
+                case RELEASE -> new LockOperation.Release(requestId, buf.readInt());
+                case CANCEL -> new LockOperation.Cancel(requestId, buf.readInt());
+                default -> throw new CorruptedFrameException("Unknown operation type " + type);
+            });
+        }
+        checkConsumed(buf);
+        return new RequestFrame(operations);
+    }
+
+    /**
+     * @param buf a frame without its length field
+     */
+    static ReplyFrame decodeReply(ByteBuf buf) {
+        int count = readCount(buf);
+        List<LockReply> replies = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int code = buf.readUnsignedByte();
+            LockReply.Status status = LockReply.Status.ofCode(code);
+            if (status == null) {
+                throw new CorruptedFrameException("Unknown reply status " + code);
+            }
+            int requestId = buf.readInt();
+            replies.add(status == LockReply.Status.ERROR
+                    ? LockReply.error(requestId, readString(buf))
+                    : LockReply.of(requestId, status));
+        }
+        checkConsumed(buf);
+        return new ReplyFrame(replies);
+    }
+
+    private static void writeHeader(ByteBuf buf, int count) {
+        if (count > MAX_STRING_LENGTH) {
+            throw new EncoderException("Too many entries in one frame: " + count);
+        }
+        buf.writeInt(0);
+        buf.writeShort(count);
+    }
+
+    private static ByteBuf writeLength(ByteBuf buf) {
+        buf.setInt(0, buf.readableBytes() - LENGTH_FIELD_LENGTH);
+        return buf;
+    }
+
+    private static void writeString(ByteBuf buf, String value) {
+        int lengthIndex = buf.writerIndex();
+        buf.writeShort(0);
+        int length = ByteBufUtil.writeUtf8(buf, value);
+        if (length > MAX_STRING_LENGTH) {
+            throw new EncoderException("String of " + length + " bytes is too long for a frame");
+        }
+        buf.setShort(lengthIndex, length);
+    }
+
+    private static String readString(ByteBuf buf) {
+        int length = buf.readUnsignedShort();
+        if (length > buf.readableBytes()) {
+            throw new CorruptedFrameException("String of " + length + " bytes overruns the frame");
+        }
+        String value = buf.toString(buf.readerIndex(), length, StandardCharsets.UTF_8);
+        buf.skipBytes(length);
+        return value;
+    }
+
+    private static int readCount(ByteBuf buf) {
+        if (buf.readableBytes() < 2) {
+            throw new CorruptedFrameException("Frame too short");
+        }
+        return buf.readUnsignedShort();
+    }
+
+    private static void checkConsumed(ByteBuf buf) {
+        if (buf.isReadable()) {
+            throw new CorruptedFrameException(buf.readableBytes() + " trailing bytes in frame");
+        }
+    }
+}
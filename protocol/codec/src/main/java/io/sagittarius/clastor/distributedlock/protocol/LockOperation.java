@@ -0,0 +1,33 @@
+package io.sagittarius.clastor.distributedlock.protocol;
+
+import io.sagittarius.clastor.distributedlock.domain.LockMode;
+
+/**
+ * An operation of a request frame. Every operation carries a request id chosen by the client,
+ * unique among the operations of the connection still in flight, and echoed by its reply.
+ */
+public sealed interface LockOperation {
+
+    int requestId();
+
+    /**
+     * Acquires a lock. Once acquired, the lock is held by the connection under the request id of
+     * this operation until it is released or the connection closes.
+     *
+     * @param timeoutMillis how long the server waits for the lock, zero for a single attempt
+     */
+    record Acquire(int requestId, String resourceKind, String resourceId, LockMode mode, int timeoutMillis)
+            implements LockOperation {}
+
+    /**
+     * Releases the lock acquired by the operation {@code lockId}.
+     */
+    record Release(int requestId, int lockId) implements LockOperation {}
+
+    /**
+     * Abandons the pending acquisition {@code acquireId}, which is then answered with
+     * {@link LockReply.Status#CANCELLED}, or with {@link LockReply.Status#ACQUIRED} if it won the
+     * race. A cancel gets no reply of its own.
+     */
+    record Cancel(int requestId, int acquireId) implements LockOperation {}
+}
@@ -0,0 +1,51 @@
+package io.sagittarius.clastor.distributedlock.protocol;
+
+/**
+ * The reply to an operation.
+ *
+ * @param error the reason of an {@link Status#ERROR}, {@code null} otherwise
+ */
+public record LockReply(int requestId, Status status, String error) {
+
+    public static LockReply of(int requestId, Status status) {
+        return new LockReply(requestId, status, null);
+    }
+
+    public static LockReply error(int requestId, String error) {
+        return new LockReply(requestId, Status.ERROR, error != null ? error : "");
+    }
+
+    public enum Status {
+        ACQUIRED(1),
+        TIMEOUT(2),
+        CANCELLED(3),
+        RELEASED(4),
+        NOT_HELD(5),
+        // the operation failed on the server, the connection carries on
+        ERROR(6),
+        // given up at once, the predicted wait being far longer than the timeout
+        ESTIMATED_TIMEOUT(7);
+
+        private static final Status[] BY_CODE = new Status[8];
+
+        static {
+            for (Status status : values()) {
+                BY_CODE[status.code] = status;
+            }
+        }
+
+        private final int code;
+
+        Status(int code) {
+            this.code = code;
+        }
+
+        int code() {
+            return code;
+        }
+
+        static Status ofCode(int code) {
+            return code > 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package io.sagittarius.clastor.distributedlock.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageCodec;
+
+import java.util.List;
+
+/**
+ * Decodes request frames and encodes reply frames, behind {@link LockFrames#frameDecoder(int)}.
+ */
+public final class LockServerCodec extends MessageToMessageCodec<ByteBuf, ReplyFrame> {
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, ReplyFrame frame, List<Object> out) {
+        out.add(LockFrames.encode(ctx.alloc(), frame));
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf buf, List<Object> out) {
+        out.add(LockFrames.decodeRequest(buf));
+    }
+}
@@ -0,0 +1,8 @@
+package io.sagittarius.clastor.distributedlock.protocol;
+
+import java.util.List;
+
+/**
+ * A batch of replies sent in one frame, not necessarily to operations of the same request frame.
+ */
+public record ReplyFrame(List<LockReply> replies) {}
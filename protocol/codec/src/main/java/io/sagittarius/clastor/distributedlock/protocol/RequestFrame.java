@@ -0,0 +1,8 @@
+package io.sagittarius.clastor.distributedlock.protocol;
+
+import java.util.List;
+
+/**
+ * A batch of operations sent in one frame. They are started in order but complete in any order.
+ */
+public record RequestFrame(List<LockOperation> operations) {}
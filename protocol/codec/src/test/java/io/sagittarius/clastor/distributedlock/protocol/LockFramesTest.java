@@ -0,0 +1,152 @@
+package io.sagittarius.clastor.distributedlock.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.DecoderException;
+import io.netty.handler.codec.EncoderException;
+import io.sagittarius.clastor.distributedlock.domain.LockMode;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LockFramesTest {
+
+    private static EmbeddedChannel client() {
+        return new EmbeddedChannel(LockFrames.frameDecoder(LockFrames.DEFAULT_MAX_FRAME_LENGTH), new LockClientCodec());
+    }
+
+    private static EmbeddedChannel server() {
+        return new EmbeddedChannel(LockFrames.frameDecoder(LockFrames.DEFAULT_MAX_FRAME_LENGTH), new LockServerCodec());
+    }
+
+    /**
+     * Writes a frame on one side and reads what the other side decodes of it.
+     */
+    private static <T> T transfer(EmbeddedChannel from, EmbeddedChannel to, Object frame) {
+        assertTrue(from.writeOutbound(frame));
+        ByteBuf encoded = from.readOutbound();
+        assertTrue(to.writeInbound(encoded));
+        return to.readInbound();
+    }
+
+    @Test
+    void requestsSurviveTheRoundTrip() {
+        RequestFrame frame = new RequestFrame(List.of(
+                new LockOperation.Acquire(1, "orders", "1", LockMode.EXCLUSIVE, 0),
+                new LockOperation.Acquire(2, "commandes", "é-€-𝄞", LockMode.SHARED, Integer.MAX_VALUE),
+                new LockOperation.Release(3, 1),
+                new LockOperation.Cancel(-1, 2)));
+
+        assertEquals(frame, transfer(client(), server(), frame));
+    }
+
+    @Test
+    void repliesSurviveTheRoundTrip() {
+        ReplyFrame frame = new ReplyFrame(List.of(
+                LockReply.of(1, LockReply.Status.ACQUIRED),
+                LockReply.of(2, LockReply.Status.ESTIMATED_TIMEOUT),
+                LockReply.error(3, "backend unavailable"),
+                LockReply.error(4, null)));
+
+        ReplyFrame decoded = transfer(server(), client(), frame);
+        assertEquals(frame, decoded);
+        assertEquals("", decoded.replies().get(3).error());
+    }
+
+    @Test
+    void longErrorsAreTruncated() {
+        String error = "x".repeat(2000);
+        ReplyFrame decoded = transfer(server(), client(), new ReplyFrame(List.of(LockReply.error(1, error))));
+
+        assertEquals(error.substring(0, 512), decoded.replies().get(0).error());
+    }
+
+    @Test
+    void framesSplitAcrossReadsAreReassembled() {
+        EmbeddedChannel client = client();
+        EmbeddedChannel server = server();
+        RequestFrame first = new RequestFrame(List.of(new LockOperation.Acquire(1, "orders", "1", LockMode.EXCLUSIVE, 10)));
+        RequestFrame second = new RequestFrame(List.of(new LockOperation.Release(2, 1)));
+        client.writeOutbound(first, second);
+        ByteBuf stream = Unpooled.wrappedBuffer(client.<ByteBuf>readOutbound(), client.readOutbound());
+
+        // one byte at a time, the second frame starting in the middle of a read
+        while (stream.isReadable()) {
+            server.writeInbound(stream.readRetainedSlice(1));
+        }
+        stream.release();
+
+        assertEquals(first, server.readInbound());
+        assertEquals(second, server.readInbound());
+        assertNull(server.readInbound());
+    }
+
+    @Test
+    void emptyFramesAreValid() {
+        RequestFrame frame = new RequestFrame(List.of());
+
+        assertEquals(frame, transfer(client(), server(), frame));
+    }
+
+    @Test
+    void unknownOperationsCorruptTheFrame() {
+        EmbeddedChannel server = server();
+        ByteBuf frame = Unpooled.buffer().writeInt(7).writeShort(1).writeByte(0x09).writeInt(1);
+
+        DecoderException error = assertThrows(DecoderException.class, () -> server.writeInbound(frame));
+        assertTrue(error.getMessage().contains("Unknown operation type 9"), error.getMessage());
+    }
+
+    @Test
+    void unknownModesCorruptTheFrame() {
+        EmbeddedChannel server = server();
+        ByteBuf frame = Unpooled.buffer().writeInt(16).writeShort(1)
+                .writeByte(0x01).writeInt(1).writeByte(2).writeInt(0).writeShort(0).writeShort(0);
+
+        assertThrows(DecoderException.class, () -> server.writeInbound(frame));
+    }
+
+    @Test
+    void stringsOverrunningTheFrameCorruptIt() {
+        EmbeddedChannel server = server();
+        ByteBuf frame = Unpooled.buffer().writeInt(14).writeShort(1)
+                .writeByte(0x01).writeInt(1).writeByte(0).writeInt(0).writeShort(100);
+
+        DecoderException error = assertThrows(DecoderException.class, () -> server.writeInbound(frame));
+        assertTrue(error.getMessage().contains("overruns the frame"), error.getMessage());
+    }
+
+    @Test
+    void trailingBytesCorruptTheFrame() {
+        EmbeddedChannel client = client();
+        ByteBuf frame = Unpooled.buffer().writeInt(8).writeShort(1).writeByte(1).writeInt(1).writeByte(0);
+
+        DecoderException error = assertThrows(DecoderException.class, () -> client.writeInbound(frame));
+        assertTrue(error.getMessage().contains("1 trailing bytes"), error.getMessage());
+    }
+
+    @Test
+    void unknownReplyStatusesCorruptTheFrame() {
+        EmbeddedChannel client = client();
+        ByteBuf frame = Unpooled.buffer().writeInt(7).writeShort(1).writeByte(8).writeInt(1);
+
+        assertThrows(DecoderException.class, () -> client.writeInbound(frame));
+    }
+
+    @Test
+    void stringsTooLongForAFrameAreNotEncoded() {
+        EmbeddedChannel client = client();
+        RequestFrame frame = new RequestFrame(List.of(
+                new LockOperation.Acquire(1, "orders", "x".repeat(0x10000), LockMode.EXCLUSIVE, 0)));
+
+        assertThrows(EncoderException.class, () -> client.writeOutbound(frame));
+        assertFalse(client.outboundMessages().stream().anyMatch(ByteBuf.class::isInstance));
+    }
+}
@@ -0,0 +1,119 @@
+package io.sagittarius.clastor.distributedlock.protocol.server;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.MultiThreadIoEventLoopGroup;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.nio.NioIoHandler;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import io.sagittarius.clastor.distributedlock.domain.DistributedLockManager;
+import io.sagittarius.clastor.distributedlock.protocol.LockFrames;
+import io.sagittarius.clastor.distributedlock.protocol.LockServerCodec;
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the binary lock protocol described in {@link LockFrames} on top of any
+ * {@link DistributedLockManager}.
+ * <p>
+ * Locks belong to the connection that acquired them: closing the connection, for any reason,
+ * cancels its pending acquisitions and releases its locks. Closing the server closes every
+ * connection first, so it must happen before the manager itself is closed.
+ */
+@Slf4j
+public class BinaryLockServer implements AutoCloseable {
+
+    private final DistributedLockManager distributedLockManager;
+    private final BinaryLockServerConfig config;
+    private final ChannelGroup connections = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private volatile Channel serverChannel;
+
+    public BinaryLockServer(DistributedLockManager distributedLockManager, BinaryLockServerConfig config) {
+        this.distributedLockManager = distributedLockManager;
+        this.config = config;
+    }
+
+    public synchronized void start() throws InterruptedException {
+        if (serverChannel != null) {
+            return;
+        }
+
+        bossGroup = new MultiThreadIoEventLoopGroup(1, NioIoHandler.newFactory());
+        workerGroup = new MultiThreadIoEventLoopGroup(config.workerThreads(), NioIoHandler.newFactory());
+        ServerBootstrap bootstrap = new ServerBootstrap()
+                .group(bossGroup, workerGroup)
+                .channel(NioServerSocketChannel.class)
+                .option(ChannelOption.SO_REUSEADDR, true)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel channel) {
+                        connections.add(channel);
+                        channel.pipeline().addLast(
+                                LockFrames.frameDecoder(config.maxFrameLength()),
+                                new LockServerCodec(),
+                                new LockConnectionHandler(distributedLockManager));
+                    }
+                });
+
+        InetSocketAddress address = config.host() != null
+                ? new InetSocketAddress(config.host(), config.port())
+                : new InetSocketAddress(config.port());
+        try {
+            serverChannel = bootstrap.bind(address).sync().channel();
+        } catch (RuntimeException | InterruptedException e) {
+            shutdownGroups();
+            throw e;
+        }
+        log.info("Binary lock server started on port {}", port());
+    }
+
+    /**
+     * @return the bound port, useful when the configured one is {@code 0}
+     */
+    public int port() {
+        Channel channel = serverChannel;
+        if (channel == null) {
+            throw new IllegalStateException("Binary lock server is not running");
+        }
+        return ((InetSocketAddress) channel.localAddress()).getPort();
+    }
+
+    public boolean isRunning() {
+        return serverChannel != null;
+    }
+
+    @Override
+    public synchronized void close() {
+        Channel channel = serverChannel;
+        if (channel == null) {
+            return;
+        }
+        serverChannel = null;
+
+        channel.close().awaitUninterruptibly();
+        // the handlers release the locks of their connection on the way out
+        connections.close().awaitUninterruptibly();
+        shutdownGroups();
+        log.info("Binary lock server stopped");
+    }
+
+    private void shutdownGroups() {
+        long grace = config.shutdownGracePeriod().toMillis();
+        bossGroup.shutdownGracefully(0, grace, TimeUnit.MILLISECONDS);
+        workerGroup.shutdownGracefully(0, grace, TimeUnit.MILLISECONDS).awaitUninterruptibly(grace);
+    }
+}
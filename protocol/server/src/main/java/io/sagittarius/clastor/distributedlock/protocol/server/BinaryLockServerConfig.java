@@ -0,0 +1,18 @@
+package io.sagittarius.clastor.distributedlock.protocol.server;
+
+import java.time.Duration;
+
+/**
+ * @param host                the address to bind, {@code null} for all interfaces
+ * @param port                the port to bind, {@code 0} for an ephemeral one
+ * @param workerThreads       the number of event loop threads, {@code 0} for the Netty default
+ * @param maxFrameLength      the largest request frame accepted, larger ones close the connection
+ * @param shutdownGracePeriod how long the event loops are given to finish on close
+ */
+public record BinaryLockServerConfig(
+        String host,
+        int port,
+        int workerThreads,
+        int maxFrameLength,
+        Duration shutdownGracePeriod
+) {}
@@ -0,0 +1,222 @@
+package io.sagittarius.clastor.distributedlock.protocol.server;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.util.concurrent.EventExecutor;
+import io.sagittarius.clastor.distributedlock.domain.DistributedLock;
+import io.sagittarius.clastor.distributedlock.domain.DistributedLockManager;
+import io.sagittarius.clastor.distributedlock.domain.EstimatedTimeoutException;
+import io.sagittarius.clastor.distributedlock.domain.ResourceDrainingException;
+import io.sagittarius.clastor.distributedlock.protocol.LockFrames;
+import io.sagittarius.clastor.distributedlock.protocol.LockOperation;
+import io.sagittarius.clastor.distributedlock.protocol.LockReply;
+import io.sagittarius.clastor.distributedlock.protocol.ReplyFrame;
+import io.sagittarius.clastor.distributedlock.protocol.RequestFrame;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * One connection. Operations are started as they are decoded and answered as they complete.
+ * <p>
+ * Completions come from the threads of the lock manager and are handed back to the event loop
+ * of the channel, which owns all of the state below, so no locking is needed. Replies completed
+ * in the same turn of the loop go out together in a single frame.
+ */
+@Slf4j
+final class LockConnectionHandler extends SimpleChannelInboundHandler<RequestFrame> {
+
+    private final DistributedLockManager distributedLockManager;
+
+    // all confined to the event loop of the channel
+    private final Map<Integer, DistributedLock> held = new HashMap<>();
+    private final Map<Integer, CompletableFuture<Boolean>> pending = new HashMap<>();
+    private final List<LockReply> replies = new ArrayList<>();
+    private ChannelHandlerContext ctx;
+    private boolean closed;
+
+    LockConnectionHandler(DistributedLockManager distributedLockManager) {
+        this.distributedLockManager = distributedLockManager;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, RequestFrame frame) {
+        for (LockOperation operation : frame.operations()) {
+            switch (operation) {
+                case LockOperation.Acquire acquire -> acquire(acquire);
+                case LockOperation.Release release -> release(release);
+                case LockOperation.Cancel cancel -> cancel(cancel);
+            }
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        close();
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        log.debug("Closing binary lock connection {}: {}", ctx.channel().remoteAddress(), cause.toString());
+        ctx.close();
+    }
+
+    private void acquire(LockOperation.Acquire request) {
+        int requestId = request.requestId();
+        if (held.containsKey(requestId) || pending.containsKey(requestId)) {
+            reply(LockReply.error(requestId, "Request id " + requestId + " is already in use"));
+            return;
+        }
+        if (request.resourceKind().isEmpty() || request.resourceId().isEmpty()) {
+            reply(LockReply.error(requestId, "resourceKind and resourceId are required"));
+            return;
+        }
+
+        DistributedLock lock;
+        CompletableFuture<Boolean> acquisition;
+        try {
+            lock = distributedLockManager.lock(request.resourceKind(), request.resourceId(), request.mode());
+            acquisition = lock.tryLockAsync(Duration.ofMillis(Math.max(0, request.timeoutMillis())));
+        } catch (ResourceDrainingException e) {
+            // a rotation is under way, the caller retries
+            reply(LockReply.error(requestId, e.getMessage()));
+            return;
+        } catch (RuntimeException e) {
+            log.error("Failed to acquire {}/{} over the binary protocol", request.resourceKind(), request.resourceId(), e);
+            reply(LockReply.error(requestId, e.toString()));
+            return;
+        }
+
+        pending.put(requestId, acquisition);
+        acquisition.whenComplete((acquired, error) -> {
+            if (!onLoop(() -> acquired(request, lock, acquisition, acquired, error)) && Boolean.TRUE.equals(acquired)) {
+                lock.unlockAsync();
+            }
+        });
+    }
+
+    private void acquired(LockOperation.Acquire request, DistributedLock lock, CompletableFuture<Boolean> acquisition,
+                          Boolean acquired, Throwable error) {
+        int requestId = request.requestId();
+        pending.remove(requestId, acquisition);
+        if (closed) {
+            if (Boolean.TRUE.equals(acquired)) {
+                lock.unlockAsync();
+            }
+            return;
+        }
+
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (Boolean.TRUE.equals(acquired)) {
+            held.put(requestId, lock);
+            reply(LockReply.of(requestId, LockReply.Status.ACQUIRED));
+        } else if (error instanceof CancellationException) {
+            reply(LockReply.of(requestId, LockReply.Status.CANCELLED));
+        } else if (cause instanceof EstimatedTimeoutException) {
+            reply(LockReply.of(requestId, LockReply.Status.ESTIMATED_TIMEOUT));
+        } else if (error != null) {
+            log.error("Failed to acquire {}/{} over the binary protocol", request.resourceKind(), request.resourceId(), error);
+            reply(LockReply.error(requestId, error.toString()));
+        } else {
+            reply(LockReply.of(requestId, LockReply.Status.TIMEOUT));
+        }
+    }
+
+    private void release(LockOperation.Release request) {
+        int requestId = request.requestId();
+        DistributedLock lock = held.remove(request.lockId());
+        if (lock == null) {
+            reply(LockReply.of(requestId, LockReply.Status.NOT_HELD));
+            return;
+        }
+
+        lock.unlockAsync().whenComplete((ignored, error) -> onLoop(() -> reply(error != null
+                ? LockReply.error(requestId, error.toString())
+                : LockReply.of(requestId, LockReply.Status.RELEASED))));
+    }
+
+    private void cancel(LockOperation.Cancel request) {
+        CompletableFuture<Boolean> acquisition = pending.get(request.acquireId());
+        if (acquisition != null) {
+            acquisition.cancel(false);
+        }
+    }
+
+    /**
+     * Cancels the pending acquisitions and releases the held locks of the connection.
+     */
+    private void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        List<CompletableFuture<Boolean>> cancelled = new ArrayList<>(pending.values());
+        List<DistributedLock> released = new ArrayList<>(held.values());
+        pending.clear();
+        held.clear();
+        replies.clear();
+
+        cancelled.forEach(acquisition -> acquisition.cancel(false));
+        if (!released.isEmpty()) {
+            log.debug("Binary lock connection closed, releasing {} locks", released.size());
+        }
+        released.forEach(DistributedLock::unlockAsync);
+    }
+
+    private void reply(LockReply reply) {
+        if (closed) {
+            return;
+        }
+        replies.add(reply);
+        if (replies.size() == 1) {
+            // runs after whatever else is already queued on the loop, which may add to the batch
+            ctx.executor().execute(this::flushReplies);
+        }
+    }
+
+    private void flushReplies() {
+        if (replies.isEmpty()) {
+            return;
+        }
+        for (int from = 0; from < replies.size(); from += LockFrames.MAX_ENTRIES_PER_FRAME) {
+            int to = Math.min(replies.size(), from + LockFrames.MAX_ENTRIES_PER_FRAME);
+            ctx.write(new ReplyFrame(List.copyOf(replies.subList(from, to))));
+        }
+        replies.clear();
+        ctx.flush();
+    }
+
+    /**
+     * Runs the task on the event loop of the channel.
+     *
+     * @return {@code false} if the loop is already shut down and the task will never run
+     */
+    private boolean onLoop(Runnable task) {
+        EventExecutor executor = ctx.executor();
+        if (executor.inEventLoop()) {
+            task.run();
+            return true;
+        }
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+}
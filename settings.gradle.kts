@@ -6,3 +6,15 @@ include("adapter:curator")
 findProject(":adapter:curator")?.name = "curator"
 include("adapter:zookeeper")
 findProject(":adapter:zookeeper")?.name = "zookeeper"
+include("adapter:inmemory")
+findProject(":adapter:inmemory")?.name = "inmemory"
+include("adapter:sharded")
+findProject(":adapter:sharded")?.name = "sharded"
+include("benchmarks")
+include("protocol")
+include("protocol:codec")
+findProject(":protocol:codec")?.name = "codec"
+include("protocol:server")
+findProject(":protocol:server")?.name = "server"
+include("protocol:client")
+findProject(":protocol:client")?.name = "client"